@@ -0,0 +1,267 @@
+package enigma;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.error;
+
+/** Converts many message files in one process.  A manifest lists the
+ *  jobs, one per line, as
+ *
+ *      CONFIG INPUT OUTPUT [* SETTINGS]
+ *
+ *  where the optional settings line, if present, configures the machine
+ *  before INPUT is read (so that INPUT need not begin with settings).
+ *  Relative file names are relative to the manifest's directory; blank
+ *  lines and lines beginning with '#' are ignored.  Each configuration is
+ *  parsed once and shared by the jobs that name it, which run
+ *  concurrently on a fixed number of threads.  A job that fails does not
+ *  affect the others; failures are listed in the report.
+ *  @author Aadiraj Batlaw
+ */
+class Batch {
+
+    /** A batch of the jobs listed in MANIFEST, whose message text is
+     *  normalised with POLICY, preserving case iff PRESERVECASE. */
+    Batch(File manifest, Transcoder.Policy policy, boolean preserveCase) {
+        _manifest = manifest;
+        _policy = policy;
+        _preserveCase = preserveCase;
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(manifest.toPath(),
+                                       StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not open %s", manifest);
+        }
+        File dir = manifest.getAbsoluteFile().getParentFile();
+        for (int i = 0; i < lines.size(); i += 1) {
+            String line = lines.get(i).trim();
+            if (line.isEmpty() || line.startsWith("#")) {
+                continue;
+            }
+            String[] words = line.split("\\s+", 4);
+            if (words.length < 3
+                || words.length == 4 && !words[3].startsWith("*")) {
+                throw error("%s:%d: expected CONFIG INPUT OUTPUT [* SETTINGS]",
+                            manifest, i + 1);
+            }
+            _jobs.add(new Job(i + 1, resolve(dir, words[0]),
+                              resolve(dir, words[1]), resolve(dir, words[2]),
+                              words.length == 4 ? words[3] : null));
+        }
+    }
+
+    /** Run all of my jobs on THREADS threads, printing a report of any
+     *  failures and a summary on REPORT.  Return the number of jobs that
+     *  failed. */
+    int run(int threads, PrintStream report) {
+        long start = System.nanoTime();
+        _threads = threads;
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (Job job : _jobs) {
+            executor.execute(job::run);
+        }
+        executor.shutdown();
+        try {
+            while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+                continue;
+            }
+        } catch (InterruptedException excp) {
+            executor.shutdownNow();
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+        int failures = 0;
+        long messages = 0;
+        for (Job job : _jobs) {
+            if (job._failure != null) {
+                failures += 1;
+                report.printf("%s:%d: %s: %s%n", _manifest, job._line,
+                              job._input, job._failure);
+            }
+            messages += job._messages;
+        }
+        report.printf("%d files: %d converted, %d failed, %d message lines"
+                      + " in %.1f s on %d threads%n", _jobs.size(),
+                      _jobs.size() - failures, failures, messages,
+                      (System.nanoTime() - start) / 1e9, threads);
+        report.flush();
+        return failures;
+    }
+
+    /** Return the number of my jobs. */
+    int size() {
+        return _jobs.size();
+    }
+
+    /** Return the file NAME, relative to DIR unless absolute. */
+    private static File resolve(File dir, String name) {
+        File file = new File(name);
+        return file.isAbsolute() ? file : new File(dir, name);
+    }
+
+    /** Return the parsed configuration in FILE, parsing it if this is
+     *  its first use. */
+    private Config config(File file) {
+        return _configs.computeIfAbsent(file.getAbsolutePath(), Config::new);
+    }
+
+    /** A configuration shared by jobs. */
+    private final class Config {
+
+        /** The configuration in the file named NAME, or the error found
+         *  in it. */
+        Config(String name) {
+            MachinePool pool = null;
+            Transcoder transcoder = null;
+            EnigmaException failure = null;
+            try {
+                ConfigParser parser = new ConfigParser(name);
+                Machine machine = parser.parse();
+                pool = new MachinePool(machine, _threads, KEY_CACHE);
+                transcoder = new Transcoder(parser.alphabet(), _policy,
+                                            _preserveCase);
+            } catch (EnigmaException excp) {
+                failure = excp;
+            }
+            _pool = pool;
+            _transcoder = transcoder;
+            _failure = failure;
+        }
+
+        /** Machines built from the configuration, and their keys. */
+        private final MachinePool _pool;
+
+        /** Converter of message lines. */
+        private final Transcoder _transcoder;
+
+        /** The error in the configuration, if any. */
+        private final EnigmaException _failure;
+    }
+
+    /** One line of the manifest. */
+    private final class Job {
+
+        /** The job on line LINE of the manifest, converting INPUT to
+         *  OUTPUT with configuration CONFIG and initial settings SETTINGS
+         *  (null if none). */
+        Job(int line, File config, File input, File output,
+            String settings) {
+            _line = line;
+            _config = config;
+            _input = input;
+            _output = output;
+            _settings = settings;
+        }
+
+        /** Convert my input, recording any failure. */
+        void run() {
+            try {
+                Config config = config(_config);
+                if (config._failure != null) {
+                    throw config._failure;
+                }
+                Machine machine = config._pool.lease();
+                try {
+                    convert(config, machine);
+                } finally {
+                    config._pool.release(machine);
+                }
+            } catch (EnigmaException excp) {
+                _failure = excp.getMessage();
+            } catch (RuntimeException excp) {
+                _failure = excp.toString();
+            }
+        }
+
+        /** Convert my input with MACHINE, built from CONFIG. */
+        private void convert(Config config, Machine machine) {
+            try (InputStream in = new FileInputStream(_input);
+                 PrintStream out = new PrintStream(new BufferedOutputStream(
+                     new FileOutputStream(_output), OUTPUT_BUFFER))) {
+                MessageLexer lexer =
+                    new MessageLexer(new LineReader(in), machine);
+                Session session = new Session(lexer, machine, config._pool,
+                                              config._transcoder, out);
+                if (_settings != null) {
+                    lexer.settings(_settings);
+                    session.setUp();
+                } else {
+                    session.start();
+                }
+                long messages = 0;
+                while (session.step()) {
+                    messages += 1;
+                }
+                _messages = messages;
+                out.flush();
+                if (out.checkError()) {
+                    throw error("could not write %s", _output);
+                }
+            } catch (IOException excp) {
+                throw error("could not open %s", excp.getMessage());
+            }
+        }
+
+        /** Line of the manifest. */
+        private final int _line;
+
+        /** Configuration file. */
+        private final File _config;
+
+        /** Message file. */
+        private final File _input;
+
+        /** Output file. */
+        private final File _output;
+
+        /** Initial settings line, or null. */
+        private final String _settings;
+
+        /** Number of message lines converted. */
+        private volatile long _messages;
+
+        /** Description of the error that stopped the job, or null. */
+        private volatile String _failure;
+    }
+
+    /** Number of compiled keys kept for each configuration. */
+    private static final int KEY_CACHE = 256;
+
+    /** Size of each job's output buffer. */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+
+    /** The manifest. */
+    private final File _manifest;
+
+    /** Treatment of characters outside the alphabet. */
+    private final Transcoder.Policy _policy;
+
+    /** True if converted characters keep the case of their input. */
+    private final boolean _preserveCase;
+
+    /** The jobs, in manifest order. */
+    private final ArrayList<Job> _jobs = new ArrayList<>();
+
+    /** Parsed configurations, by absolute file name. */
+    private final ConcurrentHashMap<String, Config> _configs =
+        new ConcurrentHashMap<>();
+
+    /** Number of threads running jobs. */
+    private int _threads;
+
+}
@@ -0,0 +1,118 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+
+public class BatchTest {
+
+    /** Directory of the test inputs and expected outputs. */
+    private static final Path CORRECT = new File("testing/correct").toPath();
+
+    /** Write TEXT to FILE. */
+    private void write(Path file, String text) throws IOException {
+        Files.write(file, text.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /** Return the contents of FILE. */
+    private String read(Path file) throws IOException {
+        return new String(Files.readAllBytes(file), StandardCharsets.UTF_8);
+    }
+
+    /** Return a new temporary directory holding default.conf and
+     *  carroll1.inp from the test inputs. */
+    private Path directory() throws IOException {
+        Path dir = Files.createTempDirectory("enigma");
+        dir.toFile().deleteOnExit();
+        for (String name : new String[] {"default.conf", "carroll1.inp"}) {
+            Files.copy(CORRECT.resolve(name), dir.resolve(name));
+        }
+        return dir;
+    }
+
+    /** Arrange for the files in DIR to be deleted on exit. */
+    private void cleanUp(Path dir) {
+        for (File file : dir.toFile().listFiles()) {
+            file.deleteOnExit();
+        }
+    }
+
+    @Test
+    public void testJobs() throws IOException {
+        Path dir = directory();
+        List<String> carroll =
+            Files.readAllLines(dir.resolve("carroll1.inp"));
+        String settings = carroll.get(0);
+        write(dir.resolve("body.inp"),
+              String.join("\n", carroll.subList(1, carroll.size())) + "\n");
+        write(dir.resolve("bad.conf"), "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 5 3\n"
+              + " I MQ (AELT\n");
+        write(dir.resolve("misnamed.inp"), "* B BETA III IV IX AXLE\nHI\n");
+        write(dir.resolve("manifest"),
+              "# conversions\n"
+              + "default.conf carroll1.inp one.out\n"
+              + "\n"
+              + "default.conf missing.inp two.out\n"
+              + "  default.conf body.inp three.out " + settings + "\n"
+              + "bad.conf carroll1.inp four.out\n"
+              + dir.resolve("default.conf") + " misnamed.inp five.out\n"
+              + "default.conf carroll1.inp six.out\n");
+        Batch batch = new Batch(dir.resolve("manifest").toFile(),
+                                Transcoder.Policy.ERROR, false);
+        assertEquals(6, batch.size());
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        int failures = batch.run(3, new PrintStream(bytes, true));
+        cleanUp(dir);
+        String report = bytes.toString();
+        assertEquals(report, 3, failures);
+        String expected = read(CORRECT.resolve("carroll1.out"));
+        assertEquals(expected, read(dir.resolve("one.out")));
+        assertEquals(expected, read(dir.resolve("three.out")));
+        assertEquals(expected, read(dir.resolve("six.out")));
+        String manifest = dir.resolve("manifest").toString();
+        assertTrue(report, report.contains(manifest + ":4: "));
+        assertTrue(report, report.contains(manifest + ":6: "));
+        assertTrue(report, report.contains("unclosed cycle"));
+        assertTrue(report, report.contains(manifest + ":7: "));
+        assertTrue(report, report.contains("Rotors misnamed"));
+        assertFalse(report, report.contains(manifest + ":2: "));
+        assertTrue(report, report.contains("6 files: 3 converted, 3 failed"));
+    }
+
+    @Test
+    public void testBadManifest() throws IOException {
+        Path dir = directory();
+        String[] bad = {
+            "default.conf carroll1.inp\n",
+            "# comment\ndefault.conf carroll1.inp out B BETA III IV I AXLE\n"
+        };
+        for (String text : bad) {
+            write(dir.resolve("manifest"), text);
+            try {
+                new Batch(dir.resolve("manifest").toFile(),
+                          Transcoder.Policy.ERROR, false);
+                fail("accepted manifest " + text);
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage(), excp.getMessage().contains(
+                    String.format("manifest:%d:", text.split("\n").length)));
+            }
+        }
+        cleanUp(dir);
+        try {
+            new Batch(dir.resolve("none").toFile(), Transcoder.Policy.ERROR,
+                      false);
+            fail("read a missing manifest");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
@@ -0,0 +1,202 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+import java.util.zip.CRC32;
+
+import static enigma.EnigmaException.error;
+
+/** The state of a partially completed run of Main: enough to reopen the
+ *  input and output files where processing stopped, at a line boundary
+ *  or between two pieces of a long message line, and to restore the
+ *  machine to the state it had there.
+ *  @author Aadiraj Batlaw
+ */
+class Checkpoint {
+
+    /** A checkpoint for the configuration with identifier CONFIGID, whose
+     *  machine holds the rotors named ROTORS at POSITIONS with ring
+     *  settings RINGS and plugboard PLUGBOARD, having consumed INPUTOFFSET
+     *  bytes of input and written OUTPUTOFFSET bytes of output, and having
+     *  converted COLUMN characters of a message line that continues in
+     *  the input, or with COLUMN -1 at a line boundary. */
+    Checkpoint(long configId, String rotors, String positions, String rings,
+               String plugboard, long inputOffset, long outputOffset,
+               long column) {
+        _configId = configId;
+        _rotors = rotors;
+        _positions = positions;
+        _rings = rings;
+        _plugboard = plugboard;
+        _inputOffset = inputOffset;
+        _outputOffset = outputOffset;
+        _column = column;
+    }
+
+    /** Return the identifier of the configuration file named NAME. */
+    static long configId(String name) {
+        try {
+            CRC32 crc = new CRC32();
+            crc.update(Files.readAllBytes(new File(name).toPath()));
+            return crc.getValue();
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return the checkpoint stored in FILE. */
+    static Checkpoint read(File file) {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(file.toPath(), StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not read checkpoint %s", file);
+        }
+        if (lines.size() != FIELDS.length + 1 || !lines.get(0).equals(MAGIC)) {
+            throw error("malformed checkpoint %s", file);
+        }
+        String[] values = new String[FIELDS.length];
+        for (int i = 0; i < FIELDS.length; i += 1) {
+            String line = lines.get(i + 1);
+            if (!line.startsWith(FIELDS[i] + " ")) {
+                throw error("malformed checkpoint %s", file);
+            }
+            values[i] = line.substring(FIELDS[i].length() + 1);
+        }
+        try {
+            return new Checkpoint(Long.parseLong(values[0], 16), values[1],
+                                  values[2], values[3], values[4],
+                                  Long.parseLong(values[5]),
+                                  Long.parseLong(values[6]),
+                                  Long.parseLong(values[7]));
+        } catch (NumberFormatException excp) {
+            throw error("malformed checkpoint %s", file);
+        }
+    }
+
+    /** Durably replace the contents of FILE with this checkpoint. */
+    void write(File file) {
+        writeDurably(file, String.format("%s%n%s %x%n%s %s%n%s %s%n%s %s%n"
+                                         + "%s %s%n%s %d%n%s %d%n%s %d%n",
+                                         MAGIC,
+                                         FIELDS[0], _configId,
+                                         FIELDS[1], _rotors,
+                                         FIELDS[2], _positions,
+                                         FIELDS[3], _rings,
+                                         FIELDS[4], _plugboard,
+                                         FIELDS[5], _inputOffset,
+                                         FIELDS[6], _outputOffset,
+                                         FIELDS[7], _column));
+    }
+
+    /** Replace the contents of FILE with TEXT so that either the old or
+     *  the new contents survive a crash: TEXT is written to a temporary
+     *  file and forced to disk before being renamed over FILE. */
+    static void writeDurably(File file, String text) {
+        Path target = file.toPath().toAbsolutePath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try (FileChannel out =
+                 FileChannel.open(temp, StandardOpenOption.CREATE,
+                                  StandardOpenOption.WRITE,
+                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer bytes =
+                ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+            out.force(true);
+        } catch (IOException excp) {
+            throw error("could not write %s", temp);
+        }
+        try {
+            Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                       StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException excp) {
+            throw error("could not write %s", target);
+        }
+    }
+
+    /** Return the identifier of the configuration I was taken under. */
+    long configId() {
+        return _configId;
+    }
+
+    /** Return the names of the inserted rotors, separated by blanks. */
+    String rotors() {
+        return _rotors;
+    }
+
+    /** Return the rotor positions, as for Machine.setRotors. */
+    String positions() {
+        return _positions;
+    }
+
+    /** Return the ring settings, as for Machine.setRotors. */
+    String rings() {
+        return _rings;
+    }
+
+    /** Return the plugboard cycles. */
+    String plugboard() {
+        return _plugboard;
+    }
+
+    /** Return the number of input bytes consumed. */
+    long inputOffset() {
+        return _inputOffset;
+    }
+
+    /** Return the number of output bytes written. */
+    long outputOffset() {
+        return _outputOffset;
+    }
+
+    /** Return the number of characters converted of the message line
+     *  that continues at inputOffset(), or -1 if that is the start of a
+     *  line. */
+    long column() {
+        return _column;
+    }
+
+    /** First line of every checkpoint file. */
+    private static final String MAGIC = "enigma-checkpoint 3";
+
+    /** Keys of the checkpoint fields, in order. */
+    private static final String[] FIELDS = {
+        "config", "rotors", "positions", "rings", "plugboard", "input",
+        "output", "column"
+    };
+
+    /** CRC of the configuration file. */
+    private final long _configId;
+
+    /** Rotor names. */
+    private final String _rotors;
+
+    /** Rotor positions. */
+    private final String _positions;
+
+    /** Ring settings. */
+    private final String _rings;
+
+    /** Plugboard cycles. */
+    private final String _plugboard;
+
+    /** Input offset. */
+    private final long _inputOffset;
+
+    /** Output offset. */
+    private final long _outputOffset;
+
+    /** Characters converted of the current message line, or -1. */
+    private final long _column;
+
+}
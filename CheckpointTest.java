@@ -0,0 +1,186 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+public class CheckpointTest {
+
+    /** Return a new empty temporary file, deleted on exit. */
+    private File temp() throws IOException {
+        File file = File.createTempFile("enigma", ".ckpt");
+        file.deleteOnExit();
+        return file;
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File file = temp();
+        new Checkpoint(0xdeadbeefL, "B BETA III IV I", "AXLE", "AAAB",
+                       "(HQ) (EX)", 12345, 678, -1).write(file);
+        Checkpoint ckpt = Checkpoint.read(file);
+        assertEquals(0xdeadbeefL, ckpt.configId());
+        assertEquals("B BETA III IV I", ckpt.rotors());
+        assertEquals("AXLE", ckpt.positions());
+        assertEquals("AAAB", ckpt.rings());
+        assertEquals("(HQ) (EX)", ckpt.plugboard());
+        assertEquals(12345, ckpt.inputOffset());
+        assertEquals(678, ckpt.outputOffset());
+        assertEquals(-1, ckpt.column());
+        new Checkpoint(1, "B I II III", "ABC", "AAA", "", 1, 2, 7).write(file);
+        assertEquals(1, Checkpoint.read(file).inputOffset());
+        assertEquals("", Checkpoint.read(file).plugboard());
+        assertEquals(7, Checkpoint.read(file).column());
+        assertFalse(new File(file.getPath() + ".tmp").exists());
+    }
+
+    @Test
+    public void testMalformed() throws IOException {
+        File file = temp();
+        new Checkpoint(1, "B I II III", "ABC", "AAA", "", 10, 20, -1)
+            .write(file);
+        String good = new String(Files.readAllBytes(file.toPath()),
+                                 StandardCharsets.UTF_8);
+        String[] bad = {
+            "",
+            good.replace("enigma-checkpoint", "enigma-checkpnt"),
+            good.replace("input 10", "input ten"),
+            good.replace("rotors ", "rotor "),
+            good.substring(0, good.indexOf("output")),
+            good + "extra\n"
+        };
+        for (String text : bad) {
+            Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+            try {
+                Checkpoint.read(file);
+                fail("accepted malformed checkpoint: " + text);
+            } catch (EnigmaException excp) {
+                assertTrue(excp.getMessage().startsWith("malformed"));
+            }
+        }
+    }
+
+    @Test
+    public void testConfigId() throws IOException {
+        File file = temp();
+        Files.write(file.toPath(), "AZ\n 5 3\n".getBytes());
+        long id = Checkpoint.configId(file.getPath());
+        assertEquals(id, Checkpoint.configId(file.getPath()));
+        Files.write(file.toPath(), "AZ\n 5 2\n".getBytes());
+        assertNotEquals(id, Checkpoint.configId(file.getPath()));
+        assertTrue(file.delete());
+        try {
+            Checkpoint.configId(file.getPath());
+            fail("identified a missing file");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+
+    /** Return a lexer for machine M of the messages in INPUT[START ..],
+     *  which begin at offset START of the input and are read in pieces of
+     *  PIECE bytes. */
+    private MessageLexer lexer(byte[] input, int start, int piece,
+                               Machine M) {
+        return new MessageLexer(new LineReader(
+            new ByteArrayInputStream(input, start, input.length - start),
+            start, piece), M);
+    }
+
+    /** Return a session converting the messages read by INPUT with
+     *  machine M, printing on OUTPUT. */
+    private Session session(MessageLexer input, Machine M,
+                            PrintStream output) {
+        return new Session(input, M, new MachinePool(M, 1, 4),
+                           new Transcoder(UPPER, Transcoder.Policy.ERROR,
+                                          false),
+                           output);
+    }
+
+    /** Return the settings line that restores the rotors of M, with
+     *  plugboard cycles PLUGS, as Main writes them to checkpoints. */
+    private String settings(Machine M, String plugs) {
+        Rotor[] slots = M.getRotorSlots();
+        StringBuilder names = new StringBuilder("*");
+        StringBuilder positions = new StringBuilder();
+        StringBuilder rings = new StringBuilder();
+        for (int i = 0; i < slots.length; i += 1) {
+            names.append(' ').append(slots[i].name());
+            if (i > 0) {
+                positions.append(UPPER.toChar(slots[i].setting()));
+                rings.append(UPPER.toChar(slots[i].ring()));
+            }
+        }
+        return String.format("%s %s %s %s", names, positions, rings, plugs);
+    }
+
+    @Test
+    public void testResumeWithinLine() {
+        Random random = new Random(0);
+        StringBuilder text = new StringBuilder("* B I II III QEV CBA (AB)\n");
+        for (int i = 0; i < 300; i += 1) {
+            text.append((char) ('A' + random.nextInt(26)));
+            if (random.nextInt(4) == 0) {
+                text.append(' ');
+            }
+        }
+        text.append("\nSHORT LINE\n* B III II I AAA (AB)\nLAST\n");
+        byte[] input = text.toString().getBytes(StandardCharsets.UTF_8);
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        Machine machine = navalMachine();
+        Session whole = session(lexer(input, 0, 0, machine), machine,
+                                new PrintStream(bytes, true));
+        whole.start();
+        while (whole.step()) {
+            assertEquals(-1, whole.column());
+        }
+        String expected = bytes.toString();
+
+        int withinLine = 0;
+        for (int stop = 1; ; stop += 1) {
+            bytes = new ByteArrayOutputStream();
+            PrintStream output = new PrintStream(bytes, true);
+            machine = navalMachine();
+            MessageLexer input1 = lexer(input, 0, 16, machine);
+            Session first = session(input1, machine, output);
+            first.start();
+            boolean more = true;
+            for (int k = 0; k < stop && more; k += 1) {
+                more = first.step();
+            }
+            if (!more) {
+                assertEquals(expected, bytes.toString());
+                assertTrue("long line not split", withinLine > 15);
+                break;
+            }
+            long column = first.column();
+            machine = navalMachine();
+            MessageLexer input2 =
+                lexer(input, (int) input1.offset(), 16, machine);
+            Session rest = session(input2, machine, output);
+            input2.settings(settings(first.machine(), "(AB)"));
+            rest.setUp();
+            if (column >= 0) {
+                rest.resumeLine(column);
+                withinLine += 1;
+            }
+            while (rest.step()) {
+                continue;
+            }
+            assertEquals(msg("resume", "after %d steps", stop),
+                         expected, bytes.toString());
+        }
+    }
+}
@@ -0,0 +1,402 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.error;
+
+/** Statistics of the ciphertext in a message file: the frequencies of
+ *  single characters and of pairs of adjacent characters, the index of
+ *  coincidence, the distances between repeated trigrams (as in Kasiski's
+ *  method) and the lengths of the messages.  A message is the text of
+ *  the message lines following one settings line, counting only the
+ *  characters in the alphabet (in either case); pairs and trigrams do
+ *  not span messages.  All are kept in histograms of fixed size, so
+ *  that statistics take the same space however much text they cover.
+ *  Pairs are not kept for alphabets with more than MAX_BIGRAM_ALPHABET
+ *  characters, nor trigram distances for those with more than
+ *  MAX_TRIGRAM_ALPHABET.
+ *  @author Aadiraj Batlaw
+ */
+class CipherStats {
+
+    /** Empty statistics over ALPHABET. */
+    CipherStats(Alphabet alphabet) {
+        _alphabet = alphabet;
+        int size = alphabet.size();
+        _letters = new long[size];
+        _bigrams = size <= MAX_BIGRAM_ALPHABET ? new long[size * size]
+            : null;
+        _repeats = size <= MAX_TRIGRAM_ALPHABET ? new long[MAX_DISTANCE + 1]
+            : null;
+        _lengths = new long[Long.SIZE + 1];
+    }
+
+    /** Return the statistics of the message file FILE, whose settings
+     *  lines are checked against machine M, gathered from about CHUNKS
+     *  parts of the file (each a run of whole messages) on THREADS
+     *  threads. */
+    static CipherStats collect(File file, Machine M, int chunks,
+                               int threads) {
+        long[] bounds = split(file, chunks);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<CipherStats>> parts = new ArrayList<>();
+            for (int k = 0; k + 1 < bounds.length; k += 1) {
+                long start = bounds[k], end = bounds[k + 1];
+                parts.add(executor.submit(() -> scan(file, M, start, end)));
+            }
+            CipherStats result = new CipherStats(M.alphabet());
+            for (Future<CipherStats> part : parts) {
+                result.merge(part.get());
+            }
+            return result;
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("could not gather statistics: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Add the statistics in OTHER to mine. */
+    void merge(CipherStats other) {
+        add(_letters, other._letters);
+        if (_bigrams != null) {
+            add(_bigrams, other._bigrams);
+        }
+        if (_repeats != null) {
+            add(_repeats, other._repeats);
+            _farRepeats += other._farRepeats;
+        }
+        add(_lengths, other._lengths);
+        _messages += other._messages;
+        _characters += other._characters;
+        _skipped += other._skipped;
+        _shortest = Math.min(_shortest, other._shortest);
+        _longest = Math.max(_longest, other._longest);
+    }
+
+    /** Return the number of characters counted. */
+    long characters() {
+        return _characters;
+    }
+
+    /** Return the number of messages. */
+    long messages() {
+        return _messages;
+    }
+
+    /** Return the index of coincidence of the characters counted: the
+     *  probability that two of them drawn at random are the same. */
+    double indexOfCoincidence() {
+        if (_characters < 2) {
+            return 0.0;
+        }
+        double pairs = 0.0;
+        for (long n : _letters) {
+            pairs += (double) n * (n - 1);
+        }
+        return pairs / ((double) _characters * (_characters - 1));
+    }
+
+    /** Print a report on OUT, one statistic per line: its name followed
+     *  by its value, or by the character, pair, distance or length bucket
+     *  it applies to and a count.  A length bucket B counts the messages
+     *  whose lengths have B binary digits.  Only nonzero counts of pairs,
+     *  distances and buckets are listed. */
+    void report(PrintStream out) {
+        int size = _alphabet.size();
+        out.printf("characters %d%n", _characters);
+        out.printf("skipped %d%n", _skipped);
+        out.printf("messages %d%n", _messages);
+        if (_messages > 0) {
+            out.printf("length.min %d%n", _shortest);
+            out.printf("length.max %d%n", _longest);
+            out.printf("length.mean %.3f%n",
+                       (double) _characters / _messages);
+        }
+        for (int b = 0; b < _lengths.length; b += 1) {
+            if (_lengths[b] > 0) {
+                out.printf("length.bits %d %d%n", b, _lengths[b]);
+            }
+        }
+        out.printf("ic %.6f%n", indexOfCoincidence());
+        out.printf("ic.normalized %.4f%n", indexOfCoincidence() * size);
+        for (int c = 0; c < size; c += 1) {
+            out.printf("letter %c %d%n", _alphabet.toChar(c), _letters[c]);
+        }
+        for (int p = 0; _bigrams != null && p < _bigrams.length; p += 1) {
+            if (_bigrams[p] > 0) {
+                out.printf("bigram %c%c %d%n", _alphabet.toChar(p / size),
+                           _alphabet.toChar(p % size), _bigrams[p]);
+            }
+        }
+        if (_repeats != null) {
+            for (int d = 1; d <= MAX_DISTANCE; d += 1) {
+                if (_repeats[d] > 0) {
+                    out.printf("repeat %d %d%n", d, _repeats[d]);
+                }
+            }
+            out.printf("repeat.farther %d%n", _farRepeats);
+        }
+        out.flush();
+    }
+
+    /** Return the offsets in FILE at which to start each of about CHUNKS
+     *  parts, followed by the file's size.  Every part but the first
+     *  begins with a settings line, as the first must. */
+    private static long[] split(File file, int chunks) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            long size = in.size();
+            chunks = (int) Math.max(1, Math.min(chunks, size / MIN_CHUNK));
+            long[] bounds = new long[chunks + 1];
+            int n = 1;
+            for (int k = 1; k < chunks; k += 1) {
+                long target = Math.max(size * k / chunks, bounds[n - 1]);
+                long bound = nextSettings(in, target);
+                if (bound > bounds[n - 1] && bound < size) {
+                    bounds[n] = bound;
+                    n += 1;
+                }
+            }
+            bounds[n] = size;
+            long[] result = new long[n + 1];
+            System.arraycopy(bounds, 0, result, 0, n + 1);
+            return result;
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Return the offset of the first settings line in IN that begins
+     *  after offset TARGET, or the size of IN if there is none. */
+    private static long nextSettings(FileChannel in, long target)
+        throws IOException {
+        LineReader lines =
+            new LineReader(Channels.newInputStream(in.position(target)),
+                           target);
+        lines.readLine();
+        while (true) {
+            long offset = lines.offset();
+            String line = lines.readLine();
+            if (line == null) {
+                return in.size();
+            }
+            if (MessageLexer.isSettings(line)) {
+                return offset;
+            }
+        }
+    }
+
+    /** Return the statistics of the messages in FILE from offset START
+     *  to offset END, which is at the start of a line, checking settings
+     *  lines against M. */
+    private static CipherStats scan(File file, Machine M, long start,
+                                    long end) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            LineReader lines =
+                new LineReader(Channels.newInputStream(in.position(start)),
+                               start);
+            MessageLexer input = new MessageLexer(lines, M);
+            if (input.lookahead() != MessageLexer.Kind.SETTINGS) {
+                throw error("input does not begin with setting");
+            }
+            CipherStats stats = new CipherStats(M.alphabet());
+            Scanner scanner = stats.new Scanner();
+            while (lines.offset() < end) {
+                switch (input.next()) {
+                case SETTINGS:
+                    scanner.endMessage();
+                    scanner.startMessage();
+                    break;
+                case MESSAGE:
+                    scanner.add(input.line());
+                    break;
+                default:
+                    break;
+                }
+            }
+            scanner.endMessage();
+            return stats;
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** Add the counts in FROM to those in TO. */
+    private static void add(long[] to, long[] from) {
+        for (int i = 0; i < to.length; i += 1) {
+            to[i] += from[i];
+        }
+    }
+
+    /** The state of a pass over messages that adds to my statistics. */
+    private class Scanner {
+
+        /** A scanner outside any message. */
+        Scanner() {
+            int size = _alphabet.size();
+            if (_repeats != null) {
+                _trigrams = size * size * size;
+                _seenIn = new int[_trigrams];
+                _seenAt = new long[_trigrams];
+            } else {
+                _trigrams = 0;
+                _seenIn = null;
+                _seenAt = null;
+            }
+        }
+
+        /** Begin a new message. */
+        void startMessage() {
+            _inMessage = true;
+            _message += 1;
+            _length = 0;
+            _previous = -1;
+            _trigram = 0;
+        }
+
+        /** Add the characters of LINE to the current message. */
+        void add(String line) {
+            int size = _alphabet.size();
+            for (int i = 0; i < line.length(); i += 1) {
+                char ch = line.charAt(i);
+                if (Character.isWhitespace(ch)) {
+                    continue;
+                }
+                ch = Character.toUpperCase(ch);
+                if (!_alphabet.contains(ch)) {
+                    _skipped += 1;
+                    continue;
+                }
+                int c = _alphabet.toInt(ch);
+                _letters[c] += 1;
+                if (_previous >= 0 && _bigrams != null) {
+                    _bigrams[_previous * size + c] += 1;
+                }
+                _previous = c;
+                if (_seenIn != null) {
+                    _trigram = (_trigram * size + c) % _trigrams;
+                    if (_length >= 2) {
+                        if (_seenIn[_trigram] == _message) {
+                            long distance = _length - _seenAt[_trigram];
+                            if (distance <= MAX_DISTANCE) {
+                                _repeats[(int) distance] += 1;
+                            } else {
+                                _farRepeats += 1;
+                            }
+                        }
+                        _seenIn[_trigram] = _message;
+                        _seenAt[_trigram] = _length;
+                    }
+                }
+                _length += 1;
+            }
+        }
+
+        /** End the current message, if any. */
+        void endMessage() {
+            if (_inMessage) {
+                _inMessage = false;
+                _messages += 1;
+                _characters += _length;
+                _lengths[Long.SIZE - Long.numberOfLeadingZeros(_length)] += 1;
+                _shortest = Math.min(_shortest, _length);
+                _longest = Math.max(_longest, _length);
+            }
+        }
+
+        /** Number of possible trigrams. */
+        private final int _trigrams;
+
+        /** The number of the message in which each trigram was last
+         *  seen. */
+        private final int[] _seenIn;
+
+        /** Where in that message each trigram last ended. */
+        private final long[] _seenAt;
+
+        /** True while in a message. */
+        private boolean _inMessage;
+
+        /** Number of the current message, counting from 1. */
+        private int _message;
+
+        /** Length of the current message so far. */
+        private long _length;
+
+        /** Last character of the current message, or -1. */
+        private int _previous;
+
+        /** The last three characters of the current message, as a
+         *  number. */
+        private int _trigram;
+    }
+
+    /** Largest alphabet whose pairs are kept. */
+    static final int MAX_BIGRAM_ALPHABET = 1024;
+
+    /** Largest alphabet whose trigram distances are kept. */
+    static final int MAX_TRIGRAM_ALPHABET = 64;
+
+    /** Largest trigram distance counted individually. */
+    static final int MAX_DISTANCE = 4096;
+
+    /** Smallest part of a file gathered separately. */
+    private static final long MIN_CHUNK = 1 << 20;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** Number of occurrences of each character. */
+    private final long[] _letters;
+
+    /** Number of occurrences of each pair, by first character * alphabet
+     *  size + second character, or null if not kept. */
+    private final long[] _bigrams;
+
+    /** Number of repeated trigrams at each distance up to MAX_DISTANCE,
+     *  or null if not kept. */
+    private final long[] _repeats;
+
+    /** Number of repeated trigrams further apart. */
+    private long _farRepeats;
+
+    /** Number of messages by the number of binary digits in their
+     *  lengths. */
+    private final long[] _lengths;
+
+    /** Number of messages. */
+    private long _messages;
+
+    /** Number of characters in the alphabet. */
+    private long _characters;
+
+    /** Number of other characters, apart from whitespace. */
+    private long _skipped;
+
+    /** Length of the shortest message. */
+    private long _shortest = Long.MAX_VALUE;
+
+    /** Length of the longest message. */
+    private long _longest;
+
+}
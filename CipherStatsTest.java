@@ -0,0 +1,92 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+public class CipherStatsTest {
+
+    /** Return a new temporary file containing TEXT. */
+    private File temp(String text) throws IOException {
+        File file = File.createTempFile("enigma", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /** Return the report of STATS. */
+    private String report(CipherStats stats) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        stats.report(new PrintStream(bytes, true));
+        return bytes.toString();
+    }
+
+    @Test
+    public void testCounts() throws IOException {
+        File file = temp("* B I II III AAA\nABAB a-b\n\n"
+                         + "* B III II I QRS (AB)\nXYZ\n  XYZ\n");
+        CipherStats stats = CipherStats.collect(file, navalMachine(), 4, 2);
+        assertEquals(12, stats.characters());
+        assertEquals(2, stats.messages());
+        assertEquals(18.0 / 132, stats.indexOfCoincidence(), 1e-12);
+        String report = report(stats);
+        String[] expected = {
+            "characters 12", "skipped 1", "messages 2", "length.min 6",
+            "length.max 6", "length.mean 6.000", "length.bits 3 2",
+            "letter A 3", "letter B 3", "letter C 0", "letter X 2",
+            "bigram AB 3", "bigram BA 2", "bigram XY 2", "bigram YZ 2",
+            "bigram ZX 1", "repeat 2 2", "repeat 3 1", "repeat.farther 0"
+        };
+        for (String line : expected) {
+            assertTrue(line + " missing from\n" + report,
+                       report.contains(line + System.lineSeparator()));
+        }
+        assertFalse(report, report.contains("bigram BX"));
+    }
+
+    @Test
+    public void testChunks() throws IOException {
+        Random random = new Random(0);
+        StringBuilder text = new StringBuilder();
+        while (text.length() < 5 << 20) {
+            text.append(String.format("* B I II III %c%c%c%n",
+                                      'A' + random.nextInt(26),
+                                      'A' + random.nextInt(26),
+                                      'A' + random.nextInt(26)));
+            for (int n = random.nextInt(5); n >= 0; n -= 1) {
+                for (int i = random.nextInt(300); i > 0; i -= 1) {
+                    text.append(random.nextInt(8) == 0
+                                ? ' ' : (char) ('A' + random.nextInt(26)));
+                }
+                text.append('\n');
+            }
+        }
+        File file = temp(text.toString());
+        String serial = report(CipherStats.collect(file, navalMachine(), 1, 1));
+        assertEquals(serial,
+                     report(CipherStats.collect(file, navalMachine(), 16, 4)));
+        CipherStats merged = new CipherStats(UPPER);
+        merged.merge(CipherStats.collect(file, navalMachine(), 3, 2));
+        assertEquals(serial, report(merged));
+    }
+
+    @Test
+    public void testNoSettings() throws IOException {
+        try {
+            CipherStats.collect(temp("HELLO\n"), navalMachine(), 1, 1);
+            fail("accepted input without settings");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
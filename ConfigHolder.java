@@ -0,0 +1,268 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Consumer;
+
+import static enigma.EnigmaException.error;
+
+/** The current version of a configuration file, for services that run
+ *  long enough for the file to change.  Each version is parsed and
+ *  validated in full before it is published, by swapping a single
+ *  reference, so a bad edit leaves the previous version in use.  A
+ *  session pins the version current when it starts and gets its own
+ *  machine built from it; it keeps that version, without locking, until
+ *  it is closed, while sessions started later get the newer one.  Each
+ *  version counts the sessions pinned to it.
+ *  @author Aadiraj Batlaw
+ */
+class ConfigHolder implements AutoCloseable {
+
+    /** A holder for the configuration file named NAME, whose first
+     *  version is parsed now. */
+    ConfigHolder(String name) {
+        _name = name;
+        Version first = new Version(1, Checkpoint.configId(name),
+                                    new ConfigParser(name).parse());
+        _versions.put(first.number(), first);
+        _current.set(first);
+    }
+
+    /** Return the current version. */
+    Version current() {
+        return _current.get();
+    }
+
+    /** Start a session on the current version. */
+    Pin pin() {
+        Version version = _current.get();
+        version._sessions.incrementAndGet();
+        _versions.compute(version.number(), (n, v) -> version);
+        return new Pin(version);
+    }
+
+    /** Return the number of sessions pinned to each version that is
+     *  current or still has sessions, by version number. */
+    Map<Integer, Integer> pinned() {
+        Map<Integer, Integer> result = new TreeMap<>();
+        for (Version version : _versions.values()) {
+            result.put(version.number(), version.sessions());
+        }
+        return result;
+    }
+
+    /** Re-read and validate the configuration file and, if it parses and
+     *  differs from the current version, publish it as a new version.
+     *  Return true iff a new version was published.  If the file cannot
+     *  be parsed, the current version is kept and the error is available
+     *  from lastError() until a later reload succeeds. */
+    synchronized boolean reload() {
+        Version old = _current.get();
+        try {
+            long id = Checkpoint.configId(_name);
+            if (id == old.configId()) {
+                _lastError = null;
+                return false;
+            }
+            Version version = new Version(old.number() + 1, id,
+                                          new ConfigParser(_name).parse());
+            _versions.put(version.number(), version);
+            _current.set(version);
+            _lastError = null;
+        } catch (EnigmaException excp) {
+            _lastError = excp.getMessage();
+            return false;
+        }
+        retire(old);
+        return true;
+    }
+
+    /** Return the reason the last reload failed, or null if it did
+     *  not. */
+    synchronized String lastError() {
+        return _lastError;
+    }
+
+    /** Reload, as for reload(), and return the reason it failed, or null
+     *  if it did not.  Failures that reload itself does not catch are
+     *  recorded as its own are. */
+    private synchronized String tryReload() {
+        try {
+            reload();
+        } catch (RuntimeException excp) {
+            _lastError = excp.toString();
+        }
+        return _lastError;
+    }
+
+    /** Reload the configuration in a background thread whenever the file
+     *  changes, until I am closed, passing the reason each reload fails
+     *  to FAILURES, which the owner uses to report it.  A failure to
+     *  reload never stops the thread. */
+    synchronized void watch(Consumer<String> failures) {
+        if (_watcher != null) {
+            return;
+        }
+        Path file = new File(_name).getAbsoluteFile().toPath();
+        try {
+            _watcher = FileSystems.getDefault().newWatchService();
+            file.getParent().register(_watcher,
+                                      StandardWatchEventKinds.ENTRY_CREATE,
+                                      StandardWatchEventKinds.ENTRY_MODIFY);
+        } catch (IOException excp) {
+            throw error("could not watch %s", _name);
+        }
+        WatchService watcher = _watcher;
+        Thread thread = new Thread(() -> {
+            try {
+                while (true) {
+                    WatchKey key = watcher.take();
+                    boolean changed = false;
+                    for (WatchEvent<?> event : key.pollEvents()) {
+                        changed |= file.getFileName().equals(event.context());
+                    }
+                    key.reset();
+                    String reason = changed ? tryReload() : null;
+                    if (reason != null) {
+                        failures.accept(reason);
+                    }
+                }
+            } catch (InterruptedException | ClosedWatchServiceException e) {
+                return;
+            }
+        }, "config-watcher");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /** Stop watching the configuration file. */
+    @Override
+    public synchronized void close() {
+        if (_watcher != null) {
+            try {
+                _watcher.close();
+            } catch (IOException excp) {
+                throw error("could not stop watching %s", _name);
+            }
+            _watcher = null;
+        }
+    }
+
+    /** Forget VERSION if it is neither current nor pinned. */
+    private void retire(Version version) {
+        _versions.computeIfPresent(version.number(), (n, v) ->
+            v.sessions() == 0 && v != _current.get() ? null : v);
+    }
+
+    /** One parsed version of the configuration. */
+    static final class Version {
+
+        /** Version NUMBER, whose file had identifier CONFIGID, describing
+         *  machine M. */
+        private Version(int number, long configId, Machine M) {
+            _number = number;
+            _configId = configId;
+            _prototype = M;
+        }
+
+        /** Return my number; versions are numbered from 1. */
+        int number() {
+            return _number;
+        }
+
+        /** Return the identifier (as from Checkpoint.configId) of the file
+         *  I was parsed from. */
+        long configId() {
+            return _configId;
+        }
+
+        /** Return a new machine with my rotors and no rotors inserted. */
+        Machine machine() {
+            return _prototype.copy();
+        }
+
+        /** Return the number of sessions pinned to me. */
+        int sessions() {
+            return _sessions.get();
+        }
+
+        /** My number. */
+        private final int _number;
+
+        /** Identifier of my file. */
+        private final long _configId;
+
+        /** Machine whose rotors my machines copy. */
+        private final Machine _prototype;
+
+        /** Number of sessions pinned to me. */
+        private final AtomicInteger _sessions = new AtomicInteger();
+    }
+
+    /** A session's hold on one version, with a machine of its own. */
+    final class Pin implements AutoCloseable {
+
+        /** A pin on VERSION. */
+        private Pin(Version version) {
+            _version = version;
+            _machine = version.machine();
+        }
+
+        /** Return the version I hold. */
+        Version version() {
+            return _version;
+        }
+
+        /** Return my machine, which only my session may use. */
+        Machine machine() {
+            return _machine;
+        }
+
+        /** End my session, releasing my version. */
+        @Override
+        public void close() {
+            if (!_closed) {
+                _closed = true;
+                _version._sessions.decrementAndGet();
+                retire(_version);
+            }
+        }
+
+        /** The version held. */
+        private final Version _version;
+
+        /** The session's machine. */
+        private final Machine _machine;
+
+        /** True once I have been closed. */
+        private boolean _closed;
+    }
+
+    /** Name of the configuration file. */
+    private final String _name;
+
+    /** The current version. */
+    private final AtomicReference<Version> _current = new AtomicReference<>();
+
+    /** The current version and those with sessions, by number. */
+    private final Map<Integer, Version> _versions = new ConcurrentHashMap<>();
+
+    /** Reason the last reload failed, or null. */
+    private String _lastError;
+
+    /** Watcher of the configuration file's directory, or null. */
+    private WatchService _watcher;
+
+}
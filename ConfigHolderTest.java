@@ -0,0 +1,153 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+public class ConfigHolderTest {
+
+    /** A configuration with two rotors. */
+    private static final String SMALL =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 2 1\n"
+        + " I MQ (AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)\n"
+        + " B R (AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP)\n"
+        + "     (RX) (SZ) (TV)\n";
+
+    /** SMALL with a third rotor. */
+    private static final String LARGER = SMALL
+        + " II ME (FIXVYOMW) (CDKLHUP) (ESZ) (BJ) (GR) (NT) (A) (Q)\n";
+
+    /** Most time to wait for the watcher to notice a change. */
+    private static final long WATCH_MILLIS = 20_000;
+
+    /** Replace the contents of FILE with TEXT at once, so that a watcher
+     *  never sees it partly written. */
+    private void write(File file, String text) throws IOException {
+        File next = new File(file.getPath() + ".new");
+        Files.write(next.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        Files.move(next.toPath(), file.toPath(),
+                   StandardCopyOption.REPLACE_EXISTING,
+                   StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** Return a new temporary file containing TEXT. */
+    private File temp(String text) throws IOException {
+        File file = File.createTempFile("enigma", ".conf");
+        file.deleteOnExit();
+        write(file, text);
+        return file;
+    }
+
+    /** Return a map of the version numbers and session counts
+     *  NUMBERSANDCOUNTS, given alternately. */
+    private Map<Integer, Integer> pins(int... numbersAndCounts) {
+        Map<Integer, Integer> result = new TreeMap<>();
+        for (int i = 0; i < numbersAndCounts.length; i += 2) {
+            result.put(numbersAndCounts[i], numbersAndCounts[i + 1]);
+        }
+        return result;
+    }
+
+    @Test
+    public void testReload() throws IOException {
+        File file = temp(SMALL);
+        ConfigHolder holder = new ConfigHolder(file.getPath());
+        assertEquals(1, holder.current().number());
+        assertEquals(2, holder.current().machine().allRotors().size());
+        assertFalse(holder.reload());
+        write(file, LARGER);
+        assertTrue(holder.reload());
+        assertEquals(2, holder.current().number());
+        assertEquals(3, holder.current().machine().allRotors().size());
+        assertNull(holder.lastError());
+        assertEquals(pins(2, 0), holder.pinned());
+    }
+
+    @Test
+    public void testBadParse() throws IOException {
+        File file = temp(SMALL);
+        ConfigHolder holder = new ConfigHolder(file.getPath());
+        ConfigHolder.Version first = holder.current();
+        write(file, SMALL + " II ME (AB\n");
+        assertFalse(holder.reload());
+        assertSame(first, holder.current());
+        assertTrue(holder.lastError(),
+                   holder.lastError().contains("unclosed cycle"));
+        write(file, LARGER);
+        assertTrue(holder.reload());
+        assertNull(holder.lastError());
+        assertEquals(2, holder.current().number());
+    }
+
+    @Test
+    public void testPins() throws IOException {
+        File file = temp(SMALL);
+        ConfigHolder holder = new ConfigHolder(file.getPath());
+        ConfigHolder.Pin one = holder.pin();
+        ConfigHolder.Pin two = holder.pin();
+        assertNotSame(one.machine(), two.machine());
+        assertEquals(pins(1, 2), holder.pinned());
+        write(file, LARGER);
+        assertTrue(holder.reload());
+        ConfigHolder.Pin three = holder.pin();
+        assertEquals(1, one.version().number());
+        assertEquals(2, three.version().number());
+        assertEquals(2, one.machine().allRotors().size());
+        assertEquals(3, three.machine().allRotors().size());
+        assertEquals(pins(1, 2, 2, 1), holder.pinned());
+        one.close();
+        one.close();
+        assertEquals(pins(1, 1, 2, 1), holder.pinned());
+        two.close();
+        assertEquals("unpinned old version not retired",
+                     pins(2, 1), holder.pinned());
+        three.close();
+        assertEquals("current version retired", pins(2, 0), holder.pinned());
+    }
+
+    /** Wait until HOLDER's current version is NUMBER, failing if it
+     *  does not become so soon. */
+    private void awaitVersion(ConfigHolder holder, int number)
+        throws InterruptedException {
+        long deadline = System.currentTimeMillis() + WATCH_MILLIS;
+        while (holder.current().number() != number) {
+            assertTrue("watcher did not reload",
+                       System.currentTimeMillis() < deadline);
+            Thread.sleep(20);
+        }
+    }
+
+    @Test
+    public void testWatch() throws IOException, InterruptedException {
+        File file = temp(SMALL);
+        List<String> failures = new CopyOnWriteArrayList<>();
+        try (ConfigHolder holder = new ConfigHolder(file.getPath())) {
+            holder.watch(failures::add);
+            write(file, LARGER);
+            awaitVersion(holder, 2);
+            assertTrue(failures.isEmpty());
+            write(file, "");
+            long deadline = System.currentTimeMillis() + WATCH_MILLIS;
+            while (failures.isEmpty()) {
+                assertTrue("watcher did not report a bad edit",
+                           System.currentTimeMillis() < deadline);
+                Thread.sleep(20);
+            }
+            assertEquals(holder.lastError(), failures.get(0));
+            assertEquals(2, holder.current().number());
+            write(file, SMALL);
+            awaitVersion(holder, 3);
+            assertEquals(2, holder.current().machine().allRotors().size());
+        }
+    }
+}
@@ -0,0 +1,268 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.file.Files;
+import java.util.ArrayList;
+
+import static enigma.EnigmaException.error;
+
+/** A single-pass parser of machine configuration files.  A configuration
+ *  consists of a line giving the alphabet (of which the first and last
+ *  characters determine the range), the number of rotor slots and the
+ *  number of pawls, followed by rotor descriptions.  Each rotor
+ *  description gives a name, a type (M followed by notches, N or R) and
+ *  the rotor's cycles, which may continue onto following lines that
+ *  begin with '('.  Errors are reported with the line and column at
+ *  which they were found.
+ *  @author Aadiraj Batlaw
+ */
+class ConfigParser {
+
+    /** A parser for the configuration file named NAME. */
+    ConfigParser(String name) {
+        _name = name;
+        try {
+            CharBuffer text = Charset.defaultCharset().decode(
+                ByteBuffer.wrap(Files.readAllBytes(new File(name).toPath())));
+            _text = text.array();
+            _limit = text.limit();
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+        _line = 1;
+        _lineStart = 0;
+    }
+
+    /** Return the machine described by my configuration. */
+    Machine parse() {
+        skipSpace(true);
+        int alphaStart = _pos;
+        String alpha = token("alphabet");
+        _alphabet = new CharacterRange(alpha.charAt(0),
+                                       alpha.charAt(alpha.length() - 1));
+        int numRotors = number("number of rotor slots");
+        int numPawls = number("number of pawls");
+        if (numRotors < 2 || numPawls < 0 || numPawls >= numRotors) {
+            throw errorAt(alphaStart, "bad numbers of rotors and pawls");
+        }
+        skipLine();
+        _forward = new int[_alphabet.size()];
+        _used = new boolean[_alphabet.size()];
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        while (skipSpace(true)) {
+            rotors.add(rotor());
+        }
+        return new Machine(_alphabet, numRotors, numPawls, rotors);
+    }
+
+    /** Return the alphabet of the configuration last parsed. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Parse and return a rotor description. */
+    private Rotor rotor() {
+        String name = token("rotor name");
+        skipSpace(true);
+        int typeStart = _pos;
+        String type = token("rotor type");
+        char kind = type.charAt(0);
+        String notches = type.substring(1);
+        if (kind != 'M' && kind != 'N' && kind != 'R') {
+            throw errorAt(typeStart, "bad rotor type %s", type);
+        }
+        if (kind != 'M' && !notches.isEmpty()) {
+            throw errorAt(typeStart + 1, "only moving rotors have notches");
+        }
+        for (int i = 0; i < notches.length(); i += 1) {
+            if (!_alphabet.contains(notches.charAt(i))) {
+                throw errorAt(typeStart + 1 + i, "notch not in alphabet");
+            }
+        }
+        Permutation perm = cycles();
+        if (kind == 'M') {
+            return new MovingRotor(name, perm, notches);
+        } else if (kind == 'N') {
+            return new FixedRotor(name, perm);
+        } else {
+            return new Reflector(name, perm);
+        }
+    }
+
+    /** Parse the cycles of a rotor, through the end of its last line,
+     *  and return them as a permutation. */
+    private Permutation cycles() {
+        for (int i = 0; i < _forward.length; i += 1) {
+            _forward[i] = i;
+            _used[i] = false;
+        }
+        while (true) {
+            skipSpace(false);
+            if (_pos == _limit) {
+                break;
+            }
+            char c = _text[_pos];
+            if (c == '\n') {
+                if (!continued()) {
+                    skipLine();
+                    break;
+                }
+                skipSpace(true);
+                continue;
+            }
+            if (c != '(') {
+                throw errorAt(_pos, "expected '('");
+            }
+            cycle();
+        }
+        return new Permutation(_forward, _alphabet);
+    }
+
+    /** Parse one parenthesized cycle starting at _pos into _forward. */
+    private void cycle() {
+        int open = _pos;
+        _pos += 1;
+        int first = -1, prev = -1;
+        while (_pos < _limit && _text[_pos] != ')') {
+            char c = _text[_pos];
+            if (c == '\n') {
+                break;
+            }
+            if (!Character.isWhitespace(c)) {
+                if (!_alphabet.contains(c)) {
+                    throw errorAt(_pos, "character %c not in alphabet", c);
+                }
+                int k = _alphabet.toInt(c);
+                if (_used[k]) {
+                    throw errorAt(_pos, "character %c repeated in cycles", c);
+                }
+                _used[k] = true;
+                if (prev < 0) {
+                    first = k;
+                } else {
+                    _forward[prev] = k;
+                }
+                prev = k;
+            }
+            _pos += 1;
+        }
+        if (_pos == _limit || _text[_pos] != ')') {
+            throw errorAt(open, "unclosed cycle");
+        }
+        if (prev >= 0) {
+            _forward[prev] = first;
+        }
+        _pos += 1;
+    }
+
+    /** Return true iff the first non-whitespace character after _pos
+     *  is '(', continuing the current rotor's cycles. */
+    private boolean continued() {
+        for (int p = _pos; p < _limit; p += 1) {
+            if (!Character.isWhitespace(_text[p])) {
+                return _text[p] == '(';
+            }
+        }
+        return false;
+    }
+
+    /** Skip blanks, and also line ends if NEWLINES.  Return true iff
+     *  anything but the end of input follows. */
+    private boolean skipSpace(boolean newlines) {
+        while (_pos < _limit) {
+            char c = _text[_pos];
+            if (c == '\n') {
+                if (!newlines) {
+                    return true;
+                }
+                _pos += 1;
+                _line += 1;
+                _lineStart = _pos;
+            } else if (Character.isWhitespace(c)) {
+                _pos += 1;
+            } else {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Skip to the start of the next line. */
+    private void skipLine() {
+        while (_pos < _limit && _text[_pos] != '\n') {
+            _pos += 1;
+        }
+        if (_pos < _limit) {
+            _pos += 1;
+            _line += 1;
+            _lineStart = _pos;
+        }
+    }
+
+    /** Return the next token, which is described as WHAT in error
+     *  messages. */
+    private String token(String what) {
+        skipSpace(true);
+        int start = _pos;
+        while (_pos < _limit && !Character.isWhitespace(_text[_pos])) {
+            _pos += 1;
+        }
+        if (start == _pos) {
+            throw errorAt(start, "missing %s", what);
+        }
+        return new String(_text, start, _pos - start);
+    }
+
+    /** Return the next token, which must be a number described as
+     *  WHAT. */
+    private int number(String what) {
+        skipSpace(true);
+        int start = _pos;
+        String token = token(what);
+        try {
+            return Integer.parseInt(token);
+        } catch (NumberFormatException excp) {
+            throw errorAt(start, "bad %s: %s", what, token);
+        }
+    }
+
+    /** Return an exception reporting the message MSGFORMAT formatted with
+     *  ARGUMENTS, at position POS on the current line. */
+    private EnigmaException errorAt(int pos, String msgFormat,
+                                    Object... arguments) {
+        return error("%s:%d:%d: %s", _name, _line, pos - _lineStart + 1,
+                     String.format(msgFormat, arguments));
+    }
+
+    /** Name of the configuration file. */
+    private final String _name;
+
+    /** Text of the configuration. */
+    private final char[] _text;
+
+    /** End of the text in _text. */
+    private final int _limit;
+
+    /** Position of the next unparsed character. */
+    private int _pos;
+
+    /** Current line number. */
+    private int _line;
+
+    /** Position of the start of the current line. */
+    private int _lineStart;
+
+    /** Alphabet of the configuration. */
+    private Alphabet _alphabet;
+
+    /** Mapping of the rotor being parsed. */
+    private int[] _forward;
+
+    /** Characters already in a cycle of the rotor being parsed. */
+    private boolean[] _used;
+
+}
@@ -0,0 +1,150 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Scanner;
+import java.util.regex.Pattern;
+
+import static enigma.TestUtils.*;
+
+public class ConfigParserTest {
+
+    /** Return the name of a new temporary file containing TEXT. */
+    private String write(String text) throws IOException {
+        File file = File.createTempFile("enigma", ".conf");
+        file.deleteOnExit();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file.getPath();
+    }
+
+    /** Check that parsing a configuration whose rotors are described by
+     *  ROTORS reports MESSAGE at LINE and COLUMN. */
+    private void checkError(String rotors, int line, int column,
+                            String message) throws IOException {
+        String name = write("ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 5 3\n" + rotors);
+        try {
+            new ConfigParser(name).parse();
+            fail("accepted " + rotors);
+        } catch (EnigmaException excp) {
+            assertEquals(String.format("%s:%d:%d: %s", name, line, column,
+                                       message),
+                         excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testErrorPositions() throws IOException {
+        checkError(" I MQ (AELT) (BKNW\n", 3, 14, "unclosed cycle");
+        checkError(" I MQ (AELT)\n (BKNW) (CMAY)\n", 4, 12,
+                   "character A repeated in cycles");
+        checkError(" I MQ (AE1T)\n", 3, 10, "character 1 not in alphabet");
+        checkError(" I MQ (AE) BK\n", 3, 12, "expected '('");
+        checkError(" I MQ7 (AE)\n", 3, 6, "notch not in alphabet");
+        checkError(" B RA (AE)\n", 3, 5, "only moving rotors have notches");
+        checkError(" B X (AE)\n", 3, 4, "bad rotor type X");
+        checkError(" I", 3, 3, "missing rotor type");
+    }
+
+    /** Return the rotors of the configuration file NAME as read by the
+     *  original Scanner-based parser, checking that it has NUMROTORS
+     *  slots and NUMPAWLS pawls. */
+    private ArrayList<Rotor> scannerParse(String name, int numRotors,
+                                          int numPawls) throws IOException {
+        Scanner config = new Scanner(new File(name));
+        String alpha = config.next();
+        assertEquals(numRotors, Integer.parseInt(config.next()));
+        assertEquals(numPawls, Integer.parseInt(config.next()));
+        config.nextLine();
+        Alphabet alphabet = new CharacterRange(alpha.charAt(0),
+                alpha.charAt(alpha.length() - 1));
+        ArrayList<Rotor> rotors = new ArrayList<>();
+        Pattern pat = Pattern.compile("\\(\\w+\\)");
+        while (config.hasNextLine()) {
+            String rotorName = config.next();
+            String type = config.next();
+            String cycles = config.nextLine();
+            while (config.hasNext(pat)) {
+                cycles += config.nextLine();
+                if (!config.hasNext()) {
+                    break;
+                }
+            }
+            Permutation perm = new Permutation(cycles, alphabet);
+            if (type.charAt(0) == 'M') {
+                rotors.add(new MovingRotor(rotorName, perm,
+                                           type.substring(1)));
+            } else if (type.charAt(0) == 'N') {
+                rotors.add(new FixedRotor(rotorName, perm));
+            } else {
+                rotors.add(new Reflector(rotorName, perm));
+            }
+        }
+        return rotors;
+    }
+
+    /** Check that parsing the configuration file NAME gives the same
+     *  machine as the original parser. */
+    private void checkSameAsScanner(String name) throws IOException {
+        Machine machine = new ConfigParser(name).parse();
+        ArrayList<Rotor> expected =
+            scannerParse(name, machine.numRotors(), machine.numPawls());
+        ArrayList<Rotor> actual = new ArrayList<>(machine.allRotors());
+        assertEquals(expected.size(), actual.size());
+        for (int r = 0; r < expected.size(); r += 1) {
+            Rotor want = expected.get(r), got = actual.get(r);
+            assertEquals(want.name(), got.name());
+            assertEquals(msg(want.name(), "class"),
+                         want.getClass(), got.getClass());
+            assertEquals(want.size(), got.size());
+            assertEquals(want.rotates(), got.rotates());
+            for (int i = 0; i < want.size(); i += 1) {
+                assertEquals(msg(want.name(), "wrong mapping of %d", i),
+                             want.permutation().permute(i),
+                             got.permutation().permute(i));
+                if (want.rotates()) {
+                    want.set(i);
+                    got.set(i);
+                    assertEquals(msg(want.name(), "wrong notch at %d", i),
+                                 want.atNotch(), got.atNotch());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testSameAsScanner() throws IOException {
+        checkSameAsScanner("testing/correct/default.conf");
+        checkSameAsScanner("testing/correct/reduced.conf");
+        checkSameAsScanner(write("ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 3 1\n"
+                                 + "I MQE (AELTPHQXRU) (BKNW)\n"
+                                 + "   (CMOY) (DFG)\n"
+                                 + "\n"
+                                 + "Beta N (ALBEVFCYODJWUGNMQTZSKPR)\n"
+                                 + "B R (AE) (BN) (CK) (DQ) (FU) (GY)\n"
+                                 + "  (HW) (IJ) (LO) (MP)\n"
+                                 + " (RX) (SZ) (TV)\n"));
+        checkSameAsScanner(write("ABCDEFGHIJKLMNOPQRSTUVWXYZ\n 3 1\n"
+                                 + "I M (AELTPHQXRU) (BKNW)\n"
+                                 + "I MQ (CMOY) (DFG)\n"
+                                 + "B R (AE) (BN) (CK) (DQ) (FU) (GY)\n"));
+    }
+
+    @Test
+    public void testConversion() throws IOException {
+        Machine machine =
+            new ConfigParser("testing/correct/default.conf").parse();
+        machine.insertRotors(new String[] {"B", "BETA", "III", "IV", "I"});
+        machine.setRotors("AXLE");
+        machine.setPlugboard(new Permutation("(HQ) (EX) (IP) (TR) (BY)",
+                                             machine.alphabet()));
+        assertEquals("QVPQSOKOILPUBKJZPISFXDW",
+                     machine.convert("FROMHISSHOULDERHIAWATHA"));
+    }
+}
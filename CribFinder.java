@@ -0,0 +1,147 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.error;
+
+/** Finds the offsets in a ciphertext at which a crib (a guessed piece of
+ *  plaintext) may lie.  Since an Enigma never encrypts a character to
+ *  itself, a crib cannot lie where any of its characters coincides with
+ *  the ciphertext character beneath it.  For each character of the
+ *  alphabet, the finder keeps a bitset of the positions at which it
+ *  occurs in the ciphertext, so that 64 offsets are tested at once by
+ *  ORing the bitsets of the crib's characters, each shifted by its
+ *  position in the crib.  Offsets count the characters of the
+ *  ciphertext that are in the alphabet (in either case); other
+ *  characters are skipped.
+ *  @author Aadiraj Batlaw
+ */
+class CribFinder {
+
+    /** A finder for the ciphertext in FILE, whose bytes are taken to be
+     *  ISO-8859-1 characters, over ALPHABET.  The file is read through a
+     *  mapping of successive regions. */
+    CribFinder(File file, Alphabet alphabet) {
+        this(file, alphabet, MAP_SIZE);
+    }
+
+    /** A finder for the ciphertext in FILE over ALPHABET, as above,
+     *  mapping at most MAPSIZE bytes of the file at once. */
+    CribFinder(File file, Alphabet alphabet, int mapSize) {
+        int[] index = new int[256];
+        for (int b = 0; b < index.length; b += 1) {
+            char c = Character.toUpperCase((char) b);
+            index[b] = alphabet.contains(c) ? alphabet.toInt(c) : -1;
+        }
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            long size = in.size();
+            if (size >= (long) Integer.MAX_VALUE) {
+                throw error("%s is too large", file);
+            }
+            _bits = new long[alphabet.size()][(int) (size >>> 6) + 2];
+            int n = 0;
+            for (long pos = 0; pos < size; pos += mapSize) {
+                int len = (int) Math.min(mapSize, size - pos);
+                MappedByteBuffer region =
+                    in.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                for (int i = 0; i < len; i += 1) {
+                    int k = index[region.get(i) & 0xff];
+                    if (k >= 0) {
+                        _bits[k][n >>> 6] |= 1L << n;
+                        n += 1;
+                    }
+                }
+            }
+            _length = n;
+        } catch (IOException excp) {
+            throw error("could not read %s", file);
+        }
+    }
+
+    /** A finder for the ciphertext TEXT, a sequence of indices in an
+     *  alphabet of SIZE characters. */
+    CribFinder(int[] text, int size) {
+        _bits = new long[size][(text.length >>> 6) + 2];
+        for (int i = 0; i < text.length; i += 1) {
+            _bits[text[i]][i >>> 6] |= 1L << i;
+        }
+        _length = text.length;
+    }
+
+    /** Return the number of characters in the ciphertext. */
+    int length() {
+        return _length;
+    }
+
+    /** Return, for each crib in CRIBS (as alphabet indices), the offsets
+     *  in increasing order at which it might lie.  The offsets of each
+     *  crib are tested in parallel. */
+    int[][] find(int[][] cribs) {
+        int[][] result = new int[cribs.length][];
+        for (int k = 0; k < cribs.length; k += 1) {
+            result[k] = find(cribs[k]);
+        }
+        return result;
+    }
+
+    /** Return the offsets in increasing order at which CRIB (as alphabet
+     *  indices) might lie. */
+    int[] find(int[] crib) {
+        int last = _length - crib.length;
+        if (last < 0) {
+            return new int[0];
+        } else if (crib.length == 0) {
+            return IntStream.rangeClosed(0, _length).toArray();
+        }
+        int words = (last >>> 6) + 1;
+        long[] survivors = new long[words];
+        IntStream.range(0, words).parallel().forEach(w -> {
+            long bad = 0;
+            for (int i = 0; i < crib.length; i += 1) {
+                bad |= bits(_bits[crib[i]], (w << 6) + i);
+            }
+            survivors[w] = ~bad;
+        });
+        int extra = 63 - (last & 63);
+        survivors[words - 1] &= -1L >>> extra;
+        int count = 0;
+        for (long word : survivors) {
+            count += Long.bitCount(word);
+        }
+        int[] result = new int[count];
+        int n = 0;
+        for (int w = 0; w < words; w += 1) {
+            for (long word = survivors[w]; word != 0; word &= word - 1) {
+                result[n] = (w << 6) + Long.numberOfTrailingZeros(word);
+                n += 1;
+            }
+        }
+        return result;
+    }
+
+    /** Return the 64 bits of BITS starting at bit POS. */
+    private static long bits(long[] bits, int pos) {
+        int k = pos >>> 6, r = pos & 63;
+        if (r == 0) {
+            return bits[k];
+        }
+        return (bits[k] >>> r) | (bits[k + 1] << (64 - r));
+    }
+
+    /** Largest region of the file mapped at once. */
+    private static final int MAP_SIZE = 1 << 28;
+
+    /** For each character, the set of positions at which it occurs, with
+     *  a spare word at the end. */
+    private final long[][] _bits;
+
+    /** Number of characters in the ciphertext. */
+    private final int _length;
+
+}
@@ -0,0 +1,117 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+public class CribFinderTest {
+
+    /** Return the offsets at which CRIB might lie in TEXT, found by
+     *  testing each offset in turn. */
+    private int[] naive(int[] text, int[] crib) {
+        int[] result = new int[Math.max(0, text.length - crib.length + 1)];
+        int n = 0;
+        for (int off = 0; off + crib.length <= text.length; off += 1) {
+            boolean ok = true;
+            for (int i = 0; i < crib.length && ok; i += 1) {
+                ok = text[off + i] != crib[i];
+            }
+            if (ok) {
+                result[n] = off;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return LENGTH random indices less than SIZE from RANDOM. */
+    private int[] random(Random random, int length, int size) {
+        int[] result = new int[length];
+        for (int i = 0; i < length; i += 1) {
+            result[i] = random.nextInt(size);
+        }
+        return result;
+    }
+
+    @Test
+    public void testAgainstNaive() {
+        Random random = new Random(0);
+        int[] lengths = {0, 1, 2, 62, 63, 64, 65, 66, 127, 128, 129, 200,
+                         1000};
+        int[] cribLengths = {0, 1, 2, 5, 20, 63, 64, 65, 70, 130};
+        for (int length : lengths) {
+            for (int size : new int[] {2, 5, 26}) {
+                int[] text = random(random, length, size);
+                CribFinder finder = new CribFinder(text, size);
+                assertEquals(length, finder.length());
+                for (int cribLength : cribLengths) {
+                    for (int trial = 0; trial < 5; trial += 1) {
+                        int[] crib = random(random, cribLength, size);
+                        assertArrayEquals(msg("find", "text %d of %d,"
+                                              + " crib %d", length, size,
+                                              cribLength),
+                                          naive(text, crib),
+                                          finder.find(crib));
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void testEdges() {
+        int[] text = {0, 1, 2, 3, 4};
+        CribFinder finder = new CribFinder(text, 26);
+        assertArrayEquals(new int[] {0, 1, 2, 3, 4, 5},
+                          finder.find(new int[0]));
+        assertArrayEquals(new int[0], finder.find(new int[6]));
+        assertArrayEquals(new int[] {0}, finder.find(new int[] {1, 2, 3, 4,
+                                                               5}));
+        assertArrayEquals(new int[0], finder.find(new int[] {1, 2, 3, 4,
+                                                             4}));
+        int[][] both = finder.find(new int[][] {{0}, {5, 5}});
+        assertArrayEquals(new int[] {1, 2, 3, 4}, both[0]);
+        assertArrayEquals(new int[] {0, 1, 2, 3}, both[1]);
+    }
+
+    @Test
+    public void testFile() throws IOException {
+        Random random = new Random(1);
+        StringBuilder contents = new StringBuilder();
+        int[] text = new int[5000];
+        for (int i = 0; i < text.length; i += 1) {
+            text[i] = random.nextInt(26);
+            char c = (char) ('A' + text[i]);
+            contents.append(random.nextBoolean()
+                            ? c : Character.toLowerCase(c));
+            if (random.nextInt(5) == 0) {
+                contents.append(random.nextBoolean() ? " " : "-\n");
+            }
+        }
+        File file = File.createTempFile("enigma", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(),
+                    contents.toString().getBytes(StandardCharsets.ISO_8859_1));
+        CribFinder expected = new CribFinder(text, 26);
+        for (int mapSize : new int[] {1, 63, 64, 1000, 1 << 20}) {
+            CribFinder finder = new CribFinder(file, UPPER, mapSize);
+            assertEquals(text.length, finder.length());
+            for (int cribLength : new int[] {1, 10, 64, 70}) {
+                int[] crib = random(random, cribLength, 26);
+                assertArrayEquals(msg("file", "map size %d, crib %d",
+                                      mapSize, cribLength),
+                                  expected.find(crib), finder.find(crib));
+            }
+        }
+        assertEquals(text.length, new CribFinder(file, UPPER).length());
+    }
+}
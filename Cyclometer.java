@@ -0,0 +1,245 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.error;
+
+/** A catalogue of the characteristics of a machine, after Rejewski's
+ *  cyclometer.  When a message key is enciphered twice, the six
+ *  enciphering permutations A, B, C, D, E, F at the first six positions
+ *  of the machine relate the first and fourth, second and fifth, and
+ *  third and sixth letters of every indicator.  The cycle types of the
+ *  products AD, BE and CF (the characteristic) do not depend on the
+ *  plugboard, can be read off a day's indicators, and are shared by few
+ *  starting positions.
+ *
+ *  A catalogue file records, for every rotor order and starting
+ *  position of a KeySpace, the 64-bit FNV-1a hash of its characteristic,
+ *  in a hash table with a power-of-two number of buckets.  It consists
+ *  of a header (ints MAGIC, VERSION, the number of buckets B and 0, then
+ *  the long number of entries N and the long identifier of the
+ *  configuration it was built for, as for Checkpoint.configId), the long
+ *  index of the first entry of
+ *  each bucket (B + 1 of them), and N entries of two longs: the hash and
+ *  order * positions + position.
+ *  @author Aadiraj Batlaw
+ */
+class Cyclometer {
+
+    /** The catalogue stored in FILE, which must have been built for the
+     *  configuration with identifier CONFIGID. */
+    Cyclometer(File file, long configId) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            if (in.size() < HEADER_BYTES) {
+                throw error("malformed catalogue %s", file);
+            }
+            MappedByteBuffer map =
+                in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                throw error("malformed catalogue %s", file);
+            }
+            _buckets = map.getInt(8);
+            long entries = map.getLong(16);
+            if (in.size() != HEADER_BYTES + 8L * (_buckets + 1)
+                + 16L * entries) {
+                throw error("malformed catalogue %s", file);
+            }
+            if (map.getLong(24) != configId) {
+                throw error("catalogue %s was built for another "
+                            + "configuration", file);
+            }
+            map.position(HEADER_BYTES);
+            _table = map.slice().asLongBuffer();
+        } catch (IOException excp) {
+            throw error("could not read catalogue %s", file);
+        }
+    }
+
+    /** Return the keys (order * positions + position) of the settings
+     *  whose characteristic is SIGNATURE, in constant time plus time
+     *  proportional to the number found. */
+    long[] lookup(String signature) {
+        long hash = hash(signature);
+        int bucket = (int) (hash & (_buckets - 1));
+        int first = (int) _table.get(bucket),
+            last = (int) _table.get(bucket + 1);
+        int entries = _buckets + 1;
+        long[] result = new long[last - first];
+        int n = 0;
+        for (int i = first; i < last; i += 1) {
+            if (_table.get(entries + 2 * i) == hash) {
+                result[n] = _table.get(entries + 2 * i + 1);
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Return the characteristic of M at its current positions, which
+     *  must have an identity plugboard.  M is advanced six times. */
+    static String characteristic(Machine M) {
+        int size = M.alphabet().size();
+        Permutation[] steps = new Permutation[INDICATOR];
+        int[] map = new int[size];
+        for (int k = 0; k < INDICATOR; k += 1) {
+            M.advance();
+            for (int c = 0; c < size; c += 1) {
+                map[c] = M.transform(c);
+            }
+            steps[k] = new Permutation(map, M.alphabet());
+        }
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < INDICATOR / 2; k += 1) {
+            if (k > 0) {
+                result.append('/');
+            }
+            result.append(steps[k].compose(steps[k + INDICATOR / 2])
+                          .signature());
+        }
+        return result.toString();
+    }
+
+    /** Return the characteristic determined by INDICATORS, each the six
+     *  alphabet indices of a doubly-enciphered key, over ALPHABET.  There
+     *  must be enough indicators to fix every letter of each product. */
+    static String characteristic(List<int[]> indicators, Alphabet alphabet) {
+        StringBuilder result = new StringBuilder();
+        for (int k = 0; k < INDICATOR / 2; k += 1) {
+            int[] map = new int[alphabet.size()];
+            Arrays.fill(map, -1);
+            for (int[] indicator : indicators) {
+                int from = indicator[k], to = indicator[k + INDICATOR / 2];
+                if (map[from] >= 0 && map[from] != to) {
+                    throw error("inconsistent indicators");
+                }
+                map[from] = to;
+            }
+            for (int image : map) {
+                if (image < 0) {
+                    throw error("too few indicators to fix the "
+                                + "characteristic");
+                }
+            }
+            if (k > 0) {
+                result.append('/');
+            }
+            result.append(new Permutation(map, alphabet).signature());
+        }
+        return result.toString();
+    }
+
+    /** Write the catalogue of all settings of KEYS for machine M, built
+     *  from the configuration with identifier CONFIGID, to FILE,
+     *  examining rotor orders in parallel.  M is not disturbed. */
+    static void build(Machine M, KeySpace keys, long configId, File file) {
+        long positions = keys.positions();
+        if (positions * keys.orders() > MAX_ENTRIES) {
+            throw error("too many settings to catalogue");
+        }
+        int perOrder = (int) positions;
+        long[] hashes = new long[perOrder * keys.orders()];
+        IntStream.range(0, keys.orders()).parallel().forEach(order -> {
+            Machine machine = M.copy();
+            machine.setPlugboard(new Permutation("", M.alphabet()));
+            machine.insertRotors(keys.order(order));
+            for (int position = 0; position < perOrder; position += 1) {
+                machine.setRotors(keys.position(position));
+                hashes[order * perOrder + position] =
+                    hash(characteristic(machine));
+            }
+        });
+        long[] sorted = hashes.clone();
+        Arrays.parallelSort(sorted);
+        int distinct = 0;
+        for (int i = 0; i < sorted.length; i += 1) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                distinct += 1;
+            }
+        }
+        int buckets = Integer.highestOneBit(Math.max(1, distinct));
+        if (buckets < distinct) {
+            buckets *= 2;
+        }
+        long[] starts = new long[buckets + 1];
+        for (long hash : hashes) {
+            starts[(int) (hash & (buckets - 1)) + 1] += 1;
+        }
+        for (int b = 0; b < buckets; b += 1) {
+            starts[b + 1] += starts[b];
+        }
+        long[] fill = Arrays.copyOf(starts, buckets);
+        ByteBuffer bytes = ByteBuffer.allocate(
+            HEADER_BYTES + 8 * (buckets + 1) + 16 * hashes.length);
+        bytes.putInt(MAGIC).putInt(VERSION).putInt(buckets).putInt(0);
+        bytes.putLong(hashes.length).putLong(configId);
+        LongBuffer table = bytes.asLongBuffer();
+        table.put(starts);
+        int entries = buckets + 1;
+        for (int key = 0; key < hashes.length; key += 1) {
+            int b = (int) (hashes[key] & (buckets - 1));
+            int slot = (int) fill[b];
+            fill[b] += 1;
+            table.put(entries + 2 * slot, hashes[key]);
+            table.put(entries + 2 * slot + 1, key);
+        }
+        bytes.rewind();
+        try (FileChannel out =
+                 FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                  StandardOpenOption.WRITE,
+                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Return the 64-bit FNV-1a hash of SIGNATURE. */
+    static long hash(String signature) {
+        long hash = FNV_OFFSET;
+        for (byte b : signature.getBytes(StandardCharsets.UTF_8)) {
+            hash = (hash ^ (b & 0xff)) * FNV_PRIME;
+        }
+        return hash;
+    }
+
+    /** Length of a doubly-enciphered indicator. */
+    static final int INDICATOR = 6;
+
+    /** Identifies catalogue files ("ECYC"). */
+    static final int MAGIC = 0x45435943;
+
+    /** Format version of catalogue files. */
+    static final int VERSION = 2;
+
+    /** Size of the file header in bytes. */
+    static final int HEADER_BYTES = 32;
+
+    /** Largest number of settings that fit in one catalogue. */
+    static final long MAX_ENTRIES = (Integer.MAX_VALUE - HEADER_BYTES) / 32;
+
+    /** FNV-1a offset basis. */
+    private static final long FNV_OFFSET = 0xcbf29ce484222325L;
+
+    /** FNV-1a prime. */
+    private static final long FNV_PRIME = 0x100000001b3L;
+
+    /** Number of buckets. */
+    private final int _buckets;
+
+    /** Bucket starts followed by entries. */
+    private final LongBuffer _table;
+
+}
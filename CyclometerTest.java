@@ -0,0 +1,151 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+public class CyclometerTest {
+
+    /** Return a new temporary file. */
+    private File temp() throws IOException {
+        File file = File.createTempFile("enigma", ".cyc");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /** Return a machine with two pawls and three slots whose rotors are
+     *  reflector B and the moving rotors I and II, whose key space has
+     *  2 * 26 * 26 settings. */
+    private Machine smallMachine() {
+        ArrayList<Rotor> all = new ArrayList<>();
+        all.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        all.add(new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER),
+                                "Q"));
+        all.add(new MovingRotor("II",
+                                new Permutation(NAVALA.get("II"), UPPER),
+                                "E"));
+        return new Machine(UPPER, 3, 2, all);
+    }
+
+    /** Return the characteristic of machine M with the rotors of order
+     *  ORDER of KEYS at starting position POSITION. */
+    private String characteristic(Machine M, KeySpace keys, int order,
+                                  long position) {
+        M.insertRotors(keys.order(order));
+        M.setRotors(keys.position(position));
+        return Cyclometer.characteristic(M);
+    }
+
+    @Test
+    public void testCatalogue() throws IOException {
+        Machine machine = smallMachine();
+        KeySpace keys = new KeySpace(machine);
+        assertEquals(2, keys.orders());
+        File file = temp();
+        Cyclometer.build(machine, keys, 42, file);
+        Cyclometer catalogue = new Cyclometer(file, 42);
+
+        String[] signatures = new String[(int) (2 * keys.positions())];
+        for (int order = 0; order < keys.orders(); order += 1) {
+            for (long k = 0; k < keys.positions(); k += 1) {
+                signatures[(int) (order * keys.positions() + k)] =
+                    characteristic(machine, keys, order, k);
+            }
+        }
+        for (int key = 0; key < signatures.length; key += 7) {
+            long[] found = catalogue.lookup(signatures[key]);
+            long[] expected = new long[signatures.length];
+            int n = 0;
+            for (int other = 0; other < signatures.length; other += 1) {
+                if (signatures[other].equals(signatures[key])) {
+                    expected[n] = other;
+                    n += 1;
+                }
+            }
+            Arrays.sort(found);
+            assertEquals(msg("lookup", "key %d", key),
+                         Arrays.toString(Arrays.copyOf(expected, n)),
+                         Arrays.toString(found));
+        }
+        assertEquals(0, catalogue.lookup("no such characteristic").length);
+    }
+
+    @Test
+    public void testIndicators() throws IOException {
+        Machine machine = smallMachine();
+        KeySpace keys = new KeySpace(machine);
+        File file = temp();
+        Cyclometer.build(machine, keys, 7, file);
+
+        Machine sender = smallMachine();
+        sender.insertRotors(keys.order(1));
+        sender.setPlugboard(new Permutation("(AQ) (BW) (CF) (KZ)", UPPER));
+        long position = 17 * 26 + 4;
+        Random random = new Random(0);
+        List<int[]> indicators = new ArrayList<>();
+        for (int m = 0; m < 200; m += 1) {
+            sender.setRotors(keys.position(position));
+            int[] key = {random.nextInt(26), random.nextInt(26),
+                         random.nextInt(26)};
+            int[] indicator = new int[Cyclometer.INDICATOR];
+            for (int k = 0; k < indicator.length; k += 1) {
+                indicator[k] = sender.convert(key[k % key.length]);
+            }
+            indicators.add(indicator);
+        }
+        String signature = Cyclometer.characteristic(indicators, UPPER);
+        assertEquals(characteristic(machine, keys, 1, position), signature);
+        long[] found = new Cyclometer(file, 7).lookup(signature);
+        long expected = keys.positions() + position;
+        assertTrue("key of the indicators not found",
+                   Arrays.stream(found).anyMatch(key -> key == expected));
+
+        try {
+            Cyclometer.characteristic(indicators.subList(0, 3), UPPER);
+            fail("accepted too few indicators");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        indicators.add(new int[] {indicators.get(0)[0], 0, 0,
+                                  (indicators.get(0)[3] + 1) % 26, 0, 0});
+        try {
+            Cyclometer.characteristic(indicators, UPPER);
+            fail("accepted inconsistent indicators");
+        } catch (EnigmaException excp) {
+            assertEquals("inconsistent indicators", excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testFiles() throws IOException {
+        Machine machine = smallMachine();
+        File file = temp();
+        Cyclometer.build(machine, new KeySpace(machine), 42, file);
+        try {
+            new Cyclometer(file, 43);
+            fail("accepted a catalogue of another configuration");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(), excp.getMessage()
+                       .endsWith("was built for another configuration"));
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(file.length() - 8);
+        }
+        try {
+            new Cyclometer(file, 42);
+            fail("accepted a truncated catalogue");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().startsWith("malformed"));
+        }
+    }
+}
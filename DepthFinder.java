@@ -0,0 +1,314 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.error;
+
+/** Finds pairs of messages that are in depth: enciphered from the same
+ *  starting key, so that their ciphertexts coincide, position by
+ *  position, about as often as two plaintexts do (Kappa, some 0.066 for
+ *  German or English) rather than as often as two random texts (about 1
+ *  in the alphabet's size).  That difference is too small for a cheap
+ *  signature to find depths without losing most of them: two messages
+ *  in depth have the same n-gram at a given position with probability
+ *  about Kappa**n, some 1 in 230 for n = 2, so requiring a shared
+ *  aligned n-gram that chance pairs seldom have misses most real
+ *  depths, while requiring one that real depths almost always have
+ *  still passes well over a third of chance pairs.  So every pair is
+ *  compared, over the first MAX_LENGTH characters that both have, in
+ *  blocks of BLOCK messages that are compared in parallel and stay in
+ *  cache while they are, and pairs are ranked by the probability of so
+ *  many coincidences arising by chance.  A message is the text of the
+ *  message lines following one settings line, counting only the
+ *  characters in the alphabet (in either case), and messages are
+ *  numbered from 1 in the order of their settings lines.
+ *  @author Aadiraj Batlaw
+ */
+class DepthFinder {
+
+    /** A finder for the messages read from INPUT, over ALPHABET. */
+    DepthFinder(MessageLexer input, Alphabet alphabet) {
+        if (input.lookahead() != MessageLexer.Kind.SETTINGS) {
+            throw error("input does not begin with setting");
+        }
+        _alphabet = alphabet;
+        _letters = new long[alphabet.size()];
+        List<char[]> texts = new ArrayList<>();
+        char[] text = new char[MAX_LENGTH];
+        int length = -1;
+        while (true) {
+            MessageLexer.Kind kind = input.next();
+            if (kind == MessageLexer.Kind.SETTINGS
+                || kind == MessageLexer.Kind.END) {
+                if (length >= 0) {
+                    texts.add(Arrays.copyOf(text, length));
+                }
+                length = 0;
+                if (kind == MessageLexer.Kind.END) {
+                    break;
+                }
+            } else if (kind == MessageLexer.Kind.MESSAGE) {
+                String line = input.line();
+                for (int i = 0; i < line.length(); i += 1) {
+                    char ch = Character.toUpperCase(line.charAt(i));
+                    if (length < MAX_LENGTH && _alphabet.contains(ch)) {
+                        int c = _alphabet.toInt(ch);
+                        text[length] = (char) c;
+                        _letters[c] += 1;
+                        length += 1;
+                    }
+                }
+            }
+        }
+        _texts = texts.toArray(new char[texts.size()][]);
+    }
+
+    /** Return the number of messages. */
+    int messages() {
+        return _texts.length;
+    }
+
+    /** Return the probability that two characters of the messages drawn
+     *  at random are the same. */
+    double randomKappa() {
+        long total = 0;
+        for (long n : _letters) {
+            total += n;
+        }
+        if (total == 0) {
+            return 0.0;
+        }
+        double sum = 0.0;
+        for (long n : _letters) {
+            sum += (double) n * n;
+        }
+        return sum / ((double) total * total);
+    }
+
+    /** Return the TOP likeliest depths among all pairs of my messages,
+     *  best first, comparing them on THREADS threads.  Pairs with fewer
+     *  than MIN_OVERLAP characters to compare are ignored. */
+    List<Depth> confirm(int top, int threads) {
+        double random = randomKappa();
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            List<Future<PriorityQueue<Depth>>> parts = new ArrayList<>();
+            for (int lo = 0; lo < _texts.length; lo += BLOCK) {
+                int first = lo;
+                parts.add(executor.submit(() ->
+                    confirm(first, random, top)));
+            }
+            PriorityQueue<Depth> best = new PriorityQueue<>();
+            for (Future<PriorityQueue<Depth>> part : parts) {
+                for (Depth depth : part.get()) {
+                    keep(best, depth, top);
+                }
+            }
+            List<Depth> result = new ArrayList<>(best);
+            result.sort(null);
+            Collections.reverse(result);
+            return result;
+        } catch (ExecutionException excp) {
+            if (excp.getCause() instanceof EnigmaException) {
+                throw (EnigmaException) excp.getCause();
+            }
+            throw error("could not confirm depths: %s", excp.getCause());
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /** Find the TOP likeliest depths of my messages on THREADS threads
+     *  and print a report of them on OUT: the number of messages, the
+     *  number of pairs compared, the chance rate of coincidence and then
+     *  one line per depth, best first, of the form
+     *      depth FIRST SECOND COMPARED COINCIDENCES KAPPA LOG10P
+     *  where FIRST and SECOND are message numbers and LOG10P is the
+     *  common logarithm of the chance probability. */
+    void report(int top, int threads, PrintStream out) {
+        List<Depth> depths = confirm(top, threads);
+        long n = _texts.length;
+        out.printf("messages %d%n", n);
+        out.printf("pairs %d%n", n * (n - 1) / 2);
+        out.printf("kappa.random %.6f%n", randomKappa());
+        for (Depth depth : depths) {
+            out.printf("depth %d %d %d %d %.4f %.2f%n", depth.first() + 1,
+                       depth.second() + 1, depth.compared(),
+                       depth.coincidences(), depth.kappa(), depth.chance());
+        }
+        out.flush();
+    }
+
+    /** Return the TOP likeliest depths between each of the BLOCK
+     *  messages starting at message FIRST and every later message, given
+     *  a chance rate of coincidence of RANDOM.  The later messages are
+     *  taken BLOCK at a time, so that both blocks stay in cache while
+     *  their pairs are compared. */
+    private PriorityQueue<Depth> confirm(int first, double random,
+                                         int top) {
+        PriorityQueue<Depth> best = new PriorityQueue<>();
+        int last = Math.min(first + BLOCK, _texts.length);
+        for (int block = first; block < _texts.length; block += BLOCK) {
+            int end = Math.min(block + BLOCK, _texts.length);
+            for (int a = first; a < last; a += 1) {
+                char[] x = _texts[a];
+                for (int b = Math.max(block, a + 1); b < end; b += 1) {
+                    char[] y = _texts[b];
+                    int compared = Math.min(x.length, y.length);
+                    if (compared < MIN_OVERLAP) {
+                        continue;
+                    }
+                    int coincidences = 0;
+                    for (int i = 0; i < compared; i += 1) {
+                        if (x[i] == y[i]) {
+                            coincidences += 1;
+                        }
+                    }
+                    if (coincidences <= compared * random) {
+                        continue;
+                    }
+                    double chance = chance(compared, coincidences, random);
+                    if (best.size() < top || chance < best.peek().chance()) {
+                        keep(best, new Depth(a, b, compared, coincidences,
+                                             chance), top);
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Return the common logarithm of the probability of at least K
+     *  successes in N trials that each succeed with probability P, where
+     *  0 < K <= N and 0 < P < 1. */
+    static double chance(int n, int k, double p) {
+        double log = k * Math.log(p) + (n - k) * Math.log1p(-p);
+        for (int i = 1; i <= k; i += 1) {
+            log += Math.log((double) (n - k + i) / i);
+        }
+        double odds = p / (1 - p), term = 1.0, sum = 1.0;
+        for (int j = k + 1; j <= n && term > TAIL_PRECISION * sum; j += 1) {
+            term *= odds * (n - j + 1) / j;
+            sum += term;
+        }
+        return (log + Math.log(sum)) / Math.log(10);
+    }
+
+    /** Add DEPTH to BEST, a heap of at most TOP depths with the least
+     *  likely first, dropping the least likely if there are too many. */
+    private static void keep(PriorityQueue<Depth> best, Depth depth,
+                             int top) {
+        best.add(depth);
+        if (best.size() > top) {
+            best.poll();
+        }
+    }
+
+    /** A pair of messages that may be in depth. */
+    static final class Depth implements Comparable<Depth> {
+
+        /** Messages FIRST and SECOND (counting from 0), which coincide at
+         *  COINCIDENCES of the COMPARED positions compared, something
+         *  whose chance probability has common logarithm CHANCE. */
+        Depth(int first, int second, int compared, int coincidences,
+              double chance) {
+            _first = first;
+            _second = second;
+            _compared = compared;
+            _coincidences = coincidences;
+            _chance = chance;
+        }
+
+        /** Return the index of the first message. */
+        int first() {
+            return _first;
+        }
+
+        /** Return the index of the second message. */
+        int second() {
+            return _second;
+        }
+
+        /** Return the number of positions compared. */
+        int compared() {
+            return _compared;
+        }
+
+        /** Return the number of positions at which they coincide. */
+        int coincidences() {
+            return _coincidences;
+        }
+
+        /** Return the rate at which they coincide. */
+        double kappa() {
+            return (double) _coincidences / _compared;
+        }
+
+        /** Return the common logarithm of the probability of so many
+         *  coincidences by chance. */
+        double chance() {
+            return _chance;
+        }
+
+        /** Orders depths from least to most likely, breaking ties in
+         *  favour of the earlier pair. */
+        @Override
+        public int compareTo(Depth other) {
+            int c = Double.compare(other._chance, _chance);
+            if (c == 0) {
+                c = Integer.compare(other._first, _first);
+            }
+            if (c == 0) {
+                c = Integer.compare(other._second, _second);
+            }
+            return c;
+        }
+
+        /** The messages. */
+        private final int _first, _second;
+
+        /** Positions compared. */
+        private final int _compared;
+
+        /** Positions at which they coincide. */
+        private final int _coincidences;
+
+        /** Common logarithm of the chance probability. */
+        private final double _chance;
+    }
+
+    /** Number of messages whose pairs are compared together. */
+    static final int BLOCK = 64;
+
+    /** Number of leading characters of a message kept and compared. */
+    static final int MAX_LENGTH = 1024;
+
+    /** Fewest positions at which a pair must be compared. */
+    static final int MIN_OVERLAP = 20;
+
+    /** Relative size of the last term summed in chance(). */
+    private static final double TAIL_PRECISION = 1e-12;
+
+    /** The alphabet. */
+    private final Alphabet _alphabet;
+
+    /** The first MAX_LENGTH characters of each message, as alphabet
+     *  indices. */
+    private final char[][] _texts;
+
+    /** Number of occurrences of each character in _texts. */
+    private final long[] _letters;
+
+}
@@ -0,0 +1,154 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static enigma.TestUtils.*;
+
+public class DepthFinderTest {
+
+    /** Return a finder for messages TEXTS, each under its own settings
+     *  line. */
+    private DepthFinder finder(String[] texts) {
+        Machine machine = navalMachine();
+        StringBuilder input = new StringBuilder();
+        for (String text : texts) {
+            input.append("* B I II III AAA\n").append(text).append('\n');
+        }
+        LineReader lines = new LineReader(new ByteArrayInputStream(
+            input.toString().getBytes(StandardCharsets.ISO_8859_1)));
+        return new DepthFinder(new MessageLexer(lines, machine), UPPER);
+    }
+
+    @Test
+    public void testChance() {
+        int n = 40;
+        double p = 0.1;
+        for (int k = 1; k <= n; k += 1) {
+            double tail = 0;
+            for (int j = k; j <= n; j += 1) {
+                double term = Math.pow(p, j) * Math.pow(1 - p, n - j);
+                for (int i = 1; i <= j; i += 1) {
+                    term *= (double) (n - j + i) / i;
+                }
+                tail += term;
+            }
+            assertEquals(msg("chance", "k = %d", k), Math.log10(tail),
+                         DepthFinder.chance(n, k, p), 1e-9);
+        }
+    }
+
+    /** Relative frequencies of the letters in English text. */
+    private static final int[] FREQUENCIES = {
+        82, 15, 28, 43, 127, 22, 20, 61, 70, 2, 8, 40, 24,
+        67, 75, 19, 1, 60, 63, 91, 28, 10, 24, 2, 20, 1
+    };
+
+    /** Return LENGTH letters drawn with RANDOM at the frequencies of
+     *  English, so that two such texts coincide at English's Kappa. */
+    private String plaintext(Random random, int length) {
+        int total = 0;
+        for (int f : FREQUENCIES) {
+            total += f;
+        }
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i += 1) {
+            int r = random.nextInt(total), c;
+            for (c = 0; r >= FREQUENCIES[c]; c += 1) {
+                r -= FREQUENCIES[c];
+            }
+            text.append((char) ('A' + c));
+        }
+        return text.toString();
+    }
+
+    /** Return a random key for navalMachine(), drawn with RANDOM: its
+     *  rotor names, reflector first, followed by its positions. */
+    private String[] key(Random random) {
+        List<String> rotors = new ArrayList<>(List.of("I", "II", "III"));
+        Collections.shuffle(rotors, random);
+        String[] key = {"B", rotors.get(0), rotors.get(1), rotors.get(2),
+                        ""};
+        for (int i = 0; i < 3; i += 1) {
+            key[4] += (char) ('A' + random.nextInt(26));
+        }
+        return key;
+    }
+
+    /** Return PLAINTEXT encrypted under KEY, as returned by key(). */
+    private String encrypt(String[] key, String plaintext) {
+        Machine machine = navalMachine();
+        machine.insertRotors(Arrays.copyOf(key, 4));
+        machine.setRotors(key[4]);
+        return machine.convert(plaintext);
+    }
+
+    /** Return the number of depths found among the TOP likeliest in a
+     *  corpus, drawn with RANDOM, of MESSAGES messages of LENGTH letters
+     *  each, in which PLANTED disjoint pairs share a key and the rest
+     *  have keys of their own.  Every planted pair must be reported
+     *  when all pairs are ranked. */
+    private int found(Random random, int messages, int planted, int length,
+                      int top) {
+        String[] texts = new String[messages];
+        for (int m = 0; m < messages; m += 1) {
+            texts[m] = encrypt(key(random), plaintext(random, length));
+        }
+        Set<Long> depths = new HashSet<>();
+        BitSet used = new BitSet();
+        for (int k = 0; k < planted; k += 1) {
+            int a, b;
+            do {
+                a = random.nextInt(messages);
+                b = random.nextInt(messages);
+            } while (a >= b || used.get(a) || used.get(b));
+            String[] key = key(random);
+            texts[a] = encrypt(key, plaintext(random, length));
+            texts[b] = encrypt(key, plaintext(random, length));
+            used.set(a);
+            used.set(b);
+            depths.add((long) a << Integer.SIZE | b);
+        }
+        DepthFinder finder = finder(texts);
+        assertEquals(messages, finder.messages());
+        List<DepthFinder.Depth> all =
+            finder.confirm(messages * (messages - 1) / 2, 3);
+        int reported = 0, found = 0;
+        for (int r = 0; r < all.size(); r += 1) {
+            DepthFinder.Depth depth = all.get(r);
+            if (depths.contains((long) depth.first() << Integer.SIZE
+                                | depth.second())) {
+                reported += 1;
+                if (r < top) {
+                    found += 1;
+                }
+            }
+        }
+        assertEquals(planted, reported);
+        return found;
+    }
+
+    @Test
+    public void testRecall() {
+        Random random = new Random(0);
+        int corpora = 4, planted = 8, found = 0;
+        for (int k = 0; k < corpora; k += 1) {
+            found += found(random, 100, planted, 1000, 2 * planted);
+        }
+        assertTrue(msg("recall", "found %d of %d depths", found,
+                       corpora * planted),
+                   4 * found >= 3 * corpora * planted);
+    }
+}
@@ -0,0 +1,175 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+
+/** Byte channels that convert the data passing through them with a
+ *  machine, as one continuing message.  Each byte is taken to be a
+ *  character in ISO-8859-1, and each converted character must be one.
+ *  The channels wrapped are expected to be in blocking mode.
+ *  @author Aadiraj Batlaw
+ */
+class EnigmaChannels {
+
+    /** Not instantiable. */
+    private EnigmaChannels() {
+    }
+
+    /** Return a channel from which may be read the data of SOURCE as
+     *  converted by M (which must be set up), normalised by TRANSCODER,
+     *  and grouped in fives iff GROUP. */
+    static ReadableByteChannel readable(ReadableByteChannel source,
+                                        Machine M, Transcoder transcoder,
+                                        boolean group) {
+        return new Readable(source,
+                            new StreamConverter(M, transcoder, group,
+                                                BUFFER_SIZE));
+    }
+
+    /** Return a channel to which data written is converted by M (which
+     *  must be set up), normalised by TRANSCODER and grouped in fives iff
+     *  GROUP, and written to SINK. */
+    static WritableByteChannel writable(WritableByteChannel sink, Machine M,
+                                        Transcoder transcoder,
+                                        boolean group) {
+        return new Writable(sink,
+                            new StreamConverter(M, transcoder, group,
+                                                BUFFER_SIZE));
+    }
+
+    /** Put as many of the bytes remaining in FROM as fit into TO, as
+     *  characters. */
+    private static void decode(ByteBuffer from, CharBuffer to) {
+        while (from.hasRemaining() && to.hasRemaining()) {
+            to.put((char) (from.get() & 0xff));
+        }
+    }
+
+    /** Put as many of the characters remaining in FROM as fit into TO, as
+     *  bytes. */
+    private static void encode(CharBuffer from, ByteBuffer to)
+        throws IOException {
+        while (from.hasRemaining() && to.hasRemaining()) {
+            char c = from.get();
+            if (c > 0xff) {
+                throw new IOException("character " + c + " is not one byte");
+            }
+            to.put((byte) c);
+        }
+    }
+
+    /** A converting channel reading from another. */
+    private static final class Readable implements ReadableByteChannel {
+
+        /** A channel reading from SOURCE through CONVERTER. */
+        Readable(ReadableByteChannel source, StreamConverter converter) {
+            _source = source;
+            _converter = converter;
+            _bytes = ByteBuffer.allocate(BUFFER_SIZE);
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            CharBuffer output = _converter.output();
+            while (!output.hasRemaining()) {
+                if (_eof && _converter.input().position() == 0) {
+                    return -1;
+                }
+                if (!_eof) {
+                    _bytes.clear();
+                    int n = _source.read(_bytes);
+                    if (n < 0) {
+                        _eof = true;
+                    } else if (n == 0) {
+                        return 0;
+                    }
+                    _bytes.flip();
+                    decode(_bytes, _converter.input());
+                }
+                _converter.convert();
+            }
+            int start = dst.position();
+            encode(output, dst);
+            return dst.position() - start;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return _source.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _source.close();
+        }
+
+        /** The underlying channel. */
+        private final ReadableByteChannel _source;
+
+        /** Buffers and conversion state. */
+        private final StreamConverter _converter;
+
+        /** Bytes read from _source. */
+        private final ByteBuffer _bytes;
+
+        /** True once _source has ended. */
+        private boolean _eof;
+    }
+
+    /** A converting channel writing to another. */
+    private static final class Writable implements WritableByteChannel {
+
+        /** A channel writing to SINK through CONVERTER. */
+        Writable(WritableByteChannel sink, StreamConverter converter) {
+            _sink = sink;
+            _converter = converter;
+            _bytes = ByteBuffer.allocate(2 * BUFFER_SIZE + 2);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int start = src.position();
+            CharBuffer input = _converter.input();
+            while (src.hasRemaining()) {
+                decode(src, input);
+                CharBuffer output = _converter.output();
+                _converter.convert();
+                while (output.hasRemaining()) {
+                    _bytes.clear();
+                    encode(output, _bytes);
+                    _bytes.flip();
+                    while (_bytes.hasRemaining()) {
+                        _sink.write(_bytes);
+                    }
+                }
+            }
+            return src.position() - start;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return _sink.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _sink.close();
+        }
+
+        /** The underlying channel. */
+        private final WritableByteChannel _sink;
+
+        /** Buffers and conversion state. */
+        private final StreamConverter _converter;
+
+        /** Bytes to be written to _sink. */
+        private final ByteBuffer _bytes;
+    }
+
+    /** Number of bytes read or converted at once. */
+    private static final int BUFFER_SIZE = 8192;
+
+}
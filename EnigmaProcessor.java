@@ -0,0 +1,318 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.concurrent.Flow;
+
+import static enigma.EnigmaException.error;
+
+/** A Flow.Processor that converts a stream of text chunks with a
+ *  machine, for use in reactive pipelines.  The stream is read as the
+ *  text of a message file, split into chunks anywhere: a line whose
+ *  first token is "*" is a settings line, which configures the machine
+ *  for the lines that follow and is not passed on, and every other line
+ *  is message text, converted with its line break kept.  Each chunk
+ *  received is converted as it arrives, on the thread that delivers it,
+ *  and whatever message text it holds is passed on as one chunk; the
+ *  machine's state carries over from one chunk to the next.  Only the
+ *  start of a line that may still prove to be a settings line, and a
+ *  settings line until its line break, are held back, so a '*' within
+ *  a message line is always message text.  Chunks are requested from
+ *  upstream only as the subscriber requests them, so at most one chunk
+ *  per unit of outstanding demand is ever held.  The processor accepts
+ *  one subscriber.
+ *  @author Aadiraj Batlaw
+ */
+class EnigmaProcessor implements Flow.Processor<CharBuffer, CharBuffer> {
+
+    /** A processor converting chunks with M, normalising them with
+     *  TRANSCODER and grouping the result in fives iff GROUP.  The
+     *  stream must begin with a settings line unless M has already been
+     *  set up. */
+    EnigmaProcessor(Machine M, Transcoder transcoder, boolean group) {
+        _machine = M;
+        _transcoder = transcoder;
+        _group = group;
+        _lexer = new MessageLexer(M);
+        _keys = new MachinePool(M, 1, KEY_CACHE);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super CharBuffer> subscriber) {
+        synchronized (this) {
+            if (_subscriber == null) {
+                _subscriber = subscriber;
+                subscriber.onSubscribe(new Downstream());
+                if (_terminated) {
+                    finish();
+                }
+                return;
+            }
+        }
+        subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+            }
+
+            @Override
+            public void cancel() {
+            }
+        });
+        subscriber.onError(new IllegalStateException(
+            "processor already has a subscriber"));
+    }
+
+    @Override
+    public void onSubscribe(Flow.Subscription subscription) {
+        long demand;
+        synchronized (this) {
+            if (_upstream != null) {
+                subscription.cancel();
+                return;
+            }
+            _upstream = subscription;
+            demand = _pending;
+            _pending = 0;
+        }
+        if (_cancelled) {
+            subscription.cancel();
+        } else if (demand > 0) {
+            subscription.request(demand);
+        }
+    }
+
+    @Override
+    public void onNext(CharBuffer chunk) {
+        if (_cancelled || _terminated) {
+            return;
+        }
+        CharBuffer result;
+        boolean text;
+        try {
+            result = CharBuffer.allocate(2 * (chunk.remaining()
+                                              + _head.length()) + 2);
+            text = convert(chunk, result);
+            result.flip();
+        } catch (EnigmaException excp) {
+            _upstream.cancel();
+            onError(excp);
+            return;
+        }
+        if (text) {
+            _subscriber.onNext(result);
+        } else {
+            _upstream.request(1);
+        }
+    }
+
+    /** Convert the message text remaining in CHUNK into RESULT, applying
+     *  the settings lines that end in it.  Return true iff CHUNK held any
+     *  message text. */
+    private boolean convert(CharBuffer chunk, CharBuffer result) {
+        boolean text = false;
+        while (chunk.hasRemaining()) {
+            if (_inMessage) {
+                text = true;
+                int end = chunk.position();
+                while (end < chunk.limit() && chunk.get(end) != '\n') {
+                    end += 1;
+                }
+                int limit = chunk.limit();
+                chunk.limit(end);
+                _count = _transcoder.transcode(_machine, chunk, result,
+                                               _count, _group);
+                chunk.limit(limit);
+                if (chunk.hasRemaining()) {
+                    chunk.get();
+                    result.put('\n');
+                    _inMessage = false;
+                }
+                continue;
+            }
+            char c = chunk.get();
+            if (_settings) {
+                if (c == '\n') {
+                    configure();
+                } else {
+                    _head.append(c);
+                }
+            } else if (_star && Character.isWhitespace(c)) {
+                _settings = true;
+                chunk.position(chunk.position() - 1);
+            } else if (!_star && c == '*') {
+                _head.append(c);
+                _star = true;
+            } else if (!_star && c != '\n' && Character.isWhitespace(c)) {
+                _head.append(c);
+            } else {
+                chunk.position(chunk.position() - 1);
+                _count = _transcoder.transcode(_machine,
+                                               CharBuffer.wrap(_head),
+                                               result, _count, _group);
+                startLine();
+                _inMessage = true;
+                text = true;
+            }
+        }
+        return text;
+    }
+
+    /** Configure the machine with the settings line held in _head, and
+     *  start a new line. */
+    private void configure() {
+        _lexer.settings(_head.toString());
+        MachinePool.configure(_machine,
+                              _keys.compile(_lexer.rotors(),
+                                            _lexer.rings(),
+                                            _lexer.plugboard()));
+        if (!_machine.getRotorSlots()[0].reflecting()) {
+            throw error("First rotor is not a reflector");
+        }
+        _machine.setRotors(_lexer.positions());
+        _count = 0;
+        startLine();
+    }
+
+    /** Begin a line that may be a settings line. */
+    private void startLine() {
+        _head.setLength(0);
+        _star = _settings = false;
+    }
+
+    @Override
+    public void onError(Throwable excp) {
+        _failure = excp;
+        terminate();
+    }
+
+    /** A settings line that ends the stream without a line break is
+     *  still parsed, so that an error in it is reported. */
+    @Override
+    public void onComplete() {
+        if (_star || _settings) {
+            try {
+                configure();
+            } catch (EnigmaException excp) {
+                _failure = excp;
+            }
+        }
+        terminate();
+    }
+
+    /** Record that no more chunks will arrive and, if there is a
+     *  subscriber, tell it. */
+    private void terminate() {
+        synchronized (this) {
+            if (_terminated) {
+                return;
+            }
+            _terminated = true;
+            if (_subscriber == null) {
+                return;
+            }
+        }
+        finish();
+    }
+
+    /** Send the terminal signal to my subscriber. */
+    private void finish() {
+        if (_cancelled) {
+            return;
+        }
+        if (_failure != null) {
+            _subscriber.onError(_failure);
+        } else {
+            _subscriber.onComplete();
+        }
+    }
+
+    /** My subscriber's subscription. */
+    private final class Downstream implements Flow.Subscription {
+
+        @Override
+        public void request(long n) {
+            if (_subscriber == null || _cancelled) {
+                return;
+            }
+            if (n <= 0) {
+                cancel();
+                _subscriber.onError(new IllegalArgumentException(
+                    "non-positive request"));
+                return;
+            }
+            Flow.Subscription upstream;
+            synchronized (EnigmaProcessor.this) {
+                upstream = _upstream;
+                if (upstream == null) {
+                    _pending = _pending + n < 0 ? Long.MAX_VALUE
+                        : _pending + n;
+                    return;
+                }
+            }
+            upstream.request(n);
+        }
+
+        @Override
+        public void cancel() {
+            Flow.Subscription upstream;
+            synchronized (EnigmaProcessor.this) {
+                _cancelled = true;
+                upstream = _upstream;
+            }
+            if (upstream != null) {
+                upstream.cancel();
+            }
+        }
+    }
+
+    /** Number of compiled keys kept. */
+    private static final int KEY_CACHE = 16;
+
+    /** The machine. */
+    private final Machine _machine;
+
+    /** Converter of chunks. */
+    private final Transcoder _transcoder;
+
+    /** True if output is grouped in fives. */
+    private final boolean _group;
+
+    /** Parser of settings lines. */
+    private final MessageLexer _lexer;
+
+    /** Compiled keys. */
+    private final MachinePool _keys;
+
+    /** Number of characters converted since the last settings line. */
+    private long _count;
+
+    /** True iff the current line is known to be a message line. */
+    private boolean _inMessage;
+
+    /** The current line so far, if it may be or is a settings line. */
+    private final StringBuilder _head = new StringBuilder();
+
+    /** True iff _head is blanks followed by '*'. */
+    private boolean _star;
+
+    /** True iff _head is the start of a settings line. */
+    private boolean _settings;
+
+    /** Source of chunks, once subscribed. */
+    private volatile Flow.Subscription _upstream;
+
+    /** Destination of chunks, once subscribed. */
+    private volatile Flow.Subscriber<? super CharBuffer> _subscriber;
+
+    /** Demand received before there was an upstream. */
+    private long _pending;
+
+    /** True once the subscriber has cancelled. */
+    private volatile boolean _cancelled;
+
+    /** True once upstream has completed or failed. */
+    private volatile boolean _terminated;
+
+    /** The upstream failure, if any. */
+    private volatile Throwable _failure;
+
+}
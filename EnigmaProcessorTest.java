@@ -0,0 +1,345 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Flow;
+
+import static enigma.TestUtils.*;
+
+public class EnigmaProcessorTest {
+
+    /** Return a processor with a new machine, treating characters not
+     *  in the alphabet according to POLICY and grouping its output. */
+    private EnigmaProcessor processor(Transcoder.Policy policy) {
+        return new EnigmaProcessor(navalMachine(),
+                                   new Transcoder(UPPER, policy, false),
+                                   true);
+    }
+
+    /** Return a processor with a new machine, stripping characters not in
+     *  the alphabet and grouping its output. */
+    private EnigmaProcessor processor() {
+        return processor(Transcoder.Policy.STRIP);
+    }
+
+    /** Return TEXT converted in one piece, grouped in fives, by a
+     *  machine set up by the settings line SETTINGS, stripping characters
+     *  not in the alphabet. */
+    private String convert(String settings, String text) {
+        return convert(settings, text, Transcoder.Policy.STRIP);
+    }
+
+    /** Return TEXT converted in one piece, grouped in fives, by a
+     *  machine set up by the settings line SETTINGS, treating characters
+     *  not in the alphabet according to POLICY. */
+    private String convert(String settings, String text,
+                           Transcoder.Policy policy) {
+        Machine machine = navalMachine();
+        MessageLexer lexer = new MessageLexer(machine);
+        lexer.settings(settings);
+        MachinePool.configure(machine,
+                              new MachinePool(machine, 1, 1)
+                              .compile(lexer.rotors(), lexer.rings(),
+                                       lexer.plugboard()));
+        machine.setRotors(lexer.positions());
+        CharBuffer out = CharBuffer.allocate(2 * text.length() + 2);
+        new Transcoder(UPPER, policy, false)
+            .transcode(machine, CharBuffer.wrap(text), out, 0, true);
+        out.flip();
+        return out.toString();
+    }
+
+    /** A publisher of fixed chunks that delivers them synchronously as
+     *  they are requested and records the requests it receives. */
+    private static class Source implements Flow.Publisher<CharBuffer> {
+
+        /** A source of CHUNKS, followed by FAILURE if not null. */
+        Source(List<String> chunks, Throwable failure) {
+            _chunks = chunks;
+            _failure = failure;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super CharBuffer> sub) {
+            _subscriber = sub;
+            sub.onSubscribe(new Flow.Subscription() {
+                @Override
+                public void request(long n) {
+                    _requested += n;
+                    _demand += n;
+                    drain();
+                }
+
+                @Override
+                public void cancel() {
+                    _cancelled = true;
+                }
+            });
+        }
+
+        /** Deliver chunks while there is demand, and then the terminal
+         *  signal once all have been delivered. */
+        private void drain() {
+            if (_draining) {
+                return;
+            }
+            _draining = true;
+            while (!_cancelled && _demand > 0 && _next < _chunks.size()) {
+                _demand -= 1;
+                _next += 1;
+                _subscriber.onNext(CharBuffer.wrap(_chunks.get(_next - 1)));
+            }
+            if (!_cancelled && !_done && _next == _chunks.size()) {
+                _done = true;
+                if (_failure != null) {
+                    _subscriber.onError(_failure);
+                } else {
+                    _subscriber.onComplete();
+                }
+            }
+            _draining = false;
+        }
+
+        /** The chunks. */
+        private final List<String> _chunks;
+        /** Error to end with, or null. */
+        private final Throwable _failure;
+        /** The subscriber. */
+        private Flow.Subscriber<? super CharBuffer> _subscriber;
+        /** Total and outstanding demand. */
+        private long _requested, _demand;
+        /** Index of the next chunk. */
+        private int _next;
+        /** Flags. */
+        private boolean _cancelled, _draining, _done;
+    }
+
+    /** A subscriber that records what it receives. */
+    private static class Sink implements Flow.Subscriber<CharBuffer> {
+
+        /** A sink that requests INITIAL chunks when subscribed. */
+        Sink(long initial) {
+            _initial = initial;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            _subscription = subscription;
+            if (_initial > 0) {
+                subscription.request(_initial);
+            }
+        }
+
+        @Override
+        public void onNext(CharBuffer chunk) {
+            assertFalse("chunk after end", _complete || _failure != null);
+            _received.add(chunk.toString());
+        }
+
+        @Override
+        public void onError(Throwable excp) {
+            _failure = excp;
+        }
+
+        @Override
+        public void onComplete() {
+            _complete = true;
+        }
+
+        /** Return the concatenation of the chunks received. */
+        String text() {
+            return String.join("", _received);
+        }
+
+        /** Chunks to request on subscription. */
+        private final long _initial;
+        /** The subscription. */
+        private Flow.Subscription _subscription;
+        /** Chunks received. */
+        private final ArrayList<String> _received = new ArrayList<>();
+        /** Error received, if any. */
+        private Throwable _failure;
+        /** True once complete. */
+        private boolean _complete;
+    }
+
+    /** Connect SOURCE through PROCESSOR to SINK. */
+    private void connect(Source source, EnigmaProcessor processor,
+                         Sink sink) {
+        processor.subscribe(sink);
+        source.subscribe(processor);
+    }
+
+    /** Connect SOURCE through a new processor to SINK. */
+    private void connect(Source source, Sink sink) {
+        connect(source, processor(), sink);
+    }
+
+    /** Return TEXT split into chunks of SIZE characters. */
+    private List<String> chunks(String text, int size) {
+        ArrayList<String> chunks = new ArrayList<>();
+        for (int i = 0; i < text.length(); i += size) {
+            chunks.add(text.substring(i, Math.min(text.length(), i + size)));
+        }
+        return chunks;
+    }
+
+    @Test
+    public void testChunkBoundaries() {
+        String settings = "* B I II III AXL (AB) (CD)";
+        String text = "FROM HIS SHOULDER HIAWATHA TOOK THE CAMERA OF ROSEWOOD";
+        String expected = convert(settings, text);
+        for (int size : new int[] {1, 2, 3, 5, 7, 100}) {
+            ArrayList<String> chunks = new ArrayList<>();
+            chunks.add(settings + "\n");
+            chunks.addAll(chunks(text, size));
+            Sink sink = new Sink(Long.MAX_VALUE);
+            connect(new Source(chunks, null), sink);
+            assertTrue(sink._complete);
+            assertEquals(msg("chunks", "size %d", size), expected,
+                         sink.text());
+            assertEquals(chunks.size() - 1, sink._received.size());
+        }
+    }
+
+    @Test
+    public void testSplitSettings() {
+        String settings = "  * B III I II XYZ BCD (AZ)";
+        String text = "HELLO WORLD";
+        String expected = convert(settings, text) + "\n";
+        String stream = "* B I II III AAA\n\n" + settings + "\r\n" + text
+            + "\n";
+        for (int size = 1; size <= stream.length(); size += 1) {
+            Sink sink = new Sink(Long.MAX_VALUE);
+            connect(new Source(chunks(stream, size), null), sink);
+            assertTrue(msg("settings", "size %d", size), sink._complete);
+            assertEquals(msg("settings", "size %d", size),
+                         "\n" + expected, sink.text());
+        }
+    }
+
+    @Test
+    public void testStarInText() {
+        String settings = "* B I II III QRS (AB)";
+        String text = "HELLO*WORLD *\n*STARS AND * BARS\n";
+        String expected =
+            convert(settings, text, Transcoder.Policy.PASS);
+        assertTrue(expected.contains("\n*"));
+        for (int size = 1; size <= text.length(); size += 1) {
+            ArrayList<String> chunks = new ArrayList<>();
+            chunks.add(settings + "\n");
+            chunks.addAll(chunks(text, size));
+            Sink sink = new Sink(Long.MAX_VALUE);
+            connect(new Source(chunks, null),
+                    processor(Transcoder.Policy.PASS), sink);
+            assertTrue(msg("star", "size %d", size), sink._complete);
+            assertEquals(msg("star", "size %d", size), expected,
+                         sink.text());
+        }
+    }
+
+    @Test
+    public void testSettingsMidStream() {
+        Sink sink = new Sink(Long.MAX_VALUE);
+        connect(new Source(List.of("* B I II III AAA\n", "HELLOWOR\n",
+                                   "* B III I II XYZ BCD (AZ)\n",
+                                   "HELLOWOR", "LD"), null), sink);
+        assertTrue(sink._complete);
+        assertEquals(List.of(convert("* B I II III AAA", "HELLOWOR") + "\n",
+                             convert("* B III I II XYZ BCD (AZ)",
+                                     "HELLOWOR")),
+                     sink._received.subList(0, 2));
+        assertEquals(convert("* B III I II XYZ BCD (AZ)", "HELLOWORLD"),
+                     sink._received.get(1) + sink._received.get(2));
+    }
+
+    @Test
+    public void testBackpressure() {
+        Source source = new Source(List.of("* B I II III AAA\n", "ONE",
+                                           "TWO\n", "* B I II III BBB\n",
+                                           "THREE", "FOUR", "FIVE"), null);
+        Sink sink = new Sink(0);
+        connect(source, sink);
+        assertEquals(0, source._requested);
+        sink._subscription.request(2);
+        assertEquals(2, sink._received.size());
+        assertEquals(3, source._requested);
+        sink._subscription.request(1);
+        assertEquals(3, sink._received.size());
+        assertEquals(5, source._requested);
+        assertFalse(sink._complete);
+        sink._subscription.request(10);
+        assertEquals(5, sink._received.size());
+        assertTrue(sink._complete);
+    }
+
+    @Test
+    public void testDemandBeforeUpstream() {
+        Source source =
+            new Source(List.of("* B I II III AAA\n", "ONE", "TWO"), null);
+        EnigmaProcessor processor = processor();
+        Sink sink = new Sink(1);
+        processor.subscribe(sink);
+        source.subscribe(processor);
+        assertEquals(1, sink._received.size());
+        assertEquals(2, source._requested);
+    }
+
+    @Test
+    public void testCancel() {
+        Source source = new Source(List.of("* B I II III AAA\n", "ONE",
+                                           "TWO", "THREE"), null);
+        Sink sink = new Sink(1);
+        connect(source, sink);
+        sink._subscription.cancel();
+        assertTrue("cancel not passed upstream", source._cancelled);
+        sink._subscription.request(5);
+        assertEquals(1, sink._received.size());
+        assertFalse(sink._complete);
+    }
+
+    @Test
+    public void testUpstreamError() {
+        IOException failure = new IOException("connection reset");
+        Sink sink = new Sink(Long.MAX_VALUE);
+        connect(new Source(List.of("* B I II III AAA\n", "ONE"), failure),
+                sink);
+        assertEquals(1, sink._received.size());
+        assertSame(failure, sink._failure);
+        assertFalse(sink._complete);
+    }
+
+    @Test
+    public void testBadSettings() {
+        Source source = new Source(List.of("* B I II III AAA\n", "ONE\n",
+                                           "* B I II IX AAA\n", "TWO"),
+                                   null);
+        Sink sink = new Sink(Long.MAX_VALUE);
+        connect(source, sink);
+        assertEquals(1, sink._received.size());
+        assertTrue(sink._failure instanceof EnigmaException);
+        assertTrue(source._cancelled);
+
+        sink = new Sink(Long.MAX_VALUE);
+        connect(new Source(List.of("* B I II III AAA\n", "ONE\n",
+                                   "* B I II"), null), sink);
+        assertEquals(1, sink._received.size());
+        assertTrue("bad final settings line not reported",
+                   sink._failure instanceof EnigmaException);
+    }
+
+    @Test
+    public void testSecondSubscriber() {
+        EnigmaProcessor processor = processor();
+        processor.subscribe(new Sink(1));
+        Sink second = new Sink(1);
+        processor.subscribe(second);
+        assertTrue(second._failure instanceof IllegalStateException);
+    }
+}
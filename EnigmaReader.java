@@ -0,0 +1,105 @@
+package enigma;
+
+import java.io.FilterReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.CharBuffer;
+
+/** A Reader that converts the text read from another Reader with a
+ *  machine, as one continuing message.  Text is read from the underlying
+ *  reader in bulk into a buffer of fixed size.
+ *  @author Aadiraj Batlaw
+ */
+class EnigmaReader extends FilterReader {
+
+    /** A reader of the text from IN converted by M, which must be set
+     *  up, normalised by TRANSCODER and grouped in fives iff GROUP. */
+    EnigmaReader(Reader in, Machine M, Transcoder transcoder,
+                 boolean group) {
+        super(in);
+        _converter = new StreamConverter(M, transcoder, group, BUFFER_SIZE);
+    }
+
+    @Override
+    public int read() throws IOException {
+        return fill() ? _converter.output().get() : -1;
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (!fill()) {
+            return -1;
+        }
+        CharBuffer output = _converter.output();
+        int n = Math.min(len, output.remaining());
+        output.get(cbuf, off, n);
+        return n;
+    }
+
+    @Override
+    public long skip(long n) throws IOException {
+        long skipped = 0;
+        while (skipped < n && fill()) {
+            CharBuffer output = _converter.output();
+            int k = (int) Math.min(n - skipped, output.remaining());
+            output.position(output.position() + k);
+            skipped += k;
+        }
+        return skipped;
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        return _converter.output().hasRemaining() || in.ready();
+    }
+
+    @Override
+    public boolean markSupported() {
+        return false;
+    }
+
+    @Override
+    public void mark(int readAheadLimit) throws IOException {
+        throw new IOException("mark not supported");
+    }
+
+    @Override
+    public void reset() throws IOException {
+        throw new IOException("reset not supported");
+    }
+
+    /** Make converted text available, reading more input as needed.
+     *  Return false if there is none because the input has ended. */
+    private boolean fill() throws IOException {
+        CharBuffer input = _converter.input();
+        while (!_converter.output().hasRemaining()) {
+            if (_eof && input.position() == 0) {
+                return false;
+            }
+            if (!_eof) {
+                int n = in.read(input.array(), input.position(),
+                                input.remaining());
+                if (n < 0) {
+                    _eof = true;
+                } else {
+                    input.position(input.position() + n);
+                }
+            }
+            _converter.convert();
+        }
+        return true;
+    }
+
+    /** Number of characters read from the underlying reader at once. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Buffers and conversion state. */
+    private final StreamConverter _converter;
+
+    /** True once the underlying reader has ended. */
+    private boolean _eof;
+
+}
@@ -0,0 +1,99 @@
+package enigma;
+
+import java.io.FilterWriter;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+/** A Writer that converts the text written to it with a machine, as one
+ *  continuing message, and writes the result to another Writer.  Text
+ *  is collected in a buffer of fixed size and written on in bulk.
+ *  @author Aadiraj Batlaw
+ */
+class EnigmaWriter extends FilterWriter {
+
+    /** A writer sending the text written to it, converted by M (which
+     *  must be set up), normalised by TRANSCODER and grouped in fives iff
+     *  GROUP, to OUT. */
+    EnigmaWriter(Writer out, Machine M, Transcoder transcoder,
+                 boolean group) {
+        super(out);
+        _converter = new StreamConverter(M, transcoder, group, BUFFER_SIZE);
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        CharBuffer input = _converter.input();
+        if (!input.hasRemaining()) {
+            drain();
+        }
+        input.put((char) c);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        CharBuffer input = _converter.input();
+        while (len > 0) {
+            if (!input.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(len, input.remaining());
+            input.put(cbuf, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(String str, int off, int len) throws IOException {
+        CharBuffer input = _converter.input();
+        while (len > 0) {
+            if (!input.hasRemaining()) {
+                drain();
+            }
+            int n = Math.min(len, input.remaining());
+            str.getChars(off, off + n, input.array(), input.position());
+            input.position(input.position() + n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void flush() throws IOException {
+        drain();
+        out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (!_closed) {
+            _closed = true;
+            try {
+                flush();
+            } finally {
+                out.close();
+            }
+        }
+    }
+
+    /** Convert everything written so far and write it on. */
+    private void drain() throws IOException {
+        CharBuffer output = _converter.output();
+        do {
+            _converter.convert();
+            out.write(output.array(), output.position(), output.remaining());
+            output.position(output.limit());
+        } while (_converter.input().position() > 0);
+    }
+
+    /** Number of characters collected before converting them. */
+    private static final int BUFFER_SIZE = 8192;
+
+    /** Buffers and conversion state. */
+    private final StreamConverter _converter;
+
+    /** True once I have been closed. */
+    private boolean _closed;
+
+}
@@ -15,6 +15,11 @@ class FixedRotor extends Rotor {
         _perm = perm;
     }
 
+    @Override
+    Rotor copy() {
+        return new FixedRotor(_name, _perm);
+    }
+
 
     /** Rotor name. */
     private String _name;
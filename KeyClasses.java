@@ -0,0 +1,272 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import static enigma.EnigmaException.error;
+
+/** The classes of equivalent keys of a KeySpace for messages of a given
+ *  length, where a key is a rotor order with ring settings and starting
+ *  positions (and an empty plugboard).  A rotor's permutation depends
+ *  only on its offset (position less ring setting), and its stepping
+ *  only on its position, so two keys of an order with the same offsets
+ *  behave alike on the message if their positions make the rotors step
+ *  at the same key presses.  There are far fewer such stepping patterns
+ *  than choices of positions: the rotors to the left usually step once
+ *  or not at all, and the ring of a rotor without pawls never matters.
+ *  The classes of an order are numbered from 0, pattern by pattern, so
+ *  that a search can try exactly one key of each.  Each class is
+ *  represented by the key with its offsets whose moving rotors' positions
+ *  are the first, in numerical order, to give its pattern, and whose
+ *  other rotors have ring setting 0.
+ *  @author Aadiraj Batlaw
+ */
+class KeyClasses {
+
+    /** The classes of the keys of KEYS, for machine M, on messages of
+     *  LENGTH characters. */
+    KeyClasses(Machine M, KeySpace keys, int length) {
+        if (length < 0) {
+            throw error("negative message length");
+        }
+        _machine = M;
+        _keys = keys;
+        _length = length;
+        _size = keys.alphabet().size();
+    }
+
+    /** Return the message length. */
+    int length() {
+        return _length;
+    }
+
+    /** Return the number of stepping patterns of rotor order ORDER. */
+    int patterns(int order) {
+        return order(order)._representatives.size();
+    }
+
+    /** Return the number of classes of rotor order ORDER. */
+    long classes(int order) {
+        return patterns(order) * _keys.positions();
+    }
+
+    /** Set RINGS and POSITIONS (as for Machine.setRings and
+     *  Machine.setRotors) to the representative of class K of rotor
+     *  order ORDER. */
+    void key(int order, long k, int[] rings, int[] positions) {
+        Order classes = order(order);
+        int[] pattern =
+            classes._representatives.get((int) (k / _keys.positions()));
+        long offsets = k % _keys.positions();
+        for (int i = rings.length - 1; i >= 0; i -= 1) {
+            int offset = (int) (offsets % _size);
+            offsets /= _size;
+            if (classes._moves[i]) {
+                positions[i] = pattern[i];
+                rings[i] = Math.floorMod(pattern[i] - offset, _size);
+            } else {
+                positions[i] = offset;
+                rings[i] = 0;
+            }
+        }
+    }
+
+    /** Return the number of the class of the key of rotor order ORDER
+     *  with ring settings RINGS and positions POSITIONS. */
+    long classOf(int order, int[] rings, int[] positions) {
+        Order classes = order(order);
+        Integer pattern = classes._numbers.get(classes.pattern(positions));
+        long offsets = 0;
+        for (int i = 0; i < rings.length; i += 1) {
+            offsets = offsets * _size
+                + Math.floorMod(positions[i] - rings[i], _size);
+        }
+        return pattern * _keys.positions() + offsets;
+    }
+
+    /** Replace RINGS and POSITIONS, a key of rotor order ORDER, with the
+     *  representative of its class. */
+    void canonical(int order, int[] rings, int[] positions) {
+        key(order, classOf(order, rings, positions), rings, positions);
+    }
+
+    /** Return true iff RINGS and POSITIONS, a key of rotor order ORDER,
+     *  is the representative of its class, in constant time. */
+    boolean representative(int order, int[] rings, int[] positions) {
+        Order classes = order(order);
+        int settings = 0;
+        for (int i = 0; i < rings.length; i += 1) {
+            if (classes._moves[i]) {
+                settings = settings * _size + positions[i];
+            } else if (rings[i] != 0) {
+                return false;
+            }
+        }
+        return classes._first.get(settings);
+    }
+
+    /** Return the patterns of rotor order ORDER, finding them if this is
+     *  their first use. */
+    private Order order(int order) {
+        return _orders.computeIfAbsent(order, Order::new);
+    }
+
+    /** The stepping patterns of one rotor order. */
+    private final class Order {
+
+        /** The patterns of rotor order ORDER. */
+        Order(int order) {
+            Machine machine = _machine.copy();
+            machine.insertRotors(_keys.order(order));
+            Rotor[] slots = machine.getRotorSlots();
+            int n = slots.length - 1;
+            if (n < 2) {
+                throw error("too few rotors to classify");
+            }
+            _notches = new boolean[n][_size];
+            _moves = new boolean[n];
+            long settings = 1;
+            for (int i = 0; i < n; i += 1) {
+                Rotor rotor = slots[i + 1];
+                _moves[i] = rotor.rotates();
+                for (int k = 0; _moves[i] && k < _size; k += 1) {
+                    rotor.set(k);
+                    _notches[i][k] = rotor.atNotch();
+                }
+                if (_moves[i]) {
+                    settings *= _size;
+                    if (settings > MAX_SETTINGS) {
+                        throw error("too many rotor positions to classify");
+                    }
+                }
+            }
+            int[] positions = new int[n];
+            for (long s = 0; s < settings; s += 1) {
+                long digits = s;
+                for (int i = n - 1; i >= 0; i -= 1) {
+                    if (_moves[i]) {
+                        positions[i] = (int) (digits % _size);
+                        digits /= _size;
+                    }
+                }
+                Pattern pattern = pattern(positions);
+                if (!_numbers.containsKey(pattern)) {
+                    _numbers.put(pattern, _representatives.size());
+                    _representatives.add(positions.clone());
+                    _first.set((int) s);
+                }
+            }
+        }
+
+        /** Return the stepping pattern of rotors starting at POSITIONS
+         *  over a message, following Machine.advance: a rotor at a notch
+         *  before a key press steps itself and the rotor to its left,
+         *  and the rightmost rotor always steps. */
+        Pattern pattern(int[] positions) {
+            int n = positions.length;
+            int[] now = positions.clone();
+            int[] steps = new int[n];
+            List<Integer> events = new ArrayList<>();
+            for (int t = 0; t < _length; t += 1) {
+                Arrays.fill(steps, 0);
+                for (int i = 1; i < n - 1; i += 1) {
+                    if (_notches[i][now[i]]) {
+                        steps[i - 1] += 1;
+                        steps[i] += 1;
+                    }
+                }
+                if (_notches[n - 1][now[n - 1]]) {
+                    steps[n - 2] += 1;
+                }
+                steps[n - 1] += 1;
+                for (int i = 0; i < n - 1; i += 1) {
+                    if (_moves[i] && steps[i] > 0) {
+                        events.add((t * n + i) * STEP_LIMIT + steps[i]);
+                    }
+                }
+                for (int i = 0; i < n; i += 1) {
+                    if (_moves[i]) {
+                        now[i] = (now[i] + steps[i]) % _size;
+                    }
+                }
+            }
+            int[] result = new int[events.size()];
+            for (int k = 0; k < result.length; k += 1) {
+                result[k] = events.get(k);
+            }
+            return new Pattern(result);
+        }
+
+        /** Whether each slot's rotor is at a notch at each position. */
+        private final boolean[][] _notches;
+
+        /** Whether each slot's rotor moves. */
+        private final boolean[] _moves;
+
+        /** The number of each pattern. */
+        private final Map<Pattern, Integer> _numbers = new HashMap<>();
+
+        /** The first positions giving each pattern, by number. */
+        private final List<int[]> _representatives = new ArrayList<>();
+
+        /** The choices of the moving rotors' positions, numbered with the
+         *  leftmost most significant, that are in _representatives. */
+        private final BitSet _first = new BitSet();
+    }
+
+    /** The steps taken by all but the rightmost rotor over a message, as
+     *  (key press * slots + slot) * STEP_LIMIT + steps, in order. */
+    private static final class Pattern {
+
+        /** The pattern of EVENTS, which is retained. */
+        Pattern(int[] events) {
+            _events = events;
+            _hash = Arrays.hashCode(events);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            return obj instanceof Pattern
+                && Arrays.equals(_events, ((Pattern) obj)._events);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** The steps. */
+        private final int[] _events;
+
+        /** Hash of _events. */
+        private final int _hash;
+    }
+
+    /** Largest number of choices of positions of an order's moving
+     *  rotors that is classified. */
+    static final long MAX_SETTINGS = 1 << 22;
+
+    /** Bound on the steps a rotor takes at one key press. */
+    private static final int STEP_LIMIT = 4;
+
+    /** Machine whose rotors the orders use. */
+    private final Machine _machine;
+
+    /** The key space classified. */
+    private final KeySpace _keys;
+
+    /** The message length. */
+    private final int _length;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** The patterns of each order used so far. */
+    private final Map<Integer, Order> _orders = new ConcurrentHashMap<>();
+
+}
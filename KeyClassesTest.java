@@ -0,0 +1,121 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import static enigma.TestUtils.*;
+
+public class KeyClassesTest {
+
+    /** Return a machine with a four-letter alphabet, a fixed rotor and
+     *  three moving rotors. */
+    private Machine small() {
+        Alphabet ad = new CharacterRange('A', 'D');
+        Rotor[] rotors = {
+            new Reflector("R1", new Permutation("(AC) (BD)", ad)),
+            new FixedRotor("F", new Permutation("(ABD)", ad)),
+            new MovingRotor("R2", new Permutation("(ABCD)", ad), "C"),
+            new MovingRotor("R3", new Permutation("(ADC)", ad), "B"),
+            new MovingRotor("R4", new Permutation("(AB)", ad), "CD")
+        };
+        return new Machine(ad, 5, 3, new ArrayList<>(Arrays.asList(rotors)));
+    }
+
+    /** Return the conversion of MESSAGE by M set to order ORDER of KEYS,
+     *  with RINGS and POSITIONS. */
+    private String convert(Machine M, KeySpace keys, int order, int[] rings,
+                           int[] positions, String message) {
+        M.insertRotors(keys.order(order));
+        M.setRings(rings);
+        M.setRotors(positions);
+        return M.convert(message);
+    }
+
+    @Test
+    public void testEveryKey() {
+        Machine machine = small();
+        KeySpace keys = new KeySpace(machine);
+        String message = "ABCDDC";
+        KeyClasses classes =
+            new KeyClasses(machine, keys, message.length());
+        int[] rings = new int[4], positions = new int[4];
+        int[] ringsC = new int[4], positionsC = new int[4];
+        for (int order = 0; order < keys.orders(); order += 1) {
+            for (int key = 0; key < 1 << 16; key += 1) {
+                for (int i = 0; i < 4; i += 1) {
+                    rings[i] = key >> (2 * i) & 3;
+                    positions[i] = key >> (8 + 2 * i) & 3;
+                    ringsC[i] = rings[i];
+                    positionsC[i] = positions[i];
+                }
+                classes.canonical(order, ringsC, positionsC);
+                assertEquals(msg("convert", "order %d, key %d", order, key),
+                             convert(machine, keys, order, rings, positions,
+                                     message),
+                             convert(machine, keys, order, ringsC,
+                                     positionsC, message));
+            }
+            for (long k = 0; k < classes.classes(order); k += 1) {
+                classes.key(order, k, rings, positions);
+                assertEquals(k, classes.classOf(order, rings, positions));
+            }
+        }
+    }
+
+    @Test
+    public void testSearch() {
+        Machine machine = small();
+        assertFalse(new KeySpace(machine, 2).classifiable());
+        KeySpace keys = new KeySpace(machine, 3);
+        assertTrue(keys.classifiable());
+        String plain = "ABCDDCBA";
+        int[] rings = {3, 1, 0, 2}, positions = {2, 3, 1, 3};
+        String cipher = convert(machine, keys, 4, rings, positions, plain);
+        int[] ciphertext = new int[cipher.length()];
+        int[] crib = new int[plain.length()];
+        for (int i = 0; i < ciphertext.length; i += 1) {
+            ciphertext[i] = cipher.charAt(i) - 'A';
+            crib[i] = plain.charAt(i) - 'A';
+        }
+        KeyClasses classes = new KeyClasses(machine, keys, plain.length());
+        SearchWorker worker =
+            new SearchWorker(machine, keys, ciphertext,
+                             new TrialScorer.Crib(crib, 0), Integer.MAX_VALUE);
+        long planted = classes.classOf(4, rings, positions);
+        for (int order = 0; order < keys.orders(); order += 1) {
+            BitSet visited = new BitSet();
+            boolean found = false;
+            for (SearchResult result
+                     : worker.search(order, 0, keys.settings())) {
+                long setting = result.setting();
+                keys.rings(setting / keys.positions(), rings);
+                keys.position(setting % keys.positions(), positions);
+                int k = (int) classes.classOf(order, rings, positions);
+                assertFalse(msg("search", "order %d, class %d twice",
+                                order, k),
+                            visited.get(k));
+                visited.set(k);
+                found |= order == 4 && k == planted
+                    && result.score() == plain.length();
+            }
+            assertEquals(msg("search", "order %d", order),
+                         classes.classes(order), visited.cardinality());
+            assertEquals(order == 4, found);
+        }
+    }
+
+    @Test
+    public void testNaval() {
+        Machine machine = navalMachine();
+        KeySpace keys = new KeySpace(machine);
+        KeyClasses classes = new KeyClasses(machine, keys, 20);
+        for (int order = 0; order < keys.orders(); order += 1) {
+            assertTrue(classes.patterns(order) * 20 < 26 * 26 * 26);
+        }
+    }
+}
@@ -0,0 +1,222 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static enigma.EnigmaException.error;
+
+/** The settings of a machine that a key search must try: each choice
+ *  of rotors for its slots (a rotor order) combined with each choice of
+ *  starting positions and, optionally, of the ring settings of some of
+ *  the rightmost rotors (the others keep ring setting 0).  A rotor order
+ *  puts a reflector in the first slot, non-moving rotors in the slots
+ *  without pawls and moving rotors in the slots with pawls.  Orders,
+ *  positions and ring choices are numbered from 0, and a setting of an
+ *  order (a ring choice with a starting position) is numbered ring
+ *  choice * positions() + position, so that ranges of the key space can
+ *  be handed out by number.
+ *  @author Aadiraj Batlaw
+ */
+class KeySpace {
+
+    /** The key space of machine M, whose available rotors are taken from
+     *  its rotor catalogue, with every ring setting 0. */
+    KeySpace(Machine M) {
+        this(M, 0);
+    }
+
+    /** The key space of machine M, whose available rotors are taken from
+     *  its rotor catalogue, that also tries every ring setting of its
+     *  RINGSLOTS rightmost rotors. */
+    KeySpace(Machine M, int ringSlots) {
+        _alphabet = M.alphabet();
+        int slots = M.numRotors();
+        int pawls = M.numPawls();
+        List<String> reflectors = new ArrayList<>(),
+            fixed = new ArrayList<>(), moving = new ArrayList<>();
+        for (Rotor rotor : M.allRotors()) {
+            String name = rotor.name().toUpperCase();
+            if (rotor.reflecting()) {
+                reflectors.add(name);
+            } else if (rotor.rotates()) {
+                moving.add(name);
+            } else {
+                fixed.add(name);
+            }
+        }
+        List<String[]> prefixes = new ArrayList<>();
+        for (String reflector : reflectors) {
+            String[] order = new String[slots];
+            order[0] = reflector;
+            prefixes.add(order);
+        }
+        prefixes = arrange(prefixes, fixed, 1, slots - pawls);
+        _orders = arrange(prefixes, moving, slots - pawls, slots);
+        if (_orders.isEmpty()) {
+            throw error("no rotor orders fit this machine");
+        }
+        long positions = 1;
+        for (int i = 1; i < slots; i += 1) {
+            if (positions > Long.MAX_VALUE / _alphabet.size()) {
+                throw error("too many rotor positions to search");
+            }
+            positions *= _alphabet.size();
+        }
+        _positions = positions;
+        if (ringSlots < 0 || ringSlots >= slots) {
+            throw error("bad number of ring slots: %d", ringSlots);
+        }
+        _ringSlots = ringSlots;
+        long rings = 1;
+        for (int i = 0; i < ringSlots; i += 1) {
+            rings *= _alphabet.size();
+        }
+        if (rings > Long.MAX_VALUE / positions) {
+            throw error("too many ring settings to search");
+        }
+        _rings = rings;
+        long steppings = 1;
+        for (int i = 0; i < pawls && steppings <= KeyClasses.MAX_SETTINGS;
+             i += 1) {
+            steppings *= _alphabet.size();
+        }
+        _classifiable = slots > 2 && ringSlots >= pawls
+            && steppings <= KeyClasses.MAX_SETTINGS;
+    }
+
+    /** Return the alphabet of the machine. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor orders. */
+    int orders() {
+        return _orders.size();
+    }
+
+    /** Return the names of the rotors of rotor order K, reflector
+     *  first.  The result must not be modified. */
+    String[] order(int k) {
+        return _orders.get(k);
+    }
+
+    /** Return the number of starting positions of each rotor order. */
+    long positions() {
+        return _positions;
+    }
+
+    /** Return the number of choices of ring settings. */
+    long rings() {
+        return _rings;
+    }
+
+    /** Return true iff a search of my settings may try just the
+     *  representatives of KeyClasses of them: the ring settings of every
+     *  moving rotor are searched, so that every class lies wholly within
+     *  my settings, and there are few enough choices of the moving
+     *  rotors' positions to classify. */
+    boolean classifiable() {
+        return _classifiable;
+    }
+
+    /** Return the number of settings of each rotor order. */
+    long settings() {
+        return _rings * _positions;
+    }
+
+    /** Return the setting string (as for Machine.setRotors) of starting
+     *  position K. */
+    String position(long k) {
+        int[] positions = new int[_orders.get(0).length - 1];
+        position(k, positions);
+        return string(positions);
+    }
+
+    /** Set POSITIONS (as for Machine.setRotors) to starting position
+     *  K. */
+    void position(long k, int[] positions) {
+        for (int i = positions.length - 1; i >= 0; i -= 1) {
+            positions[i] = (int) (k % _alphabet.size());
+            k /= _alphabet.size();
+        }
+    }
+
+    /** Set RINGS (as for Machine.setRings) to ring choice K. */
+    void rings(long k, int[] rings) {
+        for (int i = rings.length - 1; i >= 0; i -= 1) {
+            if (i >= rings.length - _ringSlots) {
+                rings[i] = (int) (k % _alphabet.size());
+                k /= _alphabet.size();
+            } else {
+                rings[i] = 0;
+            }
+        }
+    }
+
+    /** Return the settings line selecting rotor order ORDER at setting
+     *  SETTING with an empty plugboard.  The ring settings are given
+     *  only if they are searched. */
+    String settingsLine(int order, long setting) {
+        String line = "* " + String.join(" ", order(order)) + " "
+            + position(setting % _positions);
+        if (_ringSlots > 0) {
+            int[] rings = new int[_orders.get(0).length - 1];
+            rings(setting / _positions, rings);
+            line += " " + string(rings);
+        }
+        return line;
+    }
+
+    /** Return the characters with indices INDICES. */
+    private String string(int[] indices) {
+        char[] result = new char[indices.length];
+        for (int i = 0; i < indices.length; i += 1) {
+            result[i] = _alphabet.toChar(indices[i]);
+        }
+        return new String(result);
+    }
+
+    /** Return every extension of the partial orders in PREFIXES that puts
+     *  distinct rotors named in CANDIDATES in slots FROM .. TO-1. */
+    private static List<String[]> arrange(List<String[]> prefixes,
+                                          List<String> candidates,
+                                          int from, int to) {
+        if (from == to) {
+            return prefixes;
+        }
+        List<String[]> result = new ArrayList<>();
+        for (String[] prefix : prefixes) {
+            for (String name : candidates) {
+                boolean used = false;
+                for (int i = 1; i < from; i += 1) {
+                    used |= name.equals(prefix[i]);
+                }
+                if (!used) {
+                    String[] order = prefix.clone();
+                    order[from] = name;
+                    result.add(order);
+                }
+            }
+        }
+        return arrange(result, candidates, from + 1, to);
+    }
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** The rotor orders. */
+    private final List<String[]> _orders;
+
+    /** Number of starting positions. */
+    private final long _positions;
+
+    /** Number of rightmost rotors whose ring settings are searched. */
+    private final int _ringSlots;
+
+    /** Number of choices of ring settings. */
+    private final long _rings;
+
+    /** True iff my settings may be searched a class at a time. */
+    private final boolean _classifiable;
+
+}
@@ -0,0 +1,215 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.util.ArrayDeque;
+
+import static enigma.EnigmaException.error;
+
+/** A line-at-a-time reader over a byte stream that keeps track of how
+ *  many bytes of the stream have been consumed, so that a reader may be
+ *  reopened at a line boundary.  Lines are terminated by "\n" or "\r\n".
+ *  A reader may be asked to return long lines in pieces, so that no
+ *  line need be held whole and the reader may be reopened between
+ *  pieces.  A line is split only after at least the piece size in
+ *  bytes, only after an ASCII character other than '\r', and never if
+ *  its first token is "*" (a settings line) or before its first
+ *  non-blank character.
+ *  @author Aadiraj Batlaw
+ */
+class LineReader {
+
+    /** A reader of lines from INPUT, whose first byte is at offset
+     *  START of the underlying file, returning lines longer than PIECE
+     *  bytes in pieces if PIECE is positive. */
+    LineReader(InputStream input, long start, int piece) {
+        _input = input;
+        _offset = start;
+        _piece = piece;
+        _buffer = new byte[BUFFER_SIZE];
+        _line = new byte[LINE_SIZE];
+    }
+
+    /** A reader of whole lines from INPUT, whose first byte is at offset
+     *  START of the underlying file. */
+    LineReader(InputStream input, long start) {
+        this(input, start, 0);
+    }
+
+    /** A reader of lines from INPUT. */
+    LineReader(InputStream input) {
+        this(input, 0);
+    }
+
+    /** Return the next line, without its terminator, or null if the
+     *  input is exhausted. */
+    String readLine() {
+        if (!fill(1)) {
+            return null;
+        }
+        String result = _pending.removeFirst();
+        _offset += _pendingLengths.removeFirst();
+        _continues = _pendingContinues.removeFirst();
+        return result;
+    }
+
+    /** Return true iff the last line returned by readLine is a piece of
+     *  a longer line, which continues in the next line returned. */
+    boolean continues() {
+        return _continues;
+    }
+
+    /** Return the first line at or after the current line that is not
+     *  entirely whitespace, without consuming anything, or null if there
+     *  is none. */
+    String peekNonBlank() {
+        for (int k = 1; fill(k); k += 1) {
+            String line = nth(k);
+            for (int i = 0; i < line.length(); i += 1) {
+                if (!Character.isWhitespace(line.charAt(i))) {
+                    return line;
+                }
+            }
+        }
+        return null;
+    }
+
+    /** Return the byte offset of the first unconsumed line or piece. */
+    long offset() {
+        return _offset;
+    }
+
+    /** Return the Kth line of lookahead, which must have been filled. */
+    private String nth(int k) {
+        int i = 1;
+        for (String line : _pending) {
+            if (i == k) {
+                return line;
+            }
+            i += 1;
+        }
+        throw new AssertionError();
+    }
+
+    /** Read lines until at least K are pending.  Return false if the
+     *  input ends first. */
+    private boolean fill(int k) {
+        while (_pending.size() < k) {
+            if (!scanLine()) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Append the next line or piece of input to the lookahead.  Return
+     *  false at end of input. */
+    private boolean scanLine() {
+        int length = 0;
+        int consumed = 0;
+        boolean continues = false;
+        int first = -1;
+        while (true) {
+            if (_pos == _limit && !refill()) {
+                if (consumed == 0) {
+                    return false;
+                }
+                break;
+            }
+            byte b = _buffer[_pos];
+            _pos += 1;
+            consumed += 1;
+            if (b == '\n') {
+                if (length > 0 && _line[length - 1] == '\r') {
+                    length -= 1;
+                }
+                break;
+            }
+            if (length == _line.length) {
+                byte[] larger = new byte[2 * _line.length];
+                System.arraycopy(_line, 0, larger, 0, length);
+                _line = larger;
+            }
+            _line[length] = b;
+            length += 1;
+            if (first < 0 && !blank(b)) {
+                first = length - 1;
+            }
+            if (_piece > 0 && length >= _piece && (b & 0x80) == 0
+                && b != '\r' && first >= 0 && first + 1 < length
+                && !(_line[first] == '*' && blank(_line[first + 1]))) {
+                continues = true;
+                break;
+            }
+        }
+        _pending.addLast(new String(_line, 0, length, CHARSET));
+        _pendingLengths.addLast(consumed);
+        _pendingContinues.addLast(continues);
+        return true;
+    }
+
+    /** Return true iff B is an ASCII whitespace character. */
+    private static boolean blank(byte b) {
+        return b == ' ' || b >= '\t' && b <= '\r' || b >= 0x1c && b <= 0x1f;
+    }
+
+    /** Refill the byte buffer.  Return false at end of input. */
+    private boolean refill() {
+        try {
+            int n = _input.read(_buffer);
+            if (n <= 0) {
+                return false;
+            }
+            _pos = 0;
+            _limit = n;
+            return true;
+        } catch (IOException excp) {
+            throw error("could not read input: %s", excp.getMessage());
+        }
+    }
+
+    /** Size of the byte buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Initial size of the line-assembly buffer. */
+    private static final int LINE_SIZE = 256;
+
+    /** Character set used to decode lines. */
+    private static final Charset CHARSET = Charset.defaultCharset();
+
+    /** Least length in bytes of a piece of a long line, or 0 if lines
+     *  are not split. */
+    private final int _piece;
+
+    /** Source of bytes. */
+    private final InputStream _input;
+
+    /** Buffered bytes of _input, valid in [_pos, _limit). */
+    private final byte[] _buffer;
+
+    /** Bytes of the line being assembled. */
+    private byte[] _line;
+
+    /** Next unread position in _buffer. */
+    private int _pos;
+
+    /** End of valid data in _buffer. */
+    private int _limit;
+
+    /** Offset of the first unconsumed line. */
+    private long _offset;
+
+    /** Lines read ahead but not yet consumed. */
+    private final ArrayDeque<String> _pending = new ArrayDeque<>();
+
+    /** Number of bytes (terminators included) of each pending line. */
+    private final ArrayDeque<Integer> _pendingLengths = new ArrayDeque<>();
+
+    /** Whether each pending line is a piece continued by the next. */
+    private final ArrayDeque<Boolean> _pendingContinues = new ArrayDeque<>();
+
+    /** True iff the last line returned continues in the next. */
+    private boolean _continues;
+
+}
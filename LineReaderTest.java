@@ -0,0 +1,118 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+
+public class LineReaderTest {
+
+    /** Return a reader of TEXT, delivered at most CHUNK bytes per
+     *  read, whose first byte is at offset START. */
+    private LineReader reader(String text, int chunk, long start) {
+        return reader(text, chunk, start, 0);
+    }
+
+    /** Return a reader of TEXT, delivered at most CHUNK bytes per
+     *  read, whose first byte is at offset START, returning lines in
+     *  pieces of at least PIECE bytes if PIECE is positive. */
+    private LineReader reader(String text, int chunk, long start,
+                              int piece) {
+        InputStream in =
+            new ByteArrayInputStream(text.getBytes(StandardCharsets.UTF_8)) {
+                @Override
+                public synchronized int read(byte[] b, int off, int len) {
+                    return super.read(b, off, Math.min(len, chunk));
+                }
+            };
+        return new LineReader(in, start, piece);
+    }
+
+    /** Check that reading TEXT gives LINES, each starting at the
+     *  corresponding offset in OFFSETS, for several read sizes. */
+    private void check(String text, String[] lines, long[] offsets) {
+        for (int chunk : new int[] {1, 2, 3, 7, 1 << 20}) {
+            LineReader in = reader(text, chunk, 0);
+            for (int i = 0; i < lines.length; i += 1) {
+                assertEquals("offset of line " + i, offsets[i], in.offset());
+                assertEquals(lines[i], in.readLine());
+            }
+            assertNull(in.readLine());
+            assertEquals(text.length(), in.offset());
+        }
+    }
+
+    @Test
+    public void testOffsets() {
+        check("* B I II III AAA\nHELLO\n\nWORLD\n",
+              new String[] {"* B I II III AAA", "HELLO", "", "WORLD"},
+              new long[] {0, 17, 23, 24});
+        check("ONE\nTWO", new String[] {"ONE", "TWO"}, new long[] {0, 4});
+        check("", new String[] {}, new long[] {});
+    }
+
+    @Test
+    public void testCRLF() {
+        check("* B I II III AAA\r\nHELLO\r\n\r\nWORLD\r\n",
+              new String[] {"* B I II III AAA", "HELLO", "", "WORLD"},
+              new long[] {0, 18, 25, 27});
+        check("A\rB\r\nC\n", new String[] {"A\rB", "C"}, new long[] {0, 5});
+    }
+
+    @Test
+    public void testPeek() {
+        LineReader in = reader("FIRST\n  \n\t\nNEXT\r\nLAST", 2, 100);
+        assertEquals("FIRST", in.peekNonBlank());
+        assertEquals(100, in.offset());
+        assertEquals("FIRST", in.readLine());
+        assertEquals(106, in.offset());
+        assertEquals("NEXT", in.peekNonBlank());
+        assertEquals(106, in.offset());
+        assertEquals("  ", in.readLine());
+        assertEquals("\t", in.readLine());
+        assertEquals(111, in.offset());
+        assertEquals("NEXT", in.readLine());
+        assertEquals(117, in.offset());
+        assertEquals("LAST", in.readLine());
+        assertEquals(121, in.offset());
+        assertNull(in.peekNonBlank());
+        assertNull(in.readLine());
+    }
+
+    @Test
+    public void testPieces() {
+        String text = "* B I II III AAA\nABCDEFGHIJ\n  XY\n"
+            + "\u00e9\u00e9\u00e9\u00e9\u00e9Z\r\n*ABCDEF\nEND";
+        String accented = new String(
+            "\u00e9\u00e9\u00e9\u00e9\u00e9Z".getBytes(StandardCharsets.UTF_8),
+            Charset.defaultCharset());
+        String[] pieces = {
+            "* B I II III AAA", "ABCD", "EFGH", "IJ", "  XY", "",
+            accented, "", "*ABC", "DEF", "END"
+        };
+        boolean[] continues = {
+            false, true, true, false, true, false, true, false, true, false,
+            false
+        };
+        long[] offsets = {0, 17, 21, 25, 28, 32, 33, 44, 46, 50, 54, 57};
+        for (int chunk : new int[] {1, 3, 1 << 20}) {
+            LineReader in = reader(text, chunk, 0, 4);
+            for (int i = 0; i < pieces.length; i += 1) {
+                assertEquals("offset of piece " + i, offsets[i], in.offset());
+                assertEquals(pieces[i], in.readLine());
+                assertEquals("piece " + i, continues[i], in.continues());
+            }
+            assertEquals(offsets[pieces.length], in.offset());
+            assertNull(in.readLine());
+            assertFalse(in.continues());
+        }
+        LineReader in = reader("      ABCDEFGH\n", 1 << 20, 0, 4);
+        assertEquals("      AB", in.readLine());
+        assertEquals("CDEF", in.readLine());
+        assertEquals("GH", in.readLine());
+    }
+}
@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.Collection;
 
 /**
@@ -20,12 +21,19 @@ class Machine {
     /** All machine rotors. */
     private Collection<Rotor> _allRotors;
 
+    /** All machine rotors, in the order of _allRotors. */
+    private Rotor[] _catalogue;
+
     /** All machine rotors slots. */
     private Rotor[] _rotorSlots;
 
     /** Machine plugboard. */
     private Permutation _plugboard;
 
+    /** Number of characters decrypted between checks of a trial's
+     *  score. */
+    static final int TRIAL_CHECK = 8;
+
     /**
      * A new Enigma machine with alphabet ALPHA, 1 < NUMROTORS rotor slots,
      * and 0 <= PAWLS < NUMROTORS pawls.  ALLROTORS contains all the
@@ -36,6 +44,7 @@ class Machine {
         _alphabet = alpha;
         _pawls = pawls;
         _allRotors = allRotors;
+        _catalogue = allRotors.toArray(new Rotor[0]);
         _rotorSlots = new Rotor[numRotors];
         _plugboard = new Permutation("", alpha);
 
@@ -71,6 +80,55 @@ class Machine {
         }
     }
 
+    /**
+     * Return a new machine like me, with no rotors inserted, whose rotors
+     * are copies of mine, so that the two can be used independently.
+     */
+    Machine copy() {
+        Collection<Rotor> rotors = new ArrayList<>();
+        for (Rotor rotor : _allRotors) {
+            rotors.add(rotor.copy());
+        }
+        return new Machine(_alphabet, _rotorSlots.length, _pawls, rotors);
+    }
+
+    /**
+     * Set my rotor slots to the rotors whose indices in allRotors() are
+     * ROTORS (ROTORS[0] indexes the reflector).
+     */
+    void insertRotors(int[] rotors) {
+        for (int i = 0; i < rotors.length; i++) {
+            _rotorSlots[i] = _catalogue[rotors[i]];
+        }
+    }
+
+    /**
+     * Set my rotors to POSITIONS, numRotors()-1 alphabet indices, the
+     * first giving the leftmost rotor setting (not counting the
+     * reflector).
+     */
+    void setRotors(int[] positions) {
+        for (int i = 0; i < _rotorSlots.length - 1; i++) {
+            _rotorSlots[i + 1].set(positions[i]);
+        }
+    }
+
+    /**
+     * Set the ring settings of my rotors to RINGS, numRotors()-1
+     * alphabet indices, the first giving that of the leftmost rotor (not
+     * counting the reflector).
+     */
+    void setRings(int[] rings) {
+        for (int i = 0; i < _rotorSlots.length - 1; i++) {
+            _rotorSlots[i + 1].setRing(rings[i]);
+        }
+    }
+
+    /** Return all the rotors available to this machine. */
+    Collection<Rotor> allRotors() {
+        return _allRotors;
+    }
+
     /** @return rotorSlots. */
     public Rotor[] getRotorSlots() {
         return _rotorSlots;
@@ -94,6 +152,11 @@ class Machine {
         _plugboard = plugboard;
     }
 
+    /** Return my plugboard. */
+    Permutation plugboard() {
+        return _plugboard;
+    }
+
     /**
      * Returns the result of converting the input character C (as an
      * index in the range 0..alphabet size - 1), after first advancing
@@ -101,6 +164,30 @@ class Machine {
      * the machine.
      */
     int convert(int c) {
+        advance();
+        return transform(c);
+    }
+
+    /**
+     * Returns the result of converting C with the rotors in their current
+     * positions, without advancing them.
+     */
+    int transform(int c) {
+        int result = _plugboard.permute(c);
+        for (int x = _rotorSlots.length - 1; x >= 0; x--) {
+            result = _rotorSlots[x].convertForward(result);
+        }
+        for (int y = 1; y < _rotorSlots.length; y++) {
+            result = _rotorSlots[y].convertBackward(result);
+        }
+        return _plugboard.permute(result);
+    }
+
+    /**
+     * Advance the rotors as for one key press, without converting
+     * anything.
+     */
+    void advance() {
         int j;
         for (int i = 2; i < _rotorSlots.length - 1; i++) {
             if (_rotorSlots[i].atNotch()) {
@@ -119,14 +206,36 @@ class Machine {
             _rotorSlots[_rotorSlots.length - 2].advance();
         }
         _rotorSlots[_rotorSlots.length - 1].advance();
-        int result = _plugboard.permute(c);
-        for (int x = _rotorSlots.length - 1; x >= 0; x--) {
-            result = _rotorSlots[x].convertForward(result);
-        }
-        for (int y = 1; y < _rotorSlots.length; y++) {
-            result = _rotorSlots[y].convertBackward(result);
+    }
+
+    /**
+     * Decrypt CIPHERTEXT (alphabet indices) into the start of PLAINTEXT,
+     * adding each character to SCORER, until either all of it is
+     * decrypted or SCORER shows that the plaintext's score cannot exceed
+     * THRESHOLD.  The check is made every TRIAL_CHECK characters.  Return
+     * the number of characters decrypted; the score is SCORER's.
+     */
+    int trial(int[] ciphertext, int[] plaintext, TrialScorer scorer,
+              double threshold) {
+        int n = ciphertext.length;
+        scorer.start(n);
+        for (int i = 0; i < n; i++) {
+            int c = convert(ciphertext[i]);
+            plaintext[i] = c;
+            scorer.add(c);
+            if (i % TRIAL_CHECK == TRIAL_CHECK - 1
+                && scorer.score() + scorer.gain(n - i - 1) <= threshold) {
+                return i + 1;
+            }
         }
-        return _plugboard.permute(result);
+        return n;
+    }
+
+    /**
+     * Return the alphabet of this machine.
+     */
+    Alphabet alphabet() {
+        return _alphabet;
     }
 
     /**
@@ -0,0 +1,221 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.error;
+
+/** A bounded pool of machines built from one configuration, together
+ *  with a cache of compiled keys (a rotor order, ring settings and a
+ *  plugboard).  A
+ *  session compiles its key once and then leases a machine set to that
+ *  key at any starting positions; when an idle machine was last set to
+ *  the same key, only its rotor positions are changed.  Leasing and
+ *  releasing a machine allocate nothing, nor does compiling a key that
+ *  is already cached.
+ *  @author Aadiraj Batlaw
+ */
+class MachinePool {
+
+    /** An empty array, for the probe key between lookups. */
+    private static final int[] NONE = new int[0];
+
+    /** A pool of at most CAPACITY copies of machine M, caching up to
+     *  KEYS compiled keys. */
+    MachinePool(Machine M, int capacity, int keys) {
+        if (capacity < 1 || keys < 1) {
+            throw error("pool and cache sizes must be positive");
+        }
+        _prototype = M;
+        _machines = new Machine[capacity];
+        _configured = new Key[capacity];
+        _busy = new boolean[capacity];
+        _keys = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, Key> e) {
+                return size() > keys;
+            }
+        };
+    }
+
+    /** Return the compiled key for the rotors whose indices among my
+     *  machines' rotors are ROTORS (reflector first), with ring settings
+     *  RINGS (as for Machine.setRings), and the plugboard PLUGBOARD,
+     *  given by the characters it moves and their images (as for
+     *  Permutation.sparse), so that a key costs time and space in
+     *  proportion to its plugboard cycles rather than to the alphabet.
+     *  None of the arrays is retained. */
+    Key compile(int[] rotors, int[] rings, int[] plugboard) {
+        synchronized (_keys) {
+            _probe.aim(rotors, rings, plugboard);
+            Key key = _keys.get(_probe);
+            _probe.aim(NONE, NONE, NONE);
+            if (key == null) {
+                key = new Key(rotors.clone(), rings.clone(),
+                              plugboard.clone());
+                key._plugboard =
+                    Permutation.sparse(key._plugs, _prototype.alphabet());
+                _keys.put(key, key);
+            }
+            return key;
+        }
+    }
+
+    /** Return an idle machine set to KEY and to the rotor positions
+     *  POSITIONS (as for Machine.setRotors), waiting for one to be
+     *  released if all are in use.  The machine must be returned with
+     *  release. */
+    Machine lease(Key key, int[] positions) {
+        int chosen = acquire(key);
+        Machine machine = _machines[chosen];
+        if (_configured[chosen] != key) {
+            configure(machine, key);
+            _configured[chosen] = key;
+        }
+        machine.setRotors(positions);
+        return machine;
+    }
+
+    /** Return an idle machine, in no particular configuration, waiting
+     *  for one to be released if all are in use.  The machine must be
+     *  returned with release. */
+    Machine lease() {
+        int chosen = acquire(null);
+        _configured[chosen] = null;
+        return _machines[chosen];
+    }
+
+    /** Mark an idle machine as leased and return its index, waiting for
+     *  one if necessary.  Prefer one last set to KEY, if not null, and
+     *  otherwise one already created. */
+    private synchronized int acquire(Key key) {
+        while (true) {
+            int chosen = -1;
+            for (int i = 0; i < _machines.length; i += 1) {
+                if (!_busy[i]) {
+                    if (key != null && _configured[i] == key) {
+                        chosen = i;
+                        break;
+                    } else if (chosen < 0 || _machines[chosen] == null
+                               && _machines[i] != null) {
+                        chosen = i;
+                    }
+                }
+            }
+            if (chosen >= 0) {
+                _busy[chosen] = true;
+                if (_machines[chosen] == null) {
+                    _machines[chosen] = _prototype.copy();
+                }
+                return chosen;
+            }
+            try {
+                wait();
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw error("interrupted waiting for a machine");
+            }
+        }
+    }
+
+    /** Return M, which must have been leased from me, to the pool. */
+    synchronized void release(Machine M) {
+        for (int i = 0; i < _machines.length; i += 1) {
+            if (_machines[i] == M) {
+                if (!_busy[i]) {
+                    throw error("machine released twice");
+                }
+                _busy[i] = false;
+                notifyAll();
+                return;
+            }
+        }
+        throw error("machine not from this pool");
+    }
+
+    /** Set the rotors, ring settings and plugboard of M, a machine with
+     *  the same rotors as mine, according to KEY. */
+    static void configure(Machine M, Key key) {
+        M.insertRotors(key._rotors);
+        M.setRings(key._rings);
+        M.setPlugboard(key._plugboard);
+    }
+
+    /** A compiled key: a rotor order, ring settings and a plugboard. */
+    static final class Key {
+
+        /** A key for rotor indices ROTORS, ring settings RINGS and
+         *  plugboard moves PLUGS, which are not copied. */
+        private Key(int[] rotors, int[] rings, int[] plugs) {
+            aim(rotors, rings, plugs);
+        }
+
+        /** Make me the key for ROTORS, RINGS and PLUGS, as for the
+         *  constructor.  Used only to look keys up. */
+        private void aim(int[] rotors, int[] rings, int[] plugs) {
+            _rotors = rotors;
+            _rings = rings;
+            _plugs = plugs;
+            _hash = 31 * (31 * Arrays.hashCode(_rotors)
+                          + Arrays.hashCode(_rings)) + Arrays.hashCode(_plugs);
+        }
+
+        /** Return my plugboard. */
+        Permutation plugboard() {
+            return _plugboard;
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return _hash == other._hash
+                && Arrays.equals(_rotors, other._rotors)
+                && Arrays.equals(_rings, other._rings)
+                && Arrays.equals(_plugs, other._plugs);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Rotor indices, reflector first. */
+        private int[] _rotors;
+
+        /** Ring settings. */
+        private int[] _rings;
+
+        /** Characters moved by the plugboard, each followed by its
+         *  image. */
+        private int[] _plugs;
+
+        /** Plugboard, set when the key is cached. */
+        private Permutation _plugboard;
+
+        /** Hash of _rotors, _rings and _plugs. */
+        private int _hash;
+    }
+
+    /** Machine whose rotors my machines copy. */
+    private final Machine _prototype;
+
+    /** My machines, created when first needed. */
+    private final Machine[] _machines;
+
+    /** The key each machine was last set to. */
+    private final Key[] _configured;
+
+    /** Which machines are leased. */
+    private final boolean[] _busy;
+
+    /** Cache of compiled keys, least recently used first. */
+    private final LinkedHashMap<Key, Key> _keys;
+
+    /** Key used to look up _keys, guarded by _keys. */
+    private final Key _probe = new Key(NONE, NONE, NONE);
+
+}
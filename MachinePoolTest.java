@@ -0,0 +1,97 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import com.sun.management.ThreadMXBean;
+import java.lang.management.ManagementFactory;
+
+import static enigma.TestUtils.*;
+
+public class MachinePoolTest {
+
+    /** The key for rotors B I II III, rings RINGS and plugboard PLUGS. */
+    private MachinePool.Key key(MachinePool pool, int[] rings, int[] plugs) {
+        return pool.compile(new int[] {0, 1, 2, 3}, rings, plugs);
+    }
+
+    @Test
+    public void testKeyCache() {
+        MachinePool pool = new MachinePool(navalMachine(), 1, 2);
+        int[] rings = {0, 0, 0};
+        int[] plugs = {0, 1, 1, 0};
+        MachinePool.Key a = key(pool, rings, plugs);
+        rings[0] = 5;
+        plugs[1] = 2;
+        assertSame(a, key(pool, new int[] {0, 0, 0}, new int[] {0, 1, 1, 0}));
+        MachinePool.Key b = key(pool, new int[] {0, 0, 1}, new int[0]);
+        assertSame(b, key(pool, new int[] {0, 0, 1}, new int[0]));
+        assertSame(a, key(pool, new int[] {0, 0, 0}, new int[] {0, 1, 1, 0}));
+        MachinePool.Key c = key(pool, new int[] {0, 0, 2}, new int[0]);
+        assertSame(a, key(pool, new int[] {0, 0, 0}, new int[] {0, 1, 1, 0}));
+        assertSame(c, key(pool, new int[] {0, 0, 2}, new int[0]));
+        assertNotSame("least recently used key not evicted", b,
+                      key(pool, new int[] {0, 0, 1}, new int[0]));
+        assertSame(c, key(pool, new int[] {0, 0, 2}, new int[0]));
+    }
+
+    @Test
+    public void testCachedKeyAllocatesNothing() {
+        Object bean = ManagementFactory.getThreadMXBean();
+        if (!(bean instanceof ThreadMXBean)) {
+            return;
+        }
+        ThreadMXBean threads = (ThreadMXBean) bean;
+        MachinePool pool = new MachinePool(navalMachine(), 1, 2);
+        int[] rotors = {0, 1, 2, 3}, rings = {1, 2, 3}, plugs = {0, 1, 1, 0};
+        MachinePool.Key key = pool.compile(rotors, rings, plugs);
+        for (int i = 0; i < 20_000; i += 1) {
+            pool.compile(rotors, rings, plugs);
+        }
+        long thread = Thread.currentThread().getId();
+        long before = threads.getThreadAllocatedBytes(thread);
+        for (int i = 0; i < 100_000; i += 1) {
+            assertSame(key, pool.compile(rotors, rings, plugs));
+        }
+        long allocated = threads.getThreadAllocatedBytes(thread) - before;
+        assertTrue("compiling a cached key allocated " + allocated
+                   + " bytes", allocated < 100_000);
+    }
+
+    @Test
+    public void testLease() {
+        Machine reference = navalMachine();
+        reference.insertRotors(new String[] {"B", "I", "II", "III"});
+        reference.setRings(new int[] {1, 2, 3});
+        reference.setRotors("XYZ");
+        reference.setPlugboard(new Permutation("(AB) (CD)", UPPER));
+        String expected = reference.convert("HELLOWORLD");
+
+        MachinePool pool = new MachinePool(navalMachine(), 2, 4);
+        MachinePool.Key key =
+            key(pool, new int[] {1, 2, 3}, new int[] {0, 1, 1, 0, 2, 3, 3, 2});
+        int[] positions = {23, 24, 25};
+        Machine first = pool.lease(key, positions);
+        assertEquals(expected, first.convert("HELLOWORLD"));
+        Machine other = pool.lease();
+        assertNotSame(first, other);
+        pool.release(other);
+        pool.release(first);
+        assertSame(first, pool.lease(key, positions));
+        assertEquals(expected, first.convert("HELLOWORLD"));
+        pool.release(first);
+        try {
+            pool.release(first);
+            fail("released twice");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+        try {
+            pool.release(navalMachine());
+            fail("released a stranger");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
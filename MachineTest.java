@@ -130,4 +130,97 @@ public class MachineTest {
                         + "be a star His parents where killed by Voldemort "
                         + "who gave him a lightning scar"));
     }
+
+    @Test
+    public void testSeekMatchesStepping() {
+        Alphabet ad = new CharacterRange('A', 'D');
+        Rotor one = new Reflector("R1", new Permutation("(AC) (BD)", ad));
+        Rotor two = new MovingRotor("R2", new Permutation("(ABCD)", ad), "C");
+        Rotor three = new MovingRotor("R3", new Permutation("(ABDC)", ad), "B");
+        Rotor four = new MovingRotor("R4", new Permutation("(AB)", ad), "D");
+        Rotor[] machineRotors = {one, two, three, four};
+        Machine mach = new Machine(ad, 4, 3,
+                new ArrayList<>(Arrays.asList(machineRotors)));
+        mach.insertRotors(new String[] {"R1", "R2", "R3", "R4"});
+        mach.setRotors("BCA");
+        PositionIndex index = new PositionIndex(mach);
+        assertEquals("ABCA", getSetting(ad, machineRotors));
+        String[] expected = new String[200];
+        for (int i = 0; i < expected.length; i += 1) {
+            expected[i] = getSetting(ad, machineRotors);
+            mach.convert(0);
+        }
+        for (int i = expected.length - 1; i >= 0; i -= 7) {
+            index.seek(i);
+            assertEquals(expected[i], getSetting(ad, machineRotors));
+        }
+        index.seek(1000000007L);
+        String far = getSetting(ad, machineRotors);
+        index.seek(1000000007L - index.period());
+        assertEquals(far, getSetting(ad, machineRotors));
+    }
+
+    @Test
+    public void testRingSettings() {
+        Rotor[] machineRotors = {
+            new Reflector("B", new Permutation(
+                "(AY) (BR) (CU) (DH) (EQ) (FS) (GL) (IP) (JX) (KN) (MO) "
+                    + "(TZ) (VW)", UPPER)),
+            new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER), "Q"),
+            new MovingRotor("II", new Permutation(NAVALA.get("II"), UPPER),
+                            "E"),
+            new MovingRotor("III", new Permutation(NAVALA.get("III"), UPPER),
+                            "V")
+        };
+        Machine mach = new Machine(UPPER, 4, 3,
+                new ArrayList<>(Arrays.asList(machineRotors)));
+        mach.insertRotors(new String[] {"B", "I", "II", "III"});
+        mach.setPlugboard(new Permutation("", UPPER));
+        mach.setRotors("AAA");
+        assertEquals("BDZGO", mach.convert("AAAAA"));
+        mach.setRings(new int[] {1, 1, 1});
+        mach.setRotors("AAA");
+        assertEquals("EWTYX", mach.convert("AAAAA"));
+        mach.setRotors("AAA");
+        assertEquals("AAAAA", mach.convert("EWTYX"));
+    }
+
+    @Test
+    public void testTrial() {
+        Machine mach = navalMachine();
+        mach.insertRotors(new String[] {"B", "I", "II", "III"});
+        String plain = "WETTERBERICHTFUERDIENACHTKEINEBESONDERENVORKOMMNISSE";
+        mach.setRotors("QEV");
+        String cipher = mach.convert(plain);
+        int[] ciphertext = new int[cipher.length()];
+        int[] crib = new int[13], plaintext = new int[cipher.length()];
+        for (int i = 0; i < ciphertext.length; i += 1) {
+            ciphertext[i] = UPPER.toInt(cipher.charAt(i));
+        }
+        for (int i = 0; i < crib.length; i += 1) {
+            crib[i] = UPPER.toInt(plain.charAt(i));
+        }
+        TrialScorer ioc = new TrialScorer.Coincidence(UPPER.size());
+        mach.setRotors("QEV");
+        assertEquals(ciphertext.length,
+                     mach.trial(ciphertext, plaintext, ioc, 0.0));
+        long[] counts = new long[UPPER.size()];
+        long pairs = 0;
+        for (int i = 0; i < plaintext.length; i += 1) {
+            assertEquals(UPPER.toInt(plain.charAt(i)), plaintext[i]);
+            pairs += 2 * counts[plaintext[i]];
+            counts[plaintext[i]] += 1;
+        }
+        long n = plaintext.length;
+        assertEquals((double) pairs / (n * (n - 1)), ioc.score(), 0.0);
+        TrialScorer.Crib scorer = new TrialScorer.Crib(crib, 0);
+        mach.setRotors("QEV");
+        assertEquals(ciphertext.length,
+                     mach.trial(ciphertext, plaintext, scorer, 12.0));
+        assertEquals(13.0, scorer.score(), 0.0);
+        mach.setRotors("QEW");
+        int decrypted = mach.trial(ciphertext, plaintext, scorer, 12.0);
+        assertTrue(decrypted < crib.length);
+        assertEquals(0, decrypted % Machine.TRIAL_CHECK);
+    }
 }
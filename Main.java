@@ -1,13 +1,23 @@
 package enigma;
 
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
 import java.io.File;
+import java.io.FileInputStream;
 import java.io.IOException;
+import java.io.OutputStreamWriter;
 import java.io.PrintStream;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.charset.Charset;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
-import java.util.NoSuchElementException;
-import java.util.Scanner;
-import java.util.regex.Pattern;
+import java.util.List;
 
 import static enigma.EnigmaException.error;
 
@@ -23,42 +33,447 @@ public final class Main {
      */
     private Alphabet _alphabet;
     /**
-     * Source of input messages.
+     * Source of input lines.
      */
-    private Scanner _input;
+    private LineReader _lines;
+    /**
+     * Lexer of input messages, over _lines.
+     */
+    private MessageLexer _input;
+    /**
+     * Compiled keys of the settings lines seen so far.
+     */
+    private MachinePool _keys;
     /**
      * Source of machine configuration.
      */
-    private Scanner _config;
+    private ConfigParser _config;
     /**
      * File for encoded/decoded messages.
      */
     private PrintStream _output;
+    /**
+     * Channel underlying _output when checkpointing, else null.
+     */
+    private FileChannel _outputChannel;
+    /**
+     * Name of the configuration file.
+     */
+    private String _configName;
+    /**
+     * Identifier of the configuration file, as read at start-up (see
+     * Checkpoint.configId).
+     */
+    private long _configId;
+    /**
+     * Checkpoint file, or null if not checkpointing.
+     */
+    private File _checkpointFile;
+    /**
+     * Number of message lines between checkpoints.
+     */
+    private int _checkpointInterval;
+    /**
+     * True iff continuing from the last checkpoint.
+     */
+    private boolean _resume;
+    /**
+     * Checkpoint being resumed from, if any.
+     */
+    private Checkpoint _resumeFrom;
+
+    /**
+     * Name of the input file, or null for the standard input.
+     */
+    private String _inputName;
+    /**
+     * First and last+1 character offsets to decrypt in --range mode,
+     * or null when processing whole messages.
+     */
+    private long[] _range;
+    /**
+     * Name of the output file, or null for the standard output.
+     */
+    private String _outputName;
+    /**
+     * Order of the n-gram table to build in --ngrams mode, else 0.
+     */
+    private int _ngramOrder;
+    /**
+     * Number of worker processes in --search mode, else 0.
+     */
+    private int _searchWorkers;
+    /**
+     * Port of the search coordinator in --worker mode, else 0.
+     */
+    private int _workerPort;
+    /**
+     * Number of results reported by a search.
+     */
+    private int _top = DEFAULT_TOP;
+    /**
+     * Name of the n-gram table used to score search candidates, or null
+     * to score them by index of coincidence.
+     */
+    private String _ngramTable;
+    /**
+     * Largest log probability assumed for the rest of a candidate's
+     * n-grams in a search, or NaN for the largest in the table.
+     */
+    private double _prune = Double.NaN;
+    /**
+     * Crib that search candidates are scored by, as OFFSET:TEXT, or
+     * null.
+     */
+    private String _searchCrib;
+    /**
+     * Number of rightmost rotors whose ring settings a search tries.
+     */
+    private int _searchRings;
+    /**
+     * Name of the cyclometer catalogue in --cyclometer mode, else null.
+     */
+    private String _catalogue;
+    /**
+     * Name of the file of Zygalski sheets in --zygalski mode, else null.
+     */
+    private String _sheets;
+    /**
+     * Number of rotors in the configuration written in --generate-config
+     * mode, else 0.
+     */
+    private int _generateRotors;
+    /**
+     * Minimum size of the message file written in --generate mode, else 0.
+     */
+    private long _generateBytes;
+    /**
+     * Seed of generated configurations and messages.
+     */
+    private long _seed;
+    /**
+     * First and last characters of generated configurations.
+     */
+    private String _generateAlphabet = "AZ";
+    /**
+     * Rotor slots and pawls of generated configurations.
+     */
+    private int _generateSlots = 5, _generatePawls = 3;
+    /**
+     * Distributions of message lengths, plugboard pairs, and messages per
+     * settings line of generated messages.
+     */
+    private String _lengths = "exp:200", _plugs = "0-10", _messages = "1-5";
+    /**
+     * Number of batches in each queue in --pipeline mode, else 0.
+     */
+    private int _pipelineSlots;
+    /**
+     * True if the use of the pipeline's queues is to be reported.
+     */
+    private boolean _queueStats;
+    /**
+     * True if messages are converted by machines specialised to their
+     * keys.
+     */
+    private boolean _specialize;
+    /**
+     * Bound in bytes on the cache of converted message lines, or 0 if
+     * there is none.
+     */
+    private long _resultCache;
+    /**
+     * Longest message line cached.
+     */
+    private int _resultCacheLimit = DEFAULT_RESULT_CACHE_LIMIT;
+    /**
+     * True if the use of the cache of converted lines is to be reported.
+     */
+    private boolean _cacheStats;
+    /**
+     * Treatment of message characters outside the alphabet.
+     */
+    private Transcoder.Policy _policy = Transcoder.Policy.ERROR;
+    /**
+     * True if converted characters keep the case of their input.
+     */
+    private boolean _preserveCase;
+    /**
+     * Converter of message lines.
+     */
+    private Transcoder _transcoder;
+    /**
+     * Name of the file of cribs in --cribs mode, else null.
+     */
+    private String _cribs;
+    /**
+     * True in --stats mode.
+     */
+    private boolean _stats;
+    /**
+     * True in --depths mode.
+     */
+    private boolean _depths;
+    /**
+     * True in --batch mode.
+     */
+    private boolean _batch;
+    /**
+     * Number of threads running batch jobs.
+     */
+    private int _threads = Runtime.getRuntime().availableProcessors();
 
+    /**
+     * Default number of message lines between checkpoints.
+     */
+    static final int DEFAULT_CHECKPOINT_INTERVAL = 1000;
+
+    /**
+     * Size in bytes of the pieces in which long message lines are read
+     * when checkpointing.
+     */
+    static final int CHECKPOINT_PIECE = 1 << 20;
+
+    /**
+     * Default number of batches in each queue of the pipeline.
+     */
+    static final int DEFAULT_PIPELINE_SLOTS = 16;
+
+    /**
+     * Default length of the longest message line cached.
+     */
+    static final int DEFAULT_RESULT_CACHE_LIMIT = 256;
 
     /**
      * Check ARGS and open the necessary files (see comment on main).
      */
     Main(String[] args) {
-        if (args.length < 1 || args.length > 3) {
+        ArrayList<String> files = new ArrayList<>();
+        for (String arg : args) {
+            if (arg.startsWith("--")) {
+                option(arg);
+            } else {
+                files.add(arg);
+            }
+        }
+        if (files.size() < 1 || files.size() > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
+        if (_resume && _checkpointInterval == 0) {
+            _checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        }
+        if ((_resume || _checkpointInterval > 0) && files.size() < 3) {
+            throw error("checkpoints require input and output files");
+        }
+        if (_pipelineSlots > 0 && (_checkpointInterval > 0 || _range != null)) {
+            throw error("--pipeline cannot be used with checkpoints or ranges");
+        }
+        if (_specialize && (_pipelineSlots > 0 || _range != null)) {
+            throw error("--specialize cannot be used with --pipeline or "
+                        + "ranges");
+        }
+        if (_resultCache > 0 && (_pipelineSlots > 0 || _range != null)) {
+            throw error("--result-cache cannot be used with --pipeline or "
+                        + "ranges");
+        }
+        if (_range != null && (files.size() < 2 || _checkpointInterval > 0)) {
+            throw error("--range requires an input file and no checkpoints");
+        }
+        if ((_searchWorkers > 0 || _workerPort > 0) && files.size() < 2) {
+            throw error("searches require a ciphertext file");
+        }
+        if (_searchCrib != null && _ngramTable != null) {
+            throw error("--crib cannot be used with --ngram-table");
+        }
+        if (_generateBytes > 0 && files.size() != 2) {
+            throw error("--generate requires a configuration and an output");
+        }
+        if (_generateRotors > 0 && files.size() != 1) {
+            throw error("--generate-config requires just an output");
+        }
+        if (_ngramOrder > 0 && files.size() < 3) {
+            throw error("--ngrams requires corpus and table files");
+        }
+        if (_sheets != null && files.size() < 2) {
+            throw error("--zygalski requires an indicator file");
+        }
+        if (_cribs != null && files.size() < 2) {
+            throw error("--cribs requires a ciphertext file");
+        }
+        if (_stats && files.size() < 2) {
+            throw error("--stats requires a ciphertext file");
+        }
+        if (_depths && files.size() < 2) {
+            throw error("--depths requires a ciphertext file");
+        }
+        if (_batch && (files.size() > 2 || _checkpointInterval > 0)) {
+            throw error("--batch takes a manifest and an optional report");
+        }
+        if (_batch && (_pipelineSlots > 0 || _specialize || _resultCache > 0)) {
+            throw error("--batch cannot be used with --pipeline, "
+                        + "--specialize or --result-cache");
+        }
 
-        _config = getInput(args[0]);
+        _configName = files.get(0);
+        if (_generateRotors > 0) {
+            return;
+        }
+        if (_batch) {
+            _output = files.size() > 1 ? getOutput(files.get(1)) : System.out;
+            return;
+        }
+        _config = new ConfigParser(_configName);
+        _configId = Checkpoint.configId(_configName);
 
-        if (args.length > 1) {
-            _input = getInput(args[1]);
+        if (files.size() > 2) {
+            _checkpointFile =
+                _checkpointInterval > 0
+                ? new File(files.get(2) + CHECKPOINT_SUFFIX) : null;
+            if (_resume) {
+                if (!_checkpointFile.exists()) {
+                    throw error("no checkpoint to resume from");
+                }
+                _resumeFrom = Checkpoint.read(_checkpointFile);
+            }
+        }
+
+        if (files.size() > 1) {
+            _inputName = files.get(1);
+            _lines = _generateBytes > 0 ? null : getLines(_inputName);
         } else {
-            _input = new Scanner(System.in);
+            _lines = new LineReader(System.in);
         }
 
-        if (args.length > 2) {
-            _output = getOutput(args[2]);
+        if (files.size() > 2) {
+            _outputName = files.get(2);
+            _output = _ngramOrder > 0 ? null : getOutput(_outputName);
         } else {
             _output = System.out;
         }
     }
 
+    /**
+     * Record the command-line option ARG.
+     */
+    private void option(String arg) {
+        if (arg.equals("--resume")) {
+            _resume = true;
+        } else if (arg.equals("--checkpoint")) {
+            _checkpointInterval = DEFAULT_CHECKPOINT_INTERVAL;
+        } else if (arg.startsWith("--checkpoint=")) {
+            try {
+                _checkpointInterval =
+                    Integer.parseInt(arg.substring("--checkpoint=".length()));
+            } catch (NumberFormatException excp) {
+                _checkpointInterval = 0;
+            }
+            if (_checkpointInterval <= 0) {
+                throw error("bad checkpoint interval: %s", arg);
+            }
+        } else if (arg.equals("--pipeline")) {
+            _pipelineSlots = DEFAULT_PIPELINE_SLOTS;
+        } else if (arg.startsWith("--pipeline=")) {
+            _pipelineSlots = positive(arg, "--pipeline=");
+        } else if (arg.equals("--specialize")) {
+            _specialize = true;
+        } else if (arg.startsWith("--result-cache=")) {
+            _resultCache = bytes(arg, "--result-cache=");
+        } else if (arg.startsWith("--result-cache-limit=")) {
+            _resultCacheLimit = positive(arg, "--result-cache-limit=");
+        } else if (arg.equals("--cache-stats")) {
+            _cacheStats = true;
+        } else if (arg.equals("--queue-stats")) {
+            _queueStats = true;
+        } else if (arg.startsWith("--nonalpha=")) {
+            _policy = Transcoder.policy(arg.substring("--nonalpha=".length()));
+        } else if (arg.equals("--preserve-case")) {
+            _preserveCase = true;
+        } else if (arg.startsWith("--cribs=")) {
+            _cribs = arg.substring("--cribs=".length());
+        } else if (arg.equals("--stats")) {
+            _stats = true;
+        } else if (arg.equals("--depths")) {
+            _depths = true;
+        } else if (arg.equals("--batch")) {
+            _batch = true;
+        } else if (arg.startsWith("--threads=")) {
+            _threads = positive(arg, "--threads=");
+        } else if (arg.startsWith("--ngrams=")) {
+            try {
+                _ngramOrder =
+                    Integer.parseInt(arg.substring("--ngrams=".length()));
+            } catch (NumberFormatException excp) {
+                throw error("bad n-gram order: %s", arg);
+            }
+            NGramModel.entries(_ngramOrder, 1);
+        } else if (arg.startsWith("--search=")) {
+            _searchWorkers = positive(arg, "--search=");
+        } else if (arg.startsWith("--worker=")) {
+            _workerPort = positive(arg, "--worker=");
+        } else if (arg.startsWith("--top=")) {
+            _top = positive(arg, "--top=");
+        } else if (arg.startsWith("--ngram-table=")) {
+            _ngramTable = arg.substring("--ngram-table=".length());
+        } else if (arg.startsWith("--search-rings=")) {
+            _searchRings = positive(arg, "--search-rings=");
+        } else if (arg.startsWith("--crib=")) {
+            _searchCrib = arg.substring("--crib=".length());
+        } else if (arg.startsWith("--prune=")) {
+            try {
+                _prune = Double.parseDouble(arg.substring("--prune=".length()));
+            } catch (NumberFormatException excp) {
+                throw error("bad option: %s", arg);
+            }
+            if (Double.isNaN(_prune) || _prune > 0) {
+                throw error("bad option: %s", arg);
+            }
+        } else if (arg.startsWith("--zygalski=")) {
+            _sheets = arg.substring("--zygalski=".length());
+        } else if (arg.startsWith("--cyclometer=")) {
+            _catalogue = arg.substring("--cyclometer=".length());
+        } else if (arg.startsWith("--generate-config=")) {
+            _generateRotors = positive(arg, "--generate-config=");
+        } else if (arg.startsWith("--generate=")) {
+            _generateBytes = bytes(arg, "--generate=");
+        } else if (arg.startsWith("--seed=")) {
+            try {
+                _seed = Long.parseLong(arg.substring("--seed=".length()));
+            } catch (NumberFormatException excp) {
+                throw error("bad option: %s", arg);
+            }
+        } else if (arg.startsWith("--alphabet=")) {
+            _generateAlphabet = arg.substring("--alphabet=".length());
+            if (_generateAlphabet.length() != 2) {
+                throw error("bad option: %s", arg);
+            }
+        } else if (arg.startsWith("--slots=")) {
+            _generateSlots = positive(arg, "--slots=");
+        } else if (arg.startsWith("--pawls=")) {
+            _generatePawls = positive(arg, "--pawls=");
+        } else if (arg.startsWith("--lengths=")) {
+            _lengths = arg.substring("--lengths=".length());
+        } else if (arg.startsWith("--plugs=")) {
+            _plugs = arg.substring("--plugs=".length());
+        } else if (arg.startsWith("--lines=")) {
+            _messages = arg.substring("--lines=".length());
+        } else if (arg.startsWith("--range=")) {
+            String[] bounds = arg.substring("--range=".length()).split(":");
+            try {
+                _range = new long[] {
+                    Long.parseLong(bounds[0]), Long.parseLong(bounds[1])
+                };
+            } catch (NumberFormatException
+                     | ArrayIndexOutOfBoundsException excp) {
+                throw error("bad range: %s", arg);
+            }
+            if (bounds.length != 2 || _range[0] < 0 || _range[1] < _range[0]) {
+                throw error("bad range: %s", arg);
+            }
+        } else {
+            throw error("unknown option: %s", arg);
+        }
+    }
+
     /**
      * Process a sequence of encryptions and decryptions, as
      * specified by ARGS, where 1 <= ARGS.length <= 3.
@@ -69,6 +484,101 @@ public final class Main {
      * file for processed messages.  Otherwise, output goes to the
      * standard output. Exits normally if there are no errors in the input;
      * otherwise with code 1.
+     *
+     * Options may precede the file names.  --checkpoint[=N] durably records
+     * the machine state and the input and output offsets in OUTPUT.ckpt
+     * every N message lines (default 1000), counting each piece of about
+     * CHECKPOINT_PIECE bytes of a longer line as a line, so that long
+     * lines are checkpointed within the line.  --resume continues a run
+     * that was checkpointed from its last checkpoint.  Both require
+     * ARGS[1] and ARGS[2].  --range=START:END decrypts only characters
+     * START through END-1 of the single message in ARGS[1] (see
+     * processRange).  --ngrams=N instead reads a text corpus from ARGS[1]
+     * and writes a table of N-gram log probabilities over the configured
+     * alphabet to ARGS[2], for use by NGramModel.
+     *
+     * --search=W searches every rotor order and starting position for the
+     * settings that best decrypt the ciphertext in ARGS[1], using W worker
+     * processes (see SearchCoordinator), and prints the best --top=K
+     * (default 10).  Candidates are scored with the n-gram table named by
+     * --ngram-table=FILE, if given, and otherwise by their index of
+     * coincidence; a candidate's decryption stops as soon as it cannot
+     * make the best K (see Machine.trial).  With a table, --prune=LOGP
+     * stops it sooner by assuming that no n-gram in the rest of the text
+     * has a log probability above LOGP, at the risk of losing a candidate
+     * that finishes unusually well.  --crib=OFFSET:TEXT instead scores
+     * candidates by the number of characters of TEXT they decrypt to at
+     * OFFSET, which lets most be dropped after a few characters.
+     * --search-rings=N also tries every ring setting of the N rightmost
+     * rotors; once those include every moving rotor, only one of each
+     * class of settings equivalent on the ciphertext is tried (see
+     * KeyClasses).  Progress is kept in ARGS[2].progress, if ARGS[2] is
+     * present, so that an interrupted search of the same ciphertext with
+     * the same options may be rerun.  --worker=PORT is used internally to
+     * start the workers.
+     *
+     * --cyclometer=FILE with no ARGS[1] writes a catalogue of the
+     * characteristics of every rotor order and starting position to FILE
+     * (see Cyclometer).  With ARGS[1], it reads doubled indicators (six
+     * letters each) from ARGS[1] and prints the settings whose
+     * characteristic matches theirs.
+     *
+     * --zygalski=FILE reads lines of a ground setting and the doubled
+     * indicator sent at it from ARGS[1] and prints the rotor orders and
+     * ring settings consistent with the females among them, as settings
+     * lines at the first ground setting (see Zygalski).  The sheets are
+     * kept in FILE, which is built first if it does not hold those of
+     * this configuration.
+     *
+     * --generate-config=N writes a random configuration of N rotors to
+     * ARGS[0] instead of reading it; --alphabet=XY (default AZ), --slots
+     * and --pawls (default 5 and 3) shape it.  --generate=BYTES[K|M|G]
+     * writes at least that much random message input for configuration
+     * ARGS[0] to ARGS[1], with message lengths, plugboard pairs and
+     * messages per settings line drawn from --lengths, --plugs and
+     * --lines (see WorkloadGenerator.Distribution).  Both are determined
+     * by --seed=S (default 0).
+     *
+     * --pipeline[=SLOTS] reads, converts and writes on three threads
+     * connected by queues of SLOTS batches (default 16); --queue-stats
+     * then reports how full the queues were on the standard error.  It
+     * cannot be combined with checkpoints.
+     *
+     * --specialize converts messages with machines specialised to each
+     * key (see SpecializedMachine) once enough of its messages have been
+     * converted to repay building them.  They are generated where a Java
+     * compiler is available; otherwise a warning is printed and slower
+     * table-driven machines are used.
+     *
+     * --result-cache=BYTES[K|M|G] keeps the conversions of message lines
+     * of up to --result-cache-limit=N characters (default 256) in a cache
+     * of about that many bytes (see ResultCache), so that a line sent
+     * again at the same settings and positions is not converted again;
+     * --cache-stats then reports the cache's use on the standard error.
+     *
+     * --nonalpha=POLICY says what to do with message characters that are
+     * neither blanks nor (in either case) in the alphabet: strip them,
+     * pass them through unchanged, or report an error (the default).
+     * --preserve-case gives each converted character the case of its
+     * input.
+     *
+     * --cribs=FILE reads cribs, one per line, from FILE and prints, for
+     * each, the offsets in the ciphertext ARGS[1] (counting only
+     * characters in the alphabet) at which it might lie (see CribFinder).
+     *
+     * --stats reports statistics of the ciphertext ARGS[1] (see
+     * CipherStats), gathered on --threads=N threads, instead of
+     * converting it.
+     *
+     * --depths prints the --top=K pairs of messages in ARGS[1] most likely
+     * to be in depth (sent from the same starting key), confirmed by a
+     * Kappa test of every pair on --threads=N threads (see DepthFinder).
+     *
+     * --batch converts every file listed in the manifest ARGS[0] (see
+     * Batch) on --threads=N threads (default, one per processor), and
+     * prints a report on ARGS[1], if present, or the standard output.
+     * It cannot be combined with --pipeline, --specialize or
+     * --result-cache.
      */
     public static void main(String... args) {
         try {
@@ -81,169 +591,668 @@ public final class Main {
     }
 
     /**
-     * Return a Scanner reading from the file named NAME.
+     * Return the positive integer value of option ARG, whose name is
+     * PREFIX.
+     */
+    private int positive(String arg, String prefix) {
+        int value;
+        try {
+            value = Integer.parseInt(arg.substring(prefix.length()));
+        } catch (NumberFormatException excp) {
+            value = 0;
+        }
+        if (value <= 0) {
+            throw error("bad option: %s", arg);
+        }
+        return value;
+    }
+
+    /**
+     * Return the positive number of bytes, optionally followed by K, M or
+     * G, given by option ARG, whose name is PREFIX.
+     */
+    private long bytes(String arg, String prefix) {
+        String size = arg.substring(prefix.length());
+        long unit = 1;
+        int suffix = "KMG".indexOf(size.isEmpty() ? ' '
+                                   : size.charAt(size.length() - 1));
+        if (suffix >= 0) {
+            unit = 1L << (10 * (suffix + 1));
+            size = size.substring(0, size.length() - 1);
+        }
+        long value;
+        try {
+            value = Long.parseLong(size) * unit;
+        } catch (NumberFormatException excp) {
+            value = 0;
+        }
+        if (value <= 0) {
+            throw error("bad option: %s", arg);
+        }
+        return value;
+    }
+
+    /**
+     * Return a LineReader reading from the file named NAME, positioned
+     * at the checkpoint being resumed, if any.
      */
-    private Scanner getInput(String name) {
+    private LineReader getLines(String name) {
         try {
-            return new Scanner(new File(name));
+            FileInputStream input = new FileInputStream(name);
+            long start = 0;
+            if (_resumeFrom != null) {
+                start = _resumeFrom.inputOffset();
+                input.getChannel().position(start);
+            }
+            return new LineReader(input, start,
+                                  _checkpointFile == null
+                                  ? 0 : CHECKPOINT_PIECE);
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
     /**
-     * Return a PrintStream writing to the file named NAME.
+     * Return a PrintStream writing to the file named NAME.  When
+     * checkpointing, the file is written through _outputChannel, and
+     * when resuming, is first truncated to the checkpointed length.
      */
     private PrintStream getOutput(String name) {
         try {
-            return new PrintStream(new File(name));
+            if (_checkpointFile == null) {
+                return new PrintStream(new File(name));
+            }
+            _outputChannel =
+                FileChannel.open(new File(name).toPath(),
+                                 StandardOpenOption.CREATE,
+                                 StandardOpenOption.WRITE);
+            long start = _resumeFrom == null ? 0 : _resumeFrom.outputOffset();
+            if (_outputChannel.size() < start) {
+                throw error("output is shorter than its checkpoint");
+            }
+            _outputChannel.truncate(start);
+            _outputChannel.position(start);
+            return new PrintStream(new BufferedOutputStream(
+                Channels.newOutputStream(_outputChannel), OUTPUT_BUFFER));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
     }
 
+    /**
+     * Durably record the state of SESSION after its last step, so that a
+     * later run with --resume can continue from here.
+     */
+    private void checkpoint(Session session) {
+        Machine M = session.machine();
+        _output.flush();
+        if (_output.checkError()) {
+            throw error("could not write output");
+        }
+        try {
+            _outputChannel.force(false);
+            Rotor[] slots = M.getRotorSlots();
+            String[] names = new String[slots.length];
+            char[] positions = new char[slots.length - 1];
+            char[] rings = new char[slots.length - 1];
+            names[0] = slots[0].name().toUpperCase();
+            for (int i = 1; i < slots.length; i += 1) {
+                names[i] = slots[i].name().toUpperCase();
+                positions[i - 1] = _alphabet.toChar(slots[i].setting());
+                rings[i - 1] = _alphabet.toChar(slots[i].ring());
+            }
+            new Checkpoint(_configId,
+                           String.join(" ", names),
+                           new String(positions), new String(rings),
+                           _input.plugCycles(),
+                           _lines.offset(), _outputChannel.position(),
+                           session.column())
+                .write(_checkpointFile);
+        } catch (IOException excp) {
+            throw error("could not write output");
+        }
+    }
+
 
     /**
      * Configure an Enigma machine from the contents of configuration
      * file _config and apply it to the messages in _input, sending the
      * results to _output.
      */
-    private void process() {
+    void process() {
+        if (_batch) {
+            Batch batch = new Batch(new File(_configName), _policy,
+                                    _preserveCase);
+            int failures = batch.run(_threads, _output);
+            if (failures > 0) {
+                throw error("%d of %d files failed", failures, batch.size());
+            }
+            return;
+        }
+        if (_generateRotors > 0) {
+            new WorkloadGenerator(_seed).writeConfig(
+                new File(_configName), _generateAlphabet.charAt(0),
+                _generateAlphabet.charAt(1), _generateRotors,
+                _generateSlots, _generatePawls);
+            return;
+        }
         Machine machine = readConfig();
-        Pattern pat = Pattern.compile("\\*");
-        Pattern pat2 = Pattern.compile(".");
-        if (!_input.hasNext(pat)) {
-            throw error("input does not begin with setting");
-        }
-        while (_input.hasNextLine()) {
-            while (_input.hasNext(pat)) {
-                _input.next();
-                String[] rotors = new String[machine.numRotors()];
-                int i = 0;
-                while (i < rotors.length) {
-                    rotors[i] = _input.next();
-                    i++;
-                }
-                for (int j = 0; j < rotors.length; j++) {
-                    for (int k = 0; k < rotors.length; k++) {
-                        if (rotors[j] == rotors[k] && j != k) {
-                            throw error("Repeated rotors");
-                        }
-                    }
-                }
-                try {
-                    machine.insertRotors(rotors);
-                } catch (NoSuchElementException e) {
-                    throw error("Rotors misnamed");
-                }
-                if (!machine.getRotorSlots()[0].reflecting()) {
-                    throw error("First rotor is not a reflector");
-                }
-                String settings = _input.next();
-                String plugCycles = _input.nextLine();
-                Permutation plug = new Permutation(plugCycles, _alphabet);
+        if (_generateBytes > 0) {
+            new WorkloadGenerator(_seed).writeMessages(
+                new File(_inputName), machine, _generateBytes,
+                new WorkloadGenerator.Distribution(_lengths),
+                new WorkloadGenerator.Distribution(_plugs),
+                new WorkloadGenerator.Distribution(_messages));
+            return;
+        }
+        if (_range != null) {
+            processRange(machine);
+            return;
+        }
+        if (_ngramOrder > 0) {
+            buildNGrams();
+            return;
+        }
+        if (_searchWorkers > 0 || _workerPort > 0) {
+            search(machine);
+            return;
+        }
+        if (_catalogue != null) {
+            cyclometer(machine);
+            return;
+        }
+        if (_sheets != null) {
+            zygalski(machine);
+            return;
+        }
+        if (_cribs != null) {
+            findCribs();
+            return;
+        }
+        if (_stats) {
+            CipherStats.collect(new File(_inputName), machine,
+                                STATS_CHUNKS * _threads, _threads)
+                .report(_output);
+            return;
+        }
+        _input = new MessageLexer(_lines, machine);
+        if (_depths) {
+            new DepthFinder(_input, _alphabet).report(_top, _threads,
+                                                      _output);
+            return;
+        }
+        if (_pipelineSlots > 0) {
+            pipeline(machine);
+            return;
+        }
+        Session session =
+            new Session(_input, machine, _keys, _transcoder, _output);
+        if (_specialize) {
+            if (!SpecializedMachine.compilerAvailable()) {
+                System.err.println("Warning: no Java compiler available;"
+                                   + " --specialize will use table-driven"
+                                   + " machines");
+            }
+            session.specialize(SPECIALIZE_AFTER, KEY_CACHE);
+        }
+        ResultCache cache = null;
+        if (_resultCache > 0) {
+            cache = new ResultCache(_resultCache, _resultCacheLimit);
+            session.cache(cache, _configId);
+        }
+        if (_resumeFrom != null) {
+            if (_resumeFrom.configId() != _configId) {
+                throw error("configuration changed since checkpoint");
+            }
+            _input.settings(String.format("* %s %s %s %s",
+                                          _resumeFrom.rotors(),
+                                          _resumeFrom.positions(),
+                                          _resumeFrom.rings(),
+                                          _resumeFrom.plugboard()));
+            session.setUp();
+            if (_resumeFrom.column() >= 0) {
+                session.resumeLine(_resumeFrom.column());
+            }
+        } else {
+            session.start();
+        }
+        int sinceCheckpoint = 0;
+        while (session.step()) {
+            sinceCheckpoint += 1;
+            if (_checkpointFile != null
+                && sinceCheckpoint >= _checkpointInterval) {
+                checkpoint(session);
+                sinceCheckpoint = 0;
+            }
+        }
+        _output.flush();
+        if (_cacheStats && cache != null) {
+            System.err.println(cache.stats());
+        }
+        if (_checkpointFile != null) {
+            _output.close();
+            if (_output.checkError() || !_checkpointFile.delete()) {
+                throw error("could not finish output");
+            }
+        }
+    }
 
-                if (settings.length() != machine.numRotors() - 1) {
-                    throw error("wrong number of arguments");
-                }
-                for (int j = 0; j < settings.length(); j++) {
-                    if (!_alphabet.contains(settings.charAt(j))) {
-                        throw error("characters not contained in the alphabet");
+    /**
+     * Apply machine M to the messages in _input as process does, but with
+     * reading, conversion and writing overlapped on separate threads (see
+     * Pipeline).
+     */
+    private void pipeline(Machine M) {
+        Pipeline pipeline =
+            new Pipeline(_input, M, _keys, _transcoder,
+                         new BufferedWriter(new OutputStreamWriter(_output),
+                                            OUTPUT_BUFFER),
+                         _pipelineSlots);
+        try {
+            pipeline.run();
+        } finally {
+            if (_queueStats) {
+                System.err.println(pipeline.stats());
+            }
+        }
+    }
+
+    /**
+     * Decrypt characters _range[0] through _range[1] - 1 of the message
+     * in _input with machine M, sending the result to _output in groups
+     * of five.  The input must consist of one settings line followed by
+     * the message body.  Offsets count the characters of the body that
+     * are, in either case, in the alphabet, so that blanks, line breaks
+     * and the grouping of Main's own output do not shift them.  The
+     * rotors are set to the start of the range directly (see
+     * PositionIndex); the body before it is only scanned, a mapped region
+     * at a time, to find where the range begins.  Other characters are
+     * treated according to --nonalpha, as in messages.
+     */
+    private void processRange(Machine machine) {
+        _input = new MessageLexer(_lines, machine);
+        Session session =
+            new Session(_input, machine, _keys, _transcoder, _output);
+        session.start();
+        while (_input.next() != MessageLexer.Kind.SETTINGS) {
+            continue;
+        }
+        session.setUp();
+        long body = _input.offset();
+        new PositionIndex(machine).seek(_range[0]);
+        int[] table = rangeTable();
+        StringBuilder result = new StringBuilder();
+        try (FileChannel in = FileChannel.open(new File(_inputName).toPath(),
+                                               StandardOpenOption.READ)) {
+            long count = 0;
+            for (long pos = body; pos < in.size() && count < _range[1];
+                 pos += RANGE_CHUNK) {
+                int len = (int) Math.min(RANGE_CHUNK, in.size() - pos);
+                MappedByteBuffer region =
+                    in.map(FileChannel.MapMode.READ_ONLY, pos, len);
+                for (int i = 0; i < len && count < _range[1]; i += 1) {
+                    int c = region.get(i) & 0xff;
+                    int entry = table[c];
+                    if (entry >= 0) {
+                        if (count >= _range[0]) {
+                            if (count > _range[0]
+                                && (count - _range[0]) % 5 == 0) {
+                                result.append(' ');
+                            }
+                            result.append(
+                                _alphabet.toChar(machine.convert(entry)));
+                        }
+                        count += 1;
+                    } else if (entry == RANGE_OTHER) {
+                        if (_policy == Transcoder.Policy.ERROR) {
+                            throw error("character not in alphabet: %c",
+                                        (char) c);
+                        } else if (_policy == Transcoder.Policy.PASS
+                                   && count >= _range[0]) {
+                            result.append((char) c);
+                        }
                     }
                 }
-                machine.setPlugboard(plug);
-                setUp(machine, settings);
+                _output.print(result);
+                result.setLength(0);
             }
-            if (!_input.hasNext()) {
-                break;
+        } catch (IOException excp) {
+            throw error("could not read %s", _inputName);
+        }
+        _output.println();
+        _output.flush();
+    }
+
+    /**
+     * Return the treatment of each byte of a ciphertext read in --range
+     * mode: the alphabet index of the character it encodes, in either
+     * case, or RANGE_BLANK for whitespace or RANGE_OTHER otherwise.
+     */
+    private int[] rangeTable() {
+        int[] table = new int[256];
+        for (char c = 0; c < table.length; c += 1) {
+            if (_alphabet.contains(c)) {
+                table[c] = _alphabet.toInt(c);
+            } else if (_alphabet.contains(Character.toUpperCase(c))) {
+                table[c] = _alphabet.toInt(Character.toUpperCase(c));
+            } else if (_alphabet.contains(Character.toLowerCase(c))) {
+                table[c] = _alphabet.toInt(Character.toLowerCase(c));
+            } else if (Character.isWhitespace(c)) {
+                table[c] = RANGE_BLANK;
             } else {
-                String test = _input.nextLine();
-                printMessageLine(machine.convert(test));
-                if (!test.isEmpty()) {
-                    _output.println();
-                }
-                if (_input.hasNext(pat2)) {
-                    _output.println();
-                }
+                table[c] = RANGE_OTHER;
             }
         }
+        return table;
     }
 
     /**
-     * Return an Enigma machine configured from the contents of configuration
-     * file _config.
+     * Search for the settings of machine M that best decrypt the
+     * ciphertext _inputName, either as coordinator or as a worker.
      */
-    private Machine readConfig() {
-        try {
-
-            String alpha = _config.next();
-            int numRotors = Integer.parseInt(_config.next());
-            int numPawls = Integer.parseInt(_config.next());
-            _config.nextLine();
-            _alphabet = new CharacterRange(alpha.charAt(0),
-                    alpha.charAt(alpha.length() - 1));
-            Collection<Rotor> allRotors = new ArrayList<>();
-            while (_config.hasNextLine()) {
-                allRotors.add(readRotor());
+    private void search(Machine M) {
+        KeySpace keys = new KeySpace(M, _searchRings);
+        if (_workerPort > 0) {
+            TrialScorer scorer;
+            if (_searchCrib != null) {
+                scorer = searchCrib();
+            } else if (_ngramTable == null) {
+                scorer = new TrialScorer.Coincidence(_alphabet.size());
+            } else {
+                NGramModel model =
+                    new NGramModel(new File(_ngramTable), _alphabet);
+                scorer = Double.isNaN(_prune) ? new TrialScorer.NGrams(model)
+                    : new TrialScorer.NGrams(model, _prune);
             }
-            return new Machine(_alphabet, numRotors, numPawls, allRotors);
-        } catch (NoSuchElementException excp) {
-            throw error("configuration file truncated");
+            new SearchWorker(M, keys, readCiphertext(), scorer, _top)
+                .run(_workerPort);
+            return;
         }
+        List<String> command = new ArrayList<>(List.of(
+            new File(System.getProperty("java.home"), "bin/java").getPath(),
+            "-cp", System.getProperty("java.class.path"),
+            Main.class.getName(), "--top=" + _top));
+        if (_searchRings > 0) {
+            command.add("--search-rings=" + _searchRings);
+        }
+        if (_ngramTable != null) {
+            command.add("--ngram-table=" + _ngramTable);
+        }
+        if (!Double.isNaN(_prune)) {
+            command.add("--prune=" + _prune);
+        }
+        if (_searchCrib != null) {
+            searchCrib();
+            command.add("--crib=" + _searchCrib);
+        }
+        command.add(_configName);
+        command.add(_inputName);
+        String identity =
+            String.format("%x %x %d %d %s", _configId,
+                          Checkpoint.configId(_inputName), _top,
+                          _searchRings, scorerIdentity());
+        File progress = _outputName == null ? null
+            : new File(_outputName + PROGRESS_SUFFIX);
+        new SearchCoordinator(keys, _top, progress, identity)
+            .run(command, _searchWorkers, _output);
     }
 
     /**
-     * Return a rotor, reading its description from _config.
+     * Build the cyclometer catalogue _catalogue for machine M or, given
+     * indicators in _inputName, look up their characteristic in it.
      */
-    private Rotor readRotor() {
+    private void cyclometer(Machine M) {
+        KeySpace keys = new KeySpace(M);
+        if (_inputName == null) {
+            Cyclometer.build(M, keys, _configId, new File(_catalogue));
+            return;
+        }
+        List<int[]> indicators = new ArrayList<>();
+        int[] text = readCiphertext();
+        for (int i = 0; i + Cyclometer.INDICATOR <= text.length;
+             i += Cyclometer.INDICATOR) {
+            indicators.add(
+                Arrays.copyOfRange(text, i, i + Cyclometer.INDICATOR));
+        }
+        String signature = Cyclometer.characteristic(indicators, _alphabet);
+        _output.println(signature);
+        for (long key : new Cyclometer(new File(_catalogue), _configId)
+                 .lookup(signature)) {
+            _output.println(keys.settingsLine((int) (key / keys.positions()),
+                                              key % keys.positions()));
+        }
+        _output.flush();
+    }
+
+    /**
+     * Print the settings of machine M consistent with the indicators in
+     * _inputName according to the Zygalski sheets _sheets.
+     */
+    private void zygalski(Machine M) {
+        List<String> lines;
         try {
-            Rotor rotor;
-            String name = _config.next();
-            String type = _config.next();
-            String notches = type.substring(1);
-            String cycles = _config.nextLine();
-            Pattern pat = Pattern.compile("\\(\\w+\\)");
-            while (_config.hasNext(pat)) {
-                cycles += _config.nextLine();
-                if (!_config.hasNext()) {
-                    break;
-                }
+            lines = Files.readAllLines(new File(_inputName).toPath(),
+                                       Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not read %s", _inputName);
+        }
+        List<int[]> grounds = new ArrayList<>(),
+            indicators = new ArrayList<>();
+        String ground = null;
+        for (String line : lines) {
+            String[] fields = line.trim().toUpperCase().split("\\s+");
+            if (fields[0].isEmpty()) {
+                continue;
             }
-            Permutation perm = new Permutation(cycles, _alphabet);
-            if (type.charAt(0) == 'M') {
-                rotor = new MovingRotor(name, perm, notches);
-            } else if (type.charAt(0) == 'N') {
-                rotor = new FixedRotor(name, perm);
-            } else {
-                rotor = new Reflector(name, perm);
+            if (fields.length != 2
+                || fields[0].length() != M.numRotors() - 1
+                || fields[1].length() != Cyclometer.INDICATOR) {
+                throw error("bad indicator line: %s", line);
+            }
+            if (ground == null) {
+                ground = fields[0];
+            }
+            grounds.add(toIndices(fields[0]));
+            indicators.add(toIndices(fields[1]));
+        }
+        KeySpace keys = new KeySpace(M);
+        Zygalski sheets =
+            Zygalski.open(M, keys, _configId, new File(_sheets));
+        for (long key : sheets.attack(grounds.toArray(new int[0][]),
+                                      indicators.toArray(new int[0][]))) {
+            int order = (int) (key / keys.positions());
+            _output.println("* " + String.join(" ", keys.order(order))
+                            + " " + ground + " "
+                            + keys.position(key % keys.positions()));
+        }
+        _output.flush();
+    }
+
+    /**
+     * Return the alphabet indices of the characters of TEXT.
+     */
+    private int[] toIndices(String text) {
+        int[] result = new int[text.length()];
+        for (int i = 0; i < text.length(); i += 1) {
+            if (!_alphabet.contains(text.charAt(i))) {
+                throw error("character not in alphabet: %c", text.charAt(i));
             }
-            return rotor;
-        } catch (NoSuchElementException excp) {
-            throw error("bad rotor description");
+            result[i] = _alphabet.toInt(text.charAt(i));
+        }
+        return result;
+    }
+
+    /**
+     * Return a description of the scorer of search candidates that
+     * changes whenever the scores it gives may change.
+     */
+    private String scorerIdentity() {
+        if (_searchCrib != null) {
+            return "crib " + _searchCrib;
+        } else if (_ngramTable != null) {
+            return String.format("ngrams %s %x %s", _ngramTable,
+                                 Checkpoint.configId(_ngramTable),
+                                 Double.isNaN(_prune) ? "exact" : _prune);
+        } else {
+            return "coincidence";
         }
+    }
 
+    /**
+     * Return a scorer counting the characters of candidate plaintexts
+     * that match the crib _searchCrib.
+     */
+    private TrialScorer searchCrib() {
+        int colon = _searchCrib.indexOf(':');
+        int offset;
+        try {
+            offset = Integer.parseInt(_searchCrib.substring(0, colon));
+        } catch (NumberFormatException | IndexOutOfBoundsException excp) {
+            offset = -1;
+        }
+        String crib =
+            _searchCrib.substring(colon + 1).replace(" ", "").toUpperCase();
+        if (offset < 0 || crib.isEmpty()) {
+            throw error("bad option: --crib=%s", _searchCrib);
+        }
+        return new TrialScorer.Crib(toIndices(crib), offset);
+    }
 
+    /**
+     * Return the characters of _inputName that are in the alphabet, as
+     * alphabet indices.
+     */
+    private int[] readCiphertext() {
+        String text;
+        try {
+            text = new String(Files.readAllBytes(new File(_inputName).toPath()),
+                              Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not read %s", _inputName);
+        }
+        int[] result = new int[text.length()];
+        int n = 0;
+        for (int i = 0; i < text.length(); i += 1) {
+            char c = Character.toUpperCase(text.charAt(i));
+            if (_alphabet.contains(c)) {
+                result[n] = _alphabet.toInt(c);
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
     }
 
     /**
-     * Set M according to the specification given on SETTINGS,
-     * which must have the format specified in the assignment.
+     * Print the offsets in the ciphertext _inputName at which each crib
+     * in the file _cribs (one per line) might lie.
      */
-    private void setUp(Machine M, String settings) {
-        M.setRotors(settings);
+    private void findCribs() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(new File(_cribs).toPath(),
+                                       Charset.defaultCharset());
+        } catch (IOException excp) {
+            throw error("could not read %s", _cribs);
+        }
+        List<String> cribs = new ArrayList<>();
+        for (String line : lines) {
+            String crib = line.replace(" ", "").toUpperCase();
+            if (!crib.isEmpty()) {
+                cribs.add(crib);
+            }
+        }
+        int[][] texts = new int[cribs.size()][];
+        for (int k = 0; k < texts.length; k += 1) {
+            String crib = cribs.get(k);
+            texts[k] = new int[crib.length()];
+            for (int i = 0; i < crib.length(); i += 1) {
+                texts[k][i] = _alphabet.toInt(crib.charAt(i));
+            }
+        }
+        int[][] offsets =
+            new CribFinder(new File(_inputName), _alphabet).find(texts);
+        for (int k = 0; k < texts.length; k += 1) {
+            StringBuilder line = new StringBuilder(cribs.get(k));
+            line.append(' ').append(offsets[k].length).append(':');
+            for (int offset : offsets[k]) {
+                line.append(' ').append(offset);
+            }
+            _output.println(line);
+        }
+        _output.flush();
     }
 
     /**
-     * Print MSG in groups of five (except that the last group may
-     * have fewer letters).
+     * Write the table of _ngramOrder-grams of the corpus _inputName to
+     * _outputName.
      */
-    private void printMessageLine(String msg) {
-        int i = 0;
-        while (i < msg.length() - 5) {
-            _output.append(msg.substring(i, i + 5) + " ");
-            i += 5;
+    private void buildNGrams() {
+        NGramBuilder builder = new NGramBuilder(_ngramOrder, _alphabet);
+        try (Reader corpus = Files.newBufferedReader(
+                 new File(_inputName).toPath(), Charset.defaultCharset())) {
+            builder.add(corpus);
+        } catch (IOException excp) {
+            throw error("could not read %s", _inputName);
         }
-        _output.append(msg.substring(i));
+        builder.write(new File(_outputName));
+    }
 
+    /**
+     * Return an Enigma machine configured from the contents of configuration
+     * file _config.
+     */
+    private Machine readConfig() {
+        Machine machine = _config.parse();
+        _alphabet = _config.alphabet();
+        _keys = new MachinePool(machine, 1, KEY_CACHE);
+        _transcoder = new Transcoder(_alphabet, _policy, _preserveCase);
+        return machine;
     }
+
+    /**
+     * Suffix added to the output file name to form the checkpoint name.
+     */
+    static final String CHECKPOINT_SUFFIX = ".ckpt";
+
+    /**
+     * Suffix added to the output file name to form a search's progress
+     * file name.
+     */
+    static final String PROGRESS_SUFFIX = ".progress";
+
+    /**
+     * Default number of results reported by a search.
+     */
+    static final int DEFAULT_TOP = 10;
+
+    /**
+     * Number of bytes of input mapped at a time in --range mode.
+     */
+    private static final int RANGE_CHUNK = 1 << 20;
+
+    /**
+     * Entries of rangeTable for whitespace and for other bytes not in
+     * the alphabet.
+     */
+    private static final int RANGE_BLANK = -1, RANGE_OTHER = -2;
+
+    /**
+     * Size of the output buffer used when checkpointing.
+     */
+    private static final int OUTPUT_BUFFER = 1 << 16;
+
+    /**
+     * Number of compiled keys kept while processing messages.
+     */
+    private static final int KEY_CACHE = 64;
+    /**
+     * Number of characters converted with a key before a machine is
+     * specialised to it in --specialize mode.
+     */
+    private static final long SPECIALIZE_AFTER = 1 << 16;
+    /**
+     * Number of parts of the ciphertext gathered by each thread in
+     * --stats mode.
+     */
+    private static final int STATS_CHUNKS = 4;
 }
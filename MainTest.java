@@ -0,0 +1,121 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+public class MainTest {
+
+    /** The standard configuration. */
+    private static final String CONFIG = "testing/correct/default.conf";
+
+    /** Return a new temporary file containing TEXT. */
+    private File temp(String text) throws IOException {
+        File file = File.createTempFile("enigma", ".txt");
+        file.deleteOnExit();
+        Files.write(file.toPath(), text.getBytes(StandardCharsets.UTF_8));
+        return file;
+    }
+
+    /** Return the contents of FILE. */
+    private String read(File file) throws IOException {
+        return new String(Files.readAllBytes(file.toPath()),
+                          StandardCharsets.UTF_8);
+    }
+
+    /** Return TEXT in groups of five characters. */
+    private String group(String text) {
+        return text.replaceAll("(.{5})(?!$)", "$1 ");
+    }
+
+    /** Run Main with the command-line arguments ARGS. */
+    private void run(String... args) {
+        new Main(args).process();
+    }
+
+    /** Check that the command-line arguments ARGS are rejected with
+     *  MESSAGE. */
+    private void checkRejected(String message, String... args) {
+        try {
+            new Main(args);
+            fail("accepted " + String.join(" ", args));
+        } catch (EnigmaException excp) {
+            assertEquals(message, excp.getMessage());
+        }
+    }
+
+    @Test
+    public void testBatchOptions() {
+        String message = "--batch cannot be used with --pipeline, "
+            + "--specialize or --result-cache";
+        checkRejected(message, "--batch", "--pipeline", "jobs.txt");
+        checkRejected(message, "--batch", "--specialize", "jobs.txt");
+        checkRejected(message, "--batch", "--result-cache=1M", "jobs.txt");
+    }
+
+    @Test
+    public void testRangeRoundTrip() throws IOException {
+        String settings = "* B BETA III IV I AXLE (HQ) (EX) (IP) (TR) (BY)\n";
+        Random random = new Random(0);
+        StringBuilder plain = new StringBuilder();
+        StringBuilder message = new StringBuilder(settings);
+        for (int line = 0; line < 40; line += 1) {
+            for (int i = random.nextInt(90); i >= 0; i -= 1) {
+                char c = (char) ('A' + random.nextInt(26));
+                plain.append(c);
+                message.append(random.nextInt(6) == 0
+                               ? Character.toLowerCase(c) : c);
+                if (random.nextInt(7) == 0) {
+                    message.append(' ');
+                }
+            }
+            message.append('\n');
+        }
+        File cipher = File.createTempFile("enigma", ".out");
+        cipher.deleteOnExit();
+        run(CONFIG, temp(message.toString()).getPath(), cipher.getPath());
+        String grouped = read(cipher);
+        assertTrue(grouped.contains(" ") && grouped.split("\n").length > 1);
+        File input = temp(settings + grouped);
+        File output = File.createTempFile("enigma", ".out");
+        output.deleteOnExit();
+        int n = plain.length();
+        long[][] ranges = {
+            {0, n}, {0, 0}, {0, 1}, {1, 6}, {7, 300}, {n - 3, n},
+            {n - 3, n + 100}, {n, n + 5}, {1000, 1001}
+        };
+        for (long[] range : ranges) {
+            run("--range=" + range[0] + ":" + range[1], CONFIG,
+                input.getPath(), output.getPath());
+            String expected =
+                plain.substring((int) Math.min(range[0], n),
+                                (int) Math.min(range[1], n));
+            assertEquals(msg("range", "%d:%d", range[0], range[1]),
+                         group(expected), read(output).trim());
+        }
+    }
+
+    @Test
+    public void testRangeRejectsOtherCharacters() throws IOException {
+        File input = temp("* B BETA III IV I AXLE\nABC DE-FG\n");
+        File output = File.createTempFile("enigma", ".out");
+        output.deleteOnExit();
+        try {
+            run("--range=6:7", CONFIG, input.getPath(), output.getPath());
+            fail("accepted a character not in the alphabet");
+        } catch (EnigmaException excp) {
+            assertEquals("character not in alphabet: -", excp.getMessage());
+        }
+        run("--range=5:7", "--nonalpha=strip", CONFIG, input.getPath(),
+            output.getPath());
+        assertEquals(2, read(output).trim().length());
+    }
+}
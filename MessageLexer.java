@@ -0,0 +1,357 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashMap;
+
+import static enigma.EnigmaException.error;
+
+/** Splits a message file into records, one per line: settings lines
+ *  (whose first token is "*"), message lines and blank lines.  A
+ *  settings line names the rotors, gives their positions and, optionally,
+ *  their ring settings, and ends with the plugboard cycles.  The
+ *  rotor names, positions and plugboard of a settings line are resolved
+ *  against a machine's rotors and alphabet as the line is read, so that
+ *  they can be applied to the machine without further parsing.
+ *  @author Aadiraj Batlaw
+ */
+class MessageLexer {
+
+    /** Kinds of record. */
+    enum Kind {
+        /** A line whose first token is "*". */
+        SETTINGS,
+        /** A line containing anything else. */
+        MESSAGE,
+        /** A line containing only whitespace. */
+        BLANK,
+        /** The end of the input. */
+        END
+    }
+
+    /** A lexer reading lines from INPUT, resolving settings against the
+     *  rotors and alphabet of machine M. */
+    MessageLexer(LineReader input, Machine M) {
+        _input = input;
+        _alphabet = M.alphabet();
+        _slots = M.numRotors();
+        _rotorIndex = new HashMap<>();
+        int i = 0;
+        for (Rotor rotor : M.allRotors()) {
+            _rotorIndex.putIfAbsent(rotor.name().toUpperCase(), i);
+            i += 1;
+        }
+        _inUse = new boolean[i];
+        _rotors = new int[_slots];
+        _positions = new int[_slots - 1];
+        _rings = new int[_slots - 1];
+        _plugboard = new int[_alphabet.size()];
+        for (int k = 0; k < _plugboard.length; k += 1) {
+            _plugboard[k] = k;
+        }
+        _plugged = new boolean[_alphabet.size()];
+        _touched = new int[_alphabet.size()];
+    }
+
+    /** A lexer with no input, which parses only the settings lines it
+     *  is given, resolving them against machine M. */
+    MessageLexer(Machine M) {
+        this(null, M);
+    }
+
+    /** Read the next line and return its kind, or END if there are no
+     *  more lines.  If it is a settings line, parse it.  A line that
+     *  continues a message line (see continues()) is a MESSAGE. */
+    Kind next() {
+        boolean continuation = _continues;
+        _line = _input.readLine();
+        _continues = _line != null && _input.continues();
+        if (_line == null) {
+            return Kind.END;
+        } else if (continuation) {
+            return Kind.MESSAGE;
+        }
+        Kind kind = kind(_line);
+        if (kind == Kind.SETTINGS) {
+            settings(_line);
+        }
+        return kind;
+    }
+
+    /** Return the kind of the next non-blank line, or END if only blank
+     *  lines remain, without consuming anything. */
+    Kind lookahead() {
+        if (_continues) {
+            return Kind.MESSAGE;
+        }
+        String line = _input.peekNonBlank();
+        return line == null ? Kind.END : kind(line);
+    }
+
+    /** Return true iff the first token of the next non-blank line is a
+     *  single character. */
+    boolean shortTokenAhead() {
+        String line = _input.peekNonBlank();
+        if (line == null) {
+            return false;
+        }
+        int start = skipBlanks(line, 0);
+        return start + 1 == line.length()
+            || Character.isWhitespace(line.charAt(start + 1));
+    }
+
+    /** Return the text of the last line read. */
+    String line() {
+        return _line;
+    }
+
+    /** Return true iff the last line read is a piece of a message line
+     *  that continues in the next line read (see LineReader). */
+    boolean continues() {
+        return _continues;
+    }
+
+    /** Read the next line as the continuation of a message line, as when
+     *  the input was reopened between two of its pieces. */
+    void resumeLine() {
+        _continues = true;
+    }
+
+    /** Return the byte offset of the first unread line. */
+    long offset() {
+        return _input.offset();
+    }
+
+    /** Parse LINE as a settings line, making it the current settings. */
+    void settings(String line) {
+        int pos = skipBlanks(line, 0) + 1;
+        Arrays.fill(_inUse, false);
+        for (int i = 0; i < _slots; i += 1) {
+            int start = skipBlanks(line, pos);
+            pos = skipToken(line, start);
+            if (start == pos) {
+                throw error("wrong number of arguments");
+            }
+            Integer rotor = _rotorIndex.get(line.substring(start, pos));
+            if (rotor == null) {
+                throw error("Rotors misnamed");
+            }
+            if (_inUse[rotor]) {
+                throw error("Repeated rotors");
+            }
+            _inUse[rotor] = true;
+            _rotors[i] = rotor;
+        }
+        int start = skipBlanks(line, pos);
+        pos = skipToken(line, start);
+        if (pos - start != _positions.length) {
+            throw error("wrong number of arguments");
+        }
+        for (int i = 0; i < _positions.length; i += 1) {
+            char c = line.charAt(start + i);
+            if (!_alphabet.contains(c)) {
+                throw error("characters not contained in the alphabet");
+            }
+            _positions[i] = _alphabet.toInt(c);
+        }
+        Arrays.fill(_rings, 0);
+        start = skipBlanks(line, pos);
+        if (start < line.length() && line.charAt(start) != '(') {
+            pos = skipToken(line, start);
+            if (pos - start != _rings.length) {
+                throw error("wrong number of arguments");
+            }
+            for (int i = 0; i < _rings.length; i += 1) {
+                char c = line.charAt(start + i);
+                if (!_alphabet.contains(c)) {
+                    throw error("characters not contained in the alphabet");
+                }
+                _rings[i] = _alphabet.toInt(c);
+            }
+        }
+        _plugCycles = line.substring(pos).trim();
+        plugboard(line, pos);
+    }
+
+    /** Return the indices, among the machine's rotors, of the rotors
+     *  named in the current settings, reflector first. */
+    int[] rotors() {
+        return _rotors;
+    }
+
+    /** Return the rotor positions of the current settings, leftmost
+     *  first, as alphabet indices. */
+    int[] positions() {
+        return _positions;
+    }
+
+    /** Return the ring settings of the current settings, leftmost first,
+     *  as alphabet indices.  They are all 0 unless given. */
+    int[] rings() {
+        return _rings;
+    }
+
+    /** Return the plugboard of the current settings as the characters
+     *  it moves, in increasing order, each followed by its image, as
+     *  alphabet indices (as for Permutation.sparse).  The result is not
+     *  changed by later settings. */
+    int[] plugboard() {
+        return _plugs;
+    }
+
+    /** Return the plugboard cycles of the current settings as written. */
+    String plugCycles() {
+        return _plugCycles;
+    }
+
+    /** Parse the plugboard cycles in LINE from POS into _plugs.  Only
+     *  the characters in the previous settings' cycles are reset, so
+     *  that the time taken does not depend on the size of the
+     *  alphabet. */
+    private void plugboard(String line, int pos) {
+        for (int i = 0; i < _touchedCount; i += 1) {
+            int k = _touched[i];
+            _plugboard[k] = k;
+            _plugged[k] = false;
+        }
+        _touchedCount = 0;
+        int first = -1, prev = -1;
+        boolean open = false;
+        for (; pos < line.length(); pos += 1) {
+            char c = line.charAt(pos);
+            if (Character.isWhitespace(c)) {
+                continue;
+            } else if (c == '(' && !open) {
+                open = true;
+                first = prev = -1;
+            } else if (c == ')' && open) {
+                open = false;
+                if (prev >= 0) {
+                    _plugboard[prev] = first;
+                }
+            } else if (open && _alphabet.contains(c)) {
+                int k = _alphabet.toInt(c);
+                if (_plugged[k]) {
+                    throw error("character %c repeated in cycles", c);
+                }
+                _plugged[k] = true;
+                _touched[_touchedCount] = k;
+                _touchedCount += 1;
+                if (prev < 0) {
+                    first = k;
+                } else {
+                    _plugboard[prev] = k;
+                }
+                prev = k;
+            } else {
+                throw error("malformed cycles: %s", line.substring(pos));
+            }
+        }
+        if (open) {
+            throw error("malformed cycles: %s", _plugCycles);
+        }
+        Arrays.sort(_touched, 0, _touchedCount);
+        int moves = 0;
+        for (int i = 0; i < _touchedCount; i += 1) {
+            if (_plugboard[_touched[i]] != _touched[i]) {
+                moves += 1;
+            }
+        }
+        _plugs = new int[2 * moves];
+        for (int i = 0, j = 0; i < _touchedCount; i += 1) {
+            int k = _touched[i];
+            if (_plugboard[k] != k) {
+                _plugs[j] = k;
+                _plugs[j + 1] = _plugboard[k];
+                j += 2;
+            }
+        }
+    }
+
+    /** Return true iff the non-null line LINE is a settings line. */
+    static boolean isSettings(String line) {
+        return kind(line) == Kind.SETTINGS;
+    }
+
+    /** Return the kind of the non-null line LINE. */
+    private static Kind kind(String line) {
+        int start = skipBlanks(line, 0);
+        if (start == line.length()) {
+            return Kind.BLANK;
+        }
+        if (line.charAt(start) == '*'
+            && (start + 1 == line.length()
+                || Character.isWhitespace(line.charAt(start + 1)))) {
+            return Kind.SETTINGS;
+        }
+        return Kind.MESSAGE;
+    }
+
+    /** Return the position of the first non-whitespace character of LINE
+     *  at or after POS, or its length. */
+    private static int skipBlanks(String line, int pos) {
+        while (pos < line.length() && Character.isWhitespace(line.charAt(pos))) {
+            pos += 1;
+        }
+        return pos;
+    }
+
+    /** Return the position of the first whitespace character of LINE at
+     *  or after POS, or its length. */
+    private static int skipToken(String line, int pos) {
+        while (pos < line.length()
+               && !Character.isWhitespace(line.charAt(pos))) {
+            pos += 1;
+        }
+        return pos;
+    }
+
+    /** Source of lines. */
+    private final LineReader _input;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots of the machine. */
+    private final int _slots;
+
+    /** Index of each rotor of the machine, by upper-case name. */
+    private final HashMap<String, Integer> _rotorIndex;
+
+    /** Marks the rotors named so far in a settings line. */
+    private final boolean[] _inUse;
+
+    /** Marks the characters in plugboard cycles so far. */
+    private final boolean[] _plugged;
+
+    /** The last line read. */
+    private String _line;
+
+    /** True iff the next line read continues a message line. */
+    private boolean _continues;
+
+    /** Rotor indices of the current settings. */
+    private final int[] _rotors;
+
+    /** Rotor positions of the current settings. */
+    private final int[] _positions;
+
+    /** Ring settings of the current settings. */
+    private final int[] _rings;
+
+    /** Plugboard mapping of the current settings. */
+    private final int[] _plugboard;
+
+    /** The characters in the current settings' plugboard cycles, in the
+     *  first _touchedCount elements. */
+    private final int[] _touched;
+
+    /** Number of characters in _touched. */
+    private int _touchedCount;
+
+    /** Plugboard of the current settings, as returned by plugboard(). */
+    private int[] _plugs = new int[0];
+
+    /** Plugboard cycles of the current settings. */
+    private String _plugCycles = "";
+
+}
@@ -0,0 +1,83 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.nio.charset.StandardCharsets;
+
+import static enigma.TestUtils.*;
+import static enigma.MessageLexer.Kind.*;
+
+public class MessageLexerTest {
+
+    /** Return a lexer reading TEXT. */
+    private MessageLexer lexer(String text) {
+        return new MessageLexer(new LineReader(new ByteArrayInputStream(
+            text.getBytes(StandardCharsets.ISO_8859_1))), navalMachine());
+    }
+
+    @Test
+    public void testKinds() {
+        MessageLexer lexer =
+            lexer("* B I II III AAA\nHELLO\n  \n*X\n *\tB III II I ABC\n");
+        assertEquals(SETTINGS, lexer.lookahead());
+        assertEquals(SETTINGS, lexer.next());
+        assertEquals(MESSAGE, lexer.lookahead());
+        assertFalse(lexer.shortTokenAhead());
+        assertEquals(MESSAGE, lexer.next());
+        assertEquals("HELLO", lexer.line());
+        assertEquals(23, lexer.offset());
+        assertEquals(MESSAGE, lexer.lookahead());
+        assertEquals(BLANK, lexer.next());
+        assertEquals(MESSAGE, lexer.next());
+        assertEquals("*X", lexer.line());
+        assertTrue(lexer.shortTokenAhead());
+        assertEquals(SETTINGS, lexer.next());
+        assertArrayEquals(new int[] {0, 3, 2, 1}, lexer.rotors());
+        assertEquals(END, lexer.lookahead());
+        assertEquals(END, lexer.next());
+    }
+
+    @Test
+    public void testSettings() {
+        MessageLexer lexer = new MessageLexer(navalMachine());
+        lexer.settings("* B III I II QRS (AB) (CDE)");
+        assertArrayEquals(new int[] {0, 3, 1, 2}, lexer.rotors());
+        assertArrayEquals(new int[] {16, 17, 18}, lexer.positions());
+        assertArrayEquals(new int[] {0, 0, 0}, lexer.rings());
+        assertArrayEquals(new int[] {0, 1, 1, 0, 2, 3, 3, 4, 4, 2},
+                          lexer.plugboard());
+        assertEquals("(AB) (CDE)", lexer.plugCycles());
+        int[] plugs = lexer.plugboard();
+        lexer.settings("* B I II III AAA BCD (ZY)");
+        assertArrayEquals(new int[] {0, 1, 2, 3}, lexer.rotors());
+        assertArrayEquals(new int[] {0, 0, 0}, lexer.positions());
+        assertArrayEquals(new int[] {1, 2, 3}, lexer.rings());
+        assertArrayEquals(new int[] {24, 25, 25, 24}, lexer.plugboard());
+        assertArrayEquals(new int[] {0, 1, 1, 0, 2, 3, 3, 4, 4, 2}, plugs);
+        lexer.settings("* B I II III AAA");
+        assertArrayEquals(new int[] {0, 0, 0}, lexer.rings());
+        assertArrayEquals(new int[] {}, lexer.plugboard());
+        assertEquals("", lexer.plugCycles());
+    }
+
+    @Test
+    public void testBadSettings() {
+        String[] bad = {
+            "* B I II AAA", "* B I II IV AAA", "* B I II I AAA",
+            "* B I II III AA", "* B I II III AaA", "* B I II III AAA ABCD",
+            "* B I II III AAA (AB", "* B I II III AAA (AB) (BC)",
+            "* B I II III AAA (A1)", "* B I II III AAA AB)"
+        };
+        for (String line : bad) {
+            try {
+                new MessageLexer(navalMachine()).settings(line);
+                fail("accepted " + line);
+            } catch (EnigmaException excp) {
+                /* Expected. */
+            }
+        }
+    }
+}
@@ -44,6 +44,11 @@ class MovingRotor extends Rotor {
         set(_perm.wrap(setting() + 1));
     }
 
+    @Override
+    Rotor copy() {
+        return new MovingRotor(_name, _perm, _notches);
+    }
+
     /**
      * Name of rotor.
      */
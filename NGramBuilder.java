@@ -0,0 +1,113 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.error;
+
+/** Builds the n-gram tables read by NGramModel from a corpus of text.
+ *  @author Aadiraj Batlaw
+ */
+class NGramBuilder {
+
+    /** A builder of ORDER-grams over ALPHABET. */
+    NGramBuilder(int order, Alphabet alphabet) {
+        _order = order;
+        _alphabet = alphabet;
+        _size = alphabet.size();
+        long entries = NGramModel.entries(order, _size);
+        _high = (int) (entries / _size);
+        _counts = new long[(int) entries];
+    }
+
+    /** Count the n-grams in the text read from CORPUS.  Characters not in
+     *  my alphabet (after conversion to upper case) are skipped, so
+     *  n-grams may span them. */
+    void add(Reader corpus) {
+        char[] buffer = new char[BUFFER_SIZE];
+        try {
+            for (int n = corpus.read(buffer); n >= 0; n = corpus.read(buffer)) {
+                for (int i = 0; i < n; i += 1) {
+                    char c = Character.toUpperCase(buffer[i]);
+                    if (!_alphabet.contains(c)) {
+                        continue;
+                    }
+                    _index = _index % _high * _size + _alphabet.toInt(c);
+                    _seen += 1;
+                    if (_seen >= _order) {
+                        _counts[_index] += 1;
+                        _total += 1;
+                    }
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read corpus: %s", excp.getMessage());
+        }
+    }
+
+    /** Write the table of log probabilities of the n-grams counted so far
+     *  to FILE.  N-grams never seen are given a probability of FLOOR / the
+     *  total number of n-grams counted. */
+    void write(File file) {
+        if (_total == 0) {
+            throw error("corpus contains no %d-grams", _order);
+        }
+        double floor = Math.log10(FLOOR / _total);
+        ByteBuffer bytes =
+            ByteBuffer.allocate(NGramModel.HEADER_BYTES + 4 * _counts.length);
+        bytes.putInt(NGramModel.MAGIC).putInt(NGramModel.VERSION);
+        bytes.putInt(_order).putInt(_size);
+        FloatBuffer table = bytes.asFloatBuffer();
+        for (long count : _counts) {
+            table.put((float) (count == 0 ? floor
+                               : Math.log10((double) count / _total)));
+        }
+        bytes.rewind();
+        try (FileChannel out =
+                 FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                  StandardOpenOption.WRITE,
+                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (bytes.hasRemaining()) {
+                out.write(bytes);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Pseudo-count given to n-grams that do not occur in the corpus. */
+    static final double FLOOR = 0.01;
+
+    /** Size of the corpus read buffer. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Number of characters in each n-gram. */
+    private final int _order;
+
+    /** Alphabet of the n-grams. */
+    private final Alphabet _alphabet;
+
+    /** Size of _alphabet. */
+    private final int _size;
+
+    /** Number of (N-1)-grams. */
+    private final int _high;
+
+    /** Number of occurrences of each n-gram. */
+    private final long[] _counts;
+
+    /** Index of the last N characters read. */
+    private int _index;
+
+    /** Number of characters read. */
+    private long _seen;
+
+    /** Number of n-grams counted. */
+    private long _total;
+
+}
@@ -0,0 +1,146 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+import static enigma.EnigmaException.error;
+
+/** A table of n-gram log probabilities, memory-mapped from a file written
+ *  by NGramBuilder, used to score candidate plaintexts.  Higher scores
+ *  indicate text more like the corpus the table was built from.
+ *
+ *  The file holds a header of four ints (MAGIC, VERSION, the n-gram order
+ *  N and the alphabet size S), followed by S**N floats, the base-10 log
+ *  probability of each n-gram, indexed by the n-gram's characters read
+ *  as a base-S number with the first character most significant.
+ *  @author Aadiraj Batlaw
+ */
+class NGramModel {
+
+    /** The model stored in FILE, which must be for an alphabet the same
+     *  size as ALPHABET. */
+    NGramModel(File file, Alphabet alphabet) {
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            if (in.size() < HEADER_BYTES) {
+                throw error("malformed n-gram table %s", file);
+            }
+            MappedByteBuffer map =
+                in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION) {
+                throw error("malformed n-gram table %s", file);
+            }
+            _order = map.getInt(8);
+            _size = map.getInt(12);
+            if (_size != alphabet.size()) {
+                throw error("n-gram table %s is for an alphabet of %d "
+                            + "characters", file, _size);
+            }
+            long entries = entries(_order, _size);
+            if (in.size() != HEADER_BYTES + 4 * entries) {
+                throw error("malformed n-gram table %s", file);
+            }
+            _high = (int) (entries / _size);
+            map.position(HEADER_BYTES);
+            _table = map.slice().asFloatBuffer();
+        } catch (IOException excp) {
+            throw error("could not read n-gram table %s", file);
+        }
+    }
+
+    /** Return the number of characters in my n-grams. */
+    int order() {
+        return _order;
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _size;
+    }
+
+    /** Return the log probability of the n-gram with index INDEX. */
+    float logProbability(int index) {
+        return _table.get(index);
+    }
+
+    /** Return the largest log probability of any n-gram, looking at the
+     *  whole table. */
+    float maxLogProbability() {
+        float result = Float.NEGATIVE_INFINITY;
+        for (int i = 0; i < _table.limit(); i += 1) {
+            result = Math.max(result, _table.get(i));
+        }
+        return result;
+    }
+
+    /** Return the sum of the log probabilities of all n-grams in
+     *  TEXT[FROM .. TO-1], whose values are alphabet indices. */
+    double score(int[] text, int from, int to) {
+        double total = 0;
+        int index = 0;
+        int start = Math.min(from + _order - 1, to);
+        for (int i = from; i < start; i += 1) {
+            index = index * _size + text[i];
+        }
+        for (int i = start; i < to; i += 1) {
+            index = index % _high * _size + text[i];
+            total += _table.get(index);
+        }
+        return total;
+    }
+
+    /** Return the number of n-grams of ORDER characters from an alphabet
+     *  of SIZE characters, checking that a table of them fits in a
+     *  file. */
+    static long entries(int order, int size) {
+        if (order < MIN_ORDER || order > MAX_ORDER) {
+            throw error("n-gram order must be between %d and %d",
+                        MIN_ORDER, MAX_ORDER);
+        }
+        if (size < 1) {
+            throw error("n-grams need an alphabet of at least one character");
+        }
+        long entries = 1;
+        for (int i = 0; i < order; i += 1) {
+            entries *= size;
+            if (HEADER_BYTES + 4 * entries > Integer.MAX_VALUE) {
+                throw error("%d-gram table too large for %d characters",
+                            order, size);
+            }
+        }
+        return entries;
+    }
+
+    /** Identifies n-gram table files ("ENGR"). */
+    static final int MAGIC = 0x454e4752;
+
+    /** Format version of n-gram table files. */
+    static final int VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    static final int HEADER_BYTES = 16;
+
+    /** Smallest supported order (bigrams). */
+    static final int MIN_ORDER = 2;
+
+    /** Largest supported order (quadgrams). */
+    static final int MAX_ORDER = 4;
+
+    /** Number of characters in each n-gram. */
+    private final int _order;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of (N-1)-grams, by which indices are reduced before a new
+     *  character is shifted in. */
+    private final int _high;
+
+    /** Log probabilities, indexed as described above. */
+    private final FloatBuffer _table;
+
+}
@@ -0,0 +1,221 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.io.StringReader;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+public class NGramModelTest {
+
+    /** A small English corpus. */
+    private static final String CORPUS =
+        "It was the best of times, it was the worst of times, it was the "
+        + "age of wisdom, it was the age of foolishness, it was the epoch "
+        + "of belief, it was the epoch of incredulity, it was the season "
+        + "of light, it was the season of darkness, it was the spring of "
+        + "hope, it was the winter of despair.  There were a king with a "
+        + "large jaw and a queen with a plain face on the throne of "
+        + "England; there were a king with a large jaw and a queen with a "
+        + "fair face on the throne of France.  In both countries it was "
+        + "clearer than crystal to the lords of the state preserves of "
+        + "loaves and fishes, that things in general were settled for "
+        + "ever.  It was the year of Our Lord one thousand seven hundred "
+        + "and seventy-five.  Spiritual revelations were conceded to "
+        + "England at that favoured period, as at this.";
+
+    /** Return a new temporary file. */
+    private File temp() throws IOException {
+        File file = File.createTempFile("enigma", ".ngrams");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /** Return the model of ORDER-grams of CORPUS over UPPER, written to
+     *  and mapped from a new temporary file. */
+    private NGramModel model(int order, String corpus) throws IOException {
+        NGramBuilder builder = new NGramBuilder(order, UPPER);
+        builder.add(new StringReader(corpus));
+        File file = temp();
+        builder.write(file);
+        return new NGramModel(file, UPPER);
+    }
+
+    /** Return the alphabet indices of the letters of TEXT. */
+    private int[] indices(String text) {
+        return text.replaceAll("[^A-Z]", "").chars()
+            .map(c -> UPPER.toInt((char) c)).toArray();
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        NGramBuilder builder = new NGramBuilder(2, UPPER);
+        builder.add(new StringReader("ab-AB a"));
+        builder.add(new StringReader("BABC"));
+        File file = temp();
+        builder.write(file);
+        ByteBuffer header =
+            ByteBuffer.wrap(Files.readAllBytes(file.toPath()));
+        assertEquals(NGramModel.MAGIC, header.getInt());
+        assertEquals(NGramModel.VERSION, header.getInt());
+        assertEquals(2, header.getInt());
+        assertEquals(26, header.getInt());
+        assertEquals(NGramModel.HEADER_BYTES + 4 * 26 * 26, file.length());
+
+        NGramModel model = new NGramModel(file, UPPER);
+        assertEquals(2, model.order());
+        assertEquals(26, model.size());
+        int ab = 1, ba = 26, bc = 28, zz = 26 * 26 - 1;
+        assertEquals(Math.log10(4.0 / 8), model.logProbability(ab), 1e-6);
+        assertEquals(Math.log10(3.0 / 8), model.logProbability(ba), 1e-6);
+        assertEquals(Math.log10(1.0 / 8), model.logProbability(bc), 1e-6);
+        double floor = Math.log10(NGramBuilder.FLOOR / 8);
+        assertEquals(floor, model.logProbability(zz), 1e-6);
+        assertEquals(Math.log10(4.0 / 8), model.maxLogProbability(), 1e-6);
+        assertEquals(model.logProbability(ab) + model.logProbability(bc)
+                     + floor,
+                     model.score(indices("ABCZ"), 0, 4), 1e-6);
+        assertEquals(model.logProbability(bc),
+                     model.score(indices("ABCZ"), 1, 3), 1e-6);
+        assertEquals(0, model.score(indices("ABCZ"), 2, 3), 0);
+    }
+
+    @Test
+    public void testOrders() throws IOException {
+        for (int order = NGramModel.MIN_ORDER; order <= NGramModel.MAX_ORDER;
+             order += 1) {
+            NGramModel model = model(order, CORPUS);
+            assertEquals(order, model.order());
+            int[] text = indices("WAS THE");
+            int index = 0;
+            for (int i = text.length - order; i < text.length; i += 1) {
+                index = index * 26 + text[i];
+            }
+            assertTrue(msg("order", "%d", order),
+                       model.logProbability(index)
+                       > Math.log10(NGramBuilder.FLOOR));
+        }
+    }
+
+    @Test
+    public void testRanking() throws IOException {
+        NGramModel model = model(3, CORPUS);
+        int[] english =
+            indices("IT WAS THE SEASON OF THE KING AND THE QUEEN OF FRANCE");
+        int[] random = new int[english.length];
+        Random generator = new Random(0);
+        for (int trial = 0; trial < 20; trial += 1) {
+            for (int i = 0; i < random.length; i += 1) {
+                random[i] = generator.nextInt(26);
+            }
+            assertTrue(model.score(english, 0, english.length)
+                       > model.score(random, 0, random.length));
+        }
+    }
+
+    @Test
+    public void testScorer() throws IOException {
+        NGramModel model = model(3, CORPUS);
+        int[] text = indices("THE WINTER OF DESPAIR");
+        TrialScorer.NGrams scorer = new TrialScorer.NGrams(model);
+        scorer.start(text.length);
+        for (int i = 0; i < text.length; i += 1) {
+            double bound = scorer.score() + scorer.gain(text.length - i);
+            assertTrue("bound below final score",
+                       bound >= model.score(text, 0, text.length) - 1e-9);
+            scorer.add(text[i]);
+            assertEquals(model.score(text, 0, i + 1), scorer.score(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testTightBound() throws IOException {
+        NGramModel model = model(2, "ABCA");
+        double third = Math.log10(1.0 / 3);
+        assertEquals(third, model.maxLogProbability(), 1e-6);
+        int[] text = indices("ABCABCA");
+        TrialScorer.NGrams scorer = new TrialScorer.NGrams(model);
+        scorer.start(text.length);
+        assertEquals(6 * third, scorer.gain(text.length), 1e-6);
+        for (int i = 0; i < text.length; i += 1) {
+            assertEquals(msg("bound", "before character %d", i),
+                         model.score(text, 0, text.length),
+                         scorer.score() + scorer.gain(text.length - i),
+                         1e-6);
+            scorer.add(text[i]);
+        }
+        assertEquals(0, scorer.gain(0), 0);
+
+        NGramModel quadgrams = model(4, CORPUS);
+        double ceiling = quadgrams.maxLogProbability();
+        scorer = new TrialScorer.NGrams(quadgrams);
+        scorer.start(10);
+        assertEquals(7 * ceiling, scorer.gain(10), 1e-9);
+        assertEquals(0, scorer.gain(3), 0);
+        scorer.add(0);
+        scorer.add(1);
+        assertEquals(7 * ceiling, scorer.gain(8), 1e-9);
+        scorer.add(2);
+        assertEquals(7 * ceiling, scorer.gain(7), 1e-9);
+        scorer.add(3);
+        assertEquals(6 * ceiling, scorer.gain(6), 1e-9);
+    }
+
+    @Test
+    public void testErrors() throws IOException {
+        NGramBuilder builder = new NGramBuilder(2, UPPER);
+        builder.add(new StringReader("ABAB"));
+        File file = temp();
+        builder.write(file);
+        try {
+            new NGramModel(file, new CharacterRange('A', 'Y'));
+            fail("accepted a table for another alphabet");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage(), excp.getMessage()
+                       .endsWith("alphabet of 26 characters"));
+        }
+        try (RandomAccessFile out = new RandomAccessFile(file, "rw")) {
+            out.setLength(file.length() - 4);
+        }
+        try {
+            new NGramModel(file, UPPER);
+            fail("accepted a truncated table");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().startsWith("malformed"));
+        }
+        try {
+            new NGramBuilder(2, UPPER).write(temp());
+            fail("wrote a table without n-grams");
+        } catch (EnigmaException excp) {
+            assertEquals("corpus contains no 2-grams", excp.getMessage());
+        }
+        try {
+            NGramModel.entries(NGramModel.MAX_ORDER + 1, 26);
+            fail("accepted too large an order");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().startsWith("n-gram order"));
+        }
+        try {
+            NGramModel.entries(2, 0);
+            fail("accepted an empty alphabet");
+        } catch (EnigmaException excp) {
+            assertEquals("n-grams need an alphabet of at least one character",
+                         excp.getMessage());
+        }
+        try {
+            NGramModel.entries(4, 300);
+            fail("accepted too large a table");
+        } catch (EnigmaException excp) {
+            assertEquals("4-gram table too large for 300 characters",
+                         excp.getMessage());
+        }
+    }
+}
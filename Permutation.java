@@ -1,10 +1,15 @@
 package enigma;
 
+import java.util.Arrays;
+
 import static enigma.EnigmaException.*;
 
 /**
  * Represents a permutation of a range of integers starting at 0 corresponding
- * to the characters of an alphabet.
+ * to the characters of an alphabet.  Since an alphabet has at most 65536
+ * characters, the mapping and its inverse are kept as char arrays, which
+ * for alphabets of thousands of characters take half the space of int
+ * arrays while still being looked up directly.
  *
  * @author Aadiraj Batlaw
  */
@@ -18,16 +23,108 @@ class Permutation {
      * Whitespace is ignored.
      */
     Permutation(String cycles, Alphabet alphabet) {
+        this(alphabet);
+        boolean[] used = new boolean[alphabet.size()];
+        int start = -1;
+        for (int i = 0; i < cycles.length(); i++) {
+            char c = cycles.charAt(i);
+            if (c == '(' && start < 0) {
+                start = i + 1;
+            } else if (c == ')' && start >= 0) {
+                addCycle(cycles.substring(start, i), used);
+                start = -1;
+            } else if (start < 0 && !Character.isWhitespace(c)) {
+                throw error("malformed cycles: %s", cycles);
+            }
+        }
+        if (start >= 0) {
+            throw error("malformed cycles: %s", cycles);
+        }
+    }
+
+    /**
+     * The permutation of ALPHABET that maps each index i to FORWARD[i],
+     * which must contain each index exactly once.  FORWARD is copied.
+     */
+    Permutation(int[] forward, Alphabet alphabet) {
+        if (forward.length != alphabet.size()) {
+            throw error("permutation has the wrong size");
+        }
+        _alphabet = alphabet;
+        _forward = new char[forward.length];
+        _inverse = new char[forward.length];
+        boolean[] hit = new boolean[forward.length];
+        for (int i = 0; i < forward.length; i++) {
+            int j = forward[i];
+            if (j < 0 || j >= forward.length || hit[j]) {
+                throw error("not a permutation");
+            }
+            hit[j] = true;
+            _forward[i] = (char) j;
+            _inverse[j] = (char) i;
+        }
+    }
+
+    /**
+     * The identity permutation of ALPHABET.
+     */
+    private Permutation(Alphabet alphabet) {
         _alphabet = alphabet;
-        _cycles = cycles;
+        _forward = new char[alphabet.size()];
+        _inverse = new char[alphabet.size()];
+        for (int i = 0; i < _forward.length; i++) {
+            _forward[i] = _inverse[i] = (char) i;
+        }
+    }
+
+    /**
+     * Return the permutation of ALPHABET that maps MOVES[2k] to
+     * MOVES[2k + 1] for each k and every other index to itself, as for
+     * a plugboard whose few cycles leave most characters alone.
+     */
+    static Permutation sparse(int[] moves, Alphabet alphabet) {
+        Permutation result = new Permutation(alphabet);
+        boolean[] moved = new boolean[alphabet.size()],
+            hit = new boolean[alphabet.size()];
+        for (int k = 0; k < moves.length; k += 2) {
+            int from = moves[k], to = moves[k + 1];
+            if (from < 0 || from >= hit.length || to < 0
+                || to >= hit.length || moved[from] || hit[to]) {
+                throw error("not a permutation");
+            }
+            moved[from] = hit[to] = true;
+            result._forward[from] = (char) to;
+            result._inverse[to] = (char) from;
+        }
+        for (int k = 0; k < moves.length; k += 2) {
+            if (!hit[moves[k]]) {
+                throw error("not a permutation");
+            }
+        }
+        return result;
     }
 
     /**
      * Add the cycle c0->c1->...->cm->c0 to the permutation, where CYCLE is
-     * c0c1...cm.
+     * c0c1...cm, ignoring whitespace.  USED marks the characters already
+     * in some cycle, and is updated.
      */
-    private void addCycle(String cycle) {
-        _cycles += cycle;
+    private void addCycle(String cycle, boolean[] used) {
+        String members = cycle.replaceAll("\\s", "");
+        for (int i = 0; i < members.length(); i++) {
+            int from = _alphabet.toInt(members.charAt(i));
+            if (used[from]) {
+                throw error("character %c repeated in cycles",
+                            members.charAt(i));
+            }
+            used[from] = true;
+        }
+        for (int i = 0; i < members.length(); i++) {
+            int from = _alphabet.toInt(members.charAt(i));
+            int to = _alphabet.toInt(members.charAt((i + 1) % members.length()));
+            _forward[from] = (char) to;
+            _inverse[to] = (char) from;
+        }
     }
 
     /**
@@ -53,24 +150,7 @@ class Permutation {
      * alphabet size.
      */
     int permute(int p) {
-        char letter = _alphabet.toChar(wrap(p));
-        char nextLetter = letter;
-        for (int i = 0; i < _cycles.length() - 1; i++) {
-            if (letter == _cycles.charAt(i)) {
-                if (_cycles.charAt(i + 1) == ')') {
-                    for (int j = i; j > -1; j--) {
-                        if (_cycles.charAt(j) == '(') {
-                            nextLetter = _cycles.charAt(j + 1);
-                            break;
-                        }
-                    }
-                } else {
-                    nextLetter = _cycles.charAt(i + 1);
-                }
-                break;
-            }
-        }
-        return _alphabet.toInt(nextLetter);
+        return _forward[wrap(p)];
     }
 
     /**
@@ -78,24 +158,7 @@ class Permutation {
      * to  C modulo the alphabet size.
      */
     int invert(int c) {
-        char letter = _alphabet.toChar(wrap(c));
-        char nextLetter = letter;
-        for (int i = 1; i < _cycles.length(); i++) {
-            if (letter == _cycles.charAt(i)) {
-                if (_cycles.charAt(i - 1) == '(') {
-                    for (int j = i; j < _cycles.length(); j++) {
-                        if (_cycles.charAt(j) == ')') {
-                            nextLetter = _cycles.charAt(j - 1);
-                            break;
-                        }
-                    }
-                } else {
-                    nextLetter = _cycles.charAt(i - 1);
-                }
-                break;
-            }
-        }
-        return _alphabet.toInt(nextLetter);
+        return _inverse[wrap(c)];
     }
 
     /**
@@ -128,18 +191,139 @@ class Permutation {
      * permutation for which no value maps to itself).
      */
     boolean derangement() {
-        for (int i = 0; i < _alphabet.size(); i++) {
-            if (permute(i) == _alphabet.toChar(i)) {
+        for (int i = 0; i < _forward.length; i++) {
+            if (_forward[i] == i) {
                 return false;
             }
         }
         return true;
     }
 
+    /**
+     * Return a copy of my mapping, whose element i is permute(i).
+     */
+    int[] toArray() {
+        int[] result = new int[_forward.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = _forward[i];
+        }
+        return result;
+    }
+
+    /**
+     * Return the permutation that applies me and then OTHER, which must
+     * permute the same alphabet.
+     */
+    Permutation compose(Permutation other) {
+        if (other.size() != size()) {
+            throw error("permutations of different alphabets");
+        }
+        int[] result = new int[_forward.length];
+        for (int i = 0; i < result.length; i++) {
+            result[i] = other._forward[_forward[i]];
+        }
+        return new Permutation(result, _alphabet);
+    }
+
+    /**
+     * Return my inverse.
+     */
+    Permutation inverse() {
+        Permutation result = new Permutation(_alphabet);
+        System.arraycopy(_inverse, 0, result._forward, 0, _inverse.length);
+        System.arraycopy(_forward, 0, result._inverse, 0, _forward.length);
+        return result;
+    }
+
+    /**
+     * Return the permutation that applies me K times (my inverse -K
+     * times if K is negative).
+     */
+    Permutation power(int k) {
+        int[] result = new int[_forward.length];
+        for (int[] cycle : cycles()) {
+            int shift = Math.floorMod(k, cycle.length);
+            for (int i = 0; i < cycle.length; i++) {
+                result[cycle[i]] = cycle[(i + shift) % cycle.length];
+            }
+        }
+        return new Permutation(result, _alphabet);
+    }
+
+    /**
+     * Return my cycles, including those of length 1.  Each cycle starts
+     * with its smallest member, and cycles are ordered by their first
+     * members.
+     */
+    int[][] cycles() {
+        boolean[] seen = new boolean[_forward.length];
+        int[][] result = new int[_forward.length][];
+        int[] members = new int[_forward.length];
+        int count = 0;
+        for (int i = 0; i < _forward.length; i++) {
+            if (!seen[i]) {
+                int length = 0;
+                for (int j = i; !seen[j]; j = _forward[j]) {
+                    seen[j] = true;
+                    members[length] = j;
+                    length++;
+                }
+                result[count] = Arrays.copyOf(members, length);
+                count++;
+            }
+        }
+        return Arrays.copyOf(result, count);
+    }
+
+    /**
+     * Return my cycle type: the lengths of my cycles in decreasing
+     * order.  Conjugate permutations have the same cycle type.
+     */
+    int[] cycleType() {
+        boolean[] seen = new boolean[_forward.length];
+        int[] lengths = new int[_forward.length];
+        int count = 0;
+        for (int i = 0; i < _forward.length; i++) {
+            if (!seen[i]) {
+                int length = 0;
+                for (int j = i; !seen[j]; j = _forward[j]) {
+                    seen[j] = true;
+                    length++;
+                }
+                lengths[count] = -length;
+                count++;
+            }
+        }
+        int[] result = Arrays.copyOf(lengths, count);
+        Arrays.sort(result);
+        for (int i = 0; i < count; i++) {
+            result[i] = -result[i];
+        }
+        return result;
+    }
+
+    /**
+     * Return my cycle type as a string of cycle lengths in decreasing
+     * order, separated by periods.
+     */
+    String signature() {
+        StringBuilder result = new StringBuilder();
+        for (int length : cycleType()) {
+            if (result.length() > 0) {
+                result.append('.');
+            }
+            result.append(length);
+        }
+        return result.toString();
+    }
+
     /** Alphabet of this permutation.*/
     private Alphabet _alphabet;
 
-    /** String of cycles. */
-    private String _cycles;
+    /** My mapping: _forward[i] is permute(i). */
+    private final char[] _forward;
+
+    /** My inverse mapping: _inverse[i] is invert(i). */
+    private final char[] _inverse;
 
 }
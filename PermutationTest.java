@@ -71,4 +71,44 @@ public class PermutationTest {
         assertEquals(p.invert('A'), 'W');
         assertEquals(p.invert('J'), 'C');
     }
+
+    @Test
+    public void testAlgebra() {
+        Permutation p = new Permutation("(PNH) (ABDFIKLZYXW) (JC)", UPPER);
+        Permutation q = new Permutation("(AB) (CD)", UPPER);
+        Permutation pq = p.compose(q);
+        for (int i = 0; i < UPPER.size(); i += 1) {
+            assertEquals(q.permute(p.permute(i)), pq.permute(i));
+            assertEquals(i, p.inverse().permute(p.permute(i)));
+            assertEquals(p.permute(p.permute(p.permute(i))),
+                    p.power(3).permute(i));
+            assertEquals(p.invert(i), p.power(-1).permute(i));
+        }
+        assertArrayEquals(new int[] {11, 3, 2, 1, 1, 1, 1, 1, 1, 1, 1, 1, 1},
+                p.cycleType());
+        assertEquals("11.3.2.1.1.1.1.1.1.1.1.1.1", p.signature());
+        assertEquals(13, p.cycles().length);
+        assertArrayEquals(new int[] {0, 1, 3, 5, 8, 10, 11, 25, 24, 23, 22},
+                p.cycles()[0]);
+        assertTrue(p.power(11 * 3 * 2).cycleType().length == UPPER.size());
+    }
+
+    @Test
+    public void testSparse() {
+        Alphabet cjk = new CharacterRange('\u4e00', '\u9fff');
+        Permutation p = Permutation.sparse(new int[] {3, 9000, 9000, 20000,
+                                                      20000, 3}, cjk);
+        Permutation q = new Permutation("(\u4e03\u7128\u9c20)", cjk);
+        for (int i = 0; i < cjk.size(); i += 1) {
+            assertEquals(q.permute(i), p.permute(i));
+            assertEquals(q.invert(i), p.invert(i));
+        }
+        assertEquals(cjk.size() - 2, p.cycles().length);
+    }
+
+    @Test
+    public void testDerangement() {
+        assertTrue(new Permutation(NAVALA.get("B"), UPPER).derangement());
+        assertFalse(new Permutation(NAVALA.get("I"), UPPER).derangement());
+    }
 }
@@ -0,0 +1,360 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.CharBuffer;
+
+import static enigma.EnigmaException.error;
+
+/** Processes a message file in three stages, each on its own thread:
+ *  a reader that splits the input into settings and batches of message
+ *  lines, an encryptor that applies the settings to a machine and
+ *  converts and formats the messages, and a writer that sends the
+ *  formatted text to the output.  Adjacent stages are connected by
+ *  RingBuffers of reusable batches, so that the reading and writing of
+ *  one part of the input overlap the conversion of another.  The output
+ *  is the same as that of Main's serial loop.  An error in one stage
+ *  stops the stages before it; those after it finish with what they
+ *  have already been given.
+ *  @author Aadiraj Batlaw
+ */
+class Pipeline {
+
+    /** A pipeline applying the messages and settings read by INPUT to
+     *  machine M, whose keys are compiled by KEYS, with message text
+     *  normalised by TRANSCODER, and writing the results to OUTPUT.  Each
+     *  queue has SLOTS batches. */
+    Pipeline(MessageLexer input, Machine M, MachinePool keys,
+             Transcoder transcoder, Writer output, int slots) {
+        _input = input;
+        _machine = M;
+        _keys = keys;
+        _transcoder = transcoder;
+        _output = output;
+        int rotors = M.numRotors();
+        _batches = new RingBuffer<>(slots, () -> new Batch(rotors));
+        _blocks = new RingBuffer<>(slots, Block::new);
+    }
+
+    /** Process all of my input, returning when all of the output has
+     *  been written. */
+    void run() {
+        Thread reader = new Thread(() -> stage(this::read, null, _batches),
+                                   "enigma-reader");
+        Thread writer = new Thread(() -> stage(this::write, _blocks, null),
+                                   "enigma-writer");
+        reader.start();
+        writer.start();
+        stage(this::encrypt, _batches, _blocks);
+        try {
+            reader.join();
+            writer.join();
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("interrupted");
+        }
+        if (_failure != null) {
+            throw _failure;
+        }
+    }
+
+    /** Return a description of the use of my queues, for sizing them. */
+    String stats() {
+        return String.format("%s%n%s", stats("read", _batches),
+                             stats("write", _blocks));
+    }
+
+    /** Return a description of the use of QUEUE, called NAME. */
+    private static String stats(String name, RingBuffer<?> queue) {
+        return String.format("%s queue: %d slots, %d batches, mean depth"
+                             + " %.2f, max depth %d, full %d times, empty"
+                             + " %d times", name, queue.capacity(),
+                             queue.published(), queue.meanDepth(),
+                             queue.maxDepth(), queue.fullWaits(),
+                             queue.emptyWaits());
+    }
+
+    /** Run BODY as a stage taking from IN and publishing to OUT (either
+     *  of which may be null), recording any error. */
+    private void stage(Runnable body, RingBuffer<?> in, RingBuffer<?> out) {
+        try {
+            body.run();
+        } catch (RuntimeException excp) {
+            fail(excp);
+        } finally {
+            if (in != null) {
+                in.stop();
+            }
+            if (out != null) {
+                out.close();
+            }
+        }
+    }
+
+    /** Record EXCP as the failure of the pipeline, unless another stage
+     *  has already failed. */
+    private synchronized void fail(RuntimeException excp) {
+        if (_failure == null) {
+            _failure = excp;
+        }
+    }
+
+    /** The reader stage. */
+    private void read() {
+        if (_input.lookahead() != MessageLexer.Kind.SETTINGS) {
+            throw error("input does not begin with setting");
+        }
+        Batch batch = null;
+        while (true) {
+            while (_input.lookahead() == MessageLexer.Kind.SETTINGS) {
+                if (batch != null) {
+                    _batches.publish();
+                    batch = null;
+                }
+                while (_input.next() != MessageLexer.Kind.SETTINGS) {
+                    continue;
+                }
+                batch = _batches.claim();
+                if (batch == null) {
+                    return;
+                }
+                batch.settings(_input);
+                _batches.publish();
+                batch = null;
+            }
+            if (_input.lookahead() == MessageLexer.Kind.END) {
+                break;
+            }
+            _input.next();
+            String line = _input.line();
+            if (batch != null && !batch.fits(line)) {
+                _batches.publish();
+                batch = null;
+            }
+            if (batch == null) {
+                batch = _batches.claim();
+                if (batch == null) {
+                    return;
+                }
+                batch.clear();
+            }
+            batch.add(line, _input.shortTokenAhead());
+        }
+        if (batch != null) {
+            _batches.publish();
+        }
+    }
+
+    /** The encryptor stage. */
+    private void encrypt() {
+        Batch batch;
+        while ((batch = _batches.take()) != null) {
+            if (batch._settings) {
+                setUp(batch);
+            } else {
+                Block block = _blocks.claim();
+                if (block == null) {
+                    return;
+                }
+                block._text.clear();
+                block._complete = 0;
+                try {
+                    for (int i = 0, start = 0; i < batch._lines; i += 1) {
+                        int end = batch._ends[i];
+                        block.reserve(2 * (end - start));
+                        batch._view.clear().position(start).limit(end);
+                        _transcoder.transcode(_machine, batch._view,
+                                              block._text);
+                        start = end;
+                        if ((batch._flags[i] & NON_EMPTY) != 0) {
+                            block.append(NEWLINE);
+                        }
+                        if ((batch._flags[i] & SHORT_TOKEN_AHEAD) != 0) {
+                            block.append(NEWLINE);
+                        }
+                        block._complete = block._text.position();
+                    }
+                } finally {
+                    block._text.position(block._complete);
+                    _blocks.publish();
+                }
+            }
+            _batches.release();
+        }
+    }
+
+    /** The writer stage. */
+    private void write() {
+        try {
+            Block block;
+            while ((block = _blocks.take()) != null) {
+                _output.write(block._text.array(), 0,
+                              block._text.position());
+                _blocks.release();
+            }
+            _output.flush();
+        } catch (IOException excp) {
+            throw error("could not write output");
+        }
+    }
+
+    /** Set my machine according to the settings in BATCH. */
+    private void setUp(Batch batch) {
+        MachinePool.configure(_machine,
+                              _keys.compile(batch._rotors, batch._rings,
+                                            batch._plugboard));
+        if (!_machine.getRotorSlots()[0].reflecting()) {
+            throw error("First rotor is not a reflector");
+        }
+        _machine.setRotors(batch._positions);
+    }
+
+    /** A settings line, or a batch of message lines. */
+    private static final class Batch {
+
+        /** A batch for a machine with ROTORS slots. */
+        Batch(int rotors) {
+            _rotors = new int[rotors];
+            _positions = new int[rotors - 1];
+            _rings = new int[rotors - 1];
+        }
+
+        /** Make me hold the current settings of INPUT. */
+        void settings(MessageLexer input) {
+            _settings = true;
+            System.arraycopy(input.rotors(), 0, _rotors, 0, _rotors.length);
+            System.arraycopy(input.positions(), 0, _positions, 0,
+                             _positions.length);
+            System.arraycopy(input.rings(), 0, _rings, 0, _rings.length);
+            _plugboard = input.plugboard();
+        }
+
+        /** Make me an empty batch of message lines. */
+        void clear() {
+            _settings = false;
+            _lines = 0;
+            _length = 0;
+        }
+
+        /** Return true iff LINE may be added to me. */
+        boolean fits(String line) {
+            return _lines < _ends.length
+                && _length + line.length() <= _text.length;
+        }
+
+        /** Add LINE, which is followed by a line whose first token is a
+         *  single character iff SHORTTOKENAHEAD. */
+        void add(String line, boolean shortTokenAhead) {
+            if (_length + line.length() > _text.length) {
+                char[] larger = new char[_length + line.length()];
+                System.arraycopy(_text, 0, larger, 0, _length);
+                _text = larger;
+                _view = CharBuffer.wrap(_text);
+            }
+            line.getChars(0, line.length(), _text, _length);
+            _length += line.length();
+            _ends[_lines] = _length;
+            _flags[_lines] = (byte) ((line.isEmpty() ? 0 : NON_EMPTY)
+                                     | (shortTokenAhead
+                                        ? SHORT_TOKEN_AHEAD : 0));
+            _lines += 1;
+        }
+
+        /** True if I hold settings rather than messages. */
+        private boolean _settings;
+
+        /** Rotor indices, positions and ring settings of settings. */
+        private final int[] _rotors, _positions, _rings;
+
+        /** Plugboard of settings (as from MessageLexer.plugboard). */
+        private int[] _plugboard;
+
+        /** Characters of the message lines. */
+        private char[] _text = new char[BATCH_CHARS];
+
+        /** A buffer over _text. */
+        private CharBuffer _view = CharBuffer.wrap(_text);
+
+        /** Number of characters in _text. */
+        private int _length;
+
+        /** End of each message line in _text. */
+        private final int[] _ends = new int[BATCH_LINES];
+
+        /** NON_EMPTY and SHORT_TOKEN_AHEAD flags of each message line. */
+        private final byte[] _flags = new byte[BATCH_LINES];
+
+        /** Number of message lines. */
+        private int _lines;
+    }
+
+    /** A block of output text. */
+    private static final class Block {
+
+        /** Enlarge me, if necessary, to leave room for N more
+         *  characters. */
+        void reserve(int n) {
+            if (_text.remaining() < n) {
+                CharBuffer larger = CharBuffer.allocate(
+                    Math.max(2 * _text.capacity(), _text.position() + n));
+                _text.flip();
+                larger.put(_text);
+                _text = larger;
+            }
+        }
+
+        /** Append the characters of S. */
+        void append(String s) {
+            reserve(s.length());
+            _text.put(s);
+        }
+
+        /** The text, which ends at its position. */
+        private CharBuffer _text = CharBuffer.allocate(BATCH_CHARS);
+
+        /** Length of the text through the last complete line. */
+        private int _complete;
+    }
+
+    /** Flag of a message line that is not empty. */
+    private static final byte NON_EMPTY = 1;
+
+    /** Flag of a message line followed by one whose first token is a
+     *  single character. */
+    private static final byte SHORT_TOKEN_AHEAD = 2;
+
+    /** Line terminator, as written by PrintStream.println. */
+    private static final String NEWLINE = System.lineSeparator();
+
+    /** Most characters in a batch of message lines, unless one line is
+     *  longer. */
+    private static final int BATCH_CHARS = 1 << 14;
+
+    /** Most lines in a batch. */
+    private static final int BATCH_LINES = 256;
+
+    /** Source of messages and settings. */
+    private final MessageLexer _input;
+
+    /** Machine used by the encryptor. */
+    private final Machine _machine;
+
+    /** Compiled keys. */
+    private final MachinePool _keys;
+
+    /** Destination of results. */
+    private final Writer _output;
+
+    /** Converter of message text. */
+    private final Transcoder _transcoder;
+
+    /** Queue from the reader to the encryptor. */
+    private final RingBuffer<Batch> _batches;
+
+    /** Queue from the encryptor to the writer. */
+    private final RingBuffer<Block> _blocks;
+
+    /** The first error in any stage, if any. */
+    private RuntimeException _failure;
+
+}
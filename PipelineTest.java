@@ -0,0 +1,133 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static enigma.TestUtils.*;
+
+public class PipelineTest {
+
+    /** Most time to wait for a pipeline that should finish. */
+    private static final long JOIN_MILLIS = 10_000;
+
+    /** Return a lexer of TEXT for machine M. */
+    private MessageLexer lexer(String text, Machine M) {
+        return new MessageLexer(new LineReader(new ByteArrayInputStream(
+            text.getBytes(StandardCharsets.ISO_8859_1))), M);
+    }
+
+    /** Return a pipeline with SLOTS slots per queue converting TEXT and
+     *  writing to OUTPUT. */
+    private Pipeline pipeline(String text, Writer output, int slots) {
+        Machine machine = navalMachine();
+        return new Pipeline(lexer(text, machine), machine,
+                            new MachinePool(machine, 1, 4),
+                            new Transcoder(UPPER, Transcoder.Policy.STRIP,
+                                           false),
+                            output, slots);
+    }
+
+    /** Return input of MESSAGES messages of random lengths, each under
+     *  its own settings line, generated from SEED. */
+    private String input(int messages, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int m = 0; m < messages; m += 1) {
+            text.append(String.format("* B I II III %c%c%c (A%c)\n",
+                                      'A' + random.nextInt(26),
+                                      'A' + random.nextInt(26),
+                                      'A' + random.nextInt(26),
+                                      'B' + random.nextInt(25)));
+            for (int n = random.nextInt(4); n >= 0; n -= 1) {
+                for (int i = random.nextInt(200); i > 0; i -= 1) {
+                    text.append(random.nextInt(6) == 0
+                                ? ' ' : (char) ('A' + random.nextInt(26)));
+                }
+                text.append('\n');
+            }
+        }
+        return text.toString();
+    }
+
+    @Test
+    public void testSameAsSerial() {
+        String text = input(300, 0);
+        Machine machine = navalMachine();
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        PrintStream serial = new PrintStream(bytes);
+        Session session =
+            new Session(lexer(text, machine), machine,
+                        new MachinePool(machine, 1, 4),
+                        new Transcoder(UPPER, Transcoder.Policy.STRIP, false),
+                        serial);
+        session.start();
+        while (session.step()) {
+            continue;
+        }
+        serial.flush();
+        for (int slots : new int[] {1, 2, 8}) {
+            StringWriter piped = new StringWriter();
+            pipeline(text, piped, slots).run();
+            assertEquals(msg("pipeline", "%d slots", slots),
+                         bytes.toString(), piped.toString());
+        }
+    }
+
+    @Test
+    public void testWriterFailure() throws InterruptedException {
+        Writer broken = new Writer() {
+            @Override
+            public void write(char[] buf, int off, int len)
+                throws IOException {
+                throw new IOException("disk full");
+            }
+
+            @Override
+            public void flush() {
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+        Pipeline pipeline = pipeline(input(2000, 1), broken, 2);
+        AtomicReference<RuntimeException> failure = new AtomicReference<>();
+        Thread runner = new Thread(() -> {
+            try {
+                pipeline.run();
+            } catch (RuntimeException excp) {
+                failure.set(excp);
+            }
+        });
+        runner.setDaemon(true);
+        runner.start();
+        runner.join(JOIN_MILLIS);
+        assertFalse("pipeline hung after its writer failed",
+                    runner.isAlive());
+        assertTrue(failure.get() instanceof EnigmaException);
+        assertEquals("could not write output", failure.get().getMessage());
+    }
+
+    @Test
+    public void testReaderFailure() {
+        try {
+            pipeline("HELLO\n* B I II III AAA\n", new StringWriter(), 2)
+                .run();
+            fail("accepted input without settings");
+        } catch (EnigmaException excp) {
+            assertEquals("input does not begin with setting",
+                         excp.getMessage());
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package enigma;
+
+import static enigma.EnigmaException.error;
+
+/** An index of the rotor positions that a configured machine passes
+ *  through, allowing the machine to be set to the positions it would
+ *  have after any number of key presses in time that does not depend on
+ *  that number.
+ *
+ *  The positions of the rotors after each key press depend only on the
+ *  positions before it, so the sequence of positions starting from any
+ *  setting is eventually periodic: after a lead-in of MU presses it
+ *  repeats with period LAMBDA.  The index finds MU and LAMBDA once (using
+ *  Brent's cycle-finding algorithm) and records every STRIDE-th position
+ *  in the first MU + LAMBDA, so that seeking takes fewer than STRIDE
+ *  rotor advances.
+ *  @author Aadiraj Batlaw
+ */
+class PositionIndex {
+
+    /** An index of the positions that M passes through, starting from
+     *  its current positions.  M's positions are left unchanged. */
+    PositionIndex(Machine M) {
+        _machine = M;
+        _radix = M.alphabet().size();
+        long states = 1;
+        for (int i = 1; i < M.numRotors(); i += 1) {
+            if (states > Long.MAX_VALUE / _radix) {
+                throw error("too many rotor positions to index");
+            }
+            states *= _radix;
+        }
+        _origin = positions();
+
+        long power, lambda;
+        power = lambda = 1;
+        long tortoise = _origin, hare = next(_origin);
+        while (tortoise != hare) {
+            if (power == lambda) {
+                tortoise = hare;
+                power *= 2;
+                lambda = 0;
+            }
+            hare = next(hare);
+            lambda += 1;
+        }
+        tortoise = hare = _origin;
+        for (long i = 0; i < lambda; i += 1) {
+            hare = next(hare);
+        }
+        long mu = 0;
+        while (tortoise != hare) {
+            tortoise = next(tortoise);
+            hare = next(hare);
+            mu += 1;
+        }
+        _mu = mu;
+        _lambda = lambda;
+
+        long span = _mu + _lambda;
+        _snapshots = new long[(int) ((span + STRIDE - 1) / STRIDE)];
+        long state = _origin;
+        for (long i = 0; i < span; i += 1) {
+            if (i % STRIDE == 0) {
+                _snapshots[(int) (i / STRIDE)] = state;
+            }
+            state = next(state);
+        }
+        setPositions(_origin);
+    }
+
+    /** Set my machine's rotors to the positions they have after OFFSET
+     *  key presses from the positions at which I was created. */
+    void seek(long offset) {
+        if (offset < 0) {
+            throw error("negative offset");
+        }
+        long i = offset < _mu ? offset : _mu + (offset - _mu) % _lambda;
+        long state = _snapshots[(int) (i / STRIDE)];
+        for (long k = i % STRIDE; k > 0; k -= 1) {
+            state = next(state);
+        }
+        setPositions(state);
+    }
+
+    /** Return the number of key presses before the positions begin to
+     *  repeat. */
+    long leadIn() {
+        return _mu;
+    }
+
+    /** Return the period of the positions once they repeat. */
+    long period() {
+        return _lambda;
+    }
+
+    /** Return the positions STATE advance to after one key press. */
+    private long next(long state) {
+        setPositions(state);
+        _machine.advance();
+        return positions();
+    }
+
+    /** Return the current positions of my machine's rotors, encoded as a
+     *  number in base _radix whose least significant digit is the
+     *  position of the leftmost rotor. */
+    private long positions() {
+        Rotor[] slots = _machine.getRotorSlots();
+        long state = 0;
+        for (int i = slots.length - 1; i > 0; i -= 1) {
+            state = state * _radix + slots[i].setting();
+        }
+        return state;
+    }
+
+    /** Set the positions of my machine's rotors to STATE, encoded as for
+     *  positions(). */
+    private void setPositions(long state) {
+        Rotor[] slots = _machine.getRotorSlots();
+        for (int i = 1; i < slots.length; i += 1) {
+            slots[i].set((int) (state % _radix));
+            state /= _radix;
+        }
+    }
+
+    /** Number of key presses between recorded positions. */
+    static final int STRIDE = 1024;
+
+    /** The machine indexed. */
+    private final Machine _machine;
+
+    /** Number of positions of each rotor. */
+    private final int _radix;
+
+    /** Encoded positions before the first key press. */
+    private final long _origin;
+
+    /** Length of the lead-in before the positions repeat. */
+    private final long _mu;
+
+    /** Period of the positions. */
+    private final long _lambda;
+
+    /** Encoded positions after 0, STRIDE, 2 * STRIDE, ... key presses. */
+    private final long[] _snapshots;
+
+}
@@ -26,6 +26,11 @@ class Reflector extends FixedRotor {
         return true;
     }
 
+    @Override
+    Rotor copy() {
+        return new Reflector(_name, _perm);
+    }
+
     @Override
     void set(int posn) {
         if (posn != 0) {
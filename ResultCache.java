@@ -0,0 +1,277 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static enigma.EnigmaException.error;
+
+/** A bounded cache of converted message lines, for input in which the
+ *  same short messages are sent again and again under the same settings.
+ *  An entry is found by the configuration, the compiled key (rotor order,
+ *  ring settings and plugboard), the rotor positions at which the line
+ *  starts and the text of the line without its blanks, which do not
+ *  affect the result; it holds the converted line and the positions at
+ *  which it ends.  All lines cached together must be converted by the
+ *  same Transcoder.  Only lines of at most a given length are cached.
+ *  The cache is split into stripes, each locked separately and evicting
+ *  its least recently used entries when their estimated size exceeds
+ *  its share of the bound.
+ *  @author Aadiraj Batlaw
+ */
+class ResultCache {
+
+    /** A cache of about CAPACITY bytes holding lines of at most MAXLENGTH
+     *  characters. */
+    ResultCache(long capacity, int maxLength) {
+        if (capacity < 1 || maxLength < 1) {
+            throw error("cache sizes must be positive");
+        }
+        _maxLength = maxLength;
+        _stripes = new Stripe[STRIPES];
+        for (int i = 0; i < STRIPES; i += 1) {
+            _stripes[i] = new Stripe(Math.max(1, capacity / STRIPES));
+        }
+    }
+
+    /** Return true iff LINE is short enough to be cached. */
+    boolean accepts(CharSequence line) {
+        return line.length() <= _maxLength;
+    }
+
+    /** Return the cached conversion of LINE by a machine built from the
+     *  configuration CONFIGID, set to KEY and at rotor POSITIONS (as for
+     *  Machine.setRotors), or null if there is none. */
+    Result get(long configId, MachinePool.Key key, int[] positions,
+               CharSequence line) {
+        if (!accepts(line)) {
+            return null;
+        }
+        Request request = new Request(configId, key, positions, line);
+        Result result = stripe(request).get(request);
+        if (result == null) {
+            _misses.incrementAndGet();
+        } else {
+            _hits.incrementAndGet();
+        }
+        return result;
+    }
+
+    /** Record that LINE, converted by a machine built from configuration
+     *  CONFIGID, set to KEY and at rotor POSITIONS, gives CONVERTED and
+     *  leaves the machine at rotor positions AFTER.  Neither array is
+     *  retained. */
+    void put(long configId, MachinePool.Key key, int[] positions,
+             CharSequence line, CharSequence converted, int[] after) {
+        if (!accepts(line)) {
+            return;
+        }
+        Request request = new Request(configId, key, positions.clone(),
+                                      line);
+        Result result = new Result(converted.toString(), after.clone());
+        stripe(request).put(request, result);
+    }
+
+    /** Return the number of lookups that found an entry. */
+    long hits() {
+        return _hits.get();
+    }
+
+    /** Return the number of lookups that found none. */
+    long misses() {
+        return _misses.get();
+    }
+
+    /** Return the number of entries evicted. */
+    long evictions() {
+        return _evictions.get();
+    }
+
+    /** Return the estimated size of my entries in bytes. */
+    long bytes() {
+        long total = 0;
+        for (Stripe stripe : _stripes) {
+            synchronized (stripe) {
+                total += stripe._bytes;
+            }
+        }
+        return total;
+    }
+
+    /** Return a description of my use, for sizing me. */
+    String stats() {
+        long hits = hits(), lookups = hits + misses();
+        return String.format("result cache: %d hits, %d misses (%.1f%%"
+                             + " hits), %d evictions, %d bytes", hits,
+                             misses(), lookups == 0 ? 0.0
+                             : 100.0 * hits / lookups, evictions(),
+                             bytes());
+    }
+
+    /** Return the stripe holding REQUEST. */
+    private Stripe stripe(Request request) {
+        int h = request.hashCode();
+        return _stripes[(h ^ (h >>> 16)) & (STRIPES - 1)];
+    }
+
+    /** A cached conversion. */
+    static final class Result {
+
+        /** The conversion TEXT, leaving the rotors at POSITIONS. */
+        private Result(String text, int[] positions) {
+            _text = text;
+            _positions = positions;
+        }
+
+        /** Return the converted line. */
+        String text() {
+            return _text;
+        }
+
+        /** Return the rotor positions after the line (as for
+         *  Machine.setRotors), which must not be modified. */
+        int[] positions() {
+            return _positions;
+        }
+
+        /** The converted line. */
+        private final String _text;
+
+        /** Rotor positions after the line. */
+        private final int[] _positions;
+    }
+
+    /** The identity of a conversion. */
+    private static final class Request {
+
+        /** The conversion of LINE, less its blanks, by a machine from
+         *  configuration CONFIGID set to KEY and POSITIONS, which is
+         *  retained. */
+        Request(long configId, MachinePool.Key key, int[] positions,
+                CharSequence line) {
+            _configId = configId;
+            _key = key;
+            _positions = positions;
+            StringBuilder text = new StringBuilder(line.length());
+            for (int i = 0; i < line.length(); i += 1) {
+                if (line.charAt(i) != ' ') {
+                    text.append(line.charAt(i));
+                }
+            }
+            _text = text.toString();
+            _hash = 31 * (31 * (31 * Long.hashCode(configId)
+                                + key.hashCode())
+                          + Arrays.hashCode(positions)) + _text.hashCode();
+        }
+
+        /** Return the estimated size in bytes of me and RESULT. */
+        long bytes(Result result) {
+            return ENTRY_OVERHEAD
+                + 2L * (_text.length() + result._text.length())
+                + 4L * (_positions.length + result._positions.length);
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Request)) {
+                return false;
+            }
+            Request other = (Request) obj;
+            return _hash == other._hash && _configId == other._configId
+                && _key.equals(other._key)
+                && Arrays.equals(_positions, other._positions)
+                && _text.equals(other._text);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Identifier of the configuration. */
+        private final long _configId;
+
+        /** Compiled key. */
+        private final MachinePool.Key _key;
+
+        /** Rotor positions at the start of the line. */
+        private final int[] _positions;
+
+        /** The line without blanks. */
+        private final String _text;
+
+        /** Hash of the other fields. */
+        private final int _hash;
+    }
+
+    /** One separately locked part of the cache. */
+    private final class Stripe {
+
+        /** A stripe of about CAPACITY bytes. */
+        Stripe(long capacity) {
+            _capacity = capacity;
+        }
+
+        /** Return the result for REQUEST, or null. */
+        synchronized Result get(Request request) {
+            return _entries.get(request);
+        }
+
+        /** Record RESULT for REQUEST, evicting the least recently used
+         *  entries while I am too large. */
+        synchronized void put(Request request, Result result) {
+            long size = request.bytes(result);
+            if (size > _capacity) {
+                return;
+            }
+            Result old = _entries.put(request, result);
+            if (old != null) {
+                _bytes -= request.bytes(old);
+            }
+            _bytes += size;
+            Iterator<Map.Entry<Request, Result>> eldest =
+                _entries.entrySet().iterator();
+            while (_bytes > _capacity) {
+                Map.Entry<Request, Result> entry = eldest.next();
+                _bytes -= entry.getKey().bytes(entry.getValue());
+                eldest.remove();
+                _evictions.incrementAndGet();
+            }
+        }
+
+        /** Bound on _bytes. */
+        private final long _capacity;
+
+        /** Estimated size of my entries. */
+        private long _bytes;
+
+        /** My entries, least recently used first. */
+        private final LinkedHashMap<Request, Result> _entries =
+            new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /** Number of stripes, a power of 2. */
+    private static final int STRIPES = 16;
+
+    /** Estimated size in bytes of an entry apart from its text and
+     *  positions. */
+    private static final long ENTRY_OVERHEAD = 160;
+
+    /** Longest line cached. */
+    private final int _maxLength;
+
+    /** The stripes. */
+    private final Stripe[] _stripes;
+
+    /** Number of lookups that found an entry. */
+    private final AtomicLong _hits = new AtomicLong();
+
+    /** Number of lookups that found none. */
+    private final AtomicLong _misses = new AtomicLong();
+
+    /** Number of entries evicted. */
+    private final AtomicLong _evictions = new AtomicLong();
+
+}
@@ -0,0 +1,97 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import static enigma.TestUtils.*;
+
+public class ResultCacheTest {
+
+    /** Return a pool of machines with reflector B and rotors I, II and
+     *  III. */
+    private MachinePool pool() {
+        return new MachinePool(navalMachine(), 1, 4);
+    }
+
+    /** Return the key for rotors B I II III with ring settings RINGS and
+     *  no plugboard, from POOL. */
+    private MachinePool.Key key(MachinePool pool, int... rings) {
+        return pool.compile(new int[] {0, 1, 2, 3}, rings, new int[0]);
+    }
+
+    @Test
+    public void testRoundTrip() {
+        MachinePool pool = pool();
+        MachinePool.Key key = key(pool, 0, 0, 0);
+        ResultCache cache = new ResultCache(1 << 20, 64);
+        int[] positions = {1, 2, 3};
+        int[] after = {1, 2, 13};
+        assertNull(cache.get(7, key, positions, "HELLO WORLD"));
+        cache.put(7, key, positions, "HELLO WORLD", "ABCDE FGHIJ", after);
+        positions[2] = 4;
+        after[2] = 0;
+        ResultCache.Result result =
+            cache.get(7, key, new int[] {1, 2, 3}, "HELLOWORLD");
+        assertNotNull("put did not copy its positions", result);
+        assertEquals("ABCDE FGHIJ", result.text());
+        assertArrayEquals(new int[] {1, 2, 13}, result.positions());
+        assertNotNull(cache.get(7, key, new int[] {1, 2, 3},
+                                " HEL LO WOR LD "));
+        assertNull(cache.get(7, key, positions, "HELLOWORLD"));
+        assertNull(cache.get(8, key, new int[] {1, 2, 3}, "HELLOWORLD"));
+        assertNull(cache.get(7, key(pool, 0, 0, 1), new int[] {1, 2, 3},
+                             "HELLOWORLD"));
+        assertNull(cache.get(7, key, new int[] {1, 2, 3}, "HELLOWORLE"));
+        assertSame(key, key(pool, 0, 0, 0));
+        assertEquals(2, cache.hits());
+        assertEquals(5, cache.misses());
+        assertEquals(0, cache.evictions());
+        assertTrue(cache.bytes() > 0);
+    }
+
+    @Test
+    public void testLongLines() {
+        MachinePool.Key key = key(pool(), 0, 0, 0);
+        ResultCache cache = new ResultCache(1 << 20, 8);
+        assertTrue(cache.accepts("SHORT"));
+        assertFalse(cache.accepts("MUCHTOOLONG"));
+        cache.put(1, key, new int[3], "MUCHTOOLONG", "X", new int[3]);
+        assertNull(cache.get(1, key, new int[3], "MUCHTOOLONG"));
+        assertEquals(0, cache.bytes());
+    }
+
+    @Test
+    public void testOversized() {
+        MachinePool.Key key = key(pool(), 0, 0, 0);
+        ResultCache cache = new ResultCache(16 * 100, 64);
+        cache.put(1, key, new int[3], "HELLO", "ABCDE", new int[3]);
+        assertNull(cache.get(1, key, new int[3], "HELLO"));
+        assertEquals(0, cache.bytes());
+        assertEquals(0, cache.evictions());
+    }
+
+    @Test
+    public void testEviction() {
+        MachinePool.Key key = key(pool(), 0, 0, 0);
+        int capacity = 16 * 400, entries = 200;
+        ResultCache cache = new ResultCache(capacity, 64);
+        for (int i = 0; i < entries; i += 1) {
+            cache.put(1, key, new int[] {i / 26, i % 26, 0}, "HELLO",
+                      "ABCDE", new int[3]);
+            assertTrue(cache.bytes() <= capacity);
+            assertNotNull("newest entry evicted",
+                          cache.get(1, key, new int[] {i / 26, i % 26, 0},
+                                    "HELLO"));
+        }
+        int found = 0;
+        for (int i = 0; i < entries; i += 1) {
+            if (cache.get(1, key, new int[] {i / 26, i % 26, 0}, "HELLO")
+                != null) {
+                found += 1;
+            }
+        }
+        assertTrue("each stripe holds one entry: " + found, found <= 16);
+        assertEquals(entries - found, cache.evictions());
+    }
+}
@@ -0,0 +1,161 @@
+package enigma;
+
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.Supplier;
+
+import static enigma.EnigmaException.error;
+
+/** A bounded queue between one producing thread and one consuming
+ *  thread, holding a fixed set of reusable slots.  The producer claims
+ *  the next free slot, fills it and publishes it; the consumer takes the
+ *  oldest published slot, empties it and releases it.  A producer that
+ *  finds every slot in use waits for the consumer (and the consumer, on
+ *  an empty queue, for the producer) by spinning briefly and then
+ *  parking, without locks.  The queue keeps counts of its depth and of
+ *  the waits on either side, which may be read once both threads are
+ *  done with it.
+ *  @param <T> the type of the slots.
+ *  @author Aadiraj Batlaw
+ */
+class RingBuffer<T> {
+
+    /** A queue of CAPACITY slots, which are created by FACTORY. */
+    RingBuffer(int capacity, Supplier<T> factory) {
+        if (capacity < 1) {
+            throw error("queue capacity must be positive");
+        }
+        _slots = new Object[capacity];
+        for (int i = 0; i < capacity; i += 1) {
+            _slots[i] = factory.get();
+        }
+    }
+
+    /** Return the next free slot, waiting while all are in use, or null
+     *  if the consumer has stopped.  Producer only. */
+    @SuppressWarnings("unchecked")
+    T claim() {
+        if (_tail - _head == _slots.length) {
+            _fullWaits += 1;
+            for (int spins = 0; _tail - _head == _slots.length; spins += 1) {
+                if (_stopped) {
+                    return null;
+                }
+                pause(spins);
+            }
+        }
+        return _stopped ? null : (T) _slots[(int) (_tail % _slots.length)];
+    }
+
+    /** Make the slot last claimed available to the consumer.  Producer
+     *  only. */
+    void publish() {
+        long depth = _tail + 1 - _head;
+        _published += 1;
+        _depthTotal += depth;
+        _maxDepth = Math.max(_maxDepth, depth);
+        _tail += 1;
+    }
+
+    /** Indicate that nothing more will be published.  Producer only. */
+    void close() {
+        _closed = true;
+    }
+
+    /** Return the oldest published slot, waiting while there is none, or
+     *  null if there is none and the producer has closed me.  Consumer
+     *  only. */
+    @SuppressWarnings("unchecked")
+    T take() {
+        if (_head == _tail) {
+            if (!_closed) {
+                _emptyWaits += 1;
+            }
+            for (int spins = 0; _head == _tail; spins += 1) {
+                if (_closed && _head == _tail) {
+                    return null;
+                }
+                pause(spins);
+            }
+        }
+        return (T) _slots[(int) (_head % _slots.length)];
+    }
+
+    /** Return the slot last taken to the producer.  Consumer only. */
+    void release() {
+        _head += 1;
+    }
+
+    /** Indicate that nothing more will be taken, so that a waiting
+     *  producer gives up.  Consumer only. */
+    void stop() {
+        _stopped = true;
+    }
+
+    /** Return my number of slots. */
+    int capacity() {
+        return _slots.length;
+    }
+
+    /** Return the number of slots published. */
+    long published() {
+        return _published;
+    }
+
+    /** Return the mean number of slots in use just after each publish. */
+    double meanDepth() {
+        return _published == 0 ? 0 : (double) _depthTotal / _published;
+    }
+
+    /** Return the largest number of slots in use at once. */
+    long maxDepth() {
+        return _maxDepth;
+    }
+
+    /** Return the number of times the producer found me full. */
+    long fullWaits() {
+        return _fullWaits;
+    }
+
+    /** Return the number of times the consumer found me empty. */
+    long emptyWaits() {
+        return _emptyWaits;
+    }
+
+    /** Wait a little, having already waited SPINS times. */
+    private static void pause(int spins) {
+        if (spins < SPIN_LIMIT) {
+            Thread.onSpinWait();
+        } else {
+            LockSupport.parkNanos(PARK_NANOS);
+        }
+    }
+
+    /** Number of times to spin before parking. */
+    private static final int SPIN_LIMIT = 256;
+
+    /** Time to park for at a time. */
+    private static final long PARK_NANOS = 20_000;
+
+    /** The slots. */
+    private final Object[] _slots;
+
+    /** Number of slots released by the consumer. */
+    private volatile long _head;
+
+    /** Number of slots published by the producer. */
+    private volatile long _tail;
+
+    /** True once the producer has closed me. */
+    private volatile boolean _closed;
+
+    /** True once the consumer has stopped. */
+    private volatile boolean _stopped;
+
+    /** Producer's counts: slots published, their total and greatest
+     *  depths, and waits on a full queue. */
+    private long _published, _depthTotal, _maxDepth, _fullWaits;
+
+    /** Consumer's count of waits on an empty queue. */
+    private long _emptyWaits;
+
+}
@@ -0,0 +1,141 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+public class RingBufferTest {
+
+    /** Time to allow a thread that should be waiting to get on. */
+    private static final long SETTLE_MILLIS = 100;
+
+    /** Most time to wait for a thread that should finish. */
+    private static final long JOIN_MILLIS = 10_000;
+
+    /** Return a started daemon thread running BODY. */
+    private Thread start(Runnable body) {
+        Thread thread = new Thread(body);
+        thread.setDaemon(true);
+        thread.start();
+        return thread;
+    }
+
+    /** Wait for THREAD to finish, failing if it does not. */
+    private void join(Thread thread) throws InterruptedException {
+        thread.join(JOIN_MILLIS);
+        assertFalse("thread did not finish", thread.isAlive());
+    }
+
+    @Test
+    public void testWrapAround() {
+        RingBuffer<int[]> queue = new RingBuffer<>(3, () -> new int[1]);
+        int next = 0, expected = 0;
+        for (int round = 0; round < 10; round += 1) {
+            for (int i = 0; i <= round % 3; i += 1) {
+                queue.claim()[0] = next;
+                queue.publish();
+                next += 1;
+            }
+            for (int i = 0; i <= round % 3; i += 1) {
+                assertEquals(expected, queue.take()[0]);
+                queue.release();
+                expected += 1;
+            }
+        }
+        assertEquals(next, queue.published());
+        assertEquals(3, queue.maxDepth());
+        queue.close();
+        assertNull(queue.take());
+    }
+
+    @Test
+    public void testSlotsReused() {
+        RingBuffer<int[]> queue = new RingBuffer<>(2, () -> new int[1]);
+        int[] first = queue.claim();
+        queue.publish();
+        int[] second = queue.claim();
+        queue.publish();
+        assertNotSame(first, second);
+        assertSame(first, queue.take());
+        queue.release();
+        assertSame(first, queue.claim());
+    }
+
+    @Test
+    public void testFullBlocks() throws InterruptedException {
+        RingBuffer<int[]> queue = new RingBuffer<>(2, () -> new int[1]);
+        for (int i = 0; i < 2; i += 1) {
+            queue.claim()[0] = i;
+            queue.publish();
+        }
+        AtomicReference<int[]> claimed = new AtomicReference<>();
+        Thread producer = start(() -> claimed.set(queue.claim()));
+        Thread.sleep(SETTLE_MILLIS);
+        assertNull("claimed a slot of a full queue", claimed.get());
+        assertEquals(0, queue.take()[0]);
+        queue.release();
+        join(producer);
+        assertNotNull(claimed.get());
+        assertEquals(1, queue.fullWaits());
+    }
+
+    @Test
+    public void testEmptyBlocks() throws InterruptedException {
+        RingBuffer<int[]> queue = new RingBuffer<>(2, () -> new int[1]);
+        AtomicInteger taken = new AtomicInteger(-1);
+        Thread consumer = start(() -> {
+            int[] slot = queue.take();
+            taken.set(slot == null ? -2 : slot[0]);
+        });
+        Thread.sleep(SETTLE_MILLIS);
+        assertEquals("took from an empty queue", -1, taken.get());
+        queue.claim()[0] = 42;
+        queue.publish();
+        join(consumer);
+        assertEquals(42, taken.get());
+        assertEquals(1, queue.emptyWaits());
+    }
+
+    @Test
+    public void testCloseReleasesTake() throws InterruptedException {
+        RingBuffer<int[]> queue = new RingBuffer<>(2, () -> new int[1]);
+        AtomicInteger taken = new AtomicInteger(-1);
+        Thread consumer = start(() -> {
+            int[] slot = queue.take();
+            taken.set(slot == null ? -2 : slot[0]);
+        });
+        Thread.sleep(SETTLE_MILLIS);
+        queue.close();
+        join(consumer);
+        assertEquals(-2, taken.get());
+    }
+
+    @Test
+    public void testStopReleasesClaim() throws InterruptedException {
+        RingBuffer<int[]> queue = new RingBuffer<>(1, () -> new int[1]);
+        queue.claim();
+        queue.publish();
+        AtomicReference<String> result = new AtomicReference<>();
+        Thread producer = start(() ->
+            result.set(queue.claim() == null ? "null" : "slot"));
+        Thread.sleep(SETTLE_MILLIS);
+        assertNull("claimed a slot of a full queue", result.get());
+        queue.stop();
+        join(producer);
+        assertEquals("null", result.get());
+        assertNull(queue.claim());
+    }
+
+    @Test
+    public void testCapacity() {
+        try {
+            new RingBuffer<>(0, () -> new int[1]);
+            fail("accepted an empty queue");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
@@ -52,6 +52,23 @@ class Rotor {
     /** Set setting() to POSN.  */
     void set(int posn) {
         this._setting = posn;
+        _offset = posn - _ring;
+        if (_offset < 0) {
+            _offset += size();
+        }
+    }
+
+    /** Return my ring setting. */
+    int ring() {
+        return _ring;
+    }
+
+    /** Set my ring setting to RING (an integer in the range
+     *  0..size()-1), which turns my wiring by -RING relative to my
+     *  setting and notches. */
+    void setRing(int ring) {
+        _ring = ring;
+        set(_setting);
     }
 
     /** Set setting() to character CPOSN. */
@@ -62,13 +79,13 @@ class Rotor {
     /** Return the conversion of P (an integer in the range 0..size()-1)
      *  according to my permutation. */
     int convertForward(int p) {
-        return _permutation.wrap(_permutation.permute(p + _setting) - _setting);
+        return _permutation.wrap(_permutation.permute(p + _offset) - _offset);
     }
 
     /** Return the conversion of E (an integer in the range 0..size()-1)
      *  according to the inverse of my permutation. */
     int convertBackward(int e) {
-        return _permutation.wrap(_permutation.invert(e + _setting) - _setting);
+        return _permutation.wrap(_permutation.invert(e + _offset) - _offset);
     }
 
     /** Returns true iff I am positioned to allow the rotor to my left
@@ -81,6 +98,12 @@ class Rotor {
     void advance() {
     }
 
+    /** Return a new rotor like me, at its 0 setting, sharing my
+     *  (immutable) permutation. */
+    Rotor copy() {
+        return new Rotor(_name, _permutation);
+    }
+
     @Override
     public String toString() {
         return "Rotor " + _name;
@@ -95,4 +118,10 @@ class Rotor {
     /** Rotor setting.*/
     private int _setting;
 
+    /** Ring setting. */
+    private int _ring;
+
+    /** Displacement of my wiring: _setting - _ring, modulo size(). */
+    private int _offset;
+
 }
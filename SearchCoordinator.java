@@ -0,0 +1,372 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.Set;
+import java.util.function.BooleanSupplier;
+
+import static enigma.EnigmaException.error;
+
+/** Coordinates a key search over a KeySpace among SearchWorkers running
+ *  in separate JVMs on this machine, which talk to it over a loopback
+ *  socket.
+ *
+ *  The key space is divided into leases, each a range of LEASE_SETTINGS
+ *  settings of one rotor order.  A lease that a worker does not complete
+ *  in time (LEASE_MILLIS by default), or whose worker disconnects, is
+ *  handed to another worker.  The best TOP results are kept, and after each
+ *  completed lease they and the set of completed leases are written to a
+ *  progress file, from which an interrupted search resumes.
+ *
+ *  The protocol is line-oriented.  A worker sends NEXT, to which the
+ *  coordinator replies "LEASE id order lo hi", "WAIT" (try again after
+ *  WAIT_MILLIS) or "DONE".  After finishing lease id, the worker sends
+ *  "RESULT id score order setting" for each of its best settings, and
+ *  then "COMPLETE id".
+ *  @author Aadiraj Batlaw
+ */
+class SearchCoordinator {
+
+    /** A coordinator for a search of KEYS keeping the TOP best results.
+     *  Progress is recorded in PROGRESS, if not null, and is valid only
+     *  for searches with the same IDENTITY. */
+    SearchCoordinator(KeySpace keys, int top, File progress,
+                      String identity) {
+        this(keys, top, progress, identity, LEASE_MILLIS);
+    }
+
+    /** A coordinator as for SearchCoordinator(KEYS, TOP, PROGRESS,
+     *  IDENTITY) that gives workers LEASEMILLIS milliseconds to complete
+     *  each lease. */
+    SearchCoordinator(KeySpace keys, int top, File progress,
+                      String identity, long leaseMillis) {
+        _keys = keys;
+        _leaseMillis = leaseMillis;
+        _top = top;
+        _progress = progress;
+        _identity = identity;
+        _leasesPerOrder =
+            (keys.settings() + LEASE_SETTINGS - 1) / LEASE_SETTINGS;
+        if (_leasesPerOrder > Integer.MAX_VALUE / keys.orders()) {
+            throw error("key space too large to search");
+        }
+        _leases = (int) _leasesPerOrder * keys.orders();
+        if (_progress != null && _progress.exists()) {
+            load();
+        }
+    }
+
+    /** Run a search with WORKERS worker processes, each started with
+     *  the command COMMAND followed by --worker=PORT, and print the best
+     *  results found on OUTPUT, best first. */
+    void run(List<String> command, int workers, PrintStream output) {
+        List<Process> processes = new ArrayList<>();
+        try (ServerSocket server = listen()) {
+            for (int i = 0; i < workers; i += 1) {
+                List<String> args = new ArrayList<>(command);
+                args.add("--worker=" + server.getLocalPort());
+                processes.add(new ProcessBuilder(args).inheritIO().start());
+            }
+            await(() -> processes.stream().anyMatch(Process::isAlive));
+        } catch (IOException excp) {
+            throw error("could not start search workers: %s",
+                        excp.getMessage());
+        } catch (InterruptedException excp) {
+            throw error("search interrupted");
+        } finally {
+            for (Process process : processes) {
+                process.destroy();
+            }
+        }
+        report(output);
+    }
+
+    /** Return a new loopback server socket on which workers are
+     *  accepted, each served on a thread of its own, until it is
+     *  closed. */
+    ServerSocket listen() throws IOException {
+        ServerSocket server =
+            new ServerSocket(0, BACKLOG, InetAddress.getLoopbackAddress());
+        Thread acceptor = new Thread(() -> accept(server));
+        acceptor.setDaemon(true);
+        acceptor.start();
+        return server;
+    }
+
+    /** Wait until every lease has been completed, checking every
+     *  WAIT_MILLIS that some worker is still ALIVE. */
+    synchronized void await(BooleanSupplier alive)
+        throws InterruptedException {
+        while (_done.cardinality() < _leases) {
+            if (!alive.getAsBoolean()) {
+                throw error("all search workers exited");
+            }
+            wait(WAIT_MILLIS);
+        }
+    }
+
+    /** Print my results on OUTPUT, best first. */
+    synchronized void report(PrintStream output) {
+        List<SearchResult> results = new ArrayList<>(_best);
+        results.sort(null);
+        for (int i = results.size() - 1; i >= 0; i -= 1) {
+            SearchResult result = results.get(i);
+            output.printf("%s %s%n", result.score(),
+                          _keys.settingsLine(result.order(),
+                                             result.setting()));
+        }
+        output.flush();
+    }
+
+    /** Accept connections from workers on SERVER, serving each on a
+     *  thread of its own. */
+    private void accept(ServerSocket server) {
+        while (true) {
+            try {
+                Socket socket = server.accept();
+                Thread session = new Thread(() -> serve(socket));
+                session.setDaemon(true);
+                session.start();
+            } catch (IOException excp) {
+                return;
+            }
+        }
+    }
+
+    /** Converse with the worker connected to SOCKET until it
+     *  disconnects. */
+    private void serve(Socket socket) {
+        Set<Integer> held = new HashSet<>();
+        List<SearchResult> results = new ArrayList<>();
+        try (socket;
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                                               true, StandardCharsets.UTF_8)) {
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String[] words = line.split(" ");
+                if (words[0].equals(NEXT)) {
+                    out.println(assign(held));
+                } else if (words[0].equals(RESULT)) {
+                    results.add(SearchResult.parse(words, 2));
+                } else if (words[0].equals(COMPLETE)) {
+                    int lease = Integer.parseInt(words[1]);
+                    complete(lease, results);
+                    held.remove(lease);
+                    results.clear();
+                }
+            }
+        } catch (IOException | NumberFormatException
+                 | ArrayIndexOutOfBoundsException excp) {
+            /* A lost or garbled connection: treated as a disconnection. */
+        } catch (RuntimeException excp) {
+            System.err.printf("Warning: dropped search worker: %s%n", excp);
+        } finally {
+            abandon(held);
+        }
+    }
+
+    /** Return the reply to a NEXT request from a worker holding the leases
+     *  HELD, to which any lease granted is added. */
+    private synchronized String assign(Set<Integer> held) {
+        if (_done.cardinality() == _leases) {
+            return DONE;
+        }
+        long now = System.currentTimeMillis();
+        int lease = -1;
+        while (_next < _leases && _done.get(_next)) {
+            _next += 1;
+        }
+        if (_next < _leases) {
+            lease = _next;
+            _next += 1;
+        } else {
+            for (int id : _outstanding.keySet()) {
+                if (_outstanding.get(id) <= now) {
+                    lease = id;
+                    break;
+                }
+            }
+            if (lease < 0) {
+                return WAIT;
+            }
+        }
+        _outstanding.put(lease, now + _leaseMillis);
+        held.add(lease);
+        int order = (int) (lease / _leasesPerOrder);
+        long lo = (lease % _leasesPerOrder) * LEASE_SETTINGS;
+        long hi = Math.min(lo + LEASE_SETTINGS, _keys.settings());
+        return String.format("%s %d %d %d %d", LEASE, lease, order, lo, hi);
+    }
+
+    /** Record that LEASE was completed with RESULTS. */
+    private synchronized void complete(int lease, List<SearchResult> results) {
+        if (lease < 0 || lease >= _leases || _done.get(lease)) {
+            return;
+        }
+        _done.set(lease);
+        _outstanding.remove(lease);
+        for (SearchResult result : results) {
+            offer(result);
+        }
+        save();
+        notifyAll();
+    }
+
+    /** Make the leases HELD by a departed worker available at once. */
+    private synchronized void abandon(Set<Integer> held) {
+        for (int lease : held) {
+            if (_outstanding.containsKey(lease)) {
+                _outstanding.put(lease, 0L);
+            }
+        }
+    }
+
+    /** Add RESULT to the best results if it is good enough. */
+    private void offer(SearchResult result) {
+        _best.add(result);
+        if (_best.size() > _top) {
+            _best.poll();
+        }
+    }
+
+    /** Write my progress to _progress. */
+    private void save() {
+        if (_progress == null) {
+            return;
+        }
+        StringBuilder text = new StringBuilder();
+        text.append(MAGIC).append('\n');
+        text.append("identity ").append(_identity).append('\n');
+        text.append("done");
+        for (int i = _done.nextSetBit(0); i >= 0;
+             i = _done.nextSetBit(_done.nextClearBit(i))) {
+            text.append(' ').append(i).append('-')
+                .append(_done.nextClearBit(i));
+        }
+        text.append('\n');
+        for (SearchResult result : _best) {
+            text.append("result ").append(result).append('\n');
+        }
+        Checkpoint.writeDurably(_progress, text.toString());
+    }
+
+    /** Restore my progress from _progress. */
+    private void load() {
+        List<String> lines;
+        try {
+            lines = Files.readAllLines(_progress.toPath(),
+                                       StandardCharsets.UTF_8);
+        } catch (IOException excp) {
+            throw error("could not read %s", _progress);
+        }
+        try {
+            if (lines.size() < 3 || !lines.get(0).equals(MAGIC)
+                || !lines.get(2).startsWith("done")) {
+                throw error("malformed progress file %s", _progress);
+            }
+            if (!lines.get(1).equals("identity " + _identity)) {
+                throw error("progress file %s is for a different search",
+                            _progress);
+            }
+            String[] ranges = lines.get(2).split(" ");
+            for (int i = 1; i < ranges.length; i += 1) {
+                String[] bounds = ranges[i].split("-");
+                _done.set(Integer.parseInt(bounds[0]),
+                          Integer.parseInt(bounds[1]));
+            }
+            for (String line : lines.subList(3, lines.size())) {
+                offer(SearchResult.parse(line.split(" "), 1));
+            }
+        } catch (RuntimeException excp) {
+            if (excp instanceof EnigmaException) {
+                throw excp;
+            }
+            throw error("malformed progress file %s", _progress);
+        }
+    }
+
+    /** Request for a lease. */
+    static final String NEXT = "NEXT";
+
+    /** Grant of a lease. */
+    static final String LEASE = "LEASE";
+
+    /** Reply when all remaining leases are held by live workers. */
+    static final String WAIT = "WAIT";
+
+    /** Reply when the search is finished. */
+    static final String DONE = "DONE";
+
+    /** Report of one result of a lease. */
+    static final String RESULT = "RESULT";
+
+    /** Report that a lease is finished. */
+    static final String COMPLETE = "COMPLETE";
+
+    /** Number of settings in each lease. */
+    static final long LEASE_SETTINGS = 1 << 12;
+
+    /** Default time a worker has to complete a lease, in
+     *  milliseconds. */
+    static final long LEASE_MILLIS = 60_000;
+
+    /** Time to wait before polling again, in milliseconds. */
+    static final long WAIT_MILLIS = 200;
+
+    /** Maximum number of pending worker connections. */
+    private static final int BACKLOG = 64;
+
+    /** First line of every progress file. */
+    private static final String MAGIC = "enigma-search 1";
+
+    /** The key space searched. */
+    private final KeySpace _keys;
+
+    /** Number of results kept. */
+    private final int _top;
+
+    /** Time a worker has to complete a lease, in milliseconds. */
+    private final long _leaseMillis;
+
+    /** Progress file, or null. */
+    private final File _progress;
+
+    /** Identifies the search for which _progress is valid. */
+    private final String _identity;
+
+    /** Number of leases covering the settings of each rotor order. */
+    private final long _leasesPerOrder;
+
+    /** Total number of leases. */
+    private final int _leases;
+
+    /** Completed leases. */
+    private final BitSet _done = new BitSet();
+
+    /** Deadlines of leases granted but not completed. */
+    private final HashMap<Integer, Long> _outstanding = new HashMap<>();
+
+    /** Lowest lease that might never have been granted. */
+    private int _next;
+
+    /** The best results so far, worst first. */
+    private final PriorityQueue<SearchResult> _best = new PriorityQueue<>();
+
+}
@@ -0,0 +1,296 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+public class SearchCoordinatorTest {
+
+    /** The plaintext of the ciphertext searched. */
+    private static final String PLAIN =
+        "WETTERVORHERSAGEBISKAYAREGENUNDSTURMAUSWEST";
+
+    /** The ciphertext searched, as alphabet indices. */
+    private static final int[] CIPHERTEXT = new int[PLAIN.length()];
+    static {
+        Machine machine = navalMachine();
+        machine.insertRotors(new String[] {"B", "III", "I", "II"});
+        machine.setRotors("KQX");
+        String cipher = machine.convert(PLAIN);
+        for (int i = 0; i < CIPHERTEXT.length; i += 1) {
+            CIPHERTEXT[i] = UPPER.toInt(cipher.charAt(i));
+        }
+    }
+
+    /** Return a worker searching CIPHERTEXT with a machine of its own,
+     *  reporting the TOP best settings of each lease. */
+    private SearchWorker worker(int top) {
+        Machine machine = navalMachine();
+        return new SearchWorker(machine, new KeySpace(machine), CIPHERTEXT,
+                                new TrialScorer.Coincidence(UPPER.size()),
+                                top);
+    }
+
+    /** Return every setting of KEYS with its score, best first. */
+    private List<SearchResult> everySetting(KeySpace keys) {
+        SearchWorker worker = worker(Integer.MAX_VALUE);
+        List<SearchResult> results = new ArrayList<>();
+        for (int order = 0; order < keys.orders(); order += 1) {
+            results.addAll(worker.search(order, 0, keys.settings()));
+        }
+        results.sort(Collections.reverseOrder());
+        return results;
+    }
+
+    /** Return the smallest number of best results, at least 5, that is
+     *  not tied with the next best in ALL, which is best first. */
+    private int top(List<SearchResult> all) {
+        int top = 5;
+        while (all.get(top - 1).score() == all.get(top).score()) {
+            top += 1;
+        }
+        return top;
+    }
+
+    /** Return the report of the best TOP of ALL, which is best first, as
+     *  SearchCoordinator.report prints it for KEYS. */
+    private String expected(List<SearchResult> all, int top, KeySpace keys) {
+        StringBuilder result = new StringBuilder();
+        for (SearchResult best : all.subList(0, top)) {
+            result.append(String.format("%s %s%n", best.score(),
+                                        keys.settingsLine(best.order(),
+                                                          best.setting())));
+        }
+        return result.toString();
+    }
+
+    /** Return the report of COORDINATOR. */
+    private String report(SearchCoordinator coordinator) {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        coordinator.report(new PrintStream(bytes, true));
+        return bytes.toString();
+    }
+
+    /** Start a thread running WORKER against the coordinator on PORT,
+     *  adding it to THREADS. */
+    private void start(SearchWorker worker, int port, List<Thread> threads) {
+        Thread thread = new Thread(() -> worker.run(port));
+        thread.setDaemon(true);
+        thread.start();
+        threads.add(thread);
+    }
+
+    /** Wait until COORDINATOR has every lease complete while some of
+     *  THREADS are alive. */
+    private void await(SearchCoordinator coordinator, List<Thread> threads)
+        throws InterruptedException {
+        coordinator.await(() -> threads.stream().anyMatch(Thread::isAlive));
+    }
+
+    /** A worker connection driven by the test, one message at a time. */
+    private static class Client implements AutoCloseable {
+
+        /** A connection to the coordinator on PORT. */
+        Client(int port) throws IOException {
+            _socket = new Socket(InetAddress.getLoopbackAddress(), port);
+            _in = new BufferedReader(new InputStreamReader(
+                _socket.getInputStream(), StandardCharsets.UTF_8));
+            _out = new PrintWriter(_socket.getOutputStream(), true,
+                                   StandardCharsets.UTF_8);
+        }
+
+        /** Ask for a lease and return the reply, split into words. */
+        String[] next() throws IOException {
+            _out.println(SearchCoordinator.NEXT);
+            return _in.readLine().split(" ");
+        }
+
+        /** Complete LEASE, as returned by next(), by searching it with
+         *  WORKER. */
+        void complete(String[] lease, SearchWorker worker) {
+            for (SearchResult result
+                     : worker.search(Integer.parseInt(lease[2]),
+                                     Long.parseLong(lease[3]),
+                                     Long.parseLong(lease[4]))) {
+                _out.println(SearchCoordinator.RESULT + " " + lease[1] + " "
+                             + result);
+            }
+            _out.println(SearchCoordinator.COMPLETE + " " + lease[1]);
+        }
+
+        @Override
+        public void close() throws IOException {
+            _socket.close();
+        }
+
+        /** The connection. */
+        private final Socket _socket;
+        /** Its input. */
+        private final BufferedReader _in;
+        /** Its output. */
+        private final PrintWriter _out;
+    }
+
+    @Test
+    public void testWorkers() throws IOException, InterruptedException {
+        KeySpace keys = new KeySpace(navalMachine());
+        List<SearchResult> all = everySetting(keys);
+        assertEquals(keys.orders() * keys.settings(), all.size());
+        int top = top(all);
+        SearchCoordinator coordinator =
+            new SearchCoordinator(keys, top, null, "test");
+        List<Thread> threads = new ArrayList<>();
+        try (ServerSocket server = coordinator.listen()) {
+            try (Client killed = new Client(server.getLocalPort())) {
+                assertEquals(SearchCoordinator.LEASE, killed.next()[0]);
+            }
+            for (int i = 0; i < 3; i += 1) {
+                start(worker(top), server.getLocalPort(), threads);
+            }
+            await(coordinator, threads);
+        }
+        assertEquals(expected(all, top, keys), report(coordinator));
+    }
+
+    @Test
+    public void testLeaseExpiry() throws IOException, InterruptedException {
+        KeySpace keys = new KeySpace(navalMachine());
+        List<SearchResult> all = everySetting(keys);
+        int top = top(all);
+        SearchCoordinator coordinator =
+            new SearchCoordinator(keys, top, null, "test", 500);
+        List<Thread> threads = new ArrayList<>();
+        try (ServerSocket server = coordinator.listen();
+             Client silent = new Client(server.getLocalPort())) {
+            String[] lease = silent.next();
+            assertEquals(SearchCoordinator.LEASE, lease[0]);
+            start(worker(top), server.getLocalPort(), threads);
+            await(coordinator, threads);
+            silent.complete(lease, worker(top));
+            assertEquals(SearchCoordinator.DONE, silent.next()[0]);
+        }
+        assertEquals(expected(all, top, keys), report(coordinator));
+    }
+
+    @Test
+    public void testProgress() throws IOException, InterruptedException {
+        KeySpace keys = new KeySpace(navalMachine());
+        List<SearchResult> all = everySetting(keys);
+        int top = top(all);
+        File progress = File.createTempFile("enigma", ".progress");
+        progress.deleteOnExit();
+        assertTrue(progress.delete());
+        SearchWorker worker = worker(top);
+
+        BitSet granted = new BitSet();
+        SearchCoordinator first =
+            new SearchCoordinator(keys, top, progress, "test");
+        try (ServerSocket server = first.listen();
+             Client client = new Client(server.getLocalPort())) {
+            for (int i = 0; i < 7; i += 1) {
+                String[] lease = client.next();
+                granted.set(Integer.parseInt(lease[1]));
+                client.complete(lease, worker);
+            }
+            String[] lease = client.next();
+            assertFalse(granted.get(Integer.parseInt(lease[1])));
+        }
+        assertTrue(progress.exists());
+
+        try {
+            new SearchCoordinator(keys, top, progress, "other");
+            fail("resumed a different search");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().endsWith("for a different search"));
+        }
+
+        SearchCoordinator second =
+            new SearchCoordinator(keys, top, progress, "test");
+        int leases = 0;
+        try (ServerSocket server = second.listen();
+             Client client = new Client(server.getLocalPort())) {
+            for (String[] lease = client.next();
+                 lease[0].equals(SearchCoordinator.LEASE);
+                 lease = client.next()) {
+                int id = Integer.parseInt(lease[1]);
+                assertFalse(msg("progress", "lease %d repeated", id),
+                            granted.get(id));
+                granted.set(id);
+                leases += 1;
+                client.complete(lease, worker);
+            }
+        }
+        assertEquals(granted.cardinality(), 7 + leases);
+        assertEquals(granted.nextClearBit(0), granted.cardinality());
+        assertEquals(expected(all, top, keys), report(second));
+    }
+
+    @Test
+    public void testNumbering() throws IOException {
+        Machine machine = navalMachine();
+        KeySpace keys = new KeySpace(machine, 1);
+        SearchCoordinator coordinator =
+            new SearchCoordinator(keys, 1, null, "test");
+        long perOrder = (keys.settings() + SearchCoordinator.LEASE_SETTINGS
+                         - 1) / SearchCoordinator.LEASE_SETTINGS;
+        long[] covered = new long[keys.orders()];
+        try (ServerSocket server = coordinator.listen();
+             Client client = new Client(server.getLocalPort())) {
+            for (long i = 0; i < keys.orders() * perOrder; i += 1) {
+                String[] lease = client.next();
+                assertEquals(SearchCoordinator.LEASE, lease[0]);
+                assertEquals(i, Long.parseLong(lease[1]));
+                int order = Integer.parseInt(lease[2]);
+                assertEquals(covered[order], Long.parseLong(lease[3]));
+                covered[order] = Long.parseLong(lease[4]);
+            }
+            assertEquals(SearchCoordinator.WAIT, client.next()[0]);
+        }
+        for (long settings : covered) {
+            assertEquals(keys.settings(), settings);
+        }
+
+        keys = new KeySpace(machine, 2);
+        List<Rotor> rotors = new ArrayList<>(machine.allRotors());
+        MessageLexer lexer = new MessageLexer(machine);
+        Random random = new Random(0);
+        int[] rings = new int[3], positions = new int[3];
+        for (int i = 0; i < 1000; i += 1) {
+            int order = random.nextInt(keys.orders());
+            long setting = (long) (random.nextDouble() * keys.settings());
+            keys.rings(setting / keys.positions(), rings);
+            keys.position(setting % keys.positions(), positions);
+            assertEquals(setting % keys.positions(),
+                         (positions[0] * 26 + positions[1]) * 26
+                         + positions[2]);
+            assertEquals(0, rings[0]);
+            assertEquals(setting / keys.positions(), rings[1] * 26 + rings[2]);
+            lexer.settings(keys.settingsLine(order, setting));
+            assertArrayEquals(positions, lexer.positions());
+            assertArrayEquals(rings, lexer.rings());
+            for (int k = 0; k < 4; k += 1) {
+                assertEquals(keys.order(order)[k],
+                             rotors.get(lexer.rotors()[k]).name());
+            }
+        }
+    }
+}
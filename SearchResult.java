@@ -0,0 +1,67 @@
+package enigma;
+
+/** The score of one candidate setting found by a key search.
+ *  @author Aadiraj Batlaw
+ */
+class SearchResult implements Comparable<SearchResult> {
+
+    /** A result giving SCORE to setting SETTING (see KeySpace) of rotor
+     *  order ORDER of a KeySpace. */
+    SearchResult(double score, int order, long setting) {
+        _score = score;
+        _order = order;
+        _setting = setting;
+    }
+
+    /** Return my score; higher is better. */
+    double score() {
+        return _score;
+    }
+
+    /** Return my rotor order. */
+    int order() {
+        return _order;
+    }
+
+    /** Return my setting. */
+    long setting() {
+        return _setting;
+    }
+
+    /** Results are ordered by increasing score, then by setting. */
+    @Override
+    public int compareTo(SearchResult other) {
+        int c = Double.compare(_score, other._score);
+        if (c == 0) {
+            c = Integer.compare(other._order, _order);
+        }
+        if (c == 0) {
+            c = Long.compare(other._setting, _setting);
+        }
+        return c;
+    }
+
+    /** Return a line of text from which parse recreates me. */
+    @Override
+    public String toString() {
+        return _score + " " + _order + " " + _setting;
+    }
+
+    /** Return the result described by WORDS[FROM], WORDS[FROM+1] and
+     *  WORDS[FROM+2], as written by toString. */
+    static SearchResult parse(String[] words, int from) {
+        return new SearchResult(Double.parseDouble(words[from]),
+                                Integer.parseInt(words[from + 1]),
+                                Long.parseLong(words[from + 2]));
+    }
+
+    /** Score. */
+    private final double _score;
+
+    /** Rotor order. */
+    private final int _order;
+
+    /** Setting. */
+    private final long _setting;
+
+}
@@ -0,0 +1,142 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintWriter;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.nio.charset.StandardCharsets;
+import java.util.PriorityQueue;
+
+import static enigma.EnigmaException.error;
+
+/** A worker in a key search run by a SearchCoordinator, normally in a
+ *  JVM of its own.  It repeatedly leases a range of settings (see
+ *  KeySpace) of one rotor order from the coordinator, decrypts the
+ *  ciphertext under each, and reports the best-scoring ones.
+ *  @author Aadiraj Batlaw
+ */
+class SearchWorker {
+
+    /** A worker that tries the settings of KEYS on machine M against
+     *  CIPHERTEXT (as alphabet indices), scoring with SCORER, and
+     *  reporting the TOP best settings of each lease.  A trial
+     *  decryption is abandoned once it cannot beat the worst of the TOP
+     *  best so far.  If KEYS is classifiable, only the representative of
+     *  each class of settings that are equivalent on CIPHERTEXT (see
+     *  KeyClasses) is tried. */
+    SearchWorker(Machine M, KeySpace keys, int[] ciphertext,
+                 TrialScorer scorer, int top) {
+        _machine = M;
+        _keys = keys;
+        _ciphertext = ciphertext;
+        _plaintext = new int[ciphertext.length];
+        _scorer = scorer;
+        _top = top;
+        _positions = new int[M.numRotors() - 1];
+        _rings = new int[M.numRotors() - 1];
+        _machine.setPlugboard(new Permutation("", M.alphabet()));
+        _classes = keys.classifiable()
+            ? new KeyClasses(M, keys, ciphertext.length) : null;
+    }
+
+    /** Take leases from the coordinator listening on local port PORT
+     *  until it has none left. */
+    void run(int port) {
+        try (Socket socket = new Socket(InetAddress.getLoopbackAddress(),
+                                        port);
+             BufferedReader in = new BufferedReader(new InputStreamReader(
+                 socket.getInputStream(), StandardCharsets.UTF_8));
+             PrintWriter out = new PrintWriter(socket.getOutputStream(),
+                                               true, StandardCharsets.UTF_8)) {
+            while (true) {
+                out.println(SearchCoordinator.NEXT);
+                String reply = in.readLine();
+                if (reply == null || reply.equals(SearchCoordinator.DONE)) {
+                    return;
+                }
+                String[] words = reply.split(" ");
+                if (words[0].equals(SearchCoordinator.WAIT)) {
+                    Thread.sleep(SearchCoordinator.WAIT_MILLIS);
+                    continue;
+                }
+                int lease = Integer.parseInt(words[1]);
+                for (SearchResult result
+                         : search(Integer.parseInt(words[2]),
+                                  Long.parseLong(words[3]),
+                                  Long.parseLong(words[4]))) {
+                    out.println(SearchCoordinator.RESULT + " " + lease + " "
+                                + result);
+                }
+                out.println(SearchCoordinator.COMPLETE + " " + lease);
+            }
+        } catch (IOException excp) {
+            throw error("lost contact with search coordinator");
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /** Return the TOP best-scoring settings LO .. HI-1 of rotor order
+     *  ORDER. */
+    PriorityQueue<SearchResult> search(int order, long lo, long hi) {
+        PriorityQueue<SearchResult> best = new PriorityQueue<>();
+        _machine.insertRotors(_keys.order(order));
+        long ring = -1;
+        for (long setting = lo; setting < hi; setting += 1) {
+            if (setting / _keys.positions() != ring) {
+                ring = setting / _keys.positions();
+                _keys.rings(ring, _rings);
+                _machine.setRings(_rings);
+            }
+            _keys.position(setting % _keys.positions(), _positions);
+            if (_classes != null
+                && !_classes.representative(order, _rings, _positions)) {
+                continue;
+            }
+            _machine.setRotors(_positions);
+            double threshold = best.size() < _top ? Double.NEGATIVE_INFINITY
+                : best.peek().score();
+            int decrypted = _machine.trial(_ciphertext, _plaintext, _scorer,
+                                           threshold);
+            double score = _scorer.score();
+            if (decrypted == _ciphertext.length
+                && (best.size() < _top || score > best.peek().score())) {
+                best.add(new SearchResult(score, order, setting));
+                if (best.size() > _top) {
+                    best.poll();
+                }
+            }
+        }
+        return best;
+    }
+
+    /** Machine used for trial decryptions. */
+    private final Machine _machine;
+
+    /** The key space being searched. */
+    private final KeySpace _keys;
+
+    /** Ciphertext as alphabet indices. */
+    private final int[] _ciphertext;
+
+    /** Last trial decryption. */
+    private final int[] _plaintext;
+
+    /** Scorer of trial decryptions. */
+    private final TrialScorer _scorer;
+
+    /** Number of results reported per lease. */
+    private final int _top;
+
+    /** Starting positions of the current trial. */
+    private final int[] _positions;
+
+    /** Ring settings of the current trial. */
+    private final int[] _rings;
+
+    /** Classes of equivalent settings, or null if all are tried. */
+    private final KeyClasses _classes;
+
+}
@@ -0,0 +1,259 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.nio.CharBuffer;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.error;
+
+/** The conversion of one stream of settings and message lines with one
+ *  machine: each settings line configures the machine, and each message
+ *  line is converted and printed in groups of five.  A message line that
+ *  the input delivers in pieces (see LineReader) is converted a piece at
+ *  a time.
+ *  @author Aadiraj Batlaw
+ */
+class Session {
+
+    /** A session applying the settings and messages read by INPUT to
+     *  machine M, whose keys are compiled by KEYS, with message text
+     *  converted by TRANSCODER, and printing the results on OUTPUT. */
+    Session(MessageLexer input, Machine M, MachinePool keys,
+            Transcoder transcoder, PrintStream output) {
+        _input = input;
+        _machine = M;
+        _current = M;
+        _keys = keys;
+        _transcoder = transcoder;
+        _output = output;
+    }
+
+    /** Convert the messages of each key with a machine specialised to it
+     *  (see SpecializedMachine) once HOT characters have been converted
+     *  with it, rather than with my machine itself.  The uses and
+     *  machines of the KEYS most recently used keys are kept. */
+    void specialize(long hot, int keys) {
+        _hot = hot;
+        _specialized = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<MachinePool.Key, Use> e) {
+                return size() > keys;
+            }
+        };
+    }
+
+    /** Look up message lines in CACHE, holding conversions by machines
+     *  built from the configuration CONFIGID with my transcoder, before
+     *  converting them, and add those converted. */
+    void cache(ResultCache cache, long configId) {
+        _cache = cache;
+        _configId = configId;
+    }
+
+    /** Return the machine now converting messages, whose rotor settings
+     *  are current. */
+    Machine machine() {
+        return _current;
+    }
+
+    /** Return the number of characters converted so far of the message
+     *  line whose pieces are being converted, or -1 if the last step
+     *  finished a line. */
+    long column() {
+        return _column;
+    }
+
+    /** Continue a message line of which COLUMN characters have already
+     *  been converted, with the next piece of my input. */
+    void resumeLine(long column) {
+        _column = column;
+        _input.resumeLine();
+    }
+
+    /** Check that the input begins with a settings line. */
+    void start() {
+        if (_input.lookahead() != MessageLexer.Kind.SETTINGS) {
+            throw error("input does not begin with setting");
+        }
+    }
+
+    /** Set my machine according to the current settings of my input. */
+    void setUp() {
+        MachinePool.Key key = _keys.compile(_input.rotors(), _input.rings(),
+                                            _input.plugboard());
+        MachinePool.configure(_machine, key);
+        _key = key;
+        if (!_machine.getRotorSlots()[0].reflecting()) {
+            throw error("First rotor is not a reflector");
+        }
+        _current = _machine;
+        if (_specialized != null) {
+            _use = _specialized.computeIfAbsent(key, k -> new Use());
+            if (_use._machine != null) {
+                _current = _use._machine;
+            }
+        }
+        _current.setRotors(_input.positions());
+    }
+
+    /** Apply any settings lines that come next, then convert and print
+     *  the next message line, or the next piece of one.  Return false if
+     *  the input ended first. */
+    boolean step() {
+        if (_column < 0) {
+            while (_input.lookahead() == MessageLexer.Kind.SETTINGS) {
+                while (_input.next() != MessageLexer.Kind.SETTINGS) {
+                    continue;
+                }
+                setUp();
+            }
+            if (_input.lookahead() == MessageLexer.Kind.END) {
+                return false;
+            }
+        }
+        if (_input.next() == MessageLexer.Kind.END) {
+            _output.println();
+            _column = -1;
+            return false;
+        }
+        String line = _input.line();
+        boolean pieces = _column >= 0 || _input.continues();
+        if (!pieces) {
+            printMessageLine(line);
+        } else {
+            _column = convert(line, Math.max(_column, 0));
+            _output.append(_converted);
+            if (_input.continues()) {
+                return true;
+            }
+            _column = -1;
+        }
+        if (pieces || !line.isEmpty()) {
+            _output.println();
+        }
+        if (_input.shortTokenAhead()) {
+            _output.println();
+        }
+        return true;
+    }
+
+    /** Convert LINE and print the result in groups of five (except that
+     *  the last group may have fewer letters). */
+    private void printMessageLine(String line) {
+        int[] before = null;
+        if (_cache != null && _cache.accepts(line)) {
+            before = positions();
+            ResultCache.Result hit =
+                _cache.get(_configId, _key, before, line);
+            if (hit != null) {
+                _current.setRotors(hit.positions());
+                _output.append(hit.text());
+                return;
+            }
+        }
+        convert(line, 0);
+        if (before != null) {
+            _cache.put(_configId, _key, before, line, _converted,
+                       positions());
+        }
+        _output.append(_converted);
+    }
+
+    /** Convert TEXT, part of a message line of which COUNT characters
+     *  have already been converted, into _converted, continuing its
+     *  groups of five.  Return the number of characters of the line
+     *  converted. */
+    private long convert(String text, long count) {
+        if (_converted.capacity() < 2 * text.length()) {
+            _converted = CharBuffer.allocate(2 * text.length());
+        }
+        _converted.clear();
+        count = _transcoder.transcode(_current, CharBuffer.wrap(text),
+                                      _converted, count, true);
+        if (_use != null && _use._machine == null) {
+            _use._converted += text.length();
+            if (_use._converted >= _hot) {
+                _use._machine = SpecializedMachine.specialize(_machine);
+                _current = _use._machine;
+            }
+        }
+        _converted.flip();
+        return count;
+    }
+
+    /** Return the rotor positions of the machine now converting messages
+     *  (as for Machine.setRotors). */
+    private int[] positions() {
+        Rotor[] slots = _current.getRotorSlots();
+        int[] result = new int[slots.length - 1];
+        for (int i = 0; i < result.length; i += 1) {
+            result[i] = slots[i + 1].setting();
+        }
+        return result;
+    }
+
+    /** The use made of one key. */
+    private static final class Use {
+
+        /** Number of characters converted with the key. */
+        private long _converted;
+
+        /** The machine specialised to the key, or null if there is none
+         *  yet. */
+        private Machine _machine;
+    }
+
+    /** Initial size of the buffer for converted message lines. */
+    private static final int LINE_BUFFER = 256;
+
+    /** Source of settings and messages. */
+    private final MessageLexer _input;
+
+    /** The machine. */
+    private final Machine _machine;
+
+    /** The machine now converting messages: _machine or one specialised
+     *  from it. */
+    private Machine _current;
+
+    /** The use of recently used keys, least recently used first, or null
+     *  if machines are not specialised. */
+    private Map<MachinePool.Key, Use> _specialized;
+
+    /** The use of the current key, or null if machines are not
+     *  specialised. */
+    private Use _use;
+
+    /** Number of characters converted with a key before a machine is
+     *  specialised to it. */
+    private long _hot;
+
+    /** Compiled keys. */
+    private final MachinePool _keys;
+
+    /** The current key. */
+    private MachinePool.Key _key;
+
+    /** Cache of converted lines, or null if there is none. */
+    private ResultCache _cache;
+
+    /** Identifier of the configuration of my machine, if there is a
+     *  cache. */
+    private long _configId;
+
+    /** Converter of message lines. */
+    private final Transcoder _transcoder;
+
+    /** Destination of results. */
+    private final PrintStream _output;
+
+    /** Number of characters converted of the message line whose pieces
+     *  are being converted, or -1 between lines. */
+    private long _column = -1;
+
+    /** Buffer holding the conversion of a message line. */
+    private CharBuffer _converted = CharBuffer.allocate(LINE_BUFFER);
+
+}
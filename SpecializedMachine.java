@@ -0,0 +1,560 @@
+package enigma;
+
+import java.io.ByteArrayOutputStream;
+import java.io.OutputStream;
+import java.lang.invoke.MethodHandles;
+import java.lang.invoke.MethodType;
+import java.net.URI;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import javax.tools.DiagnosticCollector;
+import javax.tools.FileObject;
+import javax.tools.ForwardingJavaFileManager;
+import javax.tools.JavaCompiler;
+import javax.tools.JavaFileManager;
+import javax.tools.JavaFileObject;
+import javax.tools.SimpleJavaFileObject;
+import javax.tools.ToolProvider;
+
+import static enigma.EnigmaException.error;
+
+/** A machine specialised to one configuration (rotor order, ring
+ *  settings and plugboard) of another.  Its conversions are done by a
+ *  kernel, a hidden class generated for the configuration, in which the
+ *  rotor stack is unrolled, the stepping tests the offsets of the rotors
+ *  against constant notch positions, and the rotors' conversions at
+ *  every offset are looked up in tables that are constants of the class.
+ *  The kernel is compiled from source with the system Java compiler; the
+ *  class of a kernel depends only on the shape of the configuration, so
+ *  configurations of the same shape share its bytes and differ only in
+ *  their tables.  Where there is no compiler (as in a JRE), a kernel
+ *  that loops over the same tables is used instead: it is slower than a
+ *  generated one, but still avoids the interpreter's per-rotor
+ *  arithmetic.
+ *
+ *  Its rotor settings may be read through getRotorSlots but must be
+ *  changed through setRotors, and it cannot be reconfigured.
+ *  @author Aadiraj Batlaw
+ */
+class SpecializedMachine extends Machine {
+
+    /** A machine converting as KERNEL does, with copies of the rotors in
+     *  the slots of M, M's ring settings and M's plugboard. */
+    private SpecializedMachine(Machine M, Kernel kernel) {
+        super(M.alphabet(), M.numRotors(), M.numPawls(), copies(M));
+        _kernel = kernel;
+        int[] slots = new int[M.numRotors()];
+        for (int i = 0; i < slots.length; i += 1) {
+            slots[i] = i;
+        }
+        super.insertRotors(slots);
+        super.setPlugboard(M.plugboard());
+        _offsets = new int[M.numRotors() - 1];
+        load();
+    }
+
+    /** Return a machine converting as M (whose slots must all be filled)
+     *  does in its current configuration and rotor settings, specialised
+     *  to that configuration, or M itself if its alphabet is too large
+     *  for tables.  Its kernel is generated if a Java compiler is
+     *  available. */
+    static Machine specialize(Machine M) {
+        return specialize(M, compilerAvailable());
+    }
+
+    /** Return a machine specialised to the configuration of M, as for
+     *  specialize(M), whose kernel is generated iff GENERATE and can be
+     *  compiled, and otherwise a TableKernel. */
+    static Machine specialize(Machine M, boolean generate) {
+        if (M.alphabet().size() > MAX_ALPHABET) {
+            return M;
+        }
+        byte[] bytes = new byte[0];
+        List<int[]> tables = new ArrayList<>();
+        if (generate) {
+            String source = source(M, tables);
+            bytes = CLASSES.computeIfAbsent(source,
+                                            SpecializedMachine::compile);
+        }
+        if (bytes.length == 0) {
+            return new SpecializedMachine(M, new TableKernel(M));
+        }
+        Kernel kernel;
+        try {
+            MethodHandles.Lookup lookup = MethodHandles.lookup()
+                .defineHiddenClassWithClassData(bytes, tables, true);
+            kernel = (Kernel) lookup.findConstructor(
+                lookup.lookupClass(), MethodType.methodType(void.class))
+                .invoke();
+        } catch (Throwable excp) {
+            throw error("could not load specialised machine: %s", excp);
+        }
+        return new SpecializedMachine(M, kernel);
+    }
+
+    /** Return true iff a Java compiler is available to generate
+     *  kernels. */
+    static boolean compilerAvailable() {
+        return ToolProvider.getSystemJavaCompiler() != null;
+    }
+
+    @Override
+    void insertRotors(String[] rotors) {
+        throw error("specialised machine cannot be reconfigured");
+    }
+
+    @Override
+    void insertRotors(int[] rotors) {
+        throw error("specialised machine cannot be reconfigured");
+    }
+
+    @Override
+    void setRings(int[] rings) {
+        throw error("specialised machine cannot be reconfigured");
+    }
+
+    @Override
+    void setPlugboard(Permutation plugboard) {
+        throw error("specialised machine cannot be reconfigured");
+    }
+
+    @Override
+    void setRotors(int[] positions) {
+        super.setRotors(positions);
+        load();
+    }
+
+    @Override
+    void setRotors(String setting) {
+        super.setRotors(setting);
+        load();
+    }
+
+    @Override
+    public Rotor[] getRotorSlots() {
+        Rotor[] slots = super.getRotorSlots();
+        _kernel.getOffsets(_offsets);
+        for (int i = 1; i < slots.length; i += 1) {
+            slots[i].set((_offsets[i - 1] + slots[i].ring())
+                         % slots[i].size());
+        }
+        return slots;
+    }
+
+    @Override
+    int convert(int c) {
+        return _kernel.convert(c);
+    }
+
+    @Override
+    int transform(int c) {
+        return _kernel.transform(c);
+    }
+
+    @Override
+    void advance() {
+        _kernel.advance();
+    }
+
+    /** Give my kernel the offsets of my rotors. */
+    private void load() {
+        Rotor[] slots = super.getRotorSlots();
+        for (int i = 1; i < slots.length; i += 1) {
+            _offsets[i - 1] = Math.floorMod(slots[i].setting()
+                                            - slots[i].ring(),
+                                            slots[i].size());
+        }
+        _kernel.setOffsets(_offsets);
+    }
+
+    /** Return copies of the rotors in the slots of M, in slot order, at
+     *  their current settings and ring settings. */
+    private static List<Rotor> copies(Machine M) {
+        List<Rotor> result = new ArrayList<>();
+        for (Rotor rotor : M.getRotorSlots()) {
+            Rotor copy = rotor.copy();
+            copy.setRing(rotor.ring());
+            copy.set(rotor.setting());
+            result.add(copy);
+        }
+        return result;
+    }
+
+    /** Return the source of a kernel for the configuration of M, adding
+     *  the tables it uses, in order, to TABLES.  For the rotor in slot K,
+     *  the tables map OFFSET * size + C to the rotor's conversion of C
+     *  forward and backward at OFFSET; the rotor in slot 0 has only one
+     *  offset. */
+    private static String source(Machine M, List<int[]> tables) {
+        int size = M.alphabet().size();
+        Rotor[] slots = M.getRotorSlots();
+        int last = slots.length - 1;
+        StringBuilder out = new StringBuilder();
+        out.append("package enigma;\n")
+            .append("import java.lang.invoke.MethodHandles;\n")
+            .append("final class SpecializedKernel")
+            .append(" implements SpecializedMachine.Kernel {\n");
+        int[] plugboard = M.plugboard().toArray();
+        boolean plugged = false;
+        for (int c = 0; c < size; c += 1) {
+            plugged |= plugboard[c] != c;
+        }
+        if (plugged) {
+            table(out, tables, "P", plugboard);
+        }
+        Rotor reflector = slots[0];
+        int offset = Math.floorMod(reflector.setting() - reflector.ring(),
+                                   size);
+        int[] reflect = new int[size];
+        for (int c = 0; c < size; c += 1) {
+            reflect[c] = forward(reflector, offset, c);
+        }
+        table(out, tables, "R", reflect);
+        for (int k = 1; k <= last; k += 1) {
+            int[] forward = new int[size * size],
+                backward = new int[size * size];
+            for (int o = 0; o < size; o += 1) {
+                for (int c = 0; c < size; c += 1) {
+                    forward[o * size + c] = forward(slots[k], o, c);
+                    backward[o * size + c] = backward(slots[k], o, c);
+                }
+            }
+            table(out, tables, "F" + k, forward);
+            table(out, tables, "B" + k, backward);
+            out.append("    private int b").append(k).append(";\n");
+        }
+        out.append("    public int convert(int c) {\n")
+            .append("        advance();\n")
+            .append("        return transform(c);\n")
+            .append("    }\n")
+            .append("    public void advance() {\n");
+        for (int i = 2; i < last; i += 1) {
+            if (slots[i].rotates()) {
+                out.append("        if (").append(notched(slots[i], i))
+                    .append(") {\n");
+                step(out, slots, i - 1, size, "            ");
+                step(out, slots, i, size, "            ");
+                out.append("        }\n");
+            }
+        }
+        if (slots[last].rotates()) {
+            out.append("        if (").append(notched(slots[last], last))
+                .append(") {\n");
+            step(out, slots, last - 1, size, "            ");
+            out.append("        }\n");
+        }
+        step(out, slots, last, size, "        ");
+        out.append("    }\n")
+            .append("    public int transform(int c) {\n");
+        if (plugged) {
+            out.append("        c = P[c];\n");
+        }
+        for (int k = last; k >= 1; k -= 1) {
+            out.append("        c = F").append(k).append("[b").append(k)
+                .append(" + c];\n");
+        }
+        out.append("        c = R[c];\n");
+        for (int k = 1; k <= last; k += 1) {
+            out.append("        c = B").append(k).append("[b").append(k)
+                .append(" + c];\n");
+        }
+        out.append(plugged ? "        return P[c];\n" : "        return c;\n")
+            .append("    }\n")
+            .append("    public void setOffsets(int[] offsets) {\n");
+        for (int k = 1; k <= last; k += 1) {
+            out.append("        b").append(k).append(" = offsets[")
+                .append(k - 1).append("] * ").append(size).append(";\n");
+        }
+        out.append("    }\n")
+            .append("    public void getOffsets(int[] offsets) {\n");
+        for (int k = 1; k <= last; k += 1) {
+            out.append("        offsets[").append(k - 1).append("] = b")
+                .append(k).append(" / ").append(size).append(";\n");
+        }
+        out.append("    }\n")
+            .append("    private static int[] table(int k) {\n")
+            .append("        try {\n")
+            .append("            return MethodHandles.classDataAt(")
+            .append("MethodHandles.lookup(), \"_\", int[].class, k);\n")
+            .append("        } catch (IllegalAccessException excp) {\n")
+            .append("            throw new ExceptionInInitializerError(")
+            .append("excp);\n")
+            .append("        }\n")
+            .append("    }\n")
+            .append("}\n");
+        return out.toString();
+    }
+
+    /** Append to OUT the declaration of table NAME, whose contents TABLE
+     *  are added to TABLES. */
+    private static void table(StringBuilder out, List<int[]> tables,
+                              String name, int[] table) {
+        out.append("    private static final int[] ").append(name)
+            .append(" = table(").append(tables.size()).append(");\n");
+        tables.add(table);
+    }
+
+    /** Append to OUT, indented by INDENT, code advancing the rotor in
+     *  slot K of SLOTS, over an alphabet of SIZE, if it rotates. */
+    private static void step(StringBuilder out, Rotor[] slots, int k,
+                             int size, String indent) {
+        if (k > 0 && slots[k].rotates()) {
+            out.append(indent).append("b").append(k).append(" = b")
+                .append(k).append(" == ").append((size - 1) * size)
+                .append(" ? 0 : b").append(k).append(" + ").append(size)
+                .append(";\n");
+        }
+    }
+
+    /** Return a condition that is true when ROTOR, in slot K, is at one
+     *  of its notches. */
+    private static String notched(Rotor rotor, int k) {
+        boolean[] notches = notches(rotor);
+        StringBuilder result = new StringBuilder();
+        for (int offset = 0; offset < notches.length; offset += 1) {
+            if (notches[offset]) {
+                if (result.length() > 0) {
+                    result.append(" || ");
+                }
+                result.append("b").append(k).append(" == ")
+                    .append(offset * notches.length);
+            }
+        }
+        return result.length() == 0 ? "false" : result.toString();
+    }
+
+    /** Return which offsets of ROTOR, at its ring setting, put it at one
+     *  of its notches. */
+    private static boolean[] notches(Rotor rotor) {
+        int size = rotor.size();
+        Rotor probe = rotor.copy();
+        boolean[] result = new boolean[size];
+        for (int setting = 0; setting < size; setting += 1) {
+            probe.set(setting);
+            result[Math.floorMod(setting - rotor.ring(), size)] =
+                probe.atNotch();
+        }
+        return result;
+    }
+
+    /** Return ROTOR's conversion of C forward at OFFSET. */
+    private static int forward(Rotor rotor, int offset, int c) {
+        Permutation perm = rotor.permutation();
+        return perm.wrap(perm.permute(c + offset) - offset);
+    }
+
+    /** Return ROTOR's conversion of C backward at OFFSET. */
+    private static int backward(Rotor rotor, int offset, int c) {
+        Permutation perm = rotor.permutation();
+        return perm.wrap(perm.invert(c + offset) - offset);
+    }
+
+    /** Return the class file compiled from SOURCE, or an empty array if
+     *  there is no compiler or it fails. */
+    private static byte[] compile(String source) {
+        JavaCompiler javac = ToolProvider.getSystemJavaCompiler();
+        if (javac == null) {
+            return new byte[0];
+        }
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        JavaFileManager files =
+            new ForwardingJavaFileManager<JavaFileManager>(
+                javac.getStandardFileManager(null, null, null)) {
+                @Override
+                public JavaFileObject getJavaFileForOutput(
+                    Location location, String name, JavaFileObject.Kind kind,
+                    FileObject sibling) {
+                    return new SimpleJavaFileObject(
+                        URI.create("mem:///" + name.replace('.', '/')
+                                   + kind.extension), kind) {
+                        @Override
+                        public OutputStream openOutputStream() {
+                            return bytes;
+                        }
+                    };
+                }
+            };
+        JavaFileObject unit = new SimpleJavaFileObject(
+            URI.create("mem:///enigma/SpecializedKernel.java"),
+            JavaFileObject.Kind.SOURCE) {
+            @Override
+            public CharSequence getCharContent(boolean ignoreErrors) {
+                return source;
+            }
+        };
+        boolean compiled = javac.getTask(
+            null, files, new DiagnosticCollector<>(),
+            Arrays.asList("-classpath", System.getProperty("java.class.path"),
+                          "-proc:none", "-g:none"),
+            null, Arrays.asList(unit)).call();
+        return compiled ? bytes.toByteArray() : new byte[0];
+    }
+
+    /** The conversions of a specialised machine.  The offset of a rotor
+     *  is its setting less its ring setting. */
+    interface Kernel {
+
+        /** Advance the rotors, then return the conversion of C. */
+        int convert(int c);
+
+        /** Advance the rotors as for one key press. */
+        void advance();
+
+        /** Return the conversion of C without advancing the rotors. */
+        int transform(int c);
+
+        /** Set the offsets of the rotors other than the reflector to
+         *  OFFSETS, leftmost first. */
+        void setOffsets(int[] offsets);
+
+        /** Store the offsets of the rotors other than the reflector in
+         *  OFFSETS, leftmost first. */
+        void getOffsets(int[] offsets);
+    }
+
+    /** A kernel that steps and converts as a generated kernel for the
+     *  same configuration does, looping over the same tables rather than
+     *  having them and the rotor stack compiled in.  Rotor K's base (its
+     *  offset times the alphabet size) is element K of _base. */
+    private static final class TableKernel implements Kernel {
+
+        /** A kernel for the configuration of M. */
+        TableKernel(Machine M) {
+            _size = M.alphabet().size();
+            Rotor[] slots = M.getRotorSlots();
+            _last = slots.length - 1;
+            int[] plugboard = M.plugboard().toArray();
+            boolean plugged = false;
+            for (int c = 0; c < _size; c += 1) {
+                plugged |= plugboard[c] != c;
+            }
+            _plugboard = plugged ? plugboard : null;
+            Rotor reflector = slots[0];
+            int offset = Math.floorMod(reflector.setting()
+                                       - reflector.ring(), _size);
+            _reflect = new int[_size];
+            for (int c = 0; c < _size; c += 1) {
+                _reflect[c] = forward(reflector, offset, c);
+            }
+            _forward = new int[_last + 1][];
+            _backward = new int[_last + 1][];
+            _notches = new boolean[_last + 1][];
+            _rotates = new boolean[_last + 1];
+            _base = new int[_last + 1];
+            for (int k = 1; k <= _last; k += 1) {
+                _forward[k] = new int[_size * _size];
+                _backward[k] = new int[_size * _size];
+                for (int o = 0; o < _size; o += 1) {
+                    for (int c = 0; c < _size; c += 1) {
+                        _forward[k][o * _size + c] = forward(slots[k], o, c);
+                        _backward[k][o * _size + c] =
+                            backward(slots[k], o, c);
+                    }
+                }
+                _rotates[k] = slots[k].rotates();
+                _notches[k] = _rotates[k] ? notches(slots[k])
+                    : new boolean[_size];
+            }
+        }
+
+        @Override
+        public int convert(int c) {
+            advance();
+            return transform(c);
+        }
+
+        @Override
+        public void advance() {
+            for (int i = 2; i < _last; i += 1) {
+                if (_rotates[i] && _notches[i][_base[i] / _size]) {
+                    step(i - 1);
+                    step(i);
+                }
+            }
+            if (_rotates[_last] && _notches[_last][_base[_last] / _size]) {
+                step(_last - 1);
+            }
+            step(_last);
+        }
+
+        @Override
+        public int transform(int c) {
+            if (_plugboard != null) {
+                c = _plugboard[c];
+            }
+            for (int k = _last; k >= 1; k -= 1) {
+                c = _forward[k][_base[k] + c];
+            }
+            c = _reflect[c];
+            for (int k = 1; k <= _last; k += 1) {
+                c = _backward[k][_base[k] + c];
+            }
+            return _plugboard != null ? _plugboard[c] : c;
+        }
+
+        @Override
+        public void setOffsets(int[] offsets) {
+            for (int k = 1; k <= _last; k += 1) {
+                _base[k] = offsets[k - 1] * _size;
+            }
+        }
+
+        @Override
+        public void getOffsets(int[] offsets) {
+            for (int k = 1; k <= _last; k += 1) {
+                offsets[k - 1] = _base[k] / _size;
+            }
+        }
+
+        /** Advance the rotor in slot K if it rotates. */
+        private void step(int k) {
+            if (k > 0 && _rotates[k]) {
+                _base[k] = _base[k] == (_size - 1) * _size
+                    ? 0 : _base[k] + _size;
+            }
+        }
+
+        /** Size of the alphabet. */
+        private final int _size;
+
+        /** Index of the last slot. */
+        private final int _last;
+
+        /** Plugboard, or null if it moves nothing. */
+        private final int[] _plugboard;
+
+        /** Conversion by the reflector. */
+        private final int[] _reflect;
+
+        /** Forward and backward conversions of each slot's rotor at each
+         *  offset, indexed by base + character. */
+        private final int[][] _forward, _backward;
+
+        /** Which offsets of each slot's rotor are at a notch. */
+        private final boolean[][] _notches;
+
+        /** Which slots' rotors rotate. */
+        private final boolean[] _rotates;
+
+        /** Base of each slot's rotor. */
+        private final int[] _base;
+    }
+
+    /** Largest alphabet for which tables are built. */
+    static final int MAX_ALPHABET = 256;
+
+    /** Compiled kernel classes by source; empty for sources that could
+     *  not be compiled. */
+    private static final Map<String, byte[]> CLASSES =
+        new ConcurrentHashMap<>();
+
+    /** My kernel. */
+    private final Kernel _kernel;
+
+    /** Buffer for the offsets of my rotors. */
+    private final int[] _offsets;
+
+}
@@ -0,0 +1,94 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+public class SpecializedMachineTest {
+
+    /** Return a naval machine with rotors ROTORS, ring settings RINGS,
+     *  plugboard cycles PLUGS and settings SETTING. */
+    private Machine naval(String[] rotors, int[] rings, String plugs,
+                          String setting) {
+        ArrayList<Rotor> all = new ArrayList<>();
+        all.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        all.add(new FixedRotor("BETA",
+                               new Permutation(NAVALA.get("Beta"), UPPER)));
+        all.add(new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER),
+                                "Q"));
+        all.add(new MovingRotor("II",
+                                new Permutation(NAVALA.get("II"), UPPER),
+                                "E"));
+        all.add(new MovingRotor("VI",
+                                new Permutation(NAVALA.get("VI"), UPPER),
+                                "ZM"));
+        Machine mach = new Machine(UPPER, 5, 3, all);
+        mach.insertRotors(rotors);
+        mach.setRings(rings);
+        mach.setPlugboard(new Permutation(plugs, UPPER));
+        mach.setRotors(setting);
+        return mach;
+    }
+
+    /** Check that SPECIAL converts N random characters as PLAIN does,
+     *  ending at the same settings. */
+    private void checkSame(Machine plain, Machine special, int n) {
+        Random random = new Random(n);
+        for (int i = 0; i < n; i += 1) {
+            int c = random.nextInt(plain.alphabet().size());
+            assertEquals(msg("convert", "character %d", i),
+                         plain.convert(c), special.convert(c));
+        }
+        Rotor[] expected = plain.getRotorSlots(),
+            actual = special.getRotorSlots();
+        for (int i = 0; i < expected.length; i += 1) {
+            assertEquals(expected[i].setting(), actual[i].setting());
+        }
+    }
+
+    @Test
+    public void testNaval() {
+        String[] rotors = {"B", "BETA", "VI", "I", "II"};
+        int[] rings = {3, 7, 25, 0};
+        String plugs = "(AQ) (EP) (TX)";
+        for (boolean generate : new boolean[] {true, false}) {
+            Machine plain = naval(rotors, rings, plugs, "AXLE");
+            Machine special = SpecializedMachine.specialize(
+                naval(rotors, rings, plugs, "AXLE"), generate);
+            checkSame(plain, special, 100000);
+            plain.setRotors("ZMDQ");
+            special.setRotors("ZMDQ");
+            checkSame(plain, special, 1000);
+        }
+        assertEquals(naval(rotors, rings, plugs, "QQQQ").convert("HELLOWORLD"),
+                     SpecializedMachine.specialize(
+                         naval(rotors, rings, plugs, "QQQQ"))
+                     .convert("HELLOWORLD"));
+    }
+
+    @Test
+    public void testDoubleStep() {
+        Alphabet ad = new CharacterRange('A', 'D');
+        Rotor[] machineRotors = {
+            new Reflector("R1", new Permutation("(AC) (BD)", ad)),
+            new MovingRotor("R2", new Permutation("(ABCD)", ad), "C"),
+            new MovingRotor("R3", new Permutation("(ABCD)", ad), "C"),
+            new MovingRotor("R4", new Permutation("(AB)", ad), "CD")
+        };
+        for (boolean generate : new boolean[] {true, false}) {
+            Machine plain = new Machine(ad, 4, 3,
+                    new ArrayList<>(Arrays.asList(machineRotors)));
+            plain.insertRotors(new String[] {"R1", "R2", "R3", "R4"});
+            plain.setRings(new int[] {0, 1, 3});
+            plain.setRotors("BCA");
+            Machine special = SpecializedMachine.specialize(plain, generate);
+            checkSame(plain, special, 500);
+        }
+    }
+}
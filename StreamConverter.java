@@ -0,0 +1,76 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.CharBuffer;
+
+/** The buffers and state shared by the stream wrappers (EnigmaReader,
+ *  EnigmaWriter and EnigmaChannels): characters are put into an input
+ *  buffer, converted as one continuing message, and taken from an
+ *  output buffer.  Both buffers are allocated once, so a stream of any
+ *  length is converted in constant memory.
+ *  @author Aadiraj Batlaw
+ */
+class StreamConverter {
+
+    /** A converter using M, which must be set up, normalising text with
+     *  TRANSCODER and grouping the output in fives iff GROUP, whose input
+     *  buffer holds SIZE characters. */
+    StreamConverter(Machine M, Transcoder transcoder, boolean group,
+                    int size) {
+        _machine = M;
+        _transcoder = transcoder;
+        _group = group;
+        _input = CharBuffer.allocate(size);
+        _output = CharBuffer.allocate(2 * size + 2);
+        _output.flip();
+    }
+
+    /** Return the input buffer, into which characters to be converted
+     *  are put.  It is always ready for putting. */
+    CharBuffer input() {
+        return _input;
+    }
+
+    /** Return the output buffer, from which converted characters are
+     *  taken.  It is always ready for getting. */
+    CharBuffer output() {
+        return _output;
+    }
+
+    /** Convert as much of the input as there is room for in the
+     *  output.  A character rejected by the transcoder is reported as
+     *  an IOException, as the streams and channels using me must; the
+     *  characters converted before it remain in the output. */
+    void convert() throws IOException {
+        _input.flip();
+        _output.compact();
+        try {
+            _count = _transcoder.transcode(_machine, _input, _output,
+                                           _count, _group);
+        } catch (EnigmaException excp) {
+            throw new IOException(excp.getMessage(), excp);
+        } finally {
+            _output.flip();
+            _input.compact();
+        }
+    }
+
+    /** The machine. */
+    private final Machine _machine;
+
+    /** Converter of text. */
+    private final Transcoder _transcoder;
+
+    /** True if output is grouped in fives. */
+    private final boolean _group;
+
+    /** Characters waiting to be converted. */
+    private final CharBuffer _input;
+
+    /** Converted characters waiting to be taken. */
+    private final CharBuffer _output;
+
+    /** Number of characters converted so far. */
+    private long _count;
+
+}
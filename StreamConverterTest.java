@@ -0,0 +1,260 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.StringReader;
+import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+/** Tests of the stream wrappers built on StreamConverter: EnigmaReader,
+ *  EnigmaWriter and EnigmaChannels. */
+public class StreamConverterTest {
+
+    /** Return a machine with reflector B and rotors I, II and III, set
+     *  to AXL with plugboard (AB) (CD). */
+    private Machine machine() {
+        Machine machine = navalMachine();
+        machine.insertRotors(new String[] {"B", "I", "II", "III"});
+        machine.setRotors("AXL");
+        machine.setPlugboard(new Permutation("(AB) (CD)", UPPER));
+        return machine;
+    }
+
+    /** Return a transcoder with POLICY. */
+    private Transcoder transcoder(Transcoder.Policy policy) {
+        return new Transcoder(UPPER, policy, false);
+    }
+
+    /** Return random text of LENGTH letters and blanks, from SEED. */
+    private String text(int length, long seed) {
+        Random random = new Random(seed);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < length; i += 1) {
+            text.append(random.nextInt(7) == 0
+                        ? ' ' : (char) ('A' + random.nextInt(26)));
+        }
+        return text.toString();
+    }
+
+    /** Return TEXT converted in one piece, grouped in fives iff GROUP. */
+    private String convert(String text, boolean group) {
+        CharBuffer out = CharBuffer.allocate(2 * text.length() + 2);
+        transcoder(Transcoder.Policy.STRIP)
+            .transcode(machine(), CharBuffer.wrap(text), out, 0, group);
+        out.flip();
+        return out.toString();
+    }
+
+    /** A text long enough to span several of the wrappers' buffers, and
+     *  with a length not a multiple of five letters. */
+    private static final int LENGTH = 3 * 8192 + 17;
+
+    /** Sizes in which to transfer text. */
+    private static final int[] SIZES = {1, 2, 3, 5, 4096, 8192, 8193, 65536};
+
+    @Test
+    public void testWriter() throws IOException {
+        String text = text(LENGTH, 0);
+        String expected = convert(text, true);
+        for (int size : SIZES) {
+            StringWriter result = new StringWriter();
+            try (Writer out = new EnigmaWriter(result, machine(),
+                     transcoder(Transcoder.Policy.STRIP), true)) {
+                for (int i = 0; i < text.length(); i += size) {
+                    int end = Math.min(text.length(), i + size);
+                    if (size == 1) {
+                        out.write(text.charAt(i));
+                    } else if (size % 2 == 0) {
+                        out.write(text, i, end - i);
+                    } else {
+                        out.write(text.toCharArray(), i, end - i);
+                    }
+                }
+            }
+            assertEquals(msg("writer", "size %d", size), expected,
+                         result.toString());
+        }
+    }
+
+    @Test
+    public void testReader() throws IOException {
+        String text = text(LENGTH, 1);
+        String expected = convert(text, true);
+        for (int size : SIZES) {
+            StringBuilder result = new StringBuilder();
+            try (Reader in = new EnigmaReader(new StringReader(text),
+                     machine(), transcoder(Transcoder.Policy.STRIP),
+                     true)) {
+                if (size == 1) {
+                    for (int c = in.read(); c >= 0; c = in.read()) {
+                        result.append((char) c);
+                    }
+                } else {
+                    char[] buf = new char[size];
+                    for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                        assertTrue(n > 0);
+                        result.append(buf, 0, n);
+                    }
+                }
+            }
+            assertEquals(msg("reader", "size %d", size), expected,
+                         result.toString());
+        }
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        String text = text(LENGTH, 2);
+        StringWriter cipher = new StringWriter();
+        try (Writer out = new EnigmaWriter(cipher, machine(),
+                 transcoder(Transcoder.Policy.STRIP), true)) {
+            out.write(text);
+        }
+        StringBuilder plain = new StringBuilder();
+        try (Reader in = new EnigmaReader(new StringReader(cipher.toString()),
+                 machine(), transcoder(Transcoder.Policy.STRIP), false)) {
+            char[] buf = new char[1000];
+            for (int n = in.read(buf); n >= 0; n = in.read(buf)) {
+                plain.append(buf, 0, n);
+            }
+        }
+        assertEquals(text.replace(" ", ""), plain.toString());
+    }
+
+    @Test
+    public void testSkip() throws IOException {
+        String text = text(LENGTH, 3);
+        String expected = convert(text, true);
+        Reader in = new EnigmaReader(new StringReader(text), machine(),
+                                     transcoder(Transcoder.Policy.STRIP),
+                                     true);
+        assertEquals(10000, in.skip(10000));
+        char[] buf = new char[100];
+        assertEquals(100, in.read(buf));
+        assertEquals(expected.substring(10000, 10100), new String(buf));
+        assertEquals(expected.length() - 10100, in.skip(LENGTH));
+        assertEquals(-1, in.read());
+    }
+
+    /** A channel delivering the bytes of TEXT at most CHUNK at a time. */
+    private ReadableByteChannel source(String text, int chunk) {
+        ByteBuffer data =
+            ByteBuffer.wrap(text.getBytes(StandardCharsets.ISO_8859_1));
+        return new ReadableByteChannel() {
+            @Override
+            public int read(ByteBuffer dst) {
+                if (!data.hasRemaining()) {
+                    return -1;
+                }
+                int n = Math.min(chunk,
+                                 Math.min(dst.remaining(), data.remaining()));
+                ByteBuffer slice = data.slice();
+                slice.limit(n);
+                dst.put(slice);
+                data.position(data.position() + n);
+                return n;
+            }
+
+            @Override
+            public boolean isOpen() {
+                return true;
+            }
+
+            @Override
+            public void close() {
+            }
+        };
+    }
+
+    @Test
+    public void testReadableChannel() throws IOException {
+        String text = text(LENGTH, 4);
+        String expected = convert(text, true);
+        for (int chunk : new int[] {1, 7, 100000}) {
+            for (int size : SIZES) {
+                ReadableByteChannel in =
+                    EnigmaChannels.readable(source(text, chunk), machine(),
+                                            transcoder(
+                                                Transcoder.Policy.STRIP),
+                                            true);
+                ByteArrayOutputStream result = new ByteArrayOutputStream();
+                ByteBuffer dst = ByteBuffer.allocate(size);
+                while (in.read(dst) >= 0) {
+                    dst.flip();
+                    result.write(dst.array(), 0, dst.limit());
+                    dst.clear();
+                }
+                assertEquals(msg("channel", "chunk %d, size %d", chunk,
+                                 size),
+                             expected,
+                             result.toString(StandardCharsets.ISO_8859_1));
+            }
+        }
+    }
+
+    @Test
+    public void testWritableChannel() throws IOException {
+        String text = text(LENGTH, 5);
+        String expected = convert(text, true);
+        byte[] bytes = text.getBytes(StandardCharsets.ISO_8859_1);
+        for (int size : SIZES) {
+            ByteArrayOutputStream result = new ByteArrayOutputStream();
+            WritableByteChannel out =
+                EnigmaChannels.writable(Channels.newChannel(result),
+                                        machine(),
+                                        transcoder(Transcoder.Policy.STRIP),
+                                        true);
+            for (int i = 0; i < bytes.length; i += size) {
+                ByteBuffer src = ByteBuffer.wrap(
+                    bytes, i, Math.min(size, bytes.length - i));
+                assertEquals(src.remaining(), out.write(src));
+                assertFalse(src.hasRemaining());
+            }
+            assertEquals(msg("channel", "size %d", size), expected,
+                         result.toString(StandardCharsets.ISO_8859_1));
+        }
+    }
+
+    @Test
+    public void testRejected() throws IOException {
+        Transcoder strict = transcoder(Transcoder.Policy.ERROR);
+        try (Reader in = new EnigmaReader(new StringReader("HELLO1WORLD"),
+                                          machine(), strict, true)) {
+            in.read(new char[100]);
+            fail("read a rejected character");
+        } catch (IOException excp) {
+            assertTrue(excp.getCause() instanceof EnigmaException);
+        }
+        Writer out = new EnigmaWriter(new StringWriter(), machine(), strict,
+                                      true);
+        out.write("HELLO1WORLD");
+        try {
+            out.flush();
+            fail("wrote a rejected character");
+        } catch (IOException excp) {
+            assertTrue(excp.getCause() instanceof EnigmaException);
+        }
+        ByteBuffer dst = ByteBuffer.allocate(100);
+        try {
+            EnigmaChannels.readable(source("HELLO1WORLD", 100), machine(),
+                                    strict, true).read(dst);
+            fail("read a rejected character from a channel");
+        } catch (IOException excp) {
+            assertTrue(excp.getCause() instanceof EnigmaException);
+        }
+    }
+}
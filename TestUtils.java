@@ -1,5 +1,6 @@
 package enigma;
 
+import java.util.ArrayList;
 import java.util.HashMap;
 
 /** Utility definitions for use in unit tests.
@@ -18,6 +19,23 @@ class TestUtils {
         return testId + " (" + String.format(msgFormat, args) + ")";
     }
 
+    /** Return a new machine with three pawls and four slots whose
+     *  rotors are reflector B and the moving rotors I, II and III, in
+     *  that order. */
+    static Machine navalMachine() {
+        ArrayList<Rotor> all = new ArrayList<>();
+        all.add(new Reflector("B", new Permutation(NAVALA.get("B"), UPPER)));
+        all.add(new MovingRotor("I", new Permutation(NAVALA.get("I"), UPPER),
+                                "Q"));
+        all.add(new MovingRotor("II",
+                                new Permutation(NAVALA.get("II"), UPPER),
+                                "E"));
+        all.add(new MovingRotor("III",
+                                new Permutation(NAVALA.get("III"), UPPER),
+                                "V"));
+        return new Machine(UPPER, 4, 3, all);
+    }
+
     /** The naval rotors in the A (0) setting. */
     static final HashMap<String, String> NAVALA = new HashMap<>();
     static {
@@ -0,0 +1,138 @@
+package enigma;
+
+import java.nio.CharBuffer;
+
+import static enigma.EnigmaException.error;
+
+/** Converts message text with a machine in a single pass, normalising it
+ *  on the way.  Blanks are dropped and the converted characters are
+ *  written in groups of five, as Main prints them.  A character not in
+ *  the alphabet whose upper- (or lower-) case form is, is converted as
+ *  that form; its result is given the case of the input if case is
+ *  being preserved.  Any other character is dropped, copied unchanged
+ *  (without moving the rotors) or rejected, according to a Policy.
+ *  Each character is classified by a single lookup in a table built
+ *  when the transcoder is created.
+ *  @author Aadiraj Batlaw
+ */
+class Transcoder {
+
+    /** Treatments of characters that are neither blanks nor, in any
+     *  case, in the alphabet. */
+    enum Policy {
+        /** Drop the character. */
+        STRIP,
+        /** Copy the character to the output unchanged. */
+        PASS,
+        /** Report an error. */
+        ERROR
+    }
+
+    /** A transcoder for ALPHABET that treats other characters according
+     *  to POLICY, and gives each converted character the case of its
+     *  input iff PRESERVECASE. */
+    Transcoder(Alphabet alphabet, Policy policy, boolean preserveCase) {
+        _alphabet = alphabet;
+        _policy = policy;
+        _table = new int[Character.MAX_VALUE + 1];
+        for (int c = 0; c <= Character.MAX_VALUE; c += 1) {
+            _table[c] = classify((char) c, preserveCase);
+        }
+    }
+
+    /** Return the Policy named NAME (in any case). */
+    static Policy policy(String name) {
+        for (Policy policy : Policy.values()) {
+            if (policy.name().equalsIgnoreCase(name)) {
+                return policy;
+            }
+        }
+        throw error("unknown policy: %s", name);
+    }
+
+    /** Convert the characters remaining in IN, one message line, with
+     *  M, appending the result to OUT.  OUT must have room for twice as
+     *  many characters as remain in IN.  Return the number of characters
+     *  converted. */
+    int transcode(Machine M, CharBuffer in, CharBuffer out) {
+        return (int) transcode(M, in, out, 0, true);
+    }
+
+    /** Convert the characters remaining in IN with M, appending the
+     *  result to OUT, as part of a message of which COUNT characters
+     *  have already been converted, grouping the result in fives iff
+     *  GROUP.  Stop, leaving the rest of IN, when OUT has room for fewer
+     *  than two more characters.  Return the number of characters of the
+     *  message converted so far. */
+    long transcode(Machine M, CharBuffer in, CharBuffer out, long count,
+                   boolean group) {
+        while (in.hasRemaining() && out.remaining() >= 2) {
+            char c = in.get();
+            int entry = _table[c];
+            if (entry >= 0) {
+                if (group && count > 0 && count % 5 == 0) {
+                    out.put(' ');
+                }
+                char result =
+                    _alphabet.toChar(M.convert(entry & INDEX_MASK));
+                if ((entry & LOWER) != 0) {
+                    result = Character.toLowerCase(result);
+                } else if ((entry & UPPER) != 0) {
+                    result = Character.toUpperCase(result);
+                }
+                out.put(result);
+                count += 1;
+            } else if (entry == OTHER) {
+                if (_policy == Policy.PASS) {
+                    out.put(c);
+                } else if (_policy == Policy.ERROR) {
+                    throw error("character out of range");
+                }
+            }
+        }
+        return count;
+    }
+
+    /** Return the table entry for C, recording its case iff
+     *  PRESERVECASE. */
+    private int classify(char c, boolean preserveCase) {
+        if (c == ' ') {
+            return BLANK;
+        } else if (_alphabet.contains(c)) {
+            return _alphabet.toInt(c);
+        }
+        char upper = Character.toUpperCase(c);
+        if (_alphabet.contains(upper)) {
+            return _alphabet.toInt(upper) | (preserveCase ? LOWER : 0);
+        }
+        char lower = Character.toLowerCase(c);
+        if (_alphabet.contains(lower)) {
+            return _alphabet.toInt(lower) | (preserveCase ? UPPER : 0);
+        }
+        return OTHER;
+    }
+
+    /** Table entry of a blank. */
+    private static final int BLANK = -1;
+
+    /** Table entry of a character neither blank nor in the alphabet. */
+    private static final int OTHER = -2;
+
+    /** Flags of table entries for characters converted in lower- and
+     *  upper-case forms. */
+    private static final int LOWER = 1 << 29, UPPER = 1 << 30;
+
+    /** Mask of the alphabet index in a table entry. */
+    private static final int INDEX_MASK = LOWER - 1;
+
+    /** Alphabet of the machines used. */
+    private final Alphabet _alphabet;
+
+    /** Treatment of other characters. */
+    private final Policy _policy;
+
+    /** Alphabet index and case flags of each character, or BLANK or
+     *  OTHER. */
+    private final int[] _table;
+
+}
@@ -0,0 +1,141 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.nio.CharBuffer;
+
+import static enigma.TestUtils.*;
+import static enigma.Transcoder.Policy.*;
+
+public class TranscoderTest {
+
+    /** Return a machine with reflector B and rotors I, II and III set to
+     *  AAA. */
+    private Machine machine() {
+        Machine machine = navalMachine();
+        machine.insertRotors(new String[] {"B", "I", "II", "III"});
+        machine.setRotors("AAA");
+        return machine;
+    }
+
+    /** Return the result of transcoding INPUT with POLICY, preserving
+     *  case iff PRESERVECASE. */
+    private String transcode(String input, Transcoder.Policy policy,
+                             boolean preserveCase) {
+        Transcoder transcoder = new Transcoder(UPPER, policy, preserveCase);
+        CharBuffer out = CharBuffer.allocate(2 * input.length());
+        transcoder.transcode(machine(), CharBuffer.wrap(input), out);
+        out.flip();
+        return out.toString();
+    }
+
+    /** Return TEMPLATE with each 'X' replaced by the next letter of the
+     *  conversion of LETTERS, and each 'x' by its lower-case form. */
+    private String expand(String template, String letters) {
+        String converted = machine().convert(letters);
+        StringBuilder result = new StringBuilder();
+        int next = 0;
+        for (char c : template.toCharArray()) {
+            if (c == 'X') {
+                result.append(converted.charAt(next));
+                next += 1;
+            } else if (c == 'x') {
+                result.append(Character.toLowerCase(converted.charAt(next)));
+                next += 1;
+            } else {
+                result.append(c);
+            }
+        }
+        assertEquals(converted.length(), next);
+        return result.toString();
+    }
+
+    /** Cases: input, policy, whether case is preserved, and the expected
+     *  output as a template for expand. */
+    private static final Object[][] CASES = {
+        { "HELLO WORLD", STRIP, false, "XXXXX XXXXX" },
+        { "HELLO WORLD", PASS, false, "XXXXX XXXXX" },
+        { "HELLO WORLD", ERROR, false, "XXXXX XXXXX" },
+        { "hello world", STRIP, false, "XXXXX XXXXX" },
+        { "hello world", STRIP, true, "xxxxx xxxxx" },
+        { "HeLLo WoRLD", PASS, true, "XxXXx XxXXX" },
+        { "HE, LLO! WOR-LD", STRIP, false, "XXXXX XXXXX" },
+        { "HE, LLO! WOR-LD", PASS, false, "XX,XXX! XXX-XX" },
+        { "H1E2L3L4O5W", STRIP, false, "XXXXX X" },
+        { "H1E2L3L4O5W", PASS, false, "X1X2X3X4X5 X" },
+        { "!!!!!HELLO", PASS, false, "!!!!!XXXXX" },
+        { "  ", STRIP, false, "" },
+        { "", PASS, false, "" },
+        { "ABCDEFGHIJKLMNOP", STRIP, false, "XXXXX XXXXX XXXXX X" },
+        { "\u00e9T\u00e9", PASS, true, "\u00e9X\u00e9" },
+    };
+
+    @Test
+    public void testTable() {
+        for (Object[] row : CASES) {
+            String input = (String) row[0];
+            Transcoder.Policy policy = (Transcoder.Policy) row[1];
+            boolean preserveCase = (Boolean) row[2];
+            StringBuilder letters = new StringBuilder();
+            for (char c : input.toCharArray()) {
+                if (UPPER.contains(Character.toUpperCase(c))) {
+                    letters.append(Character.toUpperCase(c));
+                }
+            }
+            assertEquals(msg("transcode", "'%s' with %s%s", input, policy,
+                             preserveCase ? ", preserving case" : ""),
+                         expand((String) row[3], letters.toString()),
+                         transcode(input, policy, preserveCase));
+        }
+    }
+
+    @Test
+    public void testError() {
+        for (String input : new String[] {"HELLO1", "HE,LLO", "\u00e9"}) {
+            try {
+                transcode(input, ERROR, false);
+                fail("accepted " + input);
+            } catch (EnigmaException excp) {
+                assertEquals("character out of range", excp.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testContinued() {
+        Transcoder transcoder = new Transcoder(UPPER, PASS, false);
+        Machine machine = machine();
+        CharBuffer in = CharBuffer.wrap("ABC-DEFGHIJ");
+        CharBuffer out = CharBuffer.allocate(5);
+        long count = transcoder.transcode(machine, in, out, 3, true);
+        assertEquals(3, in.position());
+        assertEquals(6, count);
+        out.flip();
+        CharBuffer rest = CharBuffer.allocate(32);
+        count = transcoder.transcode(machine, in, rest, count, true);
+        assertEquals(13, count);
+        rest.flip();
+        assertEquals(expand("XX X-XXXX XXX", "ABCDEFGHIJ"),
+                     out.toString() + rest.toString());
+        in = CharBuffer.wrap("ABCDEFG");
+        out = CharBuffer.allocate(16);
+        transcoder.transcode(machine(), in, out, 0, false);
+        out.flip();
+        assertEquals(expand("XXXXXXX", "ABCDEFG"), out.toString());
+    }
+
+    @Test
+    public void testPolicyNames() {
+        assertEquals(STRIP, Transcoder.policy("strip"));
+        assertEquals(PASS, Transcoder.policy("Pass"));
+        assertEquals(ERROR, Transcoder.policy("ERROR"));
+        try {
+            Transcoder.policy("skip");
+            fail("accepted an unknown policy");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}
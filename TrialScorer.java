@@ -0,0 +1,211 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.error;
+
+/** A score of a candidate plaintext that is added up one character at a
+ *  time as a trial decryption proceeds (see Machine.trial), together
+ *  with a bound on how much the rest of the plaintext can still add, so
+ *  that hopeless candidates can be abandoned early.  Higher scores are
+ *  better.  A scorer is used by one thread at a time.
+ *  @author Aadiraj Batlaw
+ */
+interface TrialScorer {
+
+    /** Begin scoring a plaintext of LENGTH characters. */
+    void start(int length);
+
+    /** Add the next character of the plaintext, C (an alphabet
+     *  index). */
+    void add(int c);
+
+    /** Return the score of the characters added so far. */
+    double score();
+
+    /** Return an upper bound on the amount by which the score can rise
+     *  when the last REMAINING characters of the plaintext are added. */
+    double gain(int remaining);
+
+    /** Scores a plaintext by its index of coincidence: the probability
+     *  that two of its characters drawn at random are the same.  The
+     *  bound assumes that every remaining character is the one already
+     *  most frequent, and is exact. */
+    final class Coincidence implements TrialScorer {
+
+        /** A scorer for plaintexts in an alphabet of SIZE characters. */
+        Coincidence(int size) {
+            _counts = new int[size];
+        }
+
+        @Override
+        public void start(int length) {
+            Arrays.fill(_counts, 0);
+            _pairs = 0;
+            _most = 0;
+            _pairsIn = (long) length * (length - 1);
+        }
+
+        @Override
+        public void add(int c) {
+            int count = _counts[c];
+            _pairs += 2L * count;
+            _counts[c] = count + 1;
+            _most = Math.max(_most, count + 1);
+        }
+
+        @Override
+        public double score() {
+            return _pairsIn == 0 ? 0 : (double) _pairs / _pairsIn;
+        }
+
+        @Override
+        public double gain(int remaining) {
+            long m = remaining;
+            return _pairsIn == 0 ? 0
+                : (double) (2 * m * _most + m * (m - 1)) / _pairsIn;
+        }
+
+        /** Number of occurrences of each character so far. */
+        private final int[] _counts;
+
+        /** Number of ordered pairs of equal characters so far. */
+        private long _pairs;
+
+        /** Largest count so far. */
+        private int _most;
+
+        /** Number of ordered pairs of characters in the plaintext. */
+        private long _pairsIn;
+    }
+
+    /** Scores a plaintext by the sum of the log probabilities of its
+     *  n-grams in an NGramModel.  The bound assumes that every remaining
+     *  n-gram has a given ceiling probability.  With the table's largest
+     *  probability as the ceiling it is exact; with a lower one, trials
+     *  are cut short sooner at the risk of abandoning a candidate whose
+     *  remaining text is unusually likely. */
+    final class NGrams implements TrialScorer {
+
+        /** A scorer using MODEL, with every remaining n-gram assumed to
+         *  have log probability at most CEILING. */
+        NGrams(NGramModel model, double ceiling) {
+            _model = model;
+            _ceiling = ceiling;
+            _high = (int) (NGramModel.entries(model.order(), model.size())
+                           / model.size());
+        }
+
+        /** A scorer using MODEL whose bound is exact. */
+        NGrams(NGramModel model) {
+            this(model, model.maxLogProbability());
+        }
+
+        @Override
+        public void start(int length) {
+            _index = 0;
+            _added = 0;
+            _total = 0;
+        }
+
+        @Override
+        public void add(int c) {
+            _index = _index % _high * _model.size() + c;
+            _added += 1;
+            if (_added >= _model.order()) {
+                _total += _model.logProbability(_index);
+            }
+        }
+
+        @Override
+        public double score() {
+            return _total;
+        }
+
+        /** Only the remaining characters that complete an n-gram can add
+         *  to the score: all but the first ORDER-1 characters of the
+         *  plaintext. */
+        @Override
+        public double gain(int remaining) {
+            int incomplete = Math.max(0, _model.order() - 1 - _added);
+            return Math.max(0, remaining - incomplete) * _ceiling;
+        }
+
+        /** The model. */
+        private final NGramModel _model;
+
+        /** Assumed largest log probability of a remaining n-gram. */
+        private final double _ceiling;
+
+        /** Number of (N-1)-grams. */
+        private final int _high;
+
+        /** Index of the last n-gram added. */
+        private int _index;
+
+        /** Number of characters added. */
+        private int _added;
+
+        /** Sum of the log probabilities so far. */
+        private double _total;
+    }
+
+    /** Scores a plaintext by the number of characters of a crib (a
+     *  guessed piece of plaintext) that it matches at a given offset.
+     *  The bound is exact. */
+    final class Crib implements TrialScorer {
+
+        /** A scorer for the crib CRIB (as alphabet indices) at offset
+         *  OFFSET, which is retained. */
+        Crib(int[] crib, int offset) {
+            if (offset < 0) {
+                throw error("negative crib offset");
+            }
+            _crib = crib;
+            _offset = offset;
+        }
+
+        @Override
+        public void start(int length) {
+            _length = length;
+            _added = 0;
+            _matched = 0;
+        }
+
+        @Override
+        public void add(int c) {
+            int k = _added - _offset;
+            if (k >= 0 && k < _crib.length && _crib[k] == c) {
+                _matched += 1;
+            }
+            _added += 1;
+        }
+
+        @Override
+        public double score() {
+            return _matched;
+        }
+
+        @Override
+        public double gain(int remaining) {
+            int from = Math.max(_length - remaining - _offset, 0);
+            int to = Math.min(_length - _offset, _crib.length);
+            return Math.max(to - from, 0);
+        }
+
+        /** The crib. */
+        private final int[] _crib;
+
+        /** Offset of the crib in the plaintext. */
+        private final int _offset;
+
+        /** Length of the plaintext. */
+        private int _length;
+
+        /** Number of characters added. */
+        private int _added;
+
+        /** Number of crib characters matched. */
+        private int _matched;
+    }
+}
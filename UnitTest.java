@@ -11,7 +11,18 @@ public class UnitTest {
      *  the arguments of runClasses to run other JUnit tests. */
     public static void main(String[] ignored) {
         textui.runClasses(PermutationTest.class, MovingRotorTest.class,
-                MachineTest.class);
+                MachineTest.class, SpecializedMachineTest.class,
+                KeyClassesTest.class, DepthFinderTest.class,
+                CheckpointTest.class, LineReaderTest.class,
+                ConfigParserTest.class, MessageLexerTest.class,
+                MachinePoolTest.class, RingBufferTest.class,
+                PipelineTest.class, TranscoderTest.class, BatchTest.class,
+                EnigmaProcessorTest.class, StreamConverterTest.class,
+                CribFinderTest.class, ZygalskiTest.class,
+                ConfigHolderTest.class, CipherStatsTest.class,
+                ResultCacheTest.class, MainTest.class,
+                NGramModelTest.class, CyclometerTest.class,
+                WorkloadGeneratorTest.class, SearchCoordinatorTest.class);
     }
 
 }
@@ -0,0 +1,304 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.SplittableRandom;
+
+import static enigma.EnigmaException.error;
+
+/** Writes random but valid configuration and message files of any size
+ *  for load testing.  The output depends only on the seed and the other
+ *  parameters.  Files are written one byte per character, so only
+ *  alphabets and rotor names within ISO-8859-1 (up to U+00FF) are
+ *  accepted.
+ *  @author Aadiraj Batlaw
+ */
+class WorkloadGenerator {
+
+    /** A generator whose choices are determined by SEED. */
+    WorkloadGenerator(long seed) {
+        _random = new SplittableRandom(seed);
+    }
+
+    /** Write to FILE a configuration for a machine over the characters
+     *  FIRST .. LAST with SLOTS rotor slots and PAWLS pawls, offering
+     *  ROTORS rotors: about a tenth of them reflectors, enough non-moving
+     *  rotors to fill the slots without pawls and a tenth more, and the
+     *  rest moving rotors with one to three notches. */
+    void writeConfig(File file, char first, char last, int rotors,
+                     int slots, int pawls) {
+        Alphabet alphabet = new CharacterRange(first, last);
+        int size = alphabet.size();
+        check(last);
+        if (size % 2 != 0) {
+            throw error("reflectors need an alphabet of even size");
+        }
+        if (pawls < 1 || pawls >= slots) {
+            throw error("need 0 < pawls < slots");
+        }
+        int reflectors = Math.max(1, rotors / 10);
+        int fixed = slots - 1 - pawls + rotors / 10;
+        int moving = rotors - reflectors - fixed;
+        if (moving < pawls) {
+            throw error("too few rotors for %d slots", slots);
+        }
+        try (Output out = new Output(file)) {
+            for (int i = 0; i < size; i += 1) {
+                out.put(alphabet.toChar(i));
+            }
+            out.put(String.format(" %d %d%n", slots, pawls));
+            for (int i = 0; i < rotors; i += 1) {
+                int[] perm;
+                if (i < reflectors) {
+                    out.put(String.format(" F%d R ", i));
+                    perm = pairing(size);
+                } else if (i < reflectors + fixed) {
+                    out.put(String.format(" N%d N ", i));
+                    perm = shuffle(size);
+                } else {
+                    out.put(String.format(" M%d M", i));
+                    int[] notches = shuffle(size);
+                    int count = Math.min(size, 1 + _random.nextInt(3));
+                    for (int k = 0; k < count; k += 1) {
+                        out.put(alphabet.toChar(notches[k]));
+                    }
+                    out.put(' ');
+                    perm = shuffle(size);
+                }
+                putCycles(out, new Permutation(perm, alphabet));
+                out.put(String.format("%n"));
+            }
+        }
+    }
+
+    /** Write at least BYTES bytes of messages for machine M to FILE.
+     *  Each section starts with a settings line choosing a random rotor
+     *  order, starting position, and plugboard of PLUGS pairs, and holds
+     *  LINES messages, each of LENGTHS characters broken into lines of at
+     *  most LINE_LENGTH characters. */
+    void writeMessages(File file, Machine M, long bytes,
+                       Distribution lengths, Distribution plugs,
+                       Distribution lines) {
+        KeySpace keys = new KeySpace(M);
+        Alphabet alphabet = M.alphabet();
+        int size = alphabet.size();
+        for (int c = 0; c < size; c += 1) {
+            check(alphabet.toChar(c));
+        }
+        for (Rotor rotor : M.allRotors()) {
+            for (char c : rotor.name().toCharArray()) {
+                check(c);
+            }
+        }
+        try (Output out = new Output(file)) {
+            while (out.written() < bytes) {
+                String[] order = keys.order(_random.nextInt(keys.orders()));
+                out.put('*');
+                for (String name : order) {
+                    out.put(' ');
+                    out.put(name);
+                }
+                out.put(' ');
+                for (int i = 1; i < order.length; i += 1) {
+                    out.put(alphabet.toChar(_random.nextInt(size)));
+                }
+                int[] plugboard = shuffle(size);
+                int pairs = (int) Math.min(size / 2, plugs.next(_random));
+                for (int i = 0; i < pairs; i += 1) {
+                    out.put(" (");
+                    out.put(alphabet.toChar(plugboard[2 * i]));
+                    out.put(alphabet.toChar(plugboard[2 * i + 1]));
+                    out.put(')');
+                }
+                out.put('\n');
+                for (long m = lines.next(_random); m > 0; m -= 1) {
+                    long length = lengths.next(_random);
+                    do {
+                        long n = Math.min(length, LINE_LENGTH);
+                        for (long i = 0; i < n; i += 1) {
+                            out.put(alphabet.toChar(_random.nextInt(size)));
+                        }
+                        out.put('\n');
+                        length -= n;
+                    } while (length > 0);
+                }
+            }
+        }
+    }
+
+    /** Check that C can be written as a single byte. */
+    private static void check(char c) {
+        if (c > MAX_CHAR) {
+            throw error("cannot generate U+%04X: generated files hold only "
+                        + "characters up to U+%04X", (int) c, (int) MAX_CHAR);
+        }
+    }
+
+    /** Return a random permutation of 0 .. SIZE-1. */
+    private int[] shuffle(int size) {
+        int[] result = new int[size];
+        for (int i = 0; i < size; i += 1) {
+            int j = _random.nextInt(i + 1);
+            result[i] = result[j];
+            result[j] = i;
+        }
+        return result;
+    }
+
+    /** Return a random fixed-point-free involution of 0 .. SIZE-1, which
+     *  must be even. */
+    private int[] pairing(int size) {
+        int[] order = shuffle(size);
+        int[] result = new int[size];
+        for (int i = 0; i < size; i += 2) {
+            result[order[i]] = order[i + 1];
+            result[order[i + 1]] = order[i];
+        }
+        return result;
+    }
+
+    /** Write the cycles of length two or more of PERM to OUT. */
+    private static void putCycles(Output out, Permutation perm) {
+        Alphabet alphabet = perm.alphabet();
+        for (int[] cycle : perm.cycles()) {
+            if (cycle.length > 1) {
+                out.put('(');
+                for (int c : cycle) {
+                    out.put(alphabet.toChar(c));
+                }
+                out.put(')');
+            }
+        }
+    }
+
+    /** A distribution of non-negative integers, given as "N" (always N),
+     *  "A-B" (uniform over A .. B) or "exp:MEAN" (geometric with mean
+     *  MEAN, at least 1). */
+    static final class Distribution {
+
+        /** The distribution described by SPEC. */
+        Distribution(String spec) {
+            try {
+                if (spec.startsWith("exp:")) {
+                    _mean = Double.parseDouble(spec.substring(4));
+                    _low = _high = 0;
+                    if (_mean < 1) {
+                        throw error("bad distribution: %s", spec);
+                    }
+                } else if (spec.indexOf('-') > 0) {
+                    int dash = spec.indexOf('-');
+                    _low = Long.parseLong(spec.substring(0, dash));
+                    _high = Long.parseLong(spec.substring(dash + 1));
+                    _mean = 0;
+                } else {
+                    _low = _high = Long.parseLong(spec);
+                    _mean = 0;
+                }
+            } catch (NumberFormatException excp) {
+                throw error("bad distribution: %s", spec);
+            }
+            if (_low < 0 || _high < _low) {
+                throw error("bad distribution: %s", spec);
+            }
+        }
+
+        /** Return a sample drawn using RANDOM. */
+        long next(SplittableRandom random) {
+            if (_mean > 0) {
+                double u = random.nextDouble();
+                return 1 + (long) (Math.log1p(-u)
+                                   / Math.log1p(-1 / _mean));
+            }
+            return _low == _high ? _low : random.nextLong(_low, _high + 1);
+        }
+
+        /** Bounds of a uniform distribution. */
+        private final long _low, _high;
+
+        /** Mean of a geometric distribution, or 0. */
+        private final double _mean;
+    }
+
+    /** A buffered writer of single-byte characters to a file channel. */
+    private static final class Output implements AutoCloseable {
+
+        /** An output to FILE, which is truncated. */
+        Output(File file) {
+            try {
+                _channel = FileChannel.open(
+                    file.toPath(), StandardOpenOption.CREATE,
+                    StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            } catch (IOException excp) {
+                throw error("could not open %s", file);
+            }
+        }
+
+        /** Write C, which must be a single-byte character. */
+        void put(char c) {
+            check(c);
+            if (!_buffer.hasRemaining()) {
+                flush();
+            }
+            _buffer.put((byte) c);
+            _written += 1;
+        }
+
+        /** Write the single-byte characters of S. */
+        void put(String s) {
+            for (int i = 0; i < s.length(); i += 1) {
+                put(s.charAt(i));
+            }
+        }
+
+        /** Return the number of bytes written. */
+        long written() {
+            return _written;
+        }
+
+        /** Write out the buffer. */
+        private void flush() {
+            _buffer.flip();
+            try {
+                while (_buffer.hasRemaining()) {
+                    _channel.write(_buffer);
+                }
+            } catch (IOException excp) {
+                throw error("could not write output");
+            }
+            _buffer.clear();
+        }
+
+        @Override
+        public void close() {
+            flush();
+            try {
+                _channel.close();
+            } catch (IOException excp) {
+                throw error("could not write output");
+            }
+        }
+
+        /** Destination. */
+        private final FileChannel _channel;
+
+        /** Bytes not yet written. */
+        private final ByteBuffer _buffer = ByteBuffer.allocateDirect(1 << 20);
+
+        /** Number of bytes put. */
+        private long _written;
+    }
+
+    /** Largest character that can be written. */
+    static final char MAX_CHAR = '\u00ff';
+
+    /** Longest message line written. */
+    static final int LINE_LENGTH = 70;
+
+    /** Source of random choices. */
+    private final SplittableRandom _random;
+
+}
@@ -0,0 +1,153 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+import java.util.List;
+import java.util.SplittableRandom;
+
+import static enigma.TestUtils.*;
+
+public class WorkloadGeneratorTest {
+
+    /** Return a new temporary file. */
+    private File temp() throws IOException {
+        File file = File.createTempFile("enigma", ".txt");
+        file.deleteOnExit();
+        return file;
+    }
+
+    /** Return the lines of FILE. */
+    private List<String> lines(File file) throws IOException {
+        return Files.readAllLines(file.toPath(), StandardCharsets.ISO_8859_1);
+    }
+
+    /** Run Main with the command-line arguments ARGS. */
+    private void run(String... args) {
+        new Main(args).process();
+    }
+
+    /** Write a configuration and about 64K of messages generated with
+     *  SEED to CONFIG and MESSAGES. */
+    private void generate(long seed, File config, File messages) {
+        run("--generate-config=20", "--seed=" + seed, "--alphabet=AZ",
+            config.getPath());
+        run("--generate=64K", "--seed=" + seed, "--lengths=exp:100",
+            "--plugs=0-13", "--lines=1-4", config.getPath(),
+            messages.getPath());
+    }
+
+    @Test
+    public void testSameSeed() throws IOException {
+        File config1 = temp(), messages1 = temp(),
+            config2 = temp(), messages2 = temp();
+        generate(7, config1, messages1);
+        generate(7, config2, messages2);
+        assertTrue(Arrays.equals(Files.readAllBytes(config1.toPath()),
+                                 Files.readAllBytes(config2.toPath())));
+        assertTrue(Arrays.equals(Files.readAllBytes(messages1.toPath()),
+                                 Files.readAllBytes(messages2.toPath())));
+        generate(8, config2, messages2);
+        assertFalse(Arrays.equals(Files.readAllBytes(config1.toPath()),
+                                  Files.readAllBytes(config2.toPath())));
+        assertFalse(Arrays.equals(Files.readAllBytes(messages1.toPath()),
+                                  Files.readAllBytes(messages2.toPath())));
+    }
+
+    @Test
+    public void testRoundTrip() throws IOException {
+        File config = temp(), messages = temp();
+        generate(3, config, messages);
+        assertTrue(messages.length() >= 64 << 10);
+        File cipher = temp();
+        run(config.getPath(), messages.getPath(), cipher.getPath());
+
+        List<String> plain = lines(messages);
+        String encrypted = String.join("", lines(cipher)).replace(" ", "");
+        StringBuilder letters = new StringBuilder();
+        StringBuilder reply = new StringBuilder();
+        int settings = 0;
+        for (String line : plain) {
+            if (MessageLexer.isSettings(line)) {
+                reply.append(line);
+                settings += 1;
+            } else {
+                assertTrue(line.length() <= WorkloadGenerator.LINE_LENGTH);
+                int next = letters.length();
+                reply.append(encrypted, next, next + line.length());
+                letters.append(line);
+            }
+            reply.append('\n');
+        }
+        assertTrue(settings > 1);
+        assertEquals(letters.length(), encrypted.length());
+        File input = temp(), output = temp();
+        Files.write(input.toPath(),
+                    reply.toString().getBytes(StandardCharsets.ISO_8859_1));
+        run(config.getPath(), input.getPath(), output.getPath());
+        assertEquals(letters.toString(),
+                     String.join("", lines(output)).replace(" ", ""));
+    }
+
+    @Test
+    public void testDistribution() {
+        SplittableRandom random = new SplittableRandom(0);
+        WorkloadGenerator.Distribution fixed =
+            new WorkloadGenerator.Distribution("7");
+        WorkloadGenerator.Distribution uniform =
+            new WorkloadGenerator.Distribution("3-5");
+        WorkloadGenerator.Distribution geometric =
+            new WorkloadGenerator.Distribution("exp:4");
+        int[] seen = new int[6];
+        long sum = 0;
+        int samples = 100000;
+        for (int i = 0; i < samples; i += 1) {
+            assertEquals(7, fixed.next(random));
+            long n = uniform.next(random);
+            assertTrue(n >= 3 && n <= 5);
+            seen[(int) n] += 1;
+            long g = geometric.next(random);
+            assertTrue(g >= 1);
+            sum += g;
+        }
+        assertTrue(seen[3] > 0 && seen[4] > 0 && seen[5] > 0);
+        assertEquals(4.0, (double) sum / samples, 0.1);
+        assertEquals(0, new WorkloadGenerator.Distribution("0")
+                     .next(random));
+
+        String[] bad = {"", "x", "-3", "5-3", "1-2-3", "exp:", "exp:0.5",
+                        "exp:x", "3-"};
+        for (String spec : bad) {
+            try {
+                new WorkloadGenerator.Distribution(spec);
+                fail("accepted " + spec);
+            } catch (EnigmaException excp) {
+                assertEquals("bad distribution: " + spec, excp.getMessage());
+            }
+        }
+    }
+
+    @Test
+    public void testBadConfig() throws IOException {
+        WorkloadGenerator generator = new WorkloadGenerator(0);
+        try {
+            generator.writeConfig(temp(), 'A', 'Y', 20, 5, 3);
+            fail("wrote reflectors for an odd alphabet");
+        } catch (EnigmaException excp) {
+            assertEquals("reflectors need an alphabet of even size",
+                         excp.getMessage());
+        }
+        try {
+            generator.writeConfig(temp(), '\u00f0', '\u0101', 20, 5, 3);
+            fail("wrote characters of more than one byte");
+        } catch (EnigmaException excp) {
+            assertTrue(excp.getMessage().startsWith("cannot generate"));
+        }
+    }
+}
@@ -0,0 +1,349 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.LongBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import static enigma.EnigmaException.error;
+
+/** Zygalski's perforated sheets for a machine, used to recover rotor
+ *  orders and ring settings from doubly-enciphered indicators sent with
+ *  their ground settings in the clear.  An indicator whose Kth and
+ *  (K+3)th letters coincide (a female) shows that the product of the
+ *  enciphering permutations at the Kth and (K+3)th key presses from its
+ *  ground setting has a fixed point.  For each rotor order and each K,
+ *  a sheet records the rotor offsets (settings less ring settings) at
+ *  which that product has one, supposing that only the last rotor moves;
+ *  whether it does is unaffected by the plugboard.  The ring settings
+ *  shift the offsets of every indicator by the same amount, so stacking
+ *  the sheets of all females, each displaced by its ground setting,
+ *  leaves open only the shifts (and hence ring settings) consistent with
+ *  them all.  Since the rotors turn over at settings, not offsets, the
+ *  ground setting shows which females move other rotors within their
+ *  indicators; as with the original sheets, those are not used.
+ *
+ *  A sheet is held as one long per row of positions that differ only in
+ *  the setting of the last rotor, with bit C (and bit C + the alphabet
+ *  size) set if the position whose last setting is C is perforated.
+ *  Doubling the row lets a whole row be displaced cyclically with one
+ *  shift, so alphabets may have at most 32 characters.  A sheet file
+ *  consists of a header (ints MAGIC, VERSION, the number of rotor orders
+ *  and the number of rows, then the long identifier of the configuration)
+ *  and, for each rotor order, its SHEETS sheets.
+ *  @author Aadiraj Batlaw
+ */
+class Zygalski {
+
+    /** The sheets of the settings of KEYS for machine M stored in
+     *  FILE. */
+    Zygalski(Machine M, KeySpace keys, File file) {
+        _machine = M;
+        _keys = keys;
+        _size = keys.alphabet().size();
+        _rows = rows(keys);
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            if (in.size() != HEADER_BYTES
+                + 8L * keys.orders() * SHEETS * _rows) {
+                throw error("malformed sheets %s", file);
+            }
+            MappedByteBuffer map =
+                in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+            if (map.getInt(0) != MAGIC || map.getInt(4) != VERSION
+                || map.getInt(8) != keys.orders()
+                || map.getInt(12) != _rows) {
+                throw error("malformed sheets %s", file);
+            }
+            map.position(HEADER_BYTES);
+            _sheets = map.slice().asLongBuffer();
+        } catch (IOException excp) {
+            throw error("could not read sheets %s", file);
+        }
+    }
+
+    /** Return the sheets of the settings of KEYS for machine M, whose
+     *  configuration is identified by CONFIGID, reading them from FILE
+     *  if it holds them and otherwise first building them there. */
+    static Zygalski open(Machine M, KeySpace keys, long configId,
+                         File file) {
+        if (!holds(file, keys, configId)) {
+            build(M, keys, configId, file);
+        }
+        return new Zygalski(M, keys, file);
+    }
+
+    /** Return the keys (order * positions + ring settings, the ring
+     *  settings numbered as starting positions are) consistent with the
+     *  doubly-enciphered INDICATORS, each sent at the starting position
+     *  given by the corresponding element of GROUNDS.  Both are alphabet
+     *  indices.  Rotor orders are examined in parallel, and any whose
+     *  sheets no female can be used with is passed over. */
+    long[] attack(int[][] grounds, int[][] indicators) {
+        List<int[]> females = new ArrayList<>();
+        for (int m = 0; m < indicators.length; m += 1) {
+            for (int k = 0; k < SHEETS; k += 1) {
+                if (indicators[m][k] == indicators[m][k + SHEETS]) {
+                    int[] female = Arrays.copyOf(grounds[m],
+                                                 grounds[m].length + 1);
+                    female[grounds[m].length] = k;
+                    females.add(female);
+                }
+            }
+        }
+        if (females.isEmpty()) {
+            throw error("no females among the indicators");
+        }
+        return IntStream.range(0, _keys.orders()).parallel()
+            .mapToObj(order -> survivors(order, females))
+            .flatMapToLong(Arrays::stream).toArray();
+    }
+
+    /** Return the keys of rotor order ORDER left open by stacking the
+     *  sheets of FEMALES, each a ground setting followed by the index of
+     *  its sheet. */
+    private long[] survivors(int order, List<int[]> females) {
+        Machine machine = _machine.copy();
+        machine.insertRotors(_keys.order(order));
+        long all = -1L >>> (64 - _size);
+        long[] open = new long[_rows];
+        Arrays.fill(open, all);
+        int digits = females.get(0).length - 2;
+        int[] weights = new int[digits];
+        for (int i = digits - 1, w = 1; i >= 0; i -= 1, w *= _size) {
+            weights[i] = w;
+        }
+        int[] source = new int[digits], moved = new int[digits];
+        boolean used = false;
+        for (int[] female : females) {
+            if (!fastOnly(machine, Arrays.copyOf(female, digits + 1))) {
+                continue;
+            }
+            used = true;
+            int last = female[digits];
+            int base = (order * SHEETS + female[digits + 1]) * _rows;
+            int row = 0;
+            for (int i = 0; i < digits; i += 1) {
+                source[i] = female[i];
+                moved[i] = 0;
+                row += female[i] * weights[i];
+            }
+            long any = 0;
+            for (int r = 0; r < _rows; r += 1) {
+                open[r] &= (_sheets.get(base + row) >>> last) & all;
+                any |= open[r];
+                for (int i = digits - 1; i >= 0; i -= 1) {
+                    int from = source[i];
+                    source[i] = from + 1 == _size ? 0 : from + 1;
+                    row += (source[i] - from) * weights[i];
+                    moved[i] += 1;
+                    if (moved[i] < _size) {
+                        break;
+                    }
+                    moved[i] = 0;
+                }
+            }
+            if (any == 0) {
+                return new long[0];
+            }
+        }
+        if (!used) {
+            return new long[0];
+        }
+        long[] result = new long[0];
+        int n = 0;
+        for (int r = 0; r < _rows; r += 1) {
+            for (long word = open[r]; word != 0; word &= word - 1) {
+                int c = Long.numberOfTrailingZeros(word);
+                long rings = 0;
+                for (int i = 0, x = r; i < digits; i += 1) {
+                    int shift = x / weights[i];
+                    x %= weights[i];
+                    rings = rings * _size + (_size - shift) % _size;
+                }
+                rings = rings * _size + (_size - c) % _size;
+                if (n == result.length) {
+                    result = Arrays.copyOf(result, 2 * n + 1);
+                }
+                result[n] = order * _keys.positions() + rings;
+                n += 1;
+            }
+        }
+        return Arrays.copyOf(result, n);
+    }
+
+    /** Write the sheets of all settings of KEYS for machine M, whose
+     *  configuration is identified by CONFIGID, to FILE, building those
+     *  of different rotor orders in parallel.  M is not disturbed. */
+    static void build(Machine M, KeySpace keys, long configId, File file) {
+        int rows = rows(keys);
+        int size = M.alphabet().size();
+        if (HEADER_BYTES + 8L * keys.orders() * SHEETS * rows
+            > Integer.MAX_VALUE) {
+            throw error("too many settings for sheets");
+        }
+        try (FileChannel out =
+                 FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                  StandardOpenOption.WRITE,
+                                  StandardOpenOption.TRUNCATE_EXISTING)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            header.putInt(MAGIC).putInt(VERSION).putInt(keys.orders())
+                .putInt(rows).putLong(configId).flip();
+            write(out, header, 0);
+            IntStream.range(0, keys.orders()).parallel().forEach(order -> {
+                ByteBuffer bytes = ByteBuffer.allocate(8 * SHEETS * rows);
+                LongBuffer sheets = bytes.asLongBuffer();
+                Machine machine = M.copy();
+                machine.setPlugboard(new Permutation("", M.alphabet()));
+                machine.insertRotors(keys.order(order));
+                machine.setRings(new int[machine.numRotors() - 1]);
+                int[] position = new int[machine.numRotors() - 1];
+                int[][] steps = new int[size][size];
+                for (int row = 0; row < rows; row += 1) {
+                    for (int c = 0; c < size; c += 1) {
+                        position[position.length - 1] = c;
+                        machine.setRotors(position);
+                        for (int p = 0; p < size; p += 1) {
+                            steps[c][p] = machine.transform(p);
+                        }
+                    }
+                    for (int c = 0; c < size; c += 1) {
+                        for (int k = 0; k < SHEETS; k += 1) {
+                            if (hasFixedPoint(
+                                    steps[(c + k + 1) % size],
+                                    steps[(c + k + SHEETS + 1) % size])) {
+                                int i = k * rows + row;
+                                sheets.put(i, sheets.get(i)
+                                           | (1L << c) | (1L << (c + size)));
+                            }
+                        }
+                    }
+                    for (int i = position.length - 2; i >= 0; i -= 1) {
+                        position[i] = (position[i] + 1) % size;
+                        if (position[i] != 0) {
+                            break;
+                        }
+                    }
+                }
+                write(out, bytes,
+                      HEADER_BYTES + 8L * SHEETS * rows * order);
+            });
+        } catch (IOException excp) {
+            throw error("could not write %s", file);
+        }
+    }
+
+    /** Return true iff FILE holds the sheets of KEYS for the configuration
+     *  identified by CONFIGID. */
+    private static boolean holds(File file, KeySpace keys, long configId) {
+        if (!file.isFile()) {
+            return false;
+        }
+        try (FileChannel in = FileChannel.open(file.toPath(),
+                                               StandardOpenOption.READ)) {
+            ByteBuffer header = ByteBuffer.allocate(HEADER_BYTES);
+            while (header.hasRemaining() && in.read(header) >= 0) {
+                continue;
+            }
+            return !header.hasRemaining()
+                && header.getInt(0) == MAGIC && header.getInt(4) == VERSION
+                && header.getInt(8) == keys.orders()
+                && header.getInt(12) == rows(keys)
+                && header.getLong(16) == configId
+                && in.size() == HEADER_BYTES
+                    + 8L * keys.orders() * SHEETS * rows(keys);
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Write all of BYTES to OUT starting at byte POSITION. */
+    private static void write(FileChannel out, ByteBuffer bytes,
+                              long position) {
+        try {
+            while (bytes.hasRemaining()) {
+                position += out.write(bytes, position);
+            }
+        } catch (IOException excp) {
+            throw error("could not write sheets");
+        }
+    }
+
+    /** Return true iff no rotor of M but the last moves in the course of
+     *  an indicator sent at the starting position GROUND. */
+    private static boolean fastOnly(Machine M, int[] ground) {
+        M.setRotors(ground);
+        for (int k = 0; k < Cyclometer.INDICATOR; k += 1) {
+            M.advance();
+        }
+        Rotor[] slots = M.getRotorSlots();
+        for (int i = 0; i < ground.length - 1; i += 1) {
+            if (slots[i + 1].setting() != ground[i]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff the product of the permutations FIRST and SECOND,
+     *  as arrays of images, has a fixed point. */
+    private static boolean hasFixedPoint(int[] first, int[] second) {
+        for (int c = 0; c < first.length; c += 1) {
+            if (second[first[c]] == c) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the number of rows of each sheet of KEYS. */
+    private static int rows(KeySpace keys) {
+        int size = keys.alphabet().size();
+        if (size > MAX_ALPHABET) {
+            throw error("alphabet too large for sheets");
+        }
+        if (keys.positions() / size > Integer.MAX_VALUE) {
+            throw error("too many settings for sheets");
+        }
+        return (int) (keys.positions() / size);
+    }
+
+    /** Number of sheets for each rotor order, one for each pair of
+     *  letters of an indicator that may coincide. */
+    static final int SHEETS = Cyclometer.INDICATOR / 2;
+
+    /** Identifies sheet files ("EZYG"). */
+    static final int MAGIC = 0x455a5947;
+
+    /** Format version of sheet files. */
+    static final int VERSION = 1;
+
+    /** Size of the file header in bytes. */
+    static final int HEADER_BYTES = 24;
+
+    /** Largest alphabet whose rows fit twice in a long. */
+    static final int MAX_ALPHABET = 32;
+
+    /** The machine, whose rotors are copied to find turnovers. */
+    private final Machine _machine;
+
+    /** The settings covered. */
+    private final KeySpace _keys;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rows of each sheet. */
+    private final int _rows;
+
+    /** The sheets of each rotor order in turn. */
+    private final LongBuffer _sheets;
+
+}
@@ -0,0 +1,87 @@
+package enigma;
+
+import org.junit.Test;
+
+import static org.junit.Assert.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Random;
+
+import static enigma.TestUtils.*;
+
+public class ZygalskiTest {
+
+    /** Return a new temporary file name that does not yet exist. */
+    private File temp() throws IOException {
+        File file = File.createTempFile("enigma", ".zyg");
+        file.deleteOnExit();
+        assertTrue(file.delete());
+        return file;
+    }
+
+    @Test
+    public void testAttack() throws IOException {
+        Machine sender = navalMachine();
+        sender.insertRotors(new String[] {"B", "II", "III", "I"});
+        int[] rings = {3, 17, 8};
+        sender.setRings(rings);
+        sender.setPlugboard(new Permutation("(AQ) (BW) (CF) (KZ) (MX)",
+                                            UPPER));
+        Random random = new Random(0);
+        int count = 300;
+        int[][] grounds = new int[count][], indicators = new int[count][];
+        for (int m = 0; m < count; m += 1) {
+            grounds[m] = new int[] {random.nextInt(26), random.nextInt(26),
+                                    random.nextInt(26)};
+            int[] key = {random.nextInt(26), random.nextInt(26),
+                         random.nextInt(26)};
+            sender.setRotors(grounds[m]);
+            indicators[m] = new int[Cyclometer.INDICATOR];
+            for (int k = 0; k < indicators[m].length; k += 1) {
+                indicators[m][k] = sender.convert(key[k % key.length]);
+            }
+        }
+
+        Machine machine = navalMachine();
+        KeySpace keys = new KeySpace(machine);
+        int order = -1;
+        for (int k = 0; k < keys.orders(); k += 1) {
+            if (Arrays.equals(keys.order(k),
+                              new String[] {"B", "II", "III", "I"})) {
+                order = k;
+            }
+        }
+        assertTrue(order >= 0);
+        long expected = order * keys.positions()
+            + (rings[0] * 26 + rings[1]) * 26 + rings[2];
+
+        File file = temp();
+        Zygalski sheets = Zygalski.open(machine, keys, 42, file);
+        long[] found = sheets.attack(grounds, indicators);
+        assertTrue("planted key not found",
+                   Arrays.stream(found).anyMatch(key -> key == expected));
+        assertTrue("too many survivors: " + found.length, found.length < 10);
+
+        long modified = file.lastModified();
+        assertArrayEquals(found, Zygalski.open(machine, keys, 42, file)
+                          .attack(grounds, indicators));
+        assertEquals("sheets rebuilt for the same configuration",
+                     modified, file.lastModified());
+    }
+
+    @Test
+    public void testNoFemales() throws IOException {
+        Machine machine = navalMachine();
+        KeySpace keys = new KeySpace(machine);
+        Zygalski sheets = Zygalski.open(machine, keys, 1, temp());
+        try {
+            sheets.attack(new int[][] {{0, 0, 0}},
+                          new int[][] {{0, 1, 2, 3, 4, 5}});
+            fail("attacked without females");
+        } catch (EnigmaException excp) {
+            /* Expected. */
+        }
+    }
+}